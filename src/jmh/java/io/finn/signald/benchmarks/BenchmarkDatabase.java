@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.benchmarks;
+
+import io.finn.signald.Config;
+import io.finn.signald.db.Database;
+import io.finn.signald.db.IServersTable;
+import io.finn.signald.exceptions.InvalidProxyException;
+import io.finn.signald.exceptions.ServerNotFoundException;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.UUID;
+import org.flywaydb.core.Flyway;
+import org.whispersystems.signalservice.api.push.ACI;
+
+// a freshly migrated database with one account in it, for a single benchmark trial. "sqlite" uses a temporary file and "postgresql"
+// starts a throwaway server from the embedded-postgres binaries, so neither needs a database server installed or running.
+public class BenchmarkDatabase implements AutoCloseable {
+  public static final ACI ACI_SELF = ACI.from(UUID.fromString("00000000-0000-4000-0000-000000000000"));
+  public static final String E164_SELF = "+12024561414";
+
+  private final File sqliteFile;
+  private final EmbeddedPostgres postgres;
+
+  public BenchmarkDatabase(String backend) throws IOException, SQLException, ServerNotFoundException, InvalidProxyException {
+    switch (backend) {
+    case "sqlite":
+      sqliteFile = File.createTempFile("signald-benchmark", ".sqlite");
+      postgres = null;
+      Config.testInit("sqlite:" + sqliteFile.getAbsolutePath());
+      break;
+    case "postgresql":
+      sqliteFile = null;
+      postgres = EmbeddedPostgres.start();
+      Config.testInit("postgresql://postgres@localhost:" + postgres.getPort() + "/postgres");
+      break;
+    default:
+      throw new IllegalArgumentException("unknown database backend: " + backend);
+    }
+
+    Flyway.configure().locations("db/migration/" + backend).dataSource(Config.getDb(), Config.getDbUser(), Config.getDbPassword()).load().migrate();
+
+    // creates the default server, which the account row refers to
+    Database.Get().ServersTable.getServer(IServersTable.DEFAULT_SERVER);
+    Database.Get().AccountsTable.add(E164_SELF, ACI_SELF, IServersTable.DEFAULT_SERVER);
+  }
+
+  public Database get() { return Database.Get(ACI_SELF); }
+
+  @Override
+  public void close() throws IOException {
+    Database.close();
+    if (postgres != null) {
+      postgres.close();
+    }
+    if (sqliteFile != null && !sqliteFile.delete()) {
+      System.err.println("benchmark database file couldn't be deleted: " + sqliteFile.getAbsolutePath());
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.benchmarks;
+
+import static io.finn.signald.benchmarks.BenchmarkDatabase.ACI_SELF;
+import static io.finn.signald.benchmarks.BenchmarkDatabase.E164_SELF;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.protobuf.ByteString;
+import io.finn.signald.clientprotocol.Framing;
+import io.finn.signald.clientprotocol.v1.ClientMessageWrapper;
+import io.finn.signald.clientprotocol.v1.IncomingMessage;
+import io.finn.signald.util.JSONUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.security.SecureRandom;
+import java.util.Optional;
+import java.util.UUID;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.whispersystems.signalservice.api.messages.SignalServiceContent;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos.Content;
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos.DataMessage;
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos.GroupContextV2;
+import org.whispersystems.signalservice.internal.serialize.SignalServiceAddressProtobufSerializer;
+import org.whispersystems.signalservice.internal.serialize.protos.MetadataProto;
+import org.whispersystems.signalservice.internal.serialize.protos.SignalServiceContentProto;
+
+// serializing an IncomingMessage for a subscriber the way each framing does it: json is the String that used to be built for every
+// message, jsonBytes is how Framing used to write a line of JSON, smile is a Smile frame, and write is the whole path a message takes
+// now, streamed into a reused buffer and written to a socket that discards it. The bytes counter is what each one puts on the
+// socket (json counts characters, which are all ASCII here). It's reported as a rate next to the operation rate, so dividing the two
+// gives bytes per message. The message is a decrypted text message, either direct or sent to a group.
+@State(Scope.Benchmark)
+public class FramingBenchmark {
+  private static final int TYPE_CIPHERTEXT = 1;
+  private static final String BODY = "are we still on for lunch tomorrow? I can book a table for 12:30 if that works for everyone";
+
+  @Param({"direct", "group"}) public String kind;
+
+  private final ObjectMapper mapper = JSONUtil.GetMapper();
+  private final SmileFactory smileFactory = new SmileFactory();
+  private BenchmarkDatabase database;
+  private ClientMessageWrapper message;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Wire {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Connection {
+    public Socket socket;
+    public long written;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SocketException {
+      OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) {
+          written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+          written += len;
+        }
+      };
+      socket = new Socket((SocketImpl)null) {
+        @Override
+        public OutputStream getOutputStream() {
+          return out;
+        }
+      };
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    database = new BenchmarkDatabase("sqlite");
+    SignalServiceAddress sender = new SignalServiceAddress(ACI.from(UUID.randomUUID()), "+12024561111");
+    long timestamp = System.currentTimeMillis();
+    SignalServiceEnvelope envelope = new SignalServiceEnvelope(TYPE_CIPHERTEXT, Optional.of(sender), 1, timestamp, new byte[512], timestamp, timestamp,
+                                                               UUID.randomUUID().toString(), ACI_SELF.toString(), true, null, false);
+    message = new ClientMessageWrapper(E164_SELF, new IncomingMessage(envelope, decrypt(envelope, dataMessage(timestamp)), ACI_SELF));
+  }
+
+  private DataMessage dataMessage(long timestamp) {
+    DataMessage.Builder dataMessage = DataMessage.newBuilder().setBody(BODY).setTimestamp(timestamp).setExpireTimer(604800).setProfileKey(ByteString.copyFrom(randomBytes(32)));
+    if (kind.equals("group")) {
+      dataMessage.setGroupV2(GroupContextV2.newBuilder().setMasterKey(ByteString.copyFrom(randomBytes(32))).setRevision(3));
+    }
+    return dataMessage.build();
+  }
+
+  // the content MessageReceiver gets back from decrypting the envelope
+  private static SignalServiceContent decrypt(SignalServiceEnvelope envelope, DataMessage dataMessage) throws Exception {
+    MetadataProto metadata = MetadataProto.newBuilder()
+                                 .setAddress(SignalServiceAddressProtobufSerializer.toProtobuf(envelope.getSourceAddress()))
+                                 .setSenderDevice(envelope.getSourceDevice())
+                                 .setTimestamp(envelope.getTimestamp())
+                                 .setServerReceivedTimestamp(envelope.getServerReceivedTimestamp())
+                                 .setServerDeliveredTimestamp(envelope.getServerDeliveredTimestamp())
+                                 .setNeedsReceipt(true)
+                                 .setServerGuid(envelope.getServerGuid())
+                                 .build();
+    SignalServiceContentProto content = SignalServiceContentProto.newBuilder()
+                                            .setLocalAddress(SignalServiceAddressProtobufSerializer.toProtobuf(new SignalServiceAddress(ACI_SELF, E164_SELF)))
+                                            .setMetadata(metadata)
+                                            .setContent(Content.newBuilder().setDataMessage(dataMessage))
+                                            .build();
+    return SignalServiceContent.createFromProto(content);
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new SecureRandom().nextBytes(bytes);
+    return bytes;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception { database.close(); }
+
+  @Benchmark
+  public String json(Wire wire) throws Exception {
+    String line = mapper.writeValueAsString(message);
+    wire.bytes += line.length() + 1;
+    return line;
+  }
+
+  @Benchmark
+  public byte[] jsonBytes(Wire wire) throws Exception {
+    byte[] line = mapper.writeValueAsBytes(message);
+    wire.bytes += line.length + 1;
+    return line;
+  }
+
+  @Benchmark
+  public byte[] smile(Wire wire) throws Exception {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    mapper.writeValue(smileFactory.createGenerator(buffer), message);
+    byte[] frame = buffer.toByteArray();
+    wire.bytes += frame.length + 4;
+    return frame;
+  }
+
+  @Benchmark
+  public void write(Connection connection, Wire wire) throws Exception {
+    long written = connection.written;
+    Framing.write(connection.socket, mapper, message);
+    wire.bytes += connection.written - written;
+  }
+}
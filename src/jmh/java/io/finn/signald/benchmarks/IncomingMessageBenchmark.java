@@ -0,0 +1,63 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.benchmarks;
+
+import static io.finn.signald.benchmarks.BenchmarkDatabase.ACI_SELF;
+import static io.finn.signald.benchmarks.BenchmarkDatabase.E164_SELF;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.finn.signald.clientprotocol.v1.ClientMessageWrapper;
+import io.finn.signald.clientprotocol.v1.IncomingMessage;
+import io.finn.signald.util.JSONUtil;
+import java.util.Optional;
+import java.util.UUID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+// the work done for each subscriber when an envelope is broadcast: building the IncomingMessage (which looks up the account and the
+// sender) and serializing it the way SubscribeRequest does.
+@State(Scope.Benchmark)
+public class IncomingMessageBenchmark {
+  private static final int TYPE_CIPHERTEXT = 1;
+
+  @Param({"sqlite", "postgresql"}) public String backend;
+
+  private final ObjectMapper mapper = JSONUtil.GetMapper();
+  private BenchmarkDatabase database;
+  private SignalServiceEnvelope envelope;
+  private IncomingMessage message;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    database = new BenchmarkDatabase(backend);
+    SignalServiceAddress sender = new SignalServiceAddress(ACI.from(UUID.randomUUID()), "+12024561111");
+    envelope = new SignalServiceEnvelope(TYPE_CIPHERTEXT, Optional.of(sender), 1, System.currentTimeMillis(), new byte[512], System.currentTimeMillis(),
+                                         System.currentTimeMillis(), UUID.randomUUID().toString(), ACI_SELF.toString(), true, null, false);
+    message = new IncomingMessage(envelope, null, ACI_SELF);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception { database.close(); }
+
+  @Benchmark
+  public IncomingMessage build() throws Exception { return new IncomingMessage(envelope, null, ACI_SELF); }
+
+  @Benchmark
+  public String serialize() throws Exception { return mapper.writeValueAsString(new ClientMessageWrapper(E164_SELF, message)); }
+
+  @Benchmark
+  public String buildAndSerialize() throws Exception { return mapper.writeValueAsString(new ClientMessageWrapper(E164_SELF, new IncomingMessage(envelope, null, ACI_SELF))); }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.benchmarks;
+
+import static io.finn.signald.benchmarks.BenchmarkDatabase.ACI_SELF;
+
+import io.finn.signald.db.IMessageQueueTable;
+import io.finn.signald.db.StoredEnvelope;
+import java.util.Optional;
+import java.util.UUID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+// an envelope's trip through the queue: stored when it arrives from the server, read back by the receive loop and deleted once
+// it has been handled. Each invocation leaves the queue as it found it.
+@State(Scope.Benchmark)
+public class MessageQueueTableBenchmark {
+  private static final int TYPE_CIPHERTEXT = 1;
+
+  @Param({"sqlite", "postgresql"}) public String backend;
+
+  private BenchmarkDatabase database;
+  private IMessageQueueTable messageQueue;
+  private SignalServiceEnvelope envelope;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    database = new BenchmarkDatabase(backend);
+    messageQueue = database.get().MessageQueueTable;
+    SignalServiceAddress sender = new SignalServiceAddress(ACI.from(UUID.randomUUID()), "+12024561111");
+    envelope = new SignalServiceEnvelope(TYPE_CIPHERTEXT, Optional.of(sender), 1, System.currentTimeMillis(), new byte[512], System.currentTimeMillis(),
+                                         System.currentTimeMillis(), UUID.randomUUID().toString(), ACI_SELF.toString(), true, null, false);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception { database.close(); }
+
+  @Benchmark
+  public long storeNextDelete() throws Exception {
+    messageQueue.storeEnvelope(envelope);
+    StoredEnvelope stored = messageQueue.nextEnvelope();
+    messageQueue.deleteEnvelope(stored.databaseId);
+    return stored.databaseId;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.benchmarks;
+
+import io.finn.signald.db.IRecipientsTable;
+import io.finn.signald.db.Recipient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+// looking up known recipients, by service ID alone and by service ID and phone number, in a table of a few thousand
+@State(Scope.Benchmark)
+public class RecipientsTableBenchmark {
+  private static final int RECIPIENTS = 5000;
+
+  @Param({"sqlite", "postgresql"}) public String backend;
+
+  private BenchmarkDatabase database;
+  private IRecipientsTable recipients;
+  private final List<SignalServiceAddress> addresses = new ArrayList<>(RECIPIENTS);
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    database = new BenchmarkDatabase(backend);
+    recipients = database.get().RecipientsTable;
+    for (int i = 0; i < RECIPIENTS; i++) {
+      SignalServiceAddress address = new SignalServiceAddress(ACI.from(UUID.randomUUID()), String.format("+1202555%04d", i));
+      recipients.get(address);
+      addresses.add(address);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception { database.close(); }
+
+  private SignalServiceAddress nextAddress() {
+    next = (next + 1) % RECIPIENTS;
+    return addresses.get(next);
+  }
+
+  @Benchmark
+  public Recipient getByServiceId() throws Exception { return recipients.get(nextAddress().getServiceId()); }
+
+  @Benchmark
+  public Recipient getByAddress() throws Exception { return recipients.get(nextAddress()); }
+}
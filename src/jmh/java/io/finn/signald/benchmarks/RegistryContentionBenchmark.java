@@ -0,0 +1,82 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.benchmarks;
+
+import io.finn.signald.db.Database;
+import io.finn.signald.db.IServersTable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.whispersystems.signalservice.api.push.ACI;
+
+// looking up per-account objects from many threads at once, the way every store and table calls Database.Get. synchronizedHashMap
+// is how the registries used to work, concurrentHashMap is how they work now, and databaseGet is the real Database.Get.
+@State(Scope.Benchmark)
+@Threads(32)
+public class RegistryContentionBenchmark {
+  private static final int ACCOUNTS = 64;
+
+  private final ACI[] accounts = new ACI[ACCOUNTS];
+  private final Map<ACI, Object> synchronizedRegistry = new HashMap<>();
+  private final ConcurrentHashMap<ACI, Object> concurrentRegistry = new ConcurrentHashMap<>();
+  private BenchmarkDatabase database;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    database = new BenchmarkDatabase("sqlite");
+    for (int i = 0; i < ACCOUNTS; i++) {
+      accounts[i] = ACI.from(UUID.randomUUID());
+      synchronizedRegistry.put(accounts[i], new Object());
+      concurrentRegistry.put(accounts[i], new Object());
+      Database.Get(accounts[i]);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception { database.close(); }
+
+  @Benchmark
+  public Object synchronizedHashMap() {
+    ACI aci = randomAccount();
+    synchronized (synchronizedRegistry) {
+      Object o = synchronizedRegistry.get(aci);
+      if (o == null) {
+        o = new Object();
+        synchronizedRegistry.put(aci, o);
+      }
+      return o;
+    }
+  }
+
+  @Benchmark
+  public Object concurrentHashMap() {
+    ACI aci = randomAccount();
+    Object o = concurrentRegistry.get(aci);
+    if (o != null) {
+      return o;
+    }
+    return concurrentRegistry.computeIfAbsent(aci, k -> new Object());
+  }
+
+  @Benchmark
+  public IServersTable databaseGet() {
+    // return a field so the lookup can't be optimized away
+    return Database.Get(randomAccount()).ServersTable;
+  }
+
+  private ACI randomAccount() { return accounts[ThreadLocalRandom.current().nextInt(ACCOUNTS)]; }
+}
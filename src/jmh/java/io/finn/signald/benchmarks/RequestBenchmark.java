@@ -0,0 +1,42 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.finn.signald.clientprotocol.Request;
+import io.finn.signald.util.JSONUtil;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+// parsing, validating and dispatching a request from a client, up to and including writing the reply. Neither request touches the
+// database: version is answered without one, and the send request is rejected by validation before it would need one.
+@State(Scope.Thread)
+public class RequestBenchmark {
+  private static final String VERSION_REQUEST = "{\"type\":\"version\",\"id\":\"benchmark\"}";
+  private static final String INVALID_SEND_REQUEST = "{\"type\":\"send\",\"version\":\"v1\",\"id\":\"benchmark\",\"username\":\"+12024561414\"," +
+                                                     "\"account\":\"00000000-0000-4000-0000-000000000000\"}";
+
+  private final ObjectMapper mapper = JSONUtil.GetMapper();
+  private final Socket socket = new DiscardingSocket();
+
+  @Benchmark
+  public Request version() throws IOException { return new Request(mapper.readTree(VERSION_REQUEST), socket); }
+
+  @Benchmark
+  public Request validationFailure() throws IOException { return new Request(mapper.readTree(INVALID_SEND_REQUEST), socket); }
+
+  // replies are written to the socket's output stream, which throws them away
+  private static class DiscardingSocket extends Socket {
+    @Override
+    public OutputStream getOutputStream() { return OutputStream.nullOutputStream(); }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.benchmarks;
+
+import io.finn.signald.db.ISenderKeySharedTable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+import org.whispersystems.signalservice.api.push.DistributionId;
+
+// recording that a sender key distribution was shared with every device in a large group, one row per statement as a distribution
+// used to be written, and as one batch. Each invocation takes milliseconds, so the per-invocation setup that gives it a fresh
+// distribution (and clears the last one) doesn't skew the timing.
+@State(Scope.Benchmark)
+public class SenderKeySharedTableBenchmark {
+  private static final int DEVICES_PER_RECIPIENT = 4;
+
+  @Param({"sqlite", "postgresql"}) public String backend;
+  @Param({"1000"}) public int devices;
+
+  private BenchmarkDatabase database;
+  private ISenderKeySharedTable senderKeyShared;
+  private List<SignalProtocolAddress> addresses;
+  private DistributionId distributionId;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    database = new BenchmarkDatabase(backend);
+    senderKeyShared = database.get().SenderKeySharedTable;
+    addresses = new ArrayList<>(devices);
+    String recipient = null;
+    for (int i = 0; i < devices; i++) {
+      if (i % DEVICES_PER_RECIPIENT == 0) {
+        recipient = UUID.randomUUID().toString();
+      }
+      addresses.add(new SignalProtocolAddress(recipient, i % DEVICES_PER_RECIPIENT + 1));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception { database.close(); }
+
+  @Setup(Level.Invocation)
+  public void newDistribution() { distributionId = DistributionId.create(); }
+
+  @TearDown(Level.Invocation)
+  public void clearDistribution() { senderKeyShared.clearSenderKeySharedWith(addresses); }
+
+  @Benchmark
+  public void markPerDevice() {
+    for (SignalProtocolAddress address : addresses) {
+      senderKeyShared.markSenderKeySharedWith(distributionId, List.of(address));
+    }
+  }
+
+  @Benchmark
+  public void markBatched() { senderKeyShared.markSenderKeySharedWith(distributionId, addresses); }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.benchmarks;
+
+import io.finn.signald.db.ISessionsTable;
+import java.util.UUID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+import org.signal.libsignal.protocol.state.SessionRecord;
+
+// session reads and writes, which happen for every envelope decrypted and every message sent
+@State(Scope.Benchmark)
+public class SessionsTableBenchmark {
+  @Param({"sqlite", "postgresql"}) public String backend;
+
+  private BenchmarkDatabase database;
+  private ISessionsTable sessions;
+  private SignalProtocolAddress address;
+  private SessionRecord record;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    database = new BenchmarkDatabase(backend);
+    sessions = database.get().SessionsTable;
+    address = new SignalProtocolAddress(UUID.randomUUID().toString(), 1);
+    record = new SessionRecord();
+    sessions.storeSession(address, record);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception { database.close(); }
+
+  @Benchmark
+  public SessionRecord load() { return sessions.loadSession(address); }
+
+  @Benchmark
+  public void store() { sessions.storeSession(address, record); }
+}
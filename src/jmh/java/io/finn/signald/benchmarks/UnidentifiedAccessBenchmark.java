@@ -0,0 +1,84 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.benchmarks;
+
+import static io.finn.signald.benchmarks.BenchmarkDatabase.ACI_SELF;
+import static io.finn.signald.benchmarks.BenchmarkDatabase.E164_SELF;
+
+import io.finn.signald.Account;
+import io.finn.signald.db.Database;
+import io.finn.signald.db.Recipient;
+import io.finn.signald.util.UnidentifiedAccessUtil;
+import java.security.SecureRandom;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.signal.libsignal.metadata.certificate.SenderCertificate;
+import org.signal.libsignal.metadata.certificate.ServerCertificate;
+import org.signal.libsignal.protocol.ecc.Curve;
+import org.signal.libsignal.protocol.ecc.ECKeyPair;
+import org.signal.libsignal.zkgroup.profiles.ProfileKey;
+import org.whispersystems.signalservice.api.crypto.UnidentifiedAccessPair;
+import org.whispersystems.signalservice.api.push.ACI;
+
+// building sealed sender access for a recipient, which is done for every recipient of every message sent. The account has a fresh
+// sender certificate, so the server is never asked for one.
+@State(Scope.Benchmark)
+public class UnidentifiedAccessBenchmark {
+  @Param({"sqlite", "postgresql"}) public String backend;
+
+  private BenchmarkDatabase database;
+  private UnidentifiedAccessUtil unidentifiedAccess;
+  private Recipient recipient;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    database = new BenchmarkDatabase(backend);
+    Database db = database.get();
+    Account account = new Account(ACI_SELF);
+
+    ECKeyPair trustRoot = Curve.generateKeyPair();
+    ECKeyPair serverKey = Curve.generateKeyPair();
+    ServerCertificate serverCertificate = new ServerCertificate(trustRoot.getPrivateKey(), 1, serverKey.getPublicKey());
+    SenderCertificate senderCertificate = new SenderCertificate(serverCertificate, serverKey.getPrivateKey(), ACI_SELF.toString(), Optional.of(E164_SELF),
+                                                                Curve.generateKeyPair().getPublicKey(), 1, System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+    account.setSenderCertificate(senderCertificate.getSerialized());
+    account.setSenderCertificateRefreshTimeNow();
+
+    db.ProfileKeysTable.setProfileKey(account.getSelf(), randomProfileKey());
+    recipient = db.RecipientsTable.get(ACI.from(UUID.randomUUID()));
+    db.ProfileKeysTable.setProfileKey(recipient, randomProfileKey());
+
+    unidentifiedAccess = new UnidentifiedAccessUtil(ACI_SELF);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception { database.close(); }
+
+  private static ProfileKey randomProfileKey() throws Exception {
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+    return new ProfileKey(key);
+  }
+
+  @Benchmark
+  public Optional<UnidentifiedAccessPair> getAccessPairFor() throws Exception {
+    Optional<UnidentifiedAccessPair> accessPair = unidentifiedAccess.getAccessPairFor(recipient);
+    if (accessPair.isEmpty()) {
+      throw new AssertionError("no unidentified access for recipient");
+    }
+    return accessPair;
+  }
+}
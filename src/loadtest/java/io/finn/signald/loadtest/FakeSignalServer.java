@@ -0,0 +1,469 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.finn.signald.util.KeyUtil;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.signal.libsignal.metadata.certificate.SenderCertificate;
+import org.signal.libsignal.metadata.certificate.ServerCertificate;
+import org.signal.libsignal.protocol.IdentityKey;
+import org.signal.libsignal.protocol.IdentityKeyPair;
+import org.signal.libsignal.protocol.SessionBuilder;
+import org.signal.libsignal.protocol.SessionCipher;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+import org.signal.libsignal.protocol.ecc.Curve;
+import org.signal.libsignal.protocol.ecc.ECKeyPair;
+import org.signal.libsignal.protocol.ecc.ECPublicKey;
+import org.signal.libsignal.protocol.message.CiphertextMessage;
+import org.signal.libsignal.protocol.state.PreKeyBundle;
+import org.signal.libsignal.protocol.state.impl.InMemorySignalProtocolStore;
+import org.signal.libsignal.protocol.util.KeyHelper;
+import org.signal.libsignal.zkgroup.ServerSecretParams;
+import org.whispersystems.signalservice.internal.push.PushTransportDetails;
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos.Content;
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos.DataMessage;
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos.Envelope;
+import org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketMessage;
+import org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
+import org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketResponseMessage;
+
+// a stand-in for the Signal chat, CDN and storage services that does just enough for signald to register accounts, upload keys,
+// send messages and receive them over the websocket. Everything is kept in memory.
+//
+// It also plays a set of remote users. Their key bundles are served to signald so it can start sessions with them, messages sent
+// to them are accepted and dropped, and deliver() has one of them send a real, encrypted message to a registered account. Requests
+// for anything else get an empty 200 (or a 404 for GETs), and each such route is logged once.
+public class FakeSignalServer implements AutoCloseable {
+  private static final Logger logger = LogManager.getLogger();
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static final int DEVICE_ID = 1;
+
+  private final MockWebServer server = new MockWebServer();
+  private final ECKeyPair trustRoot = Curve.generateKeyPair();
+  private final ECKeyPair certificateKey = Curve.generateKeyPair();
+  private final ServerCertificate serverCertificate;
+  private final ServerSecretParams zkParams = ServerSecretParams.generate();
+
+  // registered accounts, by e164 (used as the login until registration completes) and by ACI
+  private final Map<String, LocalAccount> accounts = new ConcurrentHashMap<>();
+  private final List<RemoteUser> remoteUsers = new ArrayList<>();
+  private final Map<String, RemoteUser> remoteUsersByUuid = new ConcurrentHashMap<>();
+  private final Set<String> unhandledRoutes = ConcurrentHashMap.newKeySet();
+
+  // when each message passed to deliver() was written to the account's websocket, by account ACI and message timestamp
+  private final Map<String, Long> deliveredAt = new ConcurrentHashMap<>();
+  private final AtomicLong lastTimestamp = new AtomicLong();
+  private final AtomicLong messagesAccepted = new AtomicLong();
+  private final AtomicLong messagesDelivered = new AtomicLong();
+
+  public FakeSignalServer(int remoteUserCount) throws Exception {
+    serverCertificate = new ServerCertificate(trustRoot.getPrivateKey(), 1, certificateKey.getPublicKey());
+    for (int i = 0; i < remoteUserCount; i++) {
+      RemoteUser user = new RemoteUser();
+      remoteUsers.add(user);
+      remoteUsersByUuid.put(user.uuid.toString(), user);
+    }
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) { return handleHttp(request); }
+    });
+  }
+
+  public void start(int port) throws IOException { server.start(port); }
+
+  public String getUrl() { return "http://" + server.getHostName() + ":" + server.getPort(); }
+
+  public byte[] getZkPublicParams() { return zkParams.getPublicParams().serialize(); }
+
+  public byte[] getUnidentifiedSenderRoot() { return trustRoot.getPublicKey().serialize(); }
+
+  public List<UUID> getRemoteUsers() {
+    List<UUID> uuids = new ArrayList<>();
+    for (RemoteUser user : remoteUsers) {
+      uuids.add(user.uuid);
+    }
+    return uuids;
+  }
+
+  // true once the account has uploaded keys and has its websocket open, so messages can be delivered to it
+  public boolean isReady(String aci) {
+    LocalAccount account = accounts.get(aci);
+    return account != null && account.identityKey != null && account.signedPreKey != null && account.webSocket != null;
+  }
+
+  public long getMessagesAccepted() { return messagesAccepted.get(); }
+
+  public long getMessagesDelivered() { return messagesDelivered.get(); }
+
+  // returns the System.nanoTime() at which a message delivered to the account was written to its websocket, or null
+  public Long takeDeliveryTime(String aci, long timestamp) { return deliveredAt.remove(aci + ":" + timestamp); }
+
+  // has a random remote user send a text message to the account. Returns false if the account isn't ready for it yet.
+  public boolean deliver(String aci) throws Exception {
+    LocalAccount account = accounts.get(aci);
+    if (account == null || !isReady(aci)) {
+      return false;
+    }
+    RemoteUser sender = remoteUsers.get(ThreadLocalRandom.current().nextInt(remoteUsers.size()));
+    long timestamp = nextTimestamp();
+
+    Content content = Content.newBuilder().setDataMessage(DataMessage.newBuilder().setBody("load test message " + timestamp).setTimestamp(timestamp)).build();
+    byte[] plaintext = new PushTransportDetails().getPaddedMessageBody(content.toByteArray());
+
+    CiphertextMessage ciphertext;
+    SignalProtocolAddress address = new SignalProtocolAddress(aci, DEVICE_ID);
+    synchronized (sender) {
+      if (!sender.store.containsSession(address)) {
+        new SessionBuilder(sender.store, address).process(account.getPreKeyBundle());
+      }
+      ciphertext = new SessionCipher(sender.store, address).encrypt(plaintext);
+    }
+
+    Envelope.Type type = ciphertext.getType() == CiphertextMessage.PREKEY_TYPE ? Envelope.Type.PREKEY_BUNDLE : Envelope.Type.CIPHERTEXT;
+    Envelope envelope = Envelope.newBuilder()
+                            .setType(type)
+                            .setSourceUuid(sender.uuid.toString())
+                            .setSourceDevice(DEVICE_ID)
+                            .setDestinationUuid(aci)
+                            .setTimestamp(timestamp)
+                            .setServerTimestamp(System.currentTimeMillis())
+                            .setServerGuid(UUID.randomUUID().toString())
+                            .setContent(com.google.protobuf.ByteString.copyFrom(ciphertext.serialize()))
+                            .setUrgent(true)
+                            .build();
+
+    deliveredAt.put(aci + ":" + timestamp, System.nanoTime());
+    if (!sendRequest(account, "PUT", "/api/v1/message", envelope.toByteArray())) {
+      deliveredAt.remove(aci + ":" + timestamp);
+      return false;
+    }
+    messagesDelivered.incrementAndGet();
+    return true;
+  }
+
+  private long nextTimestamp() { return lastTimestamp.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis())); }
+
+  private boolean sendRequest(LocalAccount account, String verb, String path, byte[] body) {
+    WebSocket webSocket = account.webSocket;
+    if (webSocket == null) {
+      return false;
+    }
+    WebSocketRequestMessage.Builder request = WebSocketRequestMessage.newBuilder()
+                                                  .setId(ThreadLocalRandom.current().nextLong())
+                                                  .setVerb(verb)
+                                                  .setPath(path)
+                                                  .addHeaders("X-Signal-Timestamp:" + System.currentTimeMillis());
+    if (body != null) {
+      request.setBody(com.google.protobuf.ByteString.copyFrom(body));
+    }
+    WebSocketMessage message = WebSocketMessage.newBuilder().setType(WebSocketMessage.Type.REQUEST).setRequest(request).build();
+    return webSocket.send(ByteString.of(message.toByteArray()));
+  }
+
+  private MockResponse handleHttp(RecordedRequest request) {
+    String target = request.getPath();
+    String login = getLogin(request.getHeader("Authorization"));
+
+    if (target.startsWith("/v1/websocket")) {
+      String query = URI.create(target).getQuery();
+      if (query != null) {
+        for (String param : query.split("&")) {
+          if (param.startsWith("login=")) {
+            login = stripDevice(param.substring("login=".length()));
+          }
+        }
+      }
+      return new MockResponse().withWebSocketUpgrade(new Connection(login == null ? null : accounts.get(login)));
+    }
+
+    Reply reply;
+    try {
+      reply = route(request.getMethod(), target, login, request.getBody().readByteArray());
+    } catch (Exception e) {
+      logger.warn("error handling {} {}", request.getMethod(), target, e);
+      reply = new Reply(500, "{}");
+    }
+    return new MockResponse().setResponseCode(reply.status).setHeader("Content-Type", "application/json").setBody(new String(reply.body, StandardCharsets.UTF_8));
+  }
+
+  private Reply route(String method, String target, String login, byte[] body) throws Exception {
+    URI uri = URI.create(target);
+    String path = uri.getPath().endsWith("/") ? uri.getPath().substring(0, uri.getPath().length() - 1) : uri.getPath();
+    String query = uri.getQuery() == null ? "" : uri.getQuery();
+    String[] parts = path.split("/");
+    LocalAccount account = login == null ? null : accounts.get(login);
+
+    if (method.equals("GET") && path.matches("/v1/accounts/(sms|voice)/code/.+")) {
+      return Reply.ok("{}");
+    }
+    if (method.equals("PUT") && path.startsWith("/v1/accounts/code/")) {
+      return verify(login, body);
+    }
+    if (method.equals("GET") && path.equals("/v1/accounts/whoami") && account != null) {
+      return Reply.ok(account.toJson().toString());
+    }
+    if (path.equals("/v2/keys") && account != null) {
+      if (method.equals("PUT")) {
+        if (!query.contains("identity=pni")) {
+          account.storeKeys(mapper.readTree(body));
+        }
+        return Reply.ok("");
+      }
+      if (method.equals("GET")) {
+        return Reply.ok(mapper.createObjectNode().put("count", query.contains("identity=pni") ? 100 : account.preKeys.size()).toString());
+      }
+    }
+    if (method.equals("PUT") && path.equals("/v2/keys/signed") && account != null) {
+      account.storeSignedPreKey(mapper.readTree(body));
+      return Reply.ok("");
+    }
+    if (method.equals("GET") && path.startsWith("/v2/keys/") && parts.length == 5) {
+      RemoteUser user = remoteUsersByUuid.get(parts[3]);
+      return user == null ? new Reply(404, "{}") : Reply.ok(user.getPreKeyResponse().toString());
+    }
+    if (method.equals("PUT") && path.startsWith("/v1/messages/") && parts.length == 4) {
+      JsonNode messages = mapper.readTree(body).get("messages");
+      messagesAccepted.addAndGet(messages == null ? 0 : messages.size());
+      return Reply.ok("{\"needsSync\":false}");
+    }
+    if (method.equals("GET") && path.equals("/v1/certificate/delivery") && account != null && account.identityKey != null) {
+      SenderCertificate certificate = new SenderCertificate(serverCertificate, certificateKey.getPrivateKey(), account.aci.toString(), Optional.of(account.e164),
+                                                            account.identityKey.getPublicKey(), DEVICE_ID, System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+      return Reply.ok(mapper.createObjectNode().put("certificate", encode(certificate.getSerialized())).toString());
+    }
+    if (method.equals("GET") && path.equals("/v1/keepalive")) {
+      return Reply.ok("");
+    }
+
+    if (unhandledRoutes.add(method + " " + path)) {
+      logger.info("no handler for {} {}, answering with an empty response", method, path);
+    }
+    return method.equals("GET") ? new Reply(404, "{}") : Reply.ok("{}");
+  }
+
+  private Reply verify(String e164, byte[] body) throws IOException {
+    if (e164 == null) {
+      return new Reply(401, "{}");
+    }
+    JsonNode attributes = mapper.readTree(body);
+    LocalAccount account = accounts.computeIfAbsent(e164, k -> new LocalAccount(e164, attributes.path("registrationId").asInt()));
+    accounts.put(account.aci.toString(), account);
+    return Reply.ok(account.toJson().put("storageCapable", false).toString());
+  }
+
+  private static String getLogin(String authorization) {
+    if (authorization == null || !authorization.startsWith("Basic ")) {
+      return null;
+    }
+    String credentials = new String(Base64.getDecoder().decode(authorization.substring("Basic ".length())), StandardCharsets.UTF_8);
+    int separator = credentials.indexOf(':');
+    return stripDevice(separator < 0 ? credentials : credentials.substring(0, separator));
+  }
+
+  // logins for linked devices are uuid.deviceId
+  private static String stripDevice(String login) {
+    int separator = login.indexOf('.');
+    return separator < 0 ? login : login.substring(0, separator);
+  }
+
+  private static String encode(byte[] bytes) { return Base64.getEncoder().encodeToString(bytes); }
+
+  // keys are sent with or without padding, the decoder accepts both
+  private static byte[] decode(String encoded) { return Base64.getDecoder().decode(encoded); }
+
+  @Override
+  public void close() throws IOException {
+    for (LocalAccount account : accounts.values()) {
+      WebSocket webSocket = account.webSocket;
+      if (webSocket != null) {
+        webSocket.close(1000, "shutting down");
+      }
+    }
+    server.shutdown();
+  }
+
+  private static class Reply {
+    private final int status;
+    private final byte[] body;
+
+    private Reply(int status, String body) {
+      this.status = status;
+      this.body = body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Reply ok(String body) { return new Reply(200, body); }
+  }
+
+  private static class LocalAccount {
+    private final String e164;
+    private final UUID aci = UUID.randomUUID();
+    private final UUID pni = UUID.randomUUID();
+    private final int registrationId;
+    private volatile IdentityKey identityKey;
+    private volatile SignedPreKey signedPreKey;
+    private final Queue<PreKey> preKeys = new ConcurrentLinkedQueue<>();
+    private volatile WebSocket webSocket;
+
+    private LocalAccount(String e164, int registrationId) {
+      this.e164 = e164;
+      this.registrationId = registrationId;
+    }
+
+    private ObjectNode toJson() { return mapper.createObjectNode().put("uuid", aci.toString()).put("pni", pni.toString()).put("number", e164); }
+
+    private void storeKeys(JsonNode state) throws Exception {
+      if (state.hasNonNull("identityKey")) {
+        identityKey = new IdentityKey(decode(state.get("identityKey").asText()), 0);
+      }
+      if (state.hasNonNull("signedPreKey")) {
+        storeSignedPreKey(state.get("signedPreKey"));
+      }
+      for (JsonNode preKey : state.path("preKeys")) {
+        preKeys.add(new PreKey(preKey.get("keyId").asInt(), Curve.decodePoint(decode(preKey.get("publicKey").asText()), 0)));
+      }
+    }
+
+    private void storeSignedPreKey(JsonNode signedPreKey) throws Exception {
+      this.signedPreKey = new SignedPreKey(signedPreKey.get("keyId").asInt(), Curve.decodePoint(decode(signedPreKey.get("publicKey").asText()), 0),
+                                           decode(signedPreKey.get("signature").asText()));
+    }
+
+    // uses up one of the account's one-time pre keys, if it has any left
+    private PreKeyBundle getPreKeyBundle() {
+      PreKey preKey = preKeys.poll();
+      SignedPreKey signed = signedPreKey;
+      return new PreKeyBundle(registrationId, DEVICE_ID, preKey == null ? -1 : preKey.id, preKey == null ? null : preKey.publicKey, signed.id, signed.publicKey,
+                              signed.signature, identityKey);
+    }
+  }
+
+  private static class PreKey {
+    private final int id;
+    private final ECPublicKey publicKey;
+
+    private PreKey(int id, ECPublicKey publicKey) {
+      this.id = id;
+      this.publicKey = publicKey;
+    }
+  }
+
+  private static class SignedPreKey {
+    private final int id;
+    private final ECPublicKey publicKey;
+    private final byte[] signature;
+
+    private SignedPreKey(int id, ECPublicKey publicKey, byte[] signature) {
+      this.id = id;
+      this.publicKey = publicKey;
+      this.signature = signature;
+    }
+  }
+
+  private static class RemoteUser {
+    private final UUID uuid = UUID.randomUUID();
+    private final IdentityKeyPair identityKeyPair = KeyUtil.generateIdentityKeyPair();
+    private final int registrationId = KeyHelper.generateRegistrationId(false);
+    private final InMemorySignalProtocolStore store = new InMemorySignalProtocolStore(identityKeyPair, registrationId);
+    private final ECKeyPair signedPreKey = Curve.generateKeyPair();
+    private final byte[] signedPreKeySignature;
+
+    private RemoteUser() throws Exception { signedPreKeySignature = Curve.calculateSignature(identityKeyPair.getPrivateKey(), signedPreKey.getPublicKey().serialize()); }
+
+    // a single device with no one-time pre key, which is enough to start a session
+    private ObjectNode getPreKeyResponse() {
+      ObjectNode response = mapper.createObjectNode().put("identityKey", encode(identityKeyPair.getPublicKey().serialize()));
+      ArrayNode devices = response.putArray("devices");
+      ObjectNode device = devices.addObject().put("deviceId", DEVICE_ID).put("registrationId", registrationId);
+      device.putObject("signedPreKey").put("keyId", 1).put("publicKey", encode(signedPreKey.getPublicKey().serialize())).put("signature", encode(signedPreKeySignature));
+      return response;
+    }
+  }
+
+  // one websocket connection from signald. Requests from signald are routed like HTTP requests, and the connection is recorded on
+  // the account so messages can be delivered over it.
+  private class Connection extends WebSocketListener {
+    private final LocalAccount account;
+
+    private Connection(LocalAccount account) { this.account = account; }
+
+    @Override
+    public void onOpen(WebSocket webSocket, Response response) {
+      if (account != null) {
+        account.webSocket = webSocket;
+        sendRequest(account, "PUT", "/api/v1/queue/empty", null);
+      }
+    }
+
+    @Override
+    public void onMessage(WebSocket webSocket, ByteString bytes) {
+      try {
+        WebSocketMessage message = WebSocketMessage.parseFrom(bytes.toByteArray());
+        if (message.getType() != WebSocketMessage.Type.REQUEST) {
+          return; // acknowledgements of delivered envelopes
+        }
+        WebSocketRequestMessage request = message.getRequest();
+        String login = account == null ? null : account.aci.toString();
+        Reply reply = route(request.getVerb(), request.getPath(), login, request.getBody().toByteArray());
+        WebSocketResponseMessage response = WebSocketResponseMessage.newBuilder()
+                                                 .setId(request.getId())
+                                                 .setStatus(reply.status)
+                                                 .setMessage(reply.status == 200 ? "OK" : "Error")
+                                                 .addHeaders("Content-Type:application/json")
+                                                 .setBody(com.google.protobuf.ByteString.copyFrom(reply.body))
+                                                 .build();
+        webSocket.send(ByteString.of(WebSocketMessage.newBuilder().setType(WebSocketMessage.Type.RESPONSE).setResponse(response).build().toByteArray()));
+      } catch (Exception e) {
+        logger.warn("error handling websocket message", e);
+      }
+    }
+
+    @Override
+    public void onClosing(WebSocket webSocket, int code, String reason) { webSocket.close(code, reason); }
+
+    @Override
+    public void onClosed(WebSocket webSocket, int code, String reason) { disconnected(webSocket); }
+
+    @Override
+    public void onFailure(WebSocket webSocket, Throwable t, Response response) { disconnected(webSocket); }
+
+    private void disconnected(WebSocket webSocket) {
+      if (account != null && account.webSocket == webSocket) {
+        account.webSocket = null;
+      }
+    }
+  }
+}
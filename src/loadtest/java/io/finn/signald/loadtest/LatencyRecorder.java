@@ -0,0 +1,38 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.loadtest;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// keeps every sample so percentiles are exact. A load test run records at most a few million of them.
+class LatencyRecorder {
+  private final Queue<Long> samples = new ConcurrentLinkedQueue<>();
+  private final AtomicLong errors = new AtomicLong();
+
+  void record(long nanos) { samples.add(nanos); }
+
+  void recordError() { errors.incrementAndGet(); }
+
+  long getCount() { return samples.size(); }
+
+  long getErrors() { return errors.get(); }
+
+  // in milliseconds, or NaN if nothing has been recorded
+  double percentile(double percentile) {
+    long[] sorted = samples.stream().mapToLong(Long::longValue).toArray();
+    if (sorted.length == 0) {
+      return Double.NaN;
+    }
+    Arrays.sort(sorted);
+    int index = (int)Math.ceil(percentile / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, index)] / 1e6;
+  }
+}
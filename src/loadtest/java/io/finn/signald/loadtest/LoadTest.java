@@ -0,0 +1,211 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.finn.signald.BuildConfig;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import picocli.CommandLine;
+
+// drives a running signald with synthetic accounts. It starts a FakeSignalServer, adds it to signald with add_server, registers
+// and subscribes the accounts on it, then has each account send and receive messages at the configured rates. At the end it
+// reports request throughput and latency, and the lag between the fake server delivering a message and signald broadcasting it
+// to the subscribed client.
+//
+// signald must already be running, e.g. ./gradlew loadtest --args='--socket /var/run/signald/signald.sock --accounts 50'
+@CommandLine.Command(name = "signald-loadtest", mixinStandardHelpOptions = true, description = "generate load against a running signald using a local fake Signal server")
+public class LoadTest implements Callable<Integer> {
+  private static final Logger logger = LogManager.getLogger();
+  private static final String VERIFICATION_CODE = "123456";
+  // requests made once per account before the load starts, which are reported without a throughput
+  private static final Set<String> SETUP_REQUESTS = Set.of("add_server", "register", "verify", "subscribe");
+
+  @CommandLine.Option(names = {"-s", "--socket"}, required = true, description = "the signald socket to connect to") String socketPath;
+  @CommandLine.Option(names = {"--accounts"}, defaultValue = "10", description = "number of synthetic accounts to register") int accountCount;
+  @CommandLine.Option(names = {"--remote-users"}, defaultValue = "20", description = "number of remote users on the fake server to send to and receive from")
+  int remoteUserCount;
+  @CommandLine.Option(names = {"--send-rate"}, defaultValue = "1", description = "messages per second sent by each account") double sendRate;
+  @CommandLine.Option(names = {"--receive-rate"}, defaultValue = "1", description = "messages per second delivered to each account") double receiveRate;
+  @CommandLine.Option(names = {"--duration"}, defaultValue = "60", description = "seconds to generate load for") int duration;
+  @CommandLine.Option(names = {"--port"}, defaultValue = "0", description = "port for the fake Signal server to listen on, 0 picks a free port") int port;
+
+  private final Map<String, LatencyRecorder> latencies = new ConcurrentHashMap<>();
+  private final LatencyRecorder receiveLag = new LatencyRecorder();
+  private final AtomicLong undeliverable = new AtomicLong();
+  private FakeSignalServer server;
+
+  public static void main(String[] args) { System.exit(new CommandLine(new LoadTest()).execute(args)); }
+
+  @Override
+  public Integer call() throws Exception {
+    server = new FakeSignalServer(remoteUserCount);
+    server.start(port);
+    logger.info("fake Signal server listening on {}", server.getUrl());
+
+    List<SignaldClient> clients = new ArrayList<>();
+    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    try {
+      String serverUuid;
+      try (SignaldClient control = new SignaldClient(socketPath, latencies, message -> {})) {
+        serverUuid = control.send(addServerRequest()).get(30, TimeUnit.SECONDS).get("data").asText();
+      }
+
+      List<String> accounts = new ArrayList<>();
+      for (int i = 0; i < accountCount; i++) {
+        SignaldClient client = new SignaldClient(socketPath, latencies, this::onUnsolicitedMessage);
+        clients.add(client);
+        accounts.add(registerAndSubscribe(client, serverUuid));
+      }
+      awaitReady(accounts);
+      logger.info("{} accounts registered and subscribed, generating load for {} seconds", accountCount, duration);
+
+      List<UUID> remoteUsers = server.getRemoteUsers();
+      for (int i = 0; i < accountCount; i++) {
+        SignaldClient client = clients.get(i);
+        String account = accounts.get(i);
+        if (sendRate > 0) {
+          scheduler.scheduleAtFixedRate(() -> send(client, account, remoteUsers), initialDelay(sendRate), (long)(1e9 / sendRate), TimeUnit.NANOSECONDS);
+        }
+        if (receiveRate > 0) {
+          scheduler.scheduleAtFixedRate(() -> deliver(account), initialDelay(receiveRate), (long)(1e9 / receiveRate), TimeUnit.NANOSECONDS);
+        }
+      }
+
+      long started = System.nanoTime();
+      TimeUnit.SECONDS.sleep(duration);
+      scheduler.shutdown();
+      // throughput is over the time requests were being issued, the drain below only collects the latencies of the last ones
+      double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+      // let in-flight requests and deliveries finish
+      TimeUnit.SECONDS.sleep(5);
+      report(elapsedSeconds);
+    } finally {
+      scheduler.shutdownNow();
+      for (SignaldClient client : clients) {
+        client.close();
+      }
+      server.close();
+    }
+    return 0;
+  }
+
+  // spreads each account's first request over one period, so accounts don't all fire at once
+  private static long initialDelay(double rate) { return ThreadLocalRandom.current().nextLong(Math.max(1, (long)(1e9 / rate))); }
+
+  private ObjectNode addServerRequest() {
+    String url = server.getUrl();
+    Base64.Encoder base64 = Base64.getEncoder();
+    ObjectNode request = SignaldClient.newRequest("add_server");
+    ObjectNode s = request.putObject("server");
+    s.put("service_url", url);
+    ArrayNode cdns = s.putArray("cdn_urls");
+    cdns.addObject().put("number", 0).put("url", url);
+    cdns.addObject().put("number", 2).put("url", url);
+    s.put("contact_discovery_url", url);
+    s.put("key_backup_url", url);
+    s.put("storage_url", url);
+    s.put("zk_param", base64.encodeToString(server.getZkPublicParams()));
+    s.put("unidentified_sender_root", base64.encodeToString(server.getUnidentifiedSenderRoot()));
+    // the fake server is plain http, but signald still needs a trust store to build its clients
+    s.put("ca", BuildConfig.CA);
+    s.put("key_backup_service_name", BuildConfig.KEY_BACKUP_SERVICE_NAME);
+    s.put("key_backup_service_id", BuildConfig.KEY_BACKUP_SERVICE_ID);
+    s.put("key_backup_mrenclave", BuildConfig.KEY_BACKUP_MRENCLAVE);
+    s.put("cds_mrenclave", BuildConfig.CDS_MRENCLAVE);
+    s.put("ias_ca", BuildConfig.CDS_CA);
+    return request;
+  }
+
+  // returns the new account's ACI
+  private String registerAndSubscribe(SignaldClient client, String serverUuid) throws Exception {
+    // numbers are random so repeated runs against the same signald don't collide
+    String e164 = String.format("+1%03d555%04d", ThreadLocalRandom.current().nextInt(200, 1000), ThreadLocalRandom.current().nextInt(10000));
+    client.send(SignaldClient.newRequest("register").put("account", e164).put("server", serverUuid)).get(30, TimeUnit.SECONDS);
+    JsonNode verified = client.send(SignaldClient.newRequest("verify").put("account", e164).put("code", VERIFICATION_CODE)).get(60, TimeUnit.SECONDS);
+    String aci = verified.get("data").get("address").get("uuid").asText();
+    client.send(SignaldClient.newRequest("subscribe").put("account", aci)).get(30, TimeUnit.SECONDS);
+    return aci;
+  }
+
+  // accounts upload their keys and connect their websocket in the background after subscribing
+  private void awaitReady(List<String> accounts) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+    for (String account : accounts) {
+      while (!server.isReady(account)) {
+        if (System.nanoTime() > deadline) {
+          throw new IllegalStateException("account " + account + " did not upload keys and connect to the fake server in time");
+        }
+        TimeUnit.MILLISECONDS.sleep(100);
+      }
+    }
+  }
+
+  private void send(SignaldClient client, String account, List<UUID> remoteUsers) {
+    UUID recipient = remoteUsers.get(ThreadLocalRandom.current().nextInt(remoteUsers.size()));
+    ObjectNode request = SignaldClient.newRequest("send").put("account", account).put("messageBody", "load test message");
+    request.putObject("recipientAddress").put("uuid", recipient.toString());
+    client.send(request);
+  }
+
+  private void deliver(String account) {
+    try {
+      if (!server.deliver(account)) {
+        undeliverable.incrementAndGet();
+      }
+    } catch (Exception e) {
+      logger.warn("error delivering message to {}", account, e);
+      undeliverable.incrementAndGet();
+    }
+  }
+
+  private void onUnsolicitedMessage(JsonNode message) {
+    if (!"IncomingMessage".equals(message.path("type").asText())) {
+      return;
+    }
+    JsonNode data = message.path("data");
+    if (!data.has("data_message")) {
+      return; // receipts and sync messages
+    }
+    Long deliveredAt = server.takeDeliveryTime(message.path("account").asText(), data.path("timestamp").asLong());
+    if (deliveredAt != null) {
+      receiveLag.record(System.nanoTime() - deliveredAt);
+    }
+  }
+
+  private void report(double elapsedSeconds) {
+    System.out.printf("%d accounts, %d remote users, %.1f seconds%n%n", accountCount, remoteUserCount, elapsedSeconds);
+    System.out.printf("%-24s %10s %8s %12s %10s %10s%n", "request", "count", "errors", "requests/s", "p50 ms", "p99 ms");
+    for (Map.Entry<String, LatencyRecorder> entry : new TreeMap<>(latencies).entrySet()) {
+      LatencyRecorder recorder = entry.getValue();
+      String throughput = SETUP_REQUESTS.contains(entry.getKey()) ? "-" : String.format("%.1f", recorder.getCount() / elapsedSeconds);
+      System.out.printf("%-24s %10d %8d %12s %10.1f %10.1f%n", entry.getKey(), recorder.getCount(), recorder.getErrors(), throughput, recorder.percentile(50),
+                        recorder.percentile(99));
+    }
+    System.out.println();
+    System.out.printf("messages delivered by the fake server: %d (%d not delivered)%n", server.getMessagesDelivered(), undeliverable.get());
+    System.out.printf("messages accepted by the fake server:  %d%n", server.getMessagesAccepted());
+    System.out.printf("receive to broadcast lag: %d messages, p50 %.1f ms, p99 %.1f ms%n", receiveLag.getCount(), receiveLag.percentile(50), receiveLag.percentile(99));
+  }
+}
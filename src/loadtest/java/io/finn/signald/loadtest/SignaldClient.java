@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.newsclub.net.unix.AFUNIXSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+
+// a connection to signald's socket. Replies are matched to requests by id, and the time between writing a request and reading its
+// reply is recorded by request type. Messages that aren't replies to a request (incoming messages, listener state changes) are
+// passed to the unsolicited message handler.
+class SignaldClient implements AutoCloseable {
+  private static final Logger logger = LogManager.getLogger();
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static final AtomicLong nextId = new AtomicLong();
+
+  private final AFUNIXSocket socket;
+  private final PrintWriter out;
+  private final Map<String, PendingRequest> pending = new ConcurrentHashMap<>();
+  private final Map<String, LatencyRecorder> latencies;
+  private final Consumer<JsonNode> unsolicitedMessageHandler;
+
+  SignaldClient(String socketPath, Map<String, LatencyRecorder> latencies, Consumer<JsonNode> unsolicitedMessageHandler) throws IOException {
+    this.latencies = latencies;
+    this.unsolicitedMessageHandler = unsolicitedMessageHandler;
+    socket = AFUNIXSocket.newInstance();
+    socket.connect(AFUNIXSocketAddress.of(new File(socketPath)));
+    out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+    Thread reader = new Thread(this::read, "signald-client-reader");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  static ObjectNode newRequest(String type) { return mapper.createObjectNode().put("type", type).put("version", "v1"); }
+
+  // completes with the reply, or exceptionally if signald replied with an error or the connection closed first
+  CompletableFuture<JsonNode> send(ObjectNode request) {
+    String id = Long.toString(nextId.incrementAndGet());
+    request.put("id", id);
+    PendingRequest pendingRequest = new PendingRequest(request.get("type").asText());
+    pending.put(id, pendingRequest);
+    synchronized (out) {
+      out.println(request);
+    }
+    return pendingRequest.future;
+  }
+
+  private void read() {
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        JsonNode message = mapper.readTree(line);
+        PendingRequest request = message.hasNonNull("id") ? pending.remove(message.get("id").asText()) : null;
+        if (request == null) {
+          unsolicitedMessageHandler.accept(message);
+          continue;
+        }
+
+        LatencyRecorder recorder = latencies.computeIfAbsent(request.type, k -> new LatencyRecorder());
+        if (message.hasNonNull("error")) {
+          recorder.recordError();
+          request.future.completeExceptionally(new IOException(request.type + " failed: " + message.get("error")));
+        } else {
+          recorder.record(System.nanoTime() - request.started);
+          request.future.complete(message);
+        }
+      }
+    } catch (IOException e) {
+      if (!socket.isClosed()) {
+        logger.warn("error reading from signald", e);
+      }
+    }
+    IOException closed = new IOException("connection to signald closed");
+    pending.values().forEach(request -> request.future.completeExceptionally(closed));
+  }
+
+  @Override
+  public void close() throws IOException { socket.close(); }
+
+  private static class PendingRequest {
+    private final String type;
+    private final long started = System.nanoTime();
+    private final CompletableFuture<JsonNode> future = new CompletableFuture<>();
+
+    private PendingRequest(String type) { this.type = type; }
+  }
+}
@@ -81,6 +81,7 @@ public class Account {
 
   public void setLocalRegistrationId(int localRegistrationId) throws SQLException {
     Database.Get().AccountDataTable.set(aci, IAccountDataTable.Key.LOCAL_REGISTRATION_ID, localRegistrationId);
+    Database.Get(aci).IdentityKeysTable.getCache().setLocalRegistrationId(localRegistrationId);
   }
 
   public void setPniRegistrationId(int pniRegistrationId) throws SQLException {
@@ -130,6 +131,7 @@ public class Account {
 
   public void setACIIdentityKeyPair(IdentityKeyPair identityKeyPair) throws SQLException {
     Database.Get().AccountDataTable.set(aci, IAccountDataTable.Key.ACI_IDENTITY_KEY_PAIR, identityKeyPair.serialize());
+    Database.Get(aci).IdentityKeysTable.getCache().setIdentityKeyPair(identityKeyPair);
   }
 
   public void setPNIIdentityKeyPair(@Nullable IdentityKeyPair identityKeyPair) throws SQLException {
@@ -228,6 +230,7 @@ public class Account {
 
     logger.debug("deleting account from database");
     Database.DeleteAccount(aci, getE164());
+    SessionLock.remove(aci);
   }
 
   public void refreshIfNeeded() throws SQLException, NoSuchAccountException, ServerNotFoundException, IOException, InvalidProxyException {
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.whispersystems.signalservice.api.push.ServiceId;
+
+// decides which accounts get their own metric series. A series per account gets expensive to store and scrape once there are
+// hundreds of accounts, so by default every account shares one series with an empty account_uuid label (which prometheus treats
+// the same as no label). Accounts listed in --metrics-accounts keep their own series, and "all" restores one series per account.
+public class AccountMetrics {
+  public static final String AGGREGATED = "";
+
+  private static volatile Allowlist allowlist = new Allowlist("");
+
+  public static String label(ServiceId serviceId) { return serviceId == null ? AGGREGATED : label(serviceId.toString()); }
+
+  public static String label(UUID uuid) { return uuid == null ? AGGREGATED : label(uuid.toString()); }
+
+  public static String label(String uuid) { return isTracked(uuid) ? uuid : AGGREGATED; }
+
+  public static boolean isTracked(String uuid) {
+    if (uuid == null) {
+      return false;
+    }
+    // the list is parsed again whenever the configured value changes, since collectors are created before Config.init() runs
+    Allowlist current = allowlist;
+    String configured = Config.getMetricsAccounts();
+    if (!current.configured.equals(configured)) {
+      current = new Allowlist(configured);
+      allowlist = current;
+    }
+    return current.all || current.accounts.contains(uuid.toLowerCase());
+  }
+
+  private static class Allowlist {
+    private final String configured;
+    private final Set<String> accounts;
+    private final boolean all;
+
+    Allowlist(String configured) {
+      this.configured = configured;
+      accounts = Arrays.stream(configured.split(",")).map(String::trim).map(String::toLowerCase).filter(a -> !a.isEmpty()).collect(Collectors.toSet());
+      all = accounts.contains("all");
+    }
+  }
+}
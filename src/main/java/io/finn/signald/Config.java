@@ -35,9 +35,15 @@ public class Config {
   @CommandLine.Option(names = {"-d", "--data"}, description = "Data storage location") private static String dataPath = System.getProperty("user.home") + "/.config/signald";
   @CommandLine.Option(names = {"--database"}, description = "jdbc connection string. Defaults to sqlite:~/.config/signald/signald.db (sqlite and postgres supported)")
   private static String db;
-  @CommandLine.Option(names = {"--db-timeout"},
-                      description = "configure the database network timeout in milliseconds, only works for postgres databases. Environment variable SIGNALD_DB_TIMEOUT.")
+  @CommandLine.Option(names = {"--db-timeout"}, description = "configure the database timeout in milliseconds. For postgres this is the network timeout, for sqlite "
+                                                               + "it's how long to wait for another connection to release the write lock. Environment variable "
+                                                               + "SIGNALD_DB_TIMEOUT.")
   private static int dbTimeout = 10000;
+  @CommandLine.Option(names = {"--db-transaction-connections"}, description = "maximum number of postgres connections used for transactions at once. Transactions "
+                                                                              + "beyond this wait for a connection. sqlite always uses one, since only one "
+                                                                              + "transaction can write at a time (env SIGNALD_DB_TRANSACTION_CONNECTIONS)",
+                      paramLabel = "count")
+  private static int dbTransactionConnections = 8;
   @CommandLine.Option(names = {"--dump-protocol"}, description = "print a machine-readable description of the client protocol to stdout and exit "
                                                                  + "(https://signald.org/articles/protocol/documentation/)")
   private static boolean dumpProtocol = false;
@@ -45,6 +51,10 @@ public class Config {
   private static boolean metrics = false;
   @CommandLine.Option(names = {"--metrics-http-port"}, description = "metrics http listener port (env SIGNALD_METRICS_PORT)", defaultValue = "9595", paramLabel = "port")
   private static int metricsHttpPort;
+  @CommandLine.Option(names = {"--metrics-accounts"}, description = "comma separated list of account UUIDs to record per-account metrics for, or \"all\". Metrics for "
+                                                                    + "other accounts are aggregated without an account label (env SIGNALD_METRICS_ACCOUNTS)",
+                      paramLabel = "accounts")
+  private static String metricsAccounts = "";
   @CommandLine.Option(names = {"--log-http-requests"}, description = "log all requests send to the server. this is used for debugging but generally "
                                                                      + "should not be used otherwise (env SIGNALD_HTTP_LOGGING=true)")
   private static boolean logHttpRequests = false;
@@ -65,6 +75,40 @@ public class Config {
   @CommandLine.Option(names = {"--migrate-data"}, description = "complete all required data migrations and exit. This includes applying database migrations, moving "
                                                                 + "any data found in the legacy JSON files to the database and trusting identity keys if requested")
   private static boolean migrateData;
+  @CommandLine.Option(names = {"--group-avatar-fetch-concurrency"}, description = "maximum number of group avatars to download in the background at once "
+                                                                                 + "(env SIGNALD_GROUP_AVATAR_FETCH_CONCURRENCY)",
+                      paramLabel = "count")
+  private static int groupAvatarFetchConcurrency = 4;
+  @CommandLine.Option(names = {"--send-concurrency"}, description = "maximum number of recipients a single message is sent to at once when sending to several "
+                                                                  + "individual recipients. 1 sends to them one at a time (env SIGNALD_SEND_CONCURRENCY)",
+                      paramLabel = "count")
+  private static int sendConcurrency = 8;
+  @CommandLine.Option(names = {"--prekey-generation-concurrency"}, description = "number of threads used to generate a batch of one-time pre-keys. 1 generates them "
+                                                                              + "one at a time (env SIGNALD_PREKEY_GENERATION_CONCURRENCY)",
+                      paramLabel = "count")
+  private static int preKeyGenerationConcurrency = 1;
+  @CommandLine.Option(names = {"--idle-account-ttl"}, description = "seconds an account that isn't subscribed can go unused before its in-memory state (connections, "
+                                                                     + "thread pools, caches) is released. It is rebuilt the next time the account is used. 0 "
+                                                                     + "keeps accounts resident forever (env SIGNALD_IDLE_ACCOUNT_TTL)",
+                      paramLabel = "seconds")
+  private static int idleAccountTtl = 3600;
+  @CommandLine.Option(names = {"--max-resident-accounts"}, description = "maximum number of accounts to keep in memory. When there are more, the least recently used "
+                                                                          + "accounts that aren't subscribed are released early. 0 means no limit "
+                                                                          + "(env SIGNALD_MAX_RESIDENT_ACCOUNTS)",
+                      paramLabel = "count")
+  private static int maxResidentAccounts = 0;
+  @CommandLine.Option(names = {"--sender-key-cache-size"}, description = "maximum number of sender keys to keep decoded in memory for each account. 0 disables the "
+                                                                          + "cache (env SIGNALD_SENDER_KEY_CACHE_SIZE)",
+                      paramLabel = "count")
+  private static int senderKeyCacheSize = 1024;
+  @CommandLine.Option(names = {"--nio-socket"}, description = "serve the control socket from a single thread with non-blocking I/O instead of a thread per client "
+                                                              + "connection (env SIGNALD_NIO_SOCKET=true)")
+  private static boolean nioSocket;
+  @CommandLine.Option(names = {"--receipt-window"}, description = "milliseconds to hold delivery and read receipts for a recipient, so receipts for messages that "
+                                                                 + "arrive or are marked read together are sent as one message. 0 sends each one right away "
+                                                                 + "(env SIGNALD_RECEIPT_WINDOW)",
+                      paramLabel = "milliseconds")
+  private static int receiptWindow = 500;
 
   public static void init() throws IOException {
     if (usageHelpRequested) {
@@ -135,10 +179,50 @@ public class Config {
       metrics = Boolean.parseBoolean(System.getenv("SIGNALD_ENABLE_METRICS"));
     }
 
+    if (System.getenv("SIGNALD_METRICS_ACCOUNTS") != null) {
+      metricsAccounts = System.getenv("SIGNALD_METRICS_ACCOUNTS");
+    }
+
     if (System.getenv("SIGNALD_DB_TIMEOUT") != null) {
       dbTimeout = Integer.parseInt(System.getenv("SIGNALD_DB_TIMEOUT"));
     }
 
+    if (System.getenv("SIGNALD_DB_TRANSACTION_CONNECTIONS") != null) {
+      dbTransactionConnections = Integer.parseInt(System.getenv("SIGNALD_DB_TRANSACTION_CONNECTIONS"));
+    }
+
+    if (System.getenv("SIGNALD_GROUP_AVATAR_FETCH_CONCURRENCY") != null) {
+      groupAvatarFetchConcurrency = Integer.parseInt(System.getenv("SIGNALD_GROUP_AVATAR_FETCH_CONCURRENCY"));
+    }
+
+    if (System.getenv("SIGNALD_SEND_CONCURRENCY") != null) {
+      sendConcurrency = Integer.parseInt(System.getenv("SIGNALD_SEND_CONCURRENCY"));
+    }
+
+    if (System.getenv("SIGNALD_PREKEY_GENERATION_CONCURRENCY") != null) {
+      preKeyGenerationConcurrency = Integer.parseInt(System.getenv("SIGNALD_PREKEY_GENERATION_CONCURRENCY"));
+    }
+
+    if (System.getenv("SIGNALD_IDLE_ACCOUNT_TTL") != null) {
+      idleAccountTtl = Integer.parseInt(System.getenv("SIGNALD_IDLE_ACCOUNT_TTL"));
+    }
+
+    if (System.getenv("SIGNALD_MAX_RESIDENT_ACCOUNTS") != null) {
+      maxResidentAccounts = Integer.parseInt(System.getenv("SIGNALD_MAX_RESIDENT_ACCOUNTS"));
+    }
+
+    if (System.getenv("SIGNALD_SENDER_KEY_CACHE_SIZE") != null) {
+      senderKeyCacheSize = Integer.parseInt(System.getenv("SIGNALD_SENDER_KEY_CACHE_SIZE"));
+    }
+
+    if (System.getenv("SIGNALD_NIO_SOCKET") != null) {
+      nioSocket = Boolean.parseBoolean(System.getenv("SIGNALD_NIO_SOCKET"));
+    }
+
+    if (System.getenv("SIGNALD_RECEIPT_WINDOW") != null) {
+      receiptWindow = Integer.parseInt(System.getenv("SIGNALD_RECEIPT_WINDOW"));
+    }
+
     if (metrics) {
       if (System.getenv("SIGNALD_METRICS_PORT") != null) {
         metricsHttpPort = Integer.parseInt(System.getenv("SIGNALD_METRICS_PORT"));
@@ -237,4 +321,24 @@ public class Config {
   public static boolean isMigrateData() { return migrateData; }
 
   public static int getDBTimeout() { return dbTimeout; }
+
+  public static int getDbTransactionConnections() { return Math.max(1, dbTransactionConnections); }
+
+  public static int getGroupAvatarFetchConcurrency() { return Math.max(1, groupAvatarFetchConcurrency); }
+
+  public static int getSendConcurrency() { return Math.max(1, sendConcurrency); }
+
+  public static int getPreKeyGenerationConcurrency() { return Math.max(1, preKeyGenerationConcurrency); }
+
+  public static int getIdleAccountTtl() { return Math.max(0, idleAccountTtl); }
+
+  public static int getMaxResidentAccounts() { return Math.max(0, maxResidentAccounts); }
+
+  public static int getSenderKeyCacheSize() { return Math.max(0, senderKeyCacheSize); }
+
+  public static boolean isNioSocket() { return nioSocket; }
+
+  public static int getReceiptWindow() { return Math.max(0, receiptWindow); }
+
+  public static String getMetricsAccounts() { return metricsAccounts == null ? "" : metricsAccounts; }
 }
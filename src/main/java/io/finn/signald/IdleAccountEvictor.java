@@ -0,0 +1,126 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald;
+
+import io.finn.signald.db.Database;
+import io.finn.signald.util.AccountUsers;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.GaugeMetricFamily;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.whispersystems.signalservice.api.push.ACI;
+
+// releases the in-memory state of accounts that aren't being used: the Manager, the SignalDependencies (with its websockets, http
+// clients and thread pool) and the Database instance. Each of them is created again the next time the account is looked up.
+// Subscribed accounts are never released, since their message receiver holds on to them, and neither are accounts a request or
+// background job is using. All three are released together, so there is never an old and a new instance of one in use at once.
+public class IdleAccountEvictor extends Collector implements Runnable {
+  private static final Logger logger = LogManager.getLogger();
+  private static final Counter evictions =
+      Counter.build().name(BuildConfig.NAME + "_account_evictions_total").help("number of times an account's in-memory state was released").labelNames("reason").register();
+  private static final long MAX_SWEEP_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+  private final long ttl;
+  private final int maxResidentAccounts;
+
+  IdleAccountEvictor(long ttl, int maxResidentAccounts) {
+    this.ttl = ttl;
+    this.maxResidentAccounts = maxResidentAccounts;
+  }
+
+  public static void start() {
+    long ttl = TimeUnit.SECONDS.toMillis(Config.getIdleAccountTtl());
+    int maxResidentAccounts = Config.getMaxResidentAccounts();
+    IdleAccountEvictor evictor = new IdleAccountEvictor(ttl, maxResidentAccounts).register();
+    if (ttl == 0 && maxResidentAccounts == 0) {
+      logger.debug("idle account eviction disabled");
+      return;
+    }
+
+    long interval = ttl == 0 ? MAX_SWEEP_INTERVAL_MS : Math.max(1000, Math.min(ttl / 4, MAX_SWEEP_INTERVAL_MS));
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, IdleAccountEvictor.class.getSimpleName());
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleWithFixedDelay(evictor, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void run() {
+    try {
+      evictIdleAccounts(System.currentTimeMillis());
+    } catch (Throwable t) {
+      // an exception would cancel the scheduled sweeps
+      logger.error("error evicting idle accounts", t);
+    }
+  }
+
+  void evictIdleAccounts(long now) {
+    // an account counts as used if any of its objects were looked up
+    Map<String, Long> lastUsed = new HashMap<>();
+    Database.getLastUsed().forEach((account, t) -> lastUsed.merge(account, t, Math::max));
+    Manager.getLastUsed().forEach((account, t) -> lastUsed.merge(account, t, Math::max));
+    SignalDependencies.getLastUsed().forEach((account, t) -> lastUsed.merge(account, t, Math::max));
+
+    int resident = lastUsed.size();
+    List<Map.Entry<String, Long>> candidates = new ArrayList<>();
+    for (Map.Entry<String, Long> entry : lastUsed.entrySet()) {
+      if (!MessageReceiver.isSubscribed(entry.getKey())) {
+        candidates.add(entry);
+      }
+    }
+    // least recently used first, so they are the ones released when there are too many accounts
+    candidates.sort(Map.Entry.comparingByValue());
+
+    for (Map.Entry<String, Long> candidate : candidates) {
+      String reason;
+      if (ttl > 0 && now - candidate.getValue() > ttl) {
+        reason = "idle";
+      } else if (maxResidentAccounts > 0 && resident > maxResidentAccounts) {
+        reason = "capacity";
+      } else {
+        break;
+      }
+      // an account that is still being used (see AccountUsers) is left alone, however long ago it was last looked up
+      if (!AccountUsers.evictIfUnused(candidate.getKey(), () -> evict(ACI.from(UUID.fromString(candidate.getKey()))))) {
+        continue;
+      }
+      evictions.labels(reason).inc();
+      resident--;
+    }
+  }
+
+  private static void evict(ACI aci) {
+    logger.debug("releasing in-memory state for idle account {}", Util.redact(aci));
+    Manager.evict(aci);
+    SignalDependencies.delete(aci);
+    Database.evict(aci);
+    SessionLock.remove(aci);
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect() {
+    GaugeMetricFamily resident = new GaugeMetricFamily(BuildConfig.NAME + "_resident_accounts", "number of accounts with in-memory state, by the kind of state",
+                                                       Collections.singletonList("kind"));
+    resident.addMetric(Collections.singletonList("manager"), Manager.getResidentCount());
+    resident.addMetric(Collections.singletonList("dependencies"), SignalDependencies.getResidentCount());
+    resident.addMetric(Collections.singletonList("database"), Database.getResidentCount());
+    return Collections.singletonList(resident);
+  }
+}
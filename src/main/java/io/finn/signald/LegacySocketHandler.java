@@ -14,7 +14,9 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.finn.signald.clientprotocol.Framing;
 import io.finn.signald.clientprotocol.MessageEncoder;
+import io.finn.signald.clientprotocol.SubscriptionFilter;
 import io.finn.signald.clientprotocol.v0.JsonMessageEnvelope;
 import io.finn.signald.clientprotocol.v0.JsonSendMessageResult;
 import io.finn.signald.clientprotocol.v1.GroupLinkInfoRequest;
@@ -63,7 +65,6 @@ import org.whispersystems.util.Base64;
 
 public class LegacySocketHandler {
   private BufferedReader reader;
-  private PrintWriter writer;
   private ObjectMapper mpr = new ObjectMapper();
   private static final Logger logger = LogManager.getLogger();
   private Socket socket;
@@ -73,7 +74,6 @@ public class LegacySocketHandler {
 
   public LegacySocketHandler(Socket socket) throws IOException {
     this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-    this.writer = new PrintWriter(socket.getOutputStream(), true);
     this.socket = socket;
 
     this.mpr.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY); // disable autodetect
@@ -497,9 +497,13 @@ public class LegacySocketHandler {
 
   private void reply(String type, Object data, String id) throws JsonProcessingException {
     JsonMessageWrapper message = new JsonMessageWrapper(type, data, id);
-    String jsonmessage = this.mpr.writeValueAsString(message);
-    PrintWriter out = new PrintWriter(this.writer, true);
-    out.println(jsonmessage);
+    try {
+      Framing.write(socket, mpr, message);
+    } catch (JsonProcessingException e) {
+      throw e;
+    } catch (IOException e) {
+      logger.warn("Could not send reply: {}", e.getMessage());
+    }
   }
 
   private void link(JsonRequest request) throws AssertionError, IOException, InvalidKeyException, URISyntaxException, NoSuchAccountException, InvalidInputException, SQLException,
@@ -686,10 +690,8 @@ public class LegacySocketHandler {
       this.aci = Database.Get().AccountsTable.getACI(accountE164);
     }
 
-    private void broadcast(JsonMessageWrapper o) throws IOException {
-      PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-      out.println(mapper.writeValueAsString(o));
-    }
+    private void broadcast(JsonMessageWrapper o) throws IOException { Framing.write(socket, mapper, o); }
+
     @Override
     public void broadcastIncomingMessage(SignalServiceEnvelope envelope, SignalServiceContent content) throws IOException {
       if (!shouldBroadcast(content)) {
@@ -750,6 +752,11 @@ public class LegacySocketHandler {
       return socket.isClosed();
     }
 
+    @Override
+    public SubscriptionFilter getFilter() {
+      return null;
+    }
+
     @Override
     public boolean equals(Socket s) {
       return socket.equals(s);
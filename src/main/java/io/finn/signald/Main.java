@@ -8,6 +8,7 @@
 package io.finn.signald;
 
 import io.finn.signald.clientprotocol.ClientConnection;
+import io.finn.signald.clientprotocol.NioSocketServer;
 import io.finn.signald.db.Database;
 import io.finn.signald.jobs.BackgroundJobRunnerThread;
 import io.finn.signald.util.FileUtil;
@@ -130,8 +131,10 @@ public class Main {
       }
 
       BackgroundJobRunnerThread.start();
+      ReceiptAggregator.start();
+      IdleAccountEvictor.start();
 
-      // Spins up one thread per inbound connection to the control socket
+      // Spins up one thread per inbound connection to the control socket, unless --nio-socket is used
       File socketFile = new File(Config.getSocketPath());
       if (socketFile.exists()) {
         logger.debug("Deleting existing socket file");
@@ -139,9 +142,15 @@ public class Main {
       }
 
       logger.info("Binding to socket {}", Config.getSocketPath());
-      AFUNIXServerSocket server = AFUNIXServerSocket.newInstance();
+      AFUNIXServerSocket server = null;
+      NioSocketServer nioServer = null;
       try {
-        server.bind(AFUNIXSocketAddress.of(socketFile));
+        if (Config.isNioSocket()) {
+          nioServer = new NioSocketServer(socketFile);
+        } else {
+          server = AFUNIXServerSocket.newInstance();
+          server.bind(AFUNIXSocketAddress.of(socketFile));
+        }
       } catch (SocketException e) {
         logger.fatal("Error creating socket at {}: {}", socketFile, e.getMessage());
         System.exit(1);
@@ -152,6 +161,11 @@ public class Main {
       logger.info("Started {} {}", BuildConfig.NAME, BuildConfig.VERSION);
       sdnotify("READY=1");
 
+      if (nioServer != null) {
+        nioServer.run();
+        return;
+      }
+
       while (!Thread.interrupted()) {
         try {
           AFUNIXSocket socket = server.accept();
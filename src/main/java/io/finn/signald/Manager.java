@@ -14,6 +14,8 @@ import io.finn.signald.db.*;
 import io.finn.signald.exceptions.*;
 import io.finn.signald.jobs.*;
 import io.finn.signald.util.FileUtil;
+import io.finn.signald.util.AccountUsers;
+import io.finn.signald.util.LastUsed;
 import io.finn.signald.util.MutableLong;
 import io.finn.signald.util.SafetyNumberHelper;
 import io.finn.signald.util.UnidentifiedAccessUtil;
@@ -90,6 +92,8 @@ public class Manager {
   private final Account account;
   private final Recipient self;
   private final SignalDependencies dependencies;
+  private final LastUsed lastUsed = new LastUsed();
+
   public static Manager get(UUID uuid) throws SQLException, NoSuchAccountException, IOException, InvalidKeyException, ServerNotFoundException, InvalidProxyException {
     return get(ACI.from(uuid));
   }
@@ -99,10 +103,19 @@ public class Manager {
   }
   public static Manager get(ACI aci, boolean offline)
       throws SQLException, NoSuchAccountException, IOException, InvalidKeyException, ServerNotFoundException, InvalidProxyException {
-    Manager m;
+    // managers is a ConcurrentHashMap, so the common case of an existing manager doesn't take the lock. Creating one does I/O and
+    // throws checked exceptions, so it happens under the lock rather than in computeIfAbsent
+    AccountUsers.used(aci.toString());
+    Manager m = managers.get(aci.toString());
+    if (m != null) {
+      m.lastUsed.touch();
+      return m;
+    }
     synchronized (managers) {
-      if (managers.containsKey(aci.toString())) {
-        return managers.get(aci.toString());
+      m = managers.get(aci.toString());
+      if (m != null) {
+        m.lastUsed.touch();
+        return m;
       }
       m = new Manager(aci);
       managers.put(aci.toString(), m);
@@ -122,6 +135,18 @@ public class Manager {
     return Manager.get(uuid);
   }
 
+  // when each account's manager was last looked up, for IdleAccountEvictor
+  static Map<String, Long> getLastUsed() {
+    Map<String, Long> lastUsed = new HashMap<>();
+    managers.forEach((aci, m) -> lastUsed.put(aci, m.lastUsed.get()));
+    return lastUsed;
+  }
+
+  static int getResidentCount() { return managers.size(); }
+
+  // drops an idle account's manager, the next Manager.get for the account creates a new one
+  static void evict(ACI aci) { managers.remove(aci.toString()); }
+
   public static List<Manager> getAll() {
     Logger logger = LogManager.getLogger("manager");
     // We have to create a manager for each account that we're listing, which is all of them :/
@@ -152,7 +177,7 @@ public class Manager {
     unidentifiedSenderTrustRoot = server.getUnidentifiedSenderRoot();
     dependencies = account.getSignalDependencies();
     logger.info("Created a manager for " + Util.redact(aci.toString()));
-    synchronized (managers) { managers.put(aci.toString(), this); }
+    managers.put(aci.toString(), this);
   }
 
   public static void setDataPath() {
@@ -266,7 +291,7 @@ public class Manager {
 
   public void sendSyncMessage(SignalServiceSyncMessage message) throws IOException, org.whispersystems.signalservice.api.crypto.UntrustedIdentityException, SQLException {
     SignalServiceMessageSender messageSender = dependencies.getMessageSender();
-    try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire()) {
+    try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire(self.getServiceId())) {
       messageSender.sendSyncMessage(message, getAccessPairFor(self));
     } catch (org.whispersystems.signalservice.api.crypto.UntrustedIdentityException e) {
       account.getProtocolStore().handleUntrustedIdentityException(e);
@@ -276,7 +301,7 @@ public class Manager {
 
   public SendMessageResult sendTypingMessage(SignalServiceTypingMessage message, Recipient recipient) throws IOException {
     SignalServiceMessageSender messageSender = dependencies.getMessageSender();
-    try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire()) {
+    try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire(recipient.getServiceId())) {
       messageSender.sendTyping(List.of(recipient.getAddress()), getAccessPairFor(List.of(recipient)), message, null);
       return null;
     }
@@ -286,7 +311,7 @@ public class Manager {
     SignalServiceMessageSender messageSender = dependencies.getMessageSender();
     SignalServiceAddress address = recipient.getAddress();
     try {
-      try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire()) {
+      try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire(recipient.getServiceId())) {
         messageSender.sendReceipt(address, getAccessPairFor(recipient), message, recipient.isNeedsPniSignature());
       }
       if (message.getType() == SignalServiceReceiptMessage.Type.READ) {
@@ -294,7 +319,7 @@ public class Manager {
         for (Long ts : message.getTimestamps()) {
           readMessages.add(new ReadMessage(address.getServiceId(), ts));
         }
-        try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire()) {
+        try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire(self.getServiceId())) {
           messageSender.sendSyncMessage(SignalServiceSyncMessage.forRead(readMessages), getAccessPairFor(self));
         }
       }
@@ -350,7 +375,7 @@ public class Manager {
         SignalServiceSyncMessage syncMessage = SignalServiceSyncMessage.forSentTranscript(transcript);
 
         List<SendMessageResult> results = new ArrayList<>(recipients.size());
-        try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire()) {
+        try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire(self.getServiceId())) {
           messageSender.sendSyncMessage(syncMessage, unidentifiedAccess);
         } catch (org.whispersystems.signalservice.api.crypto.UntrustedIdentityException e) {
           account.getProtocolStore().handleUntrustedIdentityException(e);
@@ -371,13 +396,13 @@ public class Manager {
                   new SentTranscriptMessage(Optional.of(recipient.getAddress()), message.getTimestamp(), Optional.of(message), message.getExpiresInSeconds(),
                                             Collections.singletonMap(recipient.getAddress().getServiceId(), unidentifiedAccess.isPresent()), false, Optional.empty(), Set.of());
               SignalServiceSyncMessage syncMessage = SignalServiceSyncMessage.forSentTranscript(transcript);
-              try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire()) {
+              try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire(self.getServiceId())) {
                 messageSender.sendSyncMessage(syncMessage, unidentifiedAccess);
               }
               //              results.add(SendMessageResult.success(recipient, devices, false, unidentifiedAccess.isPresent(), true, (System.currentTimeMillis() - start),
               //              Optional.absent());
             } else {
-              try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire()) {
+              try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire(recipient.getServiceId())) {
                 final boolean isUrgent = true;
                 results.add(messageSender.sendDataMessage(recipient.getAddress(), getAccessPairFor(recipient), ContentHint.DEFAULT, message, IndividualSendEventsLogger.INSTANCE,
                                                           isUrgent, recipient.isNeedsPniSignature()));
@@ -403,74 +428,102 @@ public class Manager {
     }
   }
 
+  // decrypts an envelope and removes it from the message queue in one transaction, so the session, pre-key, identity and sender key
+  // changes made while decrypting are committed together with the removal. If signald stops or the commit fails, the envelope is still
+  // queued and the protocol state is as it was before, so it can be decrypted again. Decryption errors are returned rather than thrown,
+  // since the envelope is removed either way.
+  private DecryptedEnvelope decryptAndDequeue(SignalServiceEnvelope envelope, Long databaseId) throws SQLException {
+    DecryptedEnvelope result = new DecryptedEnvelope();
+    SessionLock sessionLock = dependencies.getSessionLock();
+    // take the session locks before opening the transaction: on SQLite an open transaction holds the database write lock, which shouldn't
+    // be held while waiting on a send to the same peer. The signal library takes the account-wide lock while decrypting anyway, and the
+    // sender of a sealed sender message isn't known until it's decrypted, so those only get the account-wide lock.
+    try (SignalSessionLock.Lock recipientLock = envelope.hasSourceUuid() ? sessionLock.acquire(envelope.getSourceAddress().getServiceId()) : null;
+         SignalSessionLock.Lock accountLock = sessionLock.acquire(); Transaction tx = Database.beginTransaction()) {
+      try {
+        result.content = decryptMessage(envelope);
+      } catch (Exception e) {
+        result.exception = e;
+      }
+      if (databaseId != null) {
+        account.getDB().MessageQueueTable.deleteEnvelope(databaseId);
+      }
+      tx.commit();
+    }
+    return result;
+  }
+
+  private static class DecryptedEnvelope {
+    SignalServiceContent content;
+    Exception exception;
+  }
+
   private SignalServiceContent decryptMessage(SignalServiceEnvelope envelope)
       throws InvalidMetadataMessageException, InvalidMetadataVersionException, ProtocolInvalidKeyIdException, ProtocolUntrustedIdentityException, ProtocolLegacyMessageException,
              ProtocolNoSessionException, ProtocolInvalidVersionException, ProtocolInvalidMessageException, ProtocolInvalidKeyException, UnsupportedDataMessageException,
              org.signal.libsignal.protocol.UntrustedIdentityException, InvalidMessageStructureException, IOException, SQLException, InterruptedException {
-    try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire()) {
-      CertificateValidator certificateValidator = new CertificateValidator(unidentifiedSenderTrustRoot);
-      SignalServiceCipher cipher =
-          new SignalServiceCipher(self.getAddress(), account.getDeviceId(), account.getProtocolStore(), dependencies.getSessionLock(), certificateValidator);
-      Semaphore sem = new Semaphore(1);
-      int watchdogTime = Config.getDecryptionTimeout();
-      if (watchdogTime > 0) {
-        sem.acquire();
-        Thread t = new Thread(() -> {
-          // a watchdog thread that will make signald exit if decryption takes too long. This behavior is suboptimal, but
-          // without this it just hangs and breaks in difficult to detect ways.
-          try {
-            boolean decryptFinished = sem.tryAcquire(watchdogTime, TimeUnit.SECONDS);
-            if (!decryptFinished) {
-              logger.error("took over {} seconds to decrypt, exiting", watchdogTime);
-              System.exit(101);
-            }
-            sem.release();
-          } catch (InterruptedException e) {
-            logger.error("error in decryption watchdog thread", e);
-            Sentry.captureException(e);
+    CertificateValidator certificateValidator = new CertificateValidator(unidentifiedSenderTrustRoot);
+    SignalServiceCipher cipher =
+        new SignalServiceCipher(self.getAddress(), account.getDeviceId(), account.getProtocolStore(), dependencies.getSessionLock(), certificateValidator);
+    Semaphore sem = new Semaphore(1);
+    int watchdogTime = Config.getDecryptionTimeout();
+    if (watchdogTime > 0) {
+      sem.acquire();
+      Thread t = new Thread(() -> {
+        // a watchdog thread that will make signald exit if decryption takes too long. This behavior is suboptimal, but
+        // without this it just hangs and breaks in difficult to detect ways.
+        try {
+          boolean decryptFinished = sem.tryAcquire(watchdogTime, TimeUnit.SECONDS);
+          if (!decryptFinished) {
+            logger.error("took over {} seconds to decrypt, exiting", watchdogTime);
+            System.exit(101);
           }
-        }, "DecryptWatchdogTimer");
-
-        t.start();
-      }
-
-      Histogram.Timer timer = messageDecryptionTime.labels(account.getUUID().toString()).startTimer();
-      try {
-        return cipher.decrypt(envelope);
-      } catch (ProtocolUntrustedIdentityException e) {
-        if (e.getCause() instanceof org.signal.libsignal.protocol.UntrustedIdentityException) {
-          org.signal.libsignal.protocol.UntrustedIdentityException identityException = (org.signal.libsignal.protocol.UntrustedIdentityException)e.getCause();
-          account.getProtocolStore().saveIdentity(identityException.getName(), identityException.getUntrustedIdentity(), Config.getNewKeyTrustLevel());
-          throw identityException;
-        }
-        throw e;
-      } catch (SelfSendException e) {
-        logger.debug("Dropping UD message from self (because that's what Signal Android does)");
-        return null;
-      } catch (ProtocolInvalidKeyIdException | ProtocolInvalidKeyException | ProtocolNoSessionException | ProtocolInvalidMessageException e) {
-        logger.debug("Failed to decrypt incoming message: {}", e.getMessage());
-        Database db = account.getDB();
-        Recipient sender = db.RecipientsTable.get(e.getSender());
-        boolean senderCapability = db.ProfileCapabilitiesTable.get(sender, IProfileCapabilitiesTable.SENDER_KEY);
-        boolean selfCapability = db.ProfileCapabilitiesTable.get(account.getSelf(), IProfileCapabilitiesTable.SENDER_KEY);
-        if (e.getSenderDevice() != account.getDeviceId() && senderCapability && selfCapability) {
-          logger.info("incoming message could not be decrypted, asking sender to retry.");
-          BackgroundJobRunnerThread.queue(new SendRetryMessageRequestJob(account, e, envelope));
-        } else {
-          logger.info("incoming message could not be decrypted, queuing session reset with sender");
-          BackgroundJobRunnerThread.queue(new ResetSessionJob(account, sender));
-        }
-        throw e;
-      } catch (ProtocolDuplicateMessageException e) {
-        logger.debug("dropping duplicate message");
-        return null;
-      } finally {
-        if (watchdogTime > 0) {
           sem.release();
+        } catch (InterruptedException e) {
+          logger.error("error in decryption watchdog thread", e);
+          Sentry.captureException(e);
         }
-        double duration = timer.observeDuration();
-        logger.debug("message decrypted in {} seconds", duration);
+      }, "DecryptWatchdogTimer");
+
+      t.start();
+    }
+
+    Histogram.Timer timer = messageDecryptionTime.labels(AccountMetrics.label(account.getUUID())).startTimer();
+    try {
+      return cipher.decrypt(envelope);
+    } catch (ProtocolUntrustedIdentityException e) {
+      if (e.getCause() instanceof org.signal.libsignal.protocol.UntrustedIdentityException) {
+        org.signal.libsignal.protocol.UntrustedIdentityException identityException = (org.signal.libsignal.protocol.UntrustedIdentityException)e.getCause();
+        account.getProtocolStore().saveIdentity(identityException.getName(), identityException.getUntrustedIdentity(), Config.getNewKeyTrustLevel());
+        throw identityException;
       }
+      throw e;
+    } catch (SelfSendException e) {
+      logger.debug("Dropping UD message from self (because that's what Signal Android does)");
+      return null;
+    } catch (ProtocolInvalidKeyIdException | ProtocolInvalidKeyException | ProtocolNoSessionException | ProtocolInvalidMessageException e) {
+      logger.debug("Failed to decrypt incoming message: {}", e.getMessage());
+      Database db = account.getDB();
+      Recipient sender = db.RecipientsTable.get(e.getSender());
+      boolean senderCapability = db.ProfileCapabilitiesTable.get(sender, IProfileCapabilitiesTable.SENDER_KEY);
+      boolean selfCapability = db.ProfileCapabilitiesTable.get(account.getSelf(), IProfileCapabilitiesTable.SENDER_KEY);
+      if (e.getSenderDevice() != account.getDeviceId() && senderCapability && selfCapability) {
+        logger.info("incoming message could not be decrypted, asking sender to retry.");
+        BackgroundJobRunnerThread.queue(new SendRetryMessageRequestJob(account, e, envelope));
+      } else {
+        logger.info("incoming message could not be decrypted, queuing session reset with sender");
+        BackgroundJobRunnerThread.queue(new ResetSessionJob(account, sender));
+      }
+      throw e;
+    } catch (ProtocolDuplicateMessageException e) {
+      logger.debug("dropping duplicate message");
+      return null;
+    } finally {
+      if (watchdogTime > 0) {
+        sem.release();
+      }
+      double duration = timer.observeDuration();
+      logger.debug("message decrypted in {} seconds", duration);
     }
   }
 
@@ -517,6 +570,12 @@ public class Manager {
 
   public interface ReceiveMessageHandler {
     void handleMessage(SignalServiceEnvelope envelope, SignalServiceContent decryptedContent, Throwable e) throws SQLException;
+
+    // called when an envelope has been taken from the server or the message queue and is about to be decrypted, and again once it
+    // has been fully handled (or dropped), so the handler can keep track of how far behind the account is
+    default void envelopeStarted(SignalServiceEnvelope envelope) {}
+
+    default void envelopeFinished(SignalServiceEnvelope envelope) {}
   }
 
   private List<Job> handleSignalServiceDataMessage(SignalServiceDataMessage message, boolean isSync, Recipient source, Recipient destination, boolean ignoreAttachments)
@@ -621,30 +680,27 @@ public class Manager {
         break;
       }
       SignalServiceEnvelope envelope = storedEnvelope.envelope;
+      if (envelope.isReceipt()) {
+        account.getDB().MessageQueueTable.deleteEnvelope(storedEnvelope.databaseId);
+        continue;
+      }
 
+      handler.envelopeStarted(envelope);
       try {
-        SignalServiceContent content = null;
-        Exception exception = null;
-        if (!envelope.isReceipt()) {
+        DecryptedEnvelope decrypted = decryptAndDequeue(envelope, storedEnvelope.databaseId);
+        if (decrypted.exception == null && decrypted.content != null) {
           try {
-            content = decryptMessage(envelope);
-          } catch (Exception e) {
-            exception = e;
-          }
-          if (exception == null && content != null) {
-            try {
-              handleMessage(envelope, content, ignoreAttachments);
-            } catch (VerificationFailedException | InvalidKeyException | InvalidMessageException e) {
-              logger.catching(e);
-              Sentry.captureException(e);
-            }
+            handleMessage(envelope, decrypted.content, ignoreAttachments);
+          } catch (VerificationFailedException | InvalidKeyException | InvalidMessageException e) {
+            logger.catching(e);
+            Sentry.captureException(e);
           }
         }
-        if (exception != null || content != null) {
-          handler.handleMessage(envelope, content, exception);
+        if (decrypted.exception != null || decrypted.content != null) {
+          handler.handleMessage(envelope, decrypted.content, decrypted.exception);
         }
       } finally {
-        account.getDB().MessageQueueTable.deleteEnvelope(storedEnvelope.databaseId);
+        handler.envelopeFinished(envelope);
       }
     }
   }
@@ -687,35 +743,43 @@ public class Manager {
           continue;
         }
 
-        SignalServiceContent content = null;
-        Exception exception = null;
+        if (envelope.isReceipt()) {
+          try {
+            Long id = databaseId.getValue();
+            if (id != null) {
+              messageQueueTable.deleteEnvelope(id);
+            }
+          } catch (SQLException e) {
+            logger.error("failed to remove cached message from database");
+            Sentry.captureException(e);
+          }
+          continue;
+        }
 
-        if (!envelope.isReceipt()) {
+        handler.envelopeStarted(envelope);
+        try {
+          DecryptedEnvelope decrypted;
           try {
-            content = decryptMessage(envelope);
-          } catch (Exception e) {
-            exception = e;
+            decrypted = decryptAndDequeue(envelope, databaseId.getValue());
+          } catch (SQLException e) {
+            // nothing was committed, so the envelope is still in the message queue and will be retried on the next connection
+            logger.error("failed to commit decrypted message to the database");
+            Sentry.captureException(e);
+            continue;
           }
-          if (exception == null && content != null) {
+          if (decrypted.exception == null && decrypted.content != null) {
             try {
-              handleMessage(envelope, content, ignoreAttachments);
+              handleMessage(envelope, decrypted.content, ignoreAttachments);
             } catch (InvalidKeyException | InvalidMessageException e) {
               logger.catching(e);
               Sentry.captureException(e);
             }
           }
-        }
-        if (exception != null || content != null) {
-          handler.handleMessage(envelope, content, exception);
-        }
-        try {
-          Long id = databaseId.getValue();
-          if (id != null) {
-            messageQueueTable.deleteEnvelope(id);
+          if (decrypted.exception != null || decrypted.content != null) {
+            handler.handleMessage(envelope, decrypted.content, decrypted.exception);
           }
-        } catch (SQLException e) {
-          logger.error("failed to remove cached message from database");
-          Sentry.captureException(e);
+        } finally {
+          handler.envelopeFinished(envelope);
         }
       }
     } finally {
@@ -756,7 +820,7 @@ public class Manager {
 
     if (content.getDataMessage().isPresent()) {
       if (content.isNeedsReceipt()) {
-        jobs.add(new SendDeliveryReceiptJob(this, source, content.getTimestamp()));
+        ReceiptAggregator.get().delivery(this, source, content.getTimestamp());
       }
       SignalServiceDataMessage message = content.getDataMessage().get();
       jobs.addAll(handleSignalServiceDataMessage(message, false, source, self, ignoreAttachments));
@@ -1079,7 +1143,7 @@ public class Manager {
   }
 
   public void deleteAccount() throws IOException, SQLException {
-    synchronized (managers) { managers.remove(aci.toString()); }
+    managers.remove(aci.toString());
   }
 
   public SignalServiceConfiguration getServiceConfiguration() { return serviceConfiguration; }
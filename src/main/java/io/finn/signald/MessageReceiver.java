@@ -8,18 +8,24 @@
 package io.finn.signald;
 
 import io.finn.signald.clientprotocol.MessageEncoder;
+import io.finn.signald.clientprotocol.SubscriptionFilter;
 import io.finn.signald.db.Database;
 import io.finn.signald.exceptions.InvalidProxyException;
 import io.finn.signald.exceptions.NoSuchAccountException;
 import io.finn.signald.exceptions.ServerNotFoundException;
+import io.finn.signald.util.AccountUsers;
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
 import io.sentry.Sentry;
 import java.io.IOException;
 import java.net.Socket;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.signal.libsignal.metadata.InvalidMetadataMessageException;
@@ -35,15 +41,28 @@ import org.whispersystems.signalservice.api.websocket.WebSocketConnectionState;
 public class MessageReceiver implements Manager.ReceiveMessageHandler, Runnable {
   private final ACI aci;
   private final Manager m;
-  private int backoff = 0;
+  private volatile int backoff = 0;
   private final SocketManager sockets;
   private final String uuid;
   private static final Logger logger = LogManager.getLogger();
-  private static final HashMap<String, MessageReceiver> receivers = new HashMap<>();
+  // subscribing and unsubscribing lock the map so a receiver isn't shut down while a subscriber is being added to it. Everything
+  // else only looks receivers up, and doesn't need the lock
+  private static final ConcurrentHashMap<String, MessageReceiver> receivers = new ConcurrentHashMap<>();
   static final Gauge subscribedAccounts =
       Gauge.build().name(BuildConfig.NAME + "_subscribed_accounts").help("number of accounts subscribed to messages from the Signal server").register();
   static final Counter receivedMessages =
       Counter.build().name(BuildConfig.NAME + "_received_messages").help("number of messages received").labelNames("account_uuid", "error").register();
+  static final Histogram receiveLag = Histogram.build()
+                                          .name(BuildConfig.NAME + "_message_receive_lag_seconds")
+                                          .help("time from the server receiving a message until signald finished handling it")
+                                          .buckets(0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300, 1800)
+                                          .register();
+  static final ReceiveQueueCollector receiveQueue = new ReceiveQueueCollector().register();
+  static final SubscriberCollector subscriberCollector = new SubscriberCollector().register();
+
+  // envelopes taken from the server or the message queue and not yet handled, and the server timestamp of the oldest of them
+  private final AtomicInteger pendingEnvelopes = new AtomicInteger();
+  private volatile long oldestPendingTimestamp;
 
   public MessageReceiver(ACI aci) throws SQLException, IOException, NoSuchAccountException, InvalidKeyException, ServerNotFoundException, InvalidProxyException {
     this.aci = aci;
@@ -92,37 +111,33 @@ public class MessageReceiver implements Manager.ReceiveMessageHandler, Runnable
   }
 
   public static void handleWebSocketConnectionStateChange(UUID accountUUID, WebSocketConnectionState connectionState, boolean unidentified) throws SQLException {
-    synchronized (receivers) {
-      MessageReceiver receiver = receivers.get(accountUUID.toString());
-      if (receiver == null) {
-        return;
-      }
+    MessageReceiver receiver = receivers.get(accountUUID.toString());
+    if (receiver == null) {
+      return;
+    }
 
-      receiver.sockets.broadcastWebSocketConnectionStateChange(connectionState, unidentified);
-
-      switch (connectionState) {
-      case AUTHENTICATION_FAILED:
-        receivers.get(accountUUID.toString()).sockets.removeAll();
-        break;
-      case CONNECTED:
-        receiver.sockets.broadcastListenStarted();
-        if (receiver.backoff != 0) {
-          receiver.backoff = 0;
-          logger.debug("websocket connected, resetting backoff");
-        }
-        break;
+    receiver.sockets.broadcastWebSocketConnectionStateChange(connectionState, unidentified);
+
+    switch (connectionState) {
+    case AUTHENTICATION_FAILED:
+      receiver.sockets.removeAll();
+      break;
+    case CONNECTED:
+      receiver.sockets.broadcastListenStarted();
+      if (receiver.backoff != 0) {
+        receiver.backoff = 0;
+        logger.debug("websocket connected, resetting backoff");
       }
+      break;
     }
   }
 
   public static void broadcastStorageStateChange(UUID accountUUID, long version) throws SQLException {
-    synchronized (receivers) {
-      MessageReceiver receiver = receivers.get(accountUUID.toString());
-      if (receiver == null) {
-        return;
-      }
-      receiver.sockets.broadcastStorageStateChange(version);
+    MessageReceiver receiver = receivers.get(accountUUID.toString());
+    if (receiver == null) {
+      return;
     }
+    receiver.sockets.broadcastStorageStateChange(version);
   }
 
   // must be called from within a synchronized(receivers) block
@@ -149,7 +164,31 @@ public class MessageReceiver implements Manager.ReceiveMessageHandler, Runnable
 
   private boolean remove(Socket socket) { return sockets.remove(socket); }
 
+  static boolean isSubscribed(String accountUUID) { return receivers.containsKey(accountUUID); }
+
+  static List<MessageReceiver> getReceivers() { return new ArrayList<>(receivers.values()); }
+
+  String getAccountUUID() { return uuid; }
+
+  List<MessageEncoder> getSubscribers() { return sockets.getListeners(); }
+
+  int getPendingEnvelopes() { return pendingEnvelopes.get(); }
+
+  // how long the oldest envelope that hasn't been handled yet has been waiting since the server received it, 0 if there are none
+  double getLagSeconds(long now) {
+    long oldest = oldestPendingTimestamp;
+    return oldest == 0 ? 0 : Math.max(0, now - oldest) / 1000.0;
+  }
+
   public void run() {
+    // the receiver keeps using this account's Manager until it stops, which can be after the last subscriber has gone
+    try (AccountUsers.Scope ignored = AccountUsers.begin()) {
+      AccountUsers.used(aci.toString());
+      receive();
+    }
+  }
+
+  private void receive() {
     boolean notifyOnConnect = true;
     Thread.currentThread().setName(Util.redact(aci) + "-receiver");
     logger.debug("starting message receiver for " + Util.redact(aci));
@@ -243,7 +282,22 @@ public class MessageReceiver implements Manager.ReceiveMessageHandler, Runnable
       this.sockets.broadcastIncomingMessage(envelope, content);
     }
     String errorLabel = exception == null ? "" : exception.getClass().getCanonicalName();
-    receivedMessages.labels(uuid, errorLabel).inc();
+    receivedMessages.labels(AccountMetrics.label(uuid), errorLabel).inc();
+  }
+
+  @Override
+  public void envelopeStarted(SignalServiceEnvelope envelope) {
+    if (pendingEnvelopes.getAndIncrement() == 0) {
+      oldestPendingTimestamp = envelope.getServerReceivedTimestamp();
+    }
+  }
+
+  @Override
+  public void envelopeFinished(SignalServiceEnvelope envelope) {
+    if (pendingEnvelopes.decrementAndGet() == 0) {
+      oldestPendingTimestamp = 0;
+    }
+    receiveLag.observe(Math.max(0, System.currentTimeMillis() - envelope.getServerReceivedTimestamp()) / 1000.0);
   }
 
   static class SocketManager {
@@ -282,13 +336,22 @@ public class MessageReceiver implements Manager.ReceiveMessageHandler, Runnable
 
     public synchronized int size() { return listeners.size(); }
 
-    private void broadcast(broadcastMessage b) throws SQLException {
+    List<MessageEncoder> getListeners() {
+      synchronized (listeners) { return new ArrayList<>(listeners); }
+    }
+
+    // accepts is checked against the filter of each subscriber that has one before anything is built for that subscriber
+    private void broadcast(Predicate<SubscriptionFilter> accepts, broadcastMessage b) throws SQLException {
       synchronized (listeners) {
         for (MessageEncoder l : this.listeners) {
           if (l.isClosed()) {
             listeners.remove(l);
             continue;
           }
+          SubscriptionFilter filter = l.getFilter();
+          if (filter != null && !accepts.test(filter)) {
+            continue;
+          }
           try {
             b.broadcast(l);
           } catch (IOException e) {
@@ -298,21 +361,25 @@ public class MessageReceiver implements Manager.ReceiveMessageHandler, Runnable
       }
     }
 
+    private void broadcast(String event, broadcastMessage b) throws SQLException { broadcast(f -> f.accepts(event), b); }
+
     public void broadcastWebSocketConnectionStateChange(WebSocketConnectionState state, boolean unidentified) throws SQLException {
-      broadcast(r -> r.broadcastWebSocketConnectionStateChange(state, unidentified));
+      broadcast(SubscriptionFilter.WEBSOCKET_CONNECTION_STATE, r -> r.broadcastWebSocketConnectionStateChange(state, unidentified));
     }
 
     public void broadcastIncomingMessage(SignalServiceEnvelope envelope, SignalServiceContent content) throws SQLException {
-      broadcast(r -> r.broadcastIncomingMessage(envelope, content));
+      broadcast(f -> f.accepts(envelope, content), r -> r.broadcastIncomingMessage(envelope, content));
     }
 
-    public void broadcastReceiveFailure(SignalServiceEnvelope envelope, Throwable exception) throws SQLException { broadcast(r -> r.broadcastReceiveFailure(envelope, exception)); }
+    public void broadcastReceiveFailure(SignalServiceEnvelope envelope, Throwable exception) throws SQLException {
+      broadcast(SubscriptionFilter.RECEIVE_ERROR, r -> r.broadcastReceiveFailure(envelope, exception));
+    }
 
-    public void broadcastListenStarted() throws SQLException { broadcast(MessageEncoder::broadcastListenStarted); }
+    public void broadcastListenStarted() throws SQLException { broadcast(SubscriptionFilter.LISTEN_STATE, MessageEncoder::broadcastListenStarted); }
 
-    public void broadcastListenStopped(Throwable exception) throws SQLException { broadcast(r -> r.broadcastListenStopped(exception)); }
+    public void broadcastListenStopped(Throwable exception) throws SQLException { broadcast(SubscriptionFilter.LISTEN_STATE, r -> r.broadcastListenStopped(exception)); }
 
-    public void broadcastStorageStateChange(long version) throws SQLException { broadcast(r -> r.broadcastStorageChange(version)); }
+    public void broadcastStorageStateChange(long version) throws SQLException { broadcast(SubscriptionFilter.STORAGE_CHANGE, r -> r.broadcastStorageChange(version)); }
 
     private interface broadcastMessage {
       void broadcast(MessageEncoder r) throws IOException, SQLException;
@@ -8,9 +8,13 @@ import io.finn.signald.util.SenderKeyUtil;
 import io.finn.signald.util.UnidentifiedAccessUtil;
 import io.sentry.Sentry;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
@@ -320,7 +324,7 @@ public class MessageSender {
       throws NoSuchAccountException, SQLException, ServerNotFoundException, IOException, InvalidProxyException, UntrustedIdentityException {
     SignalServiceMessageSender messageSender = account.getSignalDependencies().getMessageSender();
     Optional<UnidentifiedAccessPair> ownUnidentifiedAccess = new UnidentifiedAccessUtil(account.getACI()).getAccessPairFor(self);
-    try (SignalSessionLock.Lock ignored = account.getSignalDependencies().getSessionLock().acquire()) {
+    try (SignalSessionLock.Lock ignored = account.getSignalDependencies().getSessionLock().acquire(self.getServiceId())) {
       messageSender.sendSyncMessage(message, ownUnidentifiedAccess);
     } catch (org.whispersystems.signalservice.api.crypto.UntrustedIdentityException e) {
       account.getProtocolStore().handleUntrustedIdentityException(e);
@@ -339,27 +343,96 @@ public class MessageSender {
 
     try {
       SignalServiceMessageSender messageSender = account.getSignalDependencies().getMessageSender();
-      message = messageBuilder.build();
-
-      // Send to all individually, so sync messages are sent correctly
-      List<SendMessageResult> results = new ArrayList<>(recipients.size());
+      UnidentifiedAccessUtil ua = new UnidentifiedAccessUtil(account.getACI());
+
+      // messages only differ by expiration timer, so build each variant once, and look up contacts and unidentified access here
+      // rather than in each send. The (possibly parallel) sends below still use the database: encrypting reads and writes the
+      // recipient's sessions and identity keys under the account's session lock, and an untrusted identity is recorded by
+      // handleUntrustedIdentityException. That work is serialized by the per-recipient and account session locks, only the network
+      // I/O overlaps.
+      Map<Integer, SignalServiceDataMessage> messagesByExpiration = new HashMap<>();
+      List<SignalServiceDataMessage> messages = new ArrayList<>(recipients.size());
+      List<Optional<UnidentifiedAccessPair>> accessPairs = new ArrayList<>(recipients.size());
       for (Recipient recipient : recipients) {
         var contact = Database.Get(account.getACI()).ContactsTable.get(recipient);
-        messageBuilder.withExpiration(contact != null ? contact.messageExpirationTime : 0);
+        int expiration = contact != null ? contact.messageExpirationTime : 0;
+        message = messagesByExpiration.get(expiration);
+        if (message == null) {
+          messageBuilder.withExpiration(expiration);
+          message = messageBuilder.build();
+          messagesByExpiration.put(expiration, message);
+        }
+        messages.add(message);
+        accessPairs.add(ua.getAccessPairFor(recipient));
+      }
+      if (message == null) {
         message = messageBuilder.build();
-        try (SignalSessionLock.Lock ignored = account.getSignalDependencies().getSessionLock().acquire()) {
-          results.add(messageSender.sendDataMessage(recipient.getAddress(), new UnidentifiedAccessUtil(account.getACI()).getAccessPairFor(recipient), ContentHint.DEFAULT, message,
-                                                    IndividualSendEventsLogger.INSTANCE, isUrgent, recipient.isNeedsPniSignature()));
+      }
+
+      // Send to all individually, so sync messages are sent correctly
+      int concurrency = Math.min(Config.getSendConcurrency(), recipients.size());
+      if (concurrency <= 1) {
+        List<SendMessageResult> results = new ArrayList<>(recipients.size());
+        for (int i = 0; i < recipients.size(); i++) {
+          results.add(sendIndividually(messageSender, recipients.get(i), accessPairs.get(i), messages.get(i), isUrgent));
+        }
+        return results;
+      }
 
-        } catch (org.whispersystems.signalservice.api.crypto.UntrustedIdentityException e) {
-          if (e.getIdentityKey() != null) {
-            account.getProtocolStore().handleUntrustedIdentityException(e);
+      logger.debug("sending to {} recipients, up to {} at a time", recipients.size(), concurrency);
+      Semaphore permits = new Semaphore(concurrency);
+      List<Future<SendMessageResult>> pending = new ArrayList<>(recipients.size());
+      for (int i = 0; i < recipients.size(); i++) {
+        Recipient recipient = recipients.get(i);
+        Optional<UnidentifiedAccessPair> accessPair = accessPairs.get(i);
+        SignalServiceDataMessage recipientMessage = messages.get(i);
+        permits.acquireUninterruptibly();
+        try {
+          pending.add(account.getSignalDependencies().getExecutor().submit(() -> {
+            try {
+              return sendIndividually(messageSender, recipient, accessPair, recipientMessage, isUrgent);
+            } finally {
+              permits.release();
+            }
+          }));
+        } catch (RejectedExecutionException e) {
+          permits.release();
+          throw e;
+        }
+      }
+
+      // wait for every send to finish before reporting a failure, so nothing is still running when the caller sees the exception
+      List<SendMessageResult> results = new ArrayList<>(recipients.size());
+      Throwable failure = null;
+      for (Future<SendMessageResult> future : pending) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          if (failure == null) {
+            failure = new InterruptedIOException("interrupted while waiting for message sends to complete");
           }
-          results.add(SendMessageResult.identityFailure(recipient.getAddress(), e.getIdentityKey()));
-        } finally {
-          logger.debug("send complete");
         }
       }
+      if (failure instanceof IOException) {
+        throw(IOException) failure;
+      } else if (failure instanceof SQLException) {
+        throw(SQLException) failure;
+      } else if (failure instanceof NoSuchAccountException) {
+        throw(NoSuchAccountException) failure;
+      } else if (failure instanceof ServerNotFoundException) {
+        throw(ServerNotFoundException) failure;
+      } else if (failure instanceof InvalidProxyException) {
+        throw(InvalidProxyException) failure;
+      } else if (failure instanceof RuntimeException) {
+        throw(RuntimeException) failure;
+      } else if (failure != null) {
+        throw new IOException(failure);
+      }
       return results;
     } finally {
       if (message != null && message.isEndSession()) {
@@ -370,4 +443,20 @@ public class MessageSender {
       }
     }
   }
+
+  private SendMessageResult sendIndividually(SignalServiceMessageSender messageSender, Recipient recipient, Optional<UnidentifiedAccessPair> accessPair,
+                                             SignalServiceDataMessage message, boolean isUrgent)
+      throws SQLException, NoSuchAccountException, ServerNotFoundException, IOException, InvalidProxyException {
+    try (SignalSessionLock.Lock ignored = account.getSignalDependencies().getSessionLock().acquire(recipient.getServiceId())) {
+      return messageSender.sendDataMessage(recipient.getAddress(), accessPair, ContentHint.DEFAULT, message, IndividualSendEventsLogger.INSTANCE, isUrgent,
+                                           recipient.isNeedsPniSignature());
+    } catch (org.whispersystems.signalservice.api.crypto.UntrustedIdentityException e) {
+      if (e.getIdentityKey() != null) {
+        account.getProtocolStore().handleUntrustedIdentityException(e);
+      }
+      return SendMessageResult.identityFailure(recipient.getAddress(), e.getIdentityKey());
+    } finally {
+      logger.debug("send complete");
+    }
+  }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald;
+
+import io.prometheus.client.Histogram;
+import io.reactivex.rxjava3.core.Single;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeoutException;
+import org.whispersystems.signalservice.api.util.CredentialsProvider;
+import org.whispersystems.signalservice.api.websocket.HealthMonitor;
+import org.whispersystems.signalservice.internal.configuration.SignalServiceConfiguration;
+import org.whispersystems.signalservice.internal.websocket.WebSocketConnection;
+import org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
+import org.whispersystems.signalservice.internal.websocket.WebsocketResponse;
+
+// times requests sent over the upstream websockets (sends, profile fetches, etc), the websocket equivalent of
+// IServersTable.MetricsInterceptor. Labels are limited to the socket name, verb, endpoint template and status so they don't grow
+// with the number of accounts or recipients.
+public class MetricsWebSocketConnection extends WebSocketConnection {
+  static final Histogram requestDuration = Histogram.build()
+                                               .name(BuildConfig.NAME + "_upstream_websocket_request_duration_seconds")
+                                               .help("time from sending a request on an upstream websocket until its response is received")
+                                               .labelNames("socket", "verb", "endpoint", "status")
+                                               .buckets(0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+                                               .register();
+  static final Histogram requestSize = Histogram.build()
+                                           .name(BuildConfig.NAME + "_upstream_websocket_request_size_bytes")
+                                           .help("size of request bodies sent on the upstream websockets")
+                                           .labelNames("socket", "verb", "endpoint")
+                                           .exponentialBuckets(64, 4, 9)
+                                           .register();
+  static final Histogram responseSize = Histogram.build()
+                                            .name(BuildConfig.NAME + "_upstream_websocket_response_size_bytes")
+                                            .help("size of response bodies received on the upstream websockets")
+                                            .labelNames("socket", "verb", "endpoint", "status")
+                                            .exponentialBuckets(64, 4, 9)
+                                            .register();
+
+  private final String name;
+
+  public MetricsWebSocketConnection(String name, SignalServiceConfiguration serviceConfiguration, Optional<CredentialsProvider> credentialsProvider, String signalAgent,
+                                    HealthMonitor healthMonitor, boolean allowStories) {
+    super(name, serviceConfiguration, credentialsProvider, signalAgent, healthMonitor, allowStories);
+    this.name = name;
+  }
+
+  @Override
+  public synchronized Single<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
+    String verb = request.getVerb();
+    String endpoint = Util.endpointTemplate(request.getPath());
+    requestSize.labels(name, verb, endpoint).observe(request.getBody().size());
+
+    long start = System.nanoTime();
+    Single<WebsocketResponse> response;
+    try {
+      response = super.sendRequest(request);
+    } catch (IOException e) {
+      requestDuration.labels(name, verb, endpoint, "error").observe((System.nanoTime() - start) / 1e9);
+      throw e;
+    }
+
+    // the timing is attached to the returned single, so it is taken when the caller's subscription sees the response. Response bodies
+    // are JSON, so their length in characters is used as their size rather than encoding them again
+    return response.doOnSuccess(r -> {
+      String status = String.valueOf(r.getStatus());
+      requestDuration.labels(name, verb, endpoint, status).observe((System.nanoTime() - start) / 1e9);
+      if (r.getBody() != null) {
+        responseSize.labels(name, verb, endpoint, status).observe(r.getBody().length());
+      }
+    }).doOnError(e -> requestDuration.labels(name, verb, endpoint, e instanceof TimeoutException ? "timeout" : "error").observe((System.nanoTime() - start) / 1e9));
+  }
+}
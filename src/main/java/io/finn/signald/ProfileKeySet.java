@@ -7,8 +7,10 @@ import io.reactivex.rxjava3.annotations.NonNull;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
@@ -18,6 +20,7 @@ import org.signal.storageservice.protos.groups.local.DecryptedGroup;
 import org.signal.storageservice.protos.groups.local.DecryptedGroupChange;
 import org.signal.storageservice.protos.groups.local.DecryptedMember;
 import org.signal.storageservice.protos.groups.local.DecryptedRequestingMember;
+import org.whispersystems.signalservice.api.push.ACI;
 import org.whispersystems.signalservice.api.util.UuidUtil;
 
 /**
@@ -31,8 +34,9 @@ import org.whispersystems.signalservice.api.util.UuidUtil;
 public final class ProfileKeySet {
   private final static Logger logger = LogManager.getLogger();
 
-  private final Map<Recipient, ProfileKey> profileKeys = new LinkedHashMap<>();
-  private final Map<Recipient, ProfileKey> authoritativeProfileKeys = new LinkedHashMap<>();
+  // keyed by member UUID while collecting, recipients are resolved in bulk when the keys are read
+  private final Map<UUID, ProfileKey> profileKeys = new LinkedHashMap<>();
+  private final Map<UUID, ProfileKey> authoritativeProfileKeys = new LinkedHashMap<>();
   private final IRecipientsTable recipientsTable;
 
   public ProfileKeySet(IRecipientsTable recipientsTable) { this.recipientsTable = recipientsTable; }
@@ -43,7 +47,7 @@ public final class ProfileKeySet {
    * If the change came from the member whose profile key is changing then it is regarded as
    * authoritative.
    */
-  public void addKeysFromGroupChange(@NonNull DecryptedGroupChange change) throws SQLException, IOException {
+  public void addKeysFromGroupChange(@NonNull DecryptedGroupChange change) {
     UUID editor = UuidUtil.fromByteStringOrNull(change.getEditor());
 
     for (DecryptedMember member : change.getNewMembersList()) {
@@ -70,17 +74,17 @@ public final class ProfileKeySet {
    * attributed to a member and it's possible that the group is out of date. So profile keys
    * gathered from a group state can only be used to fill in gaps in knowledge.
    */
-  public void addKeysFromGroupState(@NonNull DecryptedGroup group) throws SQLException, IOException {
+  public void addKeysFromGroupState(@NonNull DecryptedGroup group) {
     for (DecryptedMember member : group.getMembersList()) {
       addMemberKey(member, null);
     }
   }
 
-  private void addMemberKey(@NonNull DecryptedMember member, @Nullable UUID changeSource) throws SQLException, IOException {
+  private void addMemberKey(@NonNull DecryptedMember member, @Nullable UUID changeSource) {
     addMemberKey(changeSource, member.getUuid(), member.getProfileKey());
   }
 
-  private void addMemberKey(@Nullable UUID changeSource, @NonNull ByteString memberUuidBytes, @NonNull ByteString profileKeyBytes) throws SQLException, IOException {
+  private void addMemberKey(@Nullable UUID changeSource, @NonNull ByteString memberUuidBytes, @NonNull ByteString profileKeyBytes) {
     UUID memberUuid = UuidUtil.fromByteString(memberUuidBytes);
 
     if (UuidUtil.UNKNOWN_UUID.equals(memberUuid)) {
@@ -96,20 +100,29 @@ public final class ProfileKeySet {
       return;
     }
 
-    Recipient recipient = recipientsTable.get(memberUuid);
     if (memberUuid.equals(changeSource)) {
-      authoritativeProfileKeys.put(recipient, profileKey);
-      profileKeys.remove(recipient);
+      authoritativeProfileKeys.put(memberUuid, profileKey);
+      profileKeys.remove(memberUuid);
     } else {
-      if (!authoritativeProfileKeys.containsKey(recipient)) {
-        profileKeys.put(recipient, profileKey);
+      if (!authoritativeProfileKeys.containsKey(memberUuid)) {
+        profileKeys.put(memberUuid, profileKey);
       }
     }
   }
 
-  public Map<Recipient, ProfileKey> getProfileKeys() { return profileKeys; }
+  public Map<Recipient, ProfileKey> getProfileKeys() throws SQLException { return resolve(profileKeys); }
 
-  public Map<Recipient, ProfileKey> getAuthoritativeProfileKeys() { return authoritativeProfileKeys; }
+  public Map<Recipient, ProfileKey> getAuthoritativeProfileKeys() throws SQLException { return resolve(authoritativeProfileKeys); }
+
+  private Map<Recipient, ProfileKey> resolve(Map<UUID, ProfileKey> keys) throws SQLException {
+    List<ACI> members = keys.keySet().stream().map(ACI::from).collect(Collectors.toList());
+    List<Recipient> recipients = recipientsTable.getOrCreateAll(members);
+    Map<Recipient, ProfileKey> resolved = new LinkedHashMap<>();
+    for (int i = 0; i < recipients.size(); i++) {
+      resolved.put(recipients.get(i), keys.get(members.get(i).uuid()));
+    }
+    return resolved;
+  }
 
   public Recipient getSelf() throws SQLException, IOException { return recipientsTable.self(); }
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald;
+
+import io.finn.signald.db.Recipient;
+import io.finn.signald.jobs.BackgroundJobRunnerThread;
+import io.finn.signald.jobs.SendDeliveryReceiptJob;
+import io.finn.signald.util.AccountUsers;
+import io.prometheus.client.Histogram;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.whispersystems.signalservice.api.messages.SignalServiceReceiptMessage;
+import org.whispersystems.signalservice.api.push.ACI;
+
+// holds receipts for each (account, recipient) for --receipt-window milliseconds, so a burst of messages from the same sender (or a
+// client marking many of them read in separate requests) is acknowledged with one receipt listing every timestamp, instead of one
+// encrypted send each. Delivery receipts are sent by a SendDeliveryReceiptJob when the window ends. Read receipts are sent on a thread
+// of this class's own when the window ends, with the first mark_read request's sender, and every request in the window waits (up to
+// SEND_WAIT_SECONDS past the window) for that send and gets its result. Anything still held when signald shuts down is sent before it
+// exits.
+public class ReceiptAggregator {
+  private static final Logger logger = LogManager.getLogger();
+  private static final Histogram batchSize = Histogram.build()
+                                                 .name(BuildConfig.NAME + "_receipt_batch_size")
+                                                 .help("number of message timestamps in each receipt sent")
+                                                 .labelNames("type")
+                                                 .buckets(1, 2, 5, 10, 25, 50, 100, 250)
+                                                 .register();
+  private static final long SEND_WAIT_SECONDS = 60;
+  private static final ReceiptAggregator instance = new ReceiptAggregator(Config.getReceiptWindow());
+
+  private final long window;
+  private final ScheduledExecutorService scheduler;
+  // read receipts are sent here rather than on scheduler, so a slow send doesn't hold up the other recipients' receipts
+  private final ExecutorService readSender;
+  // both maps are guarded by themselves
+  private final Map<String, SendDeliveryReceiptJob> deliveryReceipts = new HashMap<>();
+  private final Map<String, ReadReceipts> readReceipts = new HashMap<>();
+
+  ReceiptAggregator(long window) {
+    this.window = window;
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, ReceiptAggregator.class.getSimpleName());
+      t.setDaemon(true);
+      return t;
+    });
+    readSender = Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, ReceiptAggregator.class.getSimpleName() + "-read");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  public static ReceiptAggregator get() { return instance; }
+
+  public static void start() { Runtime.getRuntime().addShutdownHook(new Thread(instance::flushAll, ReceiptAggregator.class.getSimpleName() + "-shutdown")); }
+
+  public void delivery(Manager m, Recipient recipient, long timestamp) {
+    if (window == 0) {
+      batchSize.labels("delivery").observe(1);
+      BackgroundJobRunnerThread.queue(new SendDeliveryReceiptJob(m, recipient, timestamp));
+      return;
+    }
+    String key = key(m.getACI(), recipient);
+    synchronized (deliveryReceipts) {
+      SendDeliveryReceiptJob job = deliveryReceipts.get(key);
+      if (job == null) {
+        job = new SendDeliveryReceiptJob(m, recipient);
+        deliveryReceipts.put(key, job);
+        SendDeliveryReceiptJob scheduled = job;
+        scheduler.schedule(() -> queueDelivery(key, scheduled), window, TimeUnit.MILLISECONDS);
+      }
+      job.addTimestamp(timestamp);
+    }
+  }
+
+  // sends a read receipt for timestamps, together with any others for the same recipient in this window, and returns or throws once
+  // it's sent. The first caller's sender sends the receipt for all of them. Throws TimeoutException if it isn't sent in time.
+  public void read(ACI account, Recipient recipient, List<Long> timestamps, long when, Sender sender) throws Exception {
+    if (window == 0) {
+      batchSize.labels("read").observe(timestamps.size());
+      sender.send(new SignalServiceReceiptMessage(SignalServiceReceiptMessage.Type.READ, timestamps, when));
+      return;
+    }
+    String key = key(account, recipient);
+    ReadReceipts batch;
+    synchronized (readReceipts) {
+      batch = readReceipts.get(key);
+      if (batch == null) {
+        batch = new ReadReceipts(account.toString(), sender);
+        readReceipts.put(key, batch);
+        ReadReceipts scheduled = batch;
+        scheduler.schedule(() -> readSender.execute(() -> sendReadInScope(key, scheduled)), window, TimeUnit.MILLISECONDS);
+      }
+      batch.timestamps.addAll(timestamps);
+      batch.when = Math.max(batch.when, when);
+    }
+
+    try {
+      batch.sent.get(window + TimeUnit.SECONDS.toMillis(SEND_WAIT_SECONDS), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw(Exception) e.getCause();
+      }
+      throw(Error) e.getCause();
+    }
+  }
+
+  private void queueDelivery(String key, SendDeliveryReceiptJob job) {
+    synchronized (deliveryReceipts) {
+      if (!deliveryReceipts.remove(key, job)) {
+        return;
+      }
+    }
+    batchSize.labels("delivery").observe(job.getTimestampCount());
+    BackgroundJobRunnerThread.queue(job);
+  }
+
+  // the sender holds the first request's account objects, which that request only keeps in use while it's still waiting
+  private void sendReadInScope(String key, ReadReceipts batch) {
+    try (AccountUsers.Scope ignored = AccountUsers.begin()) {
+      AccountUsers.used(batch.account);
+      sendRead(key, batch);
+    }
+  }
+
+  private void sendRead(String key, ReadReceipts batch) {
+    synchronized (readReceipts) {
+      if (!readReceipts.remove(key, batch)) {
+        return;
+      }
+    }
+    batchSize.labels("read").observe(batch.timestamps.size());
+    try {
+      batch.sender.send(new SignalServiceReceiptMessage(SignalServiceReceiptMessage.Type.READ, batch.timestamps, batch.when));
+      batch.sent.complete(null);
+    } catch (Throwable t) {
+      batch.sent.completeExceptionally(t);
+    }
+  }
+
+  // sends everything that's being held. The delivery receipts are sent right here rather than queued, since the background job thread
+  // won't get to them once signald is exiting.
+  void flushAll() {
+    List<SendDeliveryReceiptJob> jobs;
+    synchronized (deliveryReceipts) {
+      jobs = new ArrayList<>(deliveryReceipts.values());
+      deliveryReceipts.clear();
+    }
+    List<Map.Entry<String, ReadReceipts>> reads;
+    synchronized (readReceipts) { reads = new ArrayList<>(readReceipts.entrySet()); }
+    if (jobs.isEmpty() && reads.isEmpty()) {
+      return;
+    }
+    logger.info("sending {} held delivery receipts and {} held read receipts", jobs.size(), reads.size());
+
+    for (SendDeliveryReceiptJob job : jobs) {
+      batchSize.labels("delivery").observe(job.getTimestampCount());
+      try {
+        job.run();
+      } catch (Throwable t) {
+        logger.warn("error sending delivery receipt: {}", t.getMessage());
+      }
+    }
+    for (Map.Entry<String, ReadReceipts> read : reads) {
+      sendRead(read.getKey(), read.getValue());
+    }
+  }
+
+  private static String key(ACI account, Recipient recipient) { return account.toString() + ":" + recipient.getId(); }
+
+  public interface Sender {
+    void send(SignalServiceReceiptMessage message) throws Exception;
+  }
+
+  private static class ReadReceipts {
+    private final String account;
+    private final Sender sender;
+    private final List<Long> timestamps = new ArrayList<>();
+    private final CompletableFuture<Void> sent = new CompletableFuture<>();
+    private long when;
+
+    ReadReceipts(String account, Sender sender) {
+      this.account = account;
+      this.sender = sender;
+    }
+  }
+}
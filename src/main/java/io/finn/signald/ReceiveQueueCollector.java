@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// reports how far behind each subscribed account is on handling incoming messages. The values are read from the message receivers
+// when prometheus scrapes, and summarized across accounts, so the number of series doesn't grow with the number of accounts.
+// Accounts in --metrics-accounts additionally get their own series.
+class ReceiveQueueCollector extends Collector {
+  private static final int[] LAG_THRESHOLDS_SECONDS = {1, 10, 60, 300};
+
+  @Override
+  public List<MetricFamilySamples> collect() {
+    long now = System.currentTimeMillis();
+    long totalDepth = 0;
+    long maxDepth = 0;
+    double maxLag = 0;
+    long[] lagging = new long[LAG_THRESHOLDS_SECONDS.length];
+
+    GaugeMetricFamily accountDepth = new GaugeMetricFamily(BuildConfig.NAME + "_account_receive_queue_depth", "messages received by the account and not yet handled",
+                                                           Collections.singletonList("account_uuid"));
+    GaugeMetricFamily accountLag = new GaugeMetricFamily(BuildConfig.NAME + "_account_receive_lag_seconds",
+                                                         "time the account's oldest unhandled message has been waiting since the server received it",
+                                                         Collections.singletonList("account_uuid"));
+
+    for (MessageReceiver receiver : MessageReceiver.getReceivers()) {
+      int depth = receiver.getPendingEnvelopes();
+      double lag = receiver.getLagSeconds(now);
+      totalDepth += depth;
+      maxDepth = Math.max(maxDepth, depth);
+      maxLag = Math.max(maxLag, lag);
+      for (int i = 0; i < LAG_THRESHOLDS_SECONDS.length; i++) {
+        if (lag > LAG_THRESHOLDS_SECONDS[i]) {
+          lagging[i]++;
+        }
+      }
+
+      String uuid = receiver.getAccountUUID();
+      if (AccountMetrics.isTracked(uuid)) {
+        accountDepth.addMetric(Collections.singletonList(uuid), depth);
+        accountLag.addMetric(Collections.singletonList(uuid), lag);
+      }
+    }
+
+    List<MetricFamilySamples> samples = new ArrayList<>();
+    samples.add(new GaugeMetricFamily(BuildConfig.NAME + "_receive_queue_depth", "messages received by all subscribed accounts and not yet handled", totalDepth));
+    samples.add(new GaugeMetricFamily(BuildConfig.NAME + "_receive_queue_depth_max", "most messages received and not yet handled by a single account", maxDepth));
+    samples.add(new GaugeMetricFamily(BuildConfig.NAME + "_receive_lag_max_seconds", "longest time any account's oldest unhandled message has been waiting", maxLag));
+
+    GaugeMetricFamily laggingAccounts = new GaugeMetricFamily(BuildConfig.NAME + "_receive_lagging_accounts",
+                                                              "number of subscribed accounts whose oldest unhandled message has been waiting longer than the threshold",
+                                                              Collections.singletonList("threshold_seconds"));
+    for (int i = 0; i < LAG_THRESHOLDS_SECONDS.length; i++) {
+      laggingAccounts.addMetric(Collections.singletonList(String.valueOf(LAG_THRESHOLDS_SECONDS[i])), lagging[i]);
+    }
+    samples.add(laggingAccounts);
+    samples.add(accountDepth);
+    samples.add(accountLag);
+    return samples;
+  }
+}
@@ -7,37 +7,104 @@
 
 package io.finn.signald;
 
+import io.prometheus.client.Histogram;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.whispersystems.signalservice.api.SignalSessionLock;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.push.ServiceId;
 
+/**
+ * Session locks come in two scopes:
+ * <ul>
+ *   <li>acquire() is the account-wide lock. The signal library takes it internally around every cipher operation, and it is used directly
+ *   for operations that span many sessions at once, such as rotating sender keys, or where the remote party isn't known yet (sealed sender
+ *   decryption).</li>
+ *   <li>acquire(ServiceId) locks a single remote address. It is meant to be held across a whole operation with one peer, including network
+ *   round trips, so operations involving different peers don't wait on each other. It may be held while taking the account-wide lock, but
+ *   never the other way around.</li>
+ * </ul>
+ */
 public class SessionLock implements SignalSessionLock {
   private final static Logger logger = LogManager.getLogger();
+  private static final Histogram waitTime = Histogram.build()
+                                                .name(BuildConfig.NAME + "_session_lock_wait_seconds")
+                                                .help("time spent waiting to acquire a session lock")
+                                                .labelNames("scope")
+                                                .buckets(0.0001, 0.001, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30)
+                                                .register();
+  private static final Histogram holdTime = Histogram.build()
+                                                .name(BuildConfig.NAME + "_session_lock_held_seconds")
+                                                .help("time a session lock was held before being released")
+                                                .labelNames("scope")
+                                                .buckets(0.0001, 0.001, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30)
+                                                .register();
+  private static final long SLOW_ACQUIRE_LOG_THRESHOLD_MS = 1000;
+  private static final int RECIPIENT_LOCK_STRIPES = 64;
   private static final ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, ReentrantLock[]> recipientLocks = new ConcurrentHashMap<>();
   private final Account account;
 
   public SessionLock(Account a) { account = a; }
 
   @Override
   public Lock acquire() {
-    ReentrantLock lock;
     String key = account.getACI().toString();
-    synchronized (locks) {
-      lock = locks.get(key);
-      if (lock == null) {
-        logger.debug("first lock acquision for this account");
-        lock = new ReentrantLock();
-        locks.put(key, lock);
-      }
+    // computeIfAbsent can lock the bin even when the lock already exists, so look it up first
+    ReentrantLock lock = locks.get(key);
+    if (lock == null) {
+      lock = locks.computeIfAbsent(key, k -> new ReentrantLock());
     }
-    logger.debug("acquiring session lock (held by current thread: {}, held by {}, queue length {})", lock.isHeldByCurrentThread(), lock.getHoldCount(), lock.getQueueLength());
-    long start = System.currentTimeMillis();
+    return lock(lock, "account");
+  }
+
+  public Lock acquire(ServiceId recipient) {
+    String key = account.getACI().toString();
+    ReentrantLock[] stripes = recipientLocks.get(key);
+    if (stripes == null) {
+      stripes = recipientLocks.computeIfAbsent(key, k -> {
+        ReentrantLock[] l = new ReentrantLock[RECIPIENT_LOCK_STRIPES];
+        for (int i = 0; i < l.length; i++) {
+          l[i] = new ReentrantLock();
+        }
+        return l;
+      });
+    }
+    ReentrantLock lock = stripes[Math.floorMod(recipient.uuid().hashCode(), stripes.length)];
+    return lock(lock, "recipient");
+  }
+
+  // drops the account's locks when it is evicted or deleted, so the maps don't keep an entry for every account ever used. A lock that is
+  // held or waited on is kept, so everyone using the account keeps locking the same one.
+  public static void remove(ACI aci) {
+    String key = aci.toString();
+    locks.computeIfPresent(key, (k, lock) -> isInUse(lock) ? lock : null);
+    recipientLocks.computeIfPresent(key, (k, stripes) -> {
+      for (ReentrantLock lock : stripes) {
+        if (isInUse(lock)) {
+          return stripes;
+        }
+      }
+      return null;
+    });
+  }
+
+  private static boolean isInUse(ReentrantLock lock) { return lock.isLocked() || lock.hasQueuedThreads(); }
+
+  private Lock lock(ReentrantLock lock, String scope) {
+    long start = System.nanoTime();
     lock.lock();
-    long acquireTime = System.currentTimeMillis() - start;
-    logger.debug("session lock acquired for account {} in {} ms (held by {}, queue length {})", Util.redact(account.getACI()), acquireTime, lock.getHoldCount(),
-                 lock.getQueueLength());
-    return lock::unlock;
+    long acquired = System.nanoTime();
+    waitTime.labels(scope).observe((acquired - start) / 1e9);
+    long waitMs = (acquired - start) / 1000000;
+    if (waitMs > SLOW_ACQUIRE_LOG_THRESHOLD_MS) {
+      logger.debug("{} session lock for account {} took {} ms to acquire (queue length {})", scope, Util.redact(account.getACI()), waitMs, lock.getQueueLength());
+    }
+    return () -> {
+      holdTime.labels(scope).observe((System.nanoTime() - acquired) / 1e9);
+      lock.unlock();
+    };
   }
 }
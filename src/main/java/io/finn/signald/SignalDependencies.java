@@ -14,6 +14,8 @@ import io.finn.signald.exceptions.InvalidProxyException;
 import io.finn.signald.exceptions.NoSuchAccountException;
 import io.finn.signald.exceptions.ServerNotFoundException;
 import io.finn.signald.util.GroupsUtil;
+import io.finn.signald.util.AccountUsers;
+import io.finn.signald.util.LastUsed;
 import java.io.IOException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -23,6 +25,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import org.signal.libsignal.zkgroup.profiles.ClientZkProfileOperations;
@@ -30,13 +33,12 @@ import org.whispersystems.signalservice.api.*;
 import org.whispersystems.signalservice.api.groupsv2.ClientZkOperations;
 import org.whispersystems.signalservice.api.push.ACI;
 import org.whispersystems.signalservice.api.services.ProfileService;
-import org.whispersystems.signalservice.api.util.UptimeSleepTimer;
 import org.whispersystems.signalservice.api.websocket.WebSocketFactory;
 import org.whispersystems.signalservice.internal.util.DynamicCredentialsProvider;
 import org.whispersystems.signalservice.internal.websocket.WebSocketConnection;
 
 public class SignalDependencies {
-  private final static Map<String, SignalDependencies> instances = new HashMap<>();
+  private final static ConcurrentHashMap<String, SignalDependencies> instances = new ConcurrentHashMap<>();
 
   private final IServersTable.AbstractServer server;
   private final DatabaseDataStore dataStore;
@@ -64,24 +66,42 @@ public class SignalDependencies {
   private final Object profileServiceLock = new Object();
 
   private final UUID accountUUID;
+  private final LastUsed lastUsed = new LastUsed();
 
   public static SignalDependencies get(UUID accountUUID) throws SQLException, ServerNotFoundException, InvalidProxyException, IOException, NoSuchAccountException {
     return get(ACI.from(accountUUID));
   }
 
   public static SignalDependencies get(ACI aci) throws SQLException, ServerNotFoundException, InvalidProxyException, IOException, NoSuchAccountException {
+    // lookups don't take the lock, only creating and deleting instances does
+    AccountUsers.used(aci.toString());
+    SignalDependencies d = instances.get(aci.toString());
+    if (d != null) {
+      d.lastUsed.touch();
+      return d;
+    }
     synchronized (instances) {
-      SignalDependencies d = instances.get(aci.toString());
+      d = instances.get(aci.toString());
       if (d == null) {
         var server = Database.Get().AccountsTable.getServer(aci);
         Account account = new Account(aci);
         d = new SignalDependencies(account, server);
         instances.put(aci.toString(), d);
       }
+      d.lastUsed.touch();
       return d;
     }
   }
 
+  // when each account's dependencies were last looked up, for IdleAccountEvictor
+  static Map<String, Long> getLastUsed() {
+    Map<String, Long> lastUsed = new HashMap<>();
+    instances.forEach((aci, d) -> lastUsed.put(aci, d.lastUsed.get()));
+    return lastUsed;
+  }
+
+  static int getResidentCount() { return instances.size(); }
+
   public static void delete(ACI aci) {
     synchronized (instances) {
       SignalDependencies dependencies = instances.remove(aci.toString());
@@ -110,17 +130,16 @@ public class SignalDependencies {
   public SignalWebSocket getWebSocket() {
     synchronized (websocketLock) {
       if (websocket == null) {
-        UptimeSleepTimer timer = new UptimeSleepTimer();
-        SignalWebSocketHealthMonitor healthMonitor = new SignalWebSocketHealthMonitor(accountUUID, timer);
+        SignalWebSocketHealthMonitor healthMonitor = new SignalWebSocketHealthMonitor(accountUUID);
         WebSocketFactory webSocketFactory = new WebSocketFactory() {
           @Override
           public WebSocketConnection createWebSocket() {
-            return new WebSocketConnection("normal", server.getSignalServiceConfiguration(), Optional.of(credentialsProvider), BuildConfig.USER_AGENT, healthMonitor, true);
+            return new MetricsWebSocketConnection("normal", server.getSignalServiceConfiguration(), Optional.of(credentialsProvider), BuildConfig.USER_AGENT, healthMonitor, true);
           }
 
           @Override
           public WebSocketConnection createUnidentifiedWebSocket() {
-            return new WebSocketConnection("unidentified", server.getSignalServiceConfiguration(), Optional.empty(), BuildConfig.USER_AGENT, healthMonitor, true);
+            return new MetricsWebSocketConnection("unidentified", server.getSignalServiceConfiguration(), Optional.empty(), BuildConfig.USER_AGENT, healthMonitor, true);
           }
         };
         websocket = new SignalWebSocket(webSocketFactory);
@@ -174,6 +193,8 @@ public class SignalDependencies {
 
   public SessionLock getSessionLock() { return sessionLock; }
 
+  public ExecutorService getExecutor() { return executor; }
+
   public ProfileService getProfileService() {
     synchronized (profileServiceLock) {
       if (profileService == null) {
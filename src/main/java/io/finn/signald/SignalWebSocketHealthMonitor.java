@@ -7,43 +7,68 @@
 
 package io.finn.signald;
 
+import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.whispersystems.signalservice.api.SignalWebSocket;
 import org.whispersystems.signalservice.api.util.Preconditions;
-import org.whispersystems.signalservice.api.util.SleepTimer;
 import org.whispersystems.signalservice.api.websocket.HealthMonitor;
 import org.whispersystems.signalservice.api.websocket.WebSocketConnectionState;
 import org.whispersystems.signalservice.internal.websocket.WebSocketConnection;
 
 public final class SignalWebSocketHealthMonitor implements HealthMonitor {
+  // only set for accounts in --metrics-accounts, connectedAccounts covers the rest without a series per account
   static final Gauge connected =
       Gauge.build().name(BuildConfig.NAME + "_upstream_websocket").help("1 if the upstream websocket is connected, 0 otherwise").labelNames("account_uuid", "socket").register();
+  static final Gauge connectedAccounts =
+      Gauge.build().name(BuildConfig.NAME + "_upstream_websockets_connected").help("number of accounts whose upstream websocket is connected").labelNames("socket").register();
+  static final Histogram keepAliveRtt = Histogram.build()
+                                           .name(BuildConfig.NAME + "_upstream_websocket_keepalive_rtt_seconds")
+                                           .help("round trip time of keep alives on the upstream websockets")
+                                           .labelNames("socket")
+                                           .buckets(0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+                                           .register();
+  static final Counter missedKeepAlives = Counter.build()
+                                              .name(BuildConfig.NAME + "_upstream_websocket_missed_keepalives")
+                                              .help("number of times an upstream websocket was recreated because keep alives went unanswered")
+                                              .labelNames("account_uuid", "socket")
+                                              .register();
   private final static Logger logger = LogManager.getLogger();
 
+  // one scheduler drives the keep alives for every account, rather than a sleeping thread per account
+  private static final ScheduledExecutorService keepAliveScheduler = Executors.newScheduledThreadPool(2, r -> {
+    Thread t = new Thread(r, "KeepAliveScheduler");
+    t.setDaemon(true);
+    return t;
+  });
+
   private static final long KEEP_ALIVE_SEND_CADENCE = TimeUnit.SECONDS.toMillis(WebSocketConnection.KEEPALIVE_TIMEOUT_SECONDS);
   private static final long MAX_TIME_SINCE_SUCCESSFUL_KEEP_ALIVE = KEEP_ALIVE_SEND_CADENCE * 3;
+  // each keep alive is scheduled up to this far either side of the cadence, so accounts that connected together don't stay in lockstep
+  private static final long KEEP_ALIVE_JITTER = KEEP_ALIVE_SEND_CADENCE / 10;
 
   private SignalWebSocket signalWebSocket;
-  private final SleepTimer sleepTimer;
 
-  private volatile KeepAliveSender keepAliveSender;
+  // incremented whenever keep alives start or stop, so a keep alive that is already running when they stop doesn't reschedule itself
+  private long keepAliveGeneration;
+  private boolean keepAliveRunning;
 
   private final HealthState identified = new HealthState();
   private final HealthState unidentified = new HealthState();
 
   private final UUID accountUUID;
 
-  public SignalWebSocketHealthMonitor(UUID accountUUID, SleepTimer sleepTimer) {
-    this.sleepTimer = sleepTimer;
-    this.accountUUID = accountUUID;
-  }
+  public SignalWebSocketHealthMonitor(UUID accountUUID) { this.accountUUID = accountUUID; }
 
   public void monitor(SignalWebSocket signalWebSocket) {
     Preconditions.checkNotNull(signalWebSocket);
@@ -69,27 +94,40 @@ public final class SignalWebSocketHealthMonitor implements HealthMonitor {
   private synchronized void onStateChange(WebSocketConnectionState state, HealthState healthState, boolean unidentified) throws SQLException {
     logger.debug((unidentified ? "unidentified" : "identified") + " websocket state: " + state.name());
 
-    connected.labels(accountUUID.toString(), unidentified ? "unidentified" : "identified").set(state == WebSocketConnectionState.CONNECTED ? 1 : 0);
+    String socket = unidentified ? "unidentified" : "identified";
+    boolean isConnected = state == WebSocketConnectionState.CONNECTED;
+    if (isConnected != healthState.connected) {
+      healthState.connected = isConnected;
+      connectedAccounts.labels(socket).inc(isConnected ? 1 : -1);
+    }
+    if (AccountMetrics.isTracked(accountUUID.toString())) {
+      connected.labels(accountUUID.toString(), socket).set(isConnected ? 1 : 0);
+    }
 
     MessageReceiver.handleWebSocketConnectionStateChange(accountUUID, state, unidentified);
 
-    healthState.needsKeepAlive = state == WebSocketConnectionState.CONNECTED;
+    healthState.needsKeepAlive = isConnected;
 
-    if (keepAliveSender == null && isKeepAliveNecessary()) {
-      keepAliveSender = new KeepAliveSender();
-      keepAliveSender.start();
-    } else if (keepAliveSender != null && !isKeepAliveNecessary()) {
-      keepAliveSender.shutdown();
-      keepAliveSender = null;
+    if (!keepAliveRunning && isKeepAliveNecessary()) {
+      keepAliveRunning = true;
+      keepAliveGeneration++;
+      identified.lastKeepAliveReceived = System.currentTimeMillis();
+      unidentified.lastKeepAliveReceived = System.currentTimeMillis();
+      scheduleKeepAlive(keepAliveGeneration);
+    } else if (keepAliveRunning && !isKeepAliveNecessary()) {
+      keepAliveRunning = false;
+      keepAliveGeneration++;
     }
   }
 
   @Override
   public void onKeepAliveResponse(long sentTimestamp, boolean isIdentifiedWebSocket) {
+    long now = System.currentTimeMillis();
+    keepAliveRtt.labels(isIdentifiedWebSocket ? "identified" : "unidentified").observe(Math.max(0, now - sentTimestamp) / 1000.0);
     if (isIdentifiedWebSocket) {
-      identified.lastKeepAliveReceived = System.currentTimeMillis();
+      identified.lastKeepAliveReceived = now;
     } else {
-      unidentified.lastKeepAliveReceived = System.currentTimeMillis();
+      unidentified.lastKeepAliveReceived = now;
     }
   }
 
@@ -111,43 +149,53 @@ public final class SignalWebSocketHealthMonitor implements HealthMonitor {
     private final HttpErrorTracker mismatchErrorTracker = new HttpErrorTracker(5, TimeUnit.MINUTES.toMillis(1));
 
     private volatile boolean needsKeepAlive;
+    private boolean connected;
     private volatile long lastKeepAliveReceived;
   }
 
+  private synchronized void scheduleKeepAlive(long generation) {
+    long delay = KEEP_ALIVE_SEND_CADENCE + ThreadLocalRandom.current().nextLong(-KEEP_ALIVE_JITTER, KEEP_ALIVE_JITTER + 1);
+    keepAliveScheduler.schedule(() -> sendKeepAlive(generation), delay, TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized boolean isCurrent(long generation) { return keepAliveRunning && generation == keepAliveGeneration; }
+
   /**
    * Sends periodic heartbeats/keep-alives over both WebSockets to prevent connection timeouts. If
    * either WebSocket fails 3 times to get a return heartbeat both are forced to be recreated.
    */
-  private class KeepAliveSender extends Thread {
-
-    private volatile boolean shouldKeepRunning = true;
+  private void sendKeepAlive(long generation) {
+    if (!isCurrent(generation)) {
+      return;
+    }
 
-    public void run() {
-      identified.lastKeepAliveReceived = System.currentTimeMillis();
-      unidentified.lastKeepAliveReceived = System.currentTimeMillis();
+    try {
+      long keepAliveRequiredSinceTime = System.currentTimeMillis() - MAX_TIME_SINCE_SUCCESSFUL_KEEP_ALIVE;
 
-      while (shouldKeepRunning && isKeepAliveNecessary()) {
-        try {
-          sleepTimer.sleep(KEEP_ALIVE_SEND_CADENCE);
-
-          if (shouldKeepRunning && isKeepAliveNecessary()) {
-            long keepAliveRequiredSinceTime = System.currentTimeMillis() - MAX_TIME_SINCE_SUCCESSFUL_KEEP_ALIVE;
-
-            if (identified.lastKeepAliveReceived < keepAliveRequiredSinceTime || unidentified.lastKeepAliveReceived < keepAliveRequiredSinceTime) {
-              logger.warn("Missed keep alives, identified last: " + identified.lastKeepAliveReceived + " unidentified last: " + unidentified.lastKeepAliveReceived +
-                          " needed by: " + keepAliveRequiredSinceTime);
-              signalWebSocket.forceNewWebSockets();
-            } else {
-              signalWebSocket.sendKeepAlive();
-            }
-          }
-        } catch (Throwable e) {
-          logger.warn("Error occurred in KeepAliveSender, ignoring ...", e);
+      boolean identifiedMissed = identified.lastKeepAliveReceived < keepAliveRequiredSinceTime;
+      boolean unidentifiedMissed = unidentified.lastKeepAliveReceived < keepAliveRequiredSinceTime;
+      if (identifiedMissed || unidentifiedMissed) {
+        logger.warn("Missed keep alives, identified last: " + identified.lastKeepAliveReceived + " unidentified last: " + unidentified.lastKeepAliveReceived +
+                    " needed by: " + keepAliveRequiredSinceTime);
+        if (identifiedMissed) {
+          missedKeepAlives.labels(AccountMetrics.label(accountUUID), "identified").inc();
         }
+        if (unidentifiedMissed) {
+          missedKeepAlives.labels(AccountMetrics.label(accountUUID), "unidentified").inc();
+        }
+        signalWebSocket.forceNewWebSockets();
+      } else {
+        signalWebSocket.sendKeepAlive();
       }
+    } catch (Throwable e) {
+      logger.warn("Error occurred sending keep alive, ignoring ...", e);
     }
 
-    public void shutdown() { shouldKeepRunning = false; }
+    synchronized (this) {
+      if (isCurrent(generation)) {
+        scheduleKeepAlive(generation);
+      }
+    }
   }
 
   private final static class HttpErrorTracker {
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald;
+
+import io.finn.signald.clientprotocol.MessageEncoder;
+import io.finn.signald.clientprotocol.SubscriptionFilter;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// reports how many events each connected subscriber's filter kept from being sent to it, labelled by the client's pid. The counts
+// live on the filters and are read when prometheus scrapes, so a subscriber's series go away when it unsubscribes, and a client that
+// reconnects keeps its series. Subscriptions from the same client to the same account are added together. Subscribers without a
+// filter have no series.
+class SubscriberCollector extends Collector {
+  @Override
+  public List<MetricFamilySamples> collect() {
+    Map<List<String>, Long> counts = new HashMap<>();
+    for (MessageReceiver receiver : MessageReceiver.getReceivers()) {
+      String account = AccountMetrics.label(receiver.getAccountUUID());
+      for (MessageEncoder subscriber : receiver.getSubscribers()) {
+        SubscriptionFilter filter = subscriber.getFilter();
+        if (filter == null) {
+          continue;
+        }
+        for (Map.Entry<String, Long> entry : filter.getFiltered().entrySet()) {
+          counts.merge(Arrays.asList(account, filter.getSubscriber(), entry.getKey()), entry.getValue(), Long::sum);
+        }
+      }
+    }
+
+    CounterMetricFamily filtered = new CounterMetricFamily(BuildConfig.NAME + "_connected_subscriber_filtered_events",
+                                                           "events not sent to a connected subscriber because of its filter, since it subscribed",
+                                                           Arrays.asList("account_uuid", "subscriber", "event"));
+    counts.forEach((labels, count) -> filtered.addMetric(labels, count));
+    return Collections.singletonList(filtered);
+  }
+}
@@ -10,11 +10,30 @@ package io.finn.signald;
 import java.io.*;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 import org.whispersystems.signalservice.api.push.ServiceId;
 import org.whispersystems.util.Base64;
 
 public class Util {
+  // endpoint templates are used as metric labels, so the number of distinct ones (and the depth of each) is capped. Anything past
+  // the cap is reported as "other" rather than growing the label set without bound
+  private static final int MAX_ENDPOINT_TEMPLATES = 256;
+  private static final int MAX_ENDPOINT_SEGMENTS = 6;
+  private static final Set<String> endpointTemplates = ConcurrentHashMap.newKeySet();
+  private static final Pattern API_VERSION = Pattern.compile("v[0-9]+");
+  // the fixed segments of the server's API paths. Anything else is replaced, even if it looks like a word, since usernames, hex IDs and
+  // tokens can too
+  private static final Set<String> PATH_WORDS = Set.of(
+      "accounts", "apn", "archives", "attachments", "attributes", "auth", "avatar", "backup", "boost", "capabilities", "certificate", "challenge", "check", "code", "config",
+      "confirm", "contacts", "conversions", "delivery", "devices", "directory", "donation", "form", "full", "gcm", "group", "groups", "identity", "join", "joined_at_version",
+      "keepalive", "keys", "link", "logs", "manifest", "manifest.proto", "me", "messages", "multi_recipient", "number", "pack", "payments", "phone_number_discoverability",
+      "phone_number_identity_key_distribution", "pin", "profile", "profiles", "provisioning", "rate_limit_hit", "read", "receipt", "registration", "registration_lock", "report",
+      "reserve", "session", "signed", "sms", "sticker", "stickers", "storage", "subscription", "token", "upload", "username", "username_hash", "username_link", "verification",
+      "version", "voice", "websocket", "whoami");
+
   public static String getSecret(int size) {
     byte[] secret = getSecretBytes(size);
     return Base64.encodeBytes(secret);
@@ -49,6 +68,49 @@ public class Util {
     return String.format("[redacted %s]", redactedSize) + in.substring(redactedSize);
   }
 
+  // turns a request path into a template suitable for a metric label: the query string is dropped and every segment that
+  // identifies something (UUIDs, phone numbers, device IDs, group IDs, tokens, codes) is replaced with {id}, so
+  // /v1/messages/a59eef85-fd26-4f4f-bf7b-d4948e28b230?story=false becomes /v1/messages/{id}
+  public static String endpointTemplate(String path) {
+    if (path == null || path.isEmpty()) {
+      return "/";
+    }
+
+    int query = path.indexOf('?');
+    if (query >= 0) {
+      path = path.substring(0, query);
+    }
+
+    StringBuilder template = new StringBuilder();
+    int segments = 0;
+    for (String segment : path.split("/")) {
+      if (segment.isEmpty()) {
+        continue;
+      }
+      if (segments == MAX_ENDPOINT_SEGMENTS) {
+        template.append("/...");
+        break;
+      }
+      template.append('/');
+      if (segment.equals("*") || API_VERSION.matcher(segment).matches() || PATH_WORDS.contains(segment)) {
+        template.append(segment);
+      } else {
+        template.append("{id}");
+      }
+      segments++;
+    }
+
+    String result = template.length() == 0 ? "/" : template.toString();
+    if (endpointTemplates.contains(result)) {
+      return result;
+    }
+    if (endpointTemplates.size() >= MAX_ENDPOINT_TEMPLATES) {
+      return "other";
+    }
+    endpointTemplates.add(result);
+    return result;
+  }
+
   public static void copyStream(InputStream input, OutputStream output, int bufferSize) throws IOException {
     byte[] buffer = new byte[bufferSize];
     int read;
@@ -10,19 +10,24 @@ package io.finn.signald.clientprotocol;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.finn.signald.*;
+import io.finn.signald.annotations.ProtocolType;
+import io.finn.signald.clientprotocol.v1.FramingInfo;
 import io.finn.signald.clientprotocol.v1.JsonVersionMessage;
+import io.finn.signald.clientprotocol.v1.SetFramingRequest;
 import io.finn.signald.clientprotocol.v1.exceptions.NoSuchAccountError;
+import io.finn.signald.util.AccountUsers;
 import io.finn.signald.util.JSONUtil;
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
 import io.prometheus.client.Summary;
 import io.sentry.Sentry;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.newsclub.net.unix.AFUNIXSocket;
@@ -43,42 +48,112 @@ public class ClientConnection implements Runnable {
                                                    .labelNames("request_type", "request_version")
                                                    .register();
   static final Counter requestCount = Counter.build().name(BuildConfig.NAME + "_requests_total").help("Total requests processed").labelNames("request_type", "version").register();
+  // requests from every connection run here, each on its own thread as before, but threads are reused between requests
+  private static final ExecutorService requestExecutor = Executors.newCachedThreadPool();
+  private static final String SET_FRAMING = SetFramingRequest.class.getAnnotation(ProtocolType.class).value();
 
   public ClientConnection(Socket s) throws IOException {
     socket = s;
+    Framing.register(socket);
     legacySocketHandler = new LegacySocketHandler(socket);
   }
 
   @Override
   public void run() {
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-      try (PrintWriter w = new PrintWriter(socket.getOutputStream(), true)) {
-        try {
-          clientsConnectedTotal.inc();
-          clientsConnected.inc();
-          JsonMessageWrapper message = new JsonMessageWrapper("version", new JsonVersionMessage(), (String)null);
-          send(w, message);
-
-          String line;
-          while ((line = reader.readLine()) != null) {
-            if (line.trim().length() > 0) {
-              new Thread(new RequestRunner(line, w)).start();
-            }
+    try (InputStream in = new BufferedInputStream(socket.getInputStream())) {
+      try {
+        connected();
+        String line;
+        boolean framed = false;
+        while (!framed && (line = Framing.readLine(in)) != null) {
+          framed = dispatch(line);
+        }
+        if (framed) {
+          byte[] frame;
+          while ((frame = Framing.readFrame(in)) != null) {
+            dispatchFrame(frame);
           }
-        } catch (IOException e) {
-          handleError(w, e, null);
         }
+      } catch (IOException e) {
+        handleError(e, null);
       }
     } catch (IOException e) {
       logger.debug("client socket exception: " + e.getMessage());
     } finally {
-      MessageReceiver.unsubscribeAll(socket);
-      logger.info("Client disconnected");
-      clientsConnected.dec();
+      disconnected();
+    }
+  }
+
+  // the pid of the process on the other end of socket, or -1 if it isn't known
+  public static long getClientPid(Socket socket) {
+    if (socket instanceof AFUNIXSocket) {
+      try {
+        return ((AFUNIXSocket)socket).getPeerCredentials().getPid();
+      } catch (SocketException e) {
+        logger.debug("error checking socket credentials", e);
+        return -1;
+      }
     }
+    return NioSocketServer.getClientPid(socket);
   }
 
-  private void handleError(PrintWriter w, Throwable error, JsonRequest request) {
+  // connected, dispatch, dispatchFrame and disconnected are also used by NioSocketServer, which does its own reading
+  void connected() throws IOException {
+    clientsConnectedTotal.inc();
+    clientsConnected.inc();
+    JsonMessageWrapper message = new JsonMessageWrapper("version", new JsonVersionMessage(), (String)null);
+    send(message);
+  }
+
+  // returns true if the line switched the connection to frames, which the caller reads from then on
+  boolean dispatch(String line) {
+    if (line.trim().length() == 0) {
+      return false;
+    }
+    // set_framing changes how everything after it is read, so it's handled here before the next line is read rather than on the
+    // request executor. The check for the type name keeps other requests from being parsed twice.
+    if (line.contains(SET_FRAMING)) {
+      try {
+        JsonNode rawRequest = mapper.readTree(line);
+        if (rawRequest.has("type") && rawRequest.get("type").asText().equals(SET_FRAMING)) {
+          return setFraming(rawRequest);
+        }
+      } catch (IOException e) {
+        // not valid JSON, let the request executor report it
+      }
+    }
+    requestExecutor.execute(new RequestRunner(line, null));
+    return false;
+  }
+
+  void dispatchFrame(byte[] frame) {
+    if (frame.length > 0) {
+      requestExecutor.execute(new RequestRunner(null, frame));
+    }
+  }
+
+  void disconnected() {
+    MessageReceiver.unsubscribeAll(socket);
+    Framing.remove(socket);
+    logger.info("Client disconnected");
+    clientsConnected.dec();
+  }
+
+  private boolean setFraming(JsonNode rawRequest) throws IOException {
+    String id = rawRequest.has("id") ? rawRequest.get("id").asText() : null;
+    String framing = rawRequest.has("framing") ? rawRequest.get("framing").asText() : null;
+    if (!Framing.isSupported(framing)) {
+      JsonMessageWrapper error = JsonMessageWrapper.error(SET_FRAMING, new RequestValidationFailure("unsupported framing: " + framing), id);
+      send(error);
+      return false;
+    }
+    logger.debug("switching client connection to {} framing", framing);
+    // the reply is the last message sent in JSON
+    Framing.switchFraming(socket, mapper, new JsonMessageWrapper(SET_FRAMING, new FramingInfo(framing), id), framing);
+    return !framing.equals(Framing.JSON);
+  }
+
+  private void handleError(Throwable error, JsonRequest request) {
     if (error instanceof NoSuchAccountError) {
       logger.warn("unable to process request for non-existent account");
     } else if (error instanceof UnregisteredUserException) {
@@ -93,31 +168,36 @@ public class ClientConnection implements Runnable {
     }
     try {
       JsonMessageWrapper message = new JsonMessageWrapper("unexpected_error", new JsonStatusMessage(0, error.getMessage(), request), requestID);
-      send(w, message);
+      send(message);
     } catch (IOException e) {
       logger.catching(e);
     }
   }
 
-  public void send(PrintWriter w, JsonMessageWrapper message) throws IOException {
-    String m = mapper.writeValueAsString(message);
-    synchronized (socket) { w.println(m); }
-  }
+  public void send(JsonMessageWrapper message) throws IOException { Framing.write(socket, mapper, message); }
 
   private class RequestRunner implements Runnable {
     private final String line;
-    private final PrintWriter writer;
+    private final byte[] frame;
 
-    RequestRunner(String l, PrintWriter w) {
+    // exactly one of line and frame is set, depending on the connection's framing
+    RequestRunner(String l, byte[] f) {
       line = l;
-      writer = w;
+      frame = f;
     }
 
     @Override
     public void run() {
+      // the accounts the request looks up aren't released while it runs, see AccountUsers
+      try (AccountUsers.Scope ignored = AccountUsers.begin()) {
+        handle();
+      }
+    }
+
+    private void handle() {
       JsonRequest request = null;
       try {
-        JsonNode rawRequest = mapper.readTree(line);
+        JsonNode rawRequest = frame == null ? mapper.readTree(line) : Framing.decode(frame);
         String type = rawRequest.get("type").asText();
         if (rawRequest.has("id")) {
           String id = rawRequest.get("id").asText();
@@ -143,15 +223,8 @@ public class ClientConnection implements Runnable {
 
           if (version.equals("v0")) {
             request = mapper.convertValue(rawRequest, JsonRequest.class);
-            String client = "unknown client";
-            try {
-              if (socket instanceof AFUNIXSocket) {
-                AFUNIXSocket unixsocket = (AFUNIXSocket)socket;
-                client = "client pid=" + unixsocket.getPeerCredentials().getPid();
-              }
-            } catch (SocketException e) {
-              logger.debug("error checking socket credentials to write warning message", e);
-            }
+            long pid = getClientPid(socket);
+            String client = pid == -1 ? "unknown client" : "client pid=" + pid;
             logger.warn(client + " sent a v0 " + type + " request. v0 support will be removed soon!"
                         + "Please update your signald client. Client authors, see "
                         + "https://signald.org/articles/protocol-versioning/#deprecation");
@@ -164,7 +237,7 @@ public class ClientConnection implements Runnable {
           requestCount.labels(type, version).inc();
         }
       } catch (Throwable e) {
-        handleError(writer, e, request);
+        handleError(e, request);
       }
     }
   }
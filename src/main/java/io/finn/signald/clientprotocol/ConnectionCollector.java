@@ -0,0 +1,50 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol;
+
+import io.finn.signald.BuildConfig;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// reports the bytes read from and written to each open client connection, labelled by the client's pid. The counts live on the
+// connections and are read when prometheus scrapes, so a client's series go away when it disconnects. Connections from the same
+// pid are added together. Only the MAX_CLIENTS busiest clients get series, so a misbehaving client that reconnects in a loop can't
+// flood the scrape; the _client_socket_*_bytes_total counters still count every connection.
+class ConnectionCollector extends Collector {
+  static final int MAX_CLIENTS = 50;
+
+  @Override
+  public List<MetricFamilySamples> collect() {
+    Map<String, long[]> clients = new HashMap<>();
+    for (NioSocketServer server : NioSocketServer.getServers()) {
+      for (NioSocketServer.Connection connection : server.getConnections()) {
+        long[] bytes = clients.computeIfAbsent(connection.getPid() < 0 ? "unknown" : String.valueOf(connection.getPid()), pid -> new long[2]);
+        bytes[0] += connection.getBytesRead();
+        bytes[1] += connection.getBytesWritten();
+      }
+    }
+
+    List<Map.Entry<String, long[]>> busiest = new ArrayList<>(clients.entrySet());
+    busiest.sort((a, b) -> Long.compare(b.getValue()[0] + b.getValue()[1], a.getValue()[0] + a.getValue()[1]));
+
+    CounterMetricFamily connectionBytes = new CounterMetricFamily(BuildConfig.NAME + "_connected_client_socket_bytes",
+                                                                  "bytes read from or written to an open client connection, since it connected",
+                                                                  Arrays.asList("pid", "direction"));
+    for (Map.Entry<String, long[]> client : busiest.subList(0, Math.min(MAX_CLIENTS, busiest.size()))) {
+      connectionBytes.addMetric(Arrays.asList(client.getKey(), "read"), client.getValue()[0]);
+      connectionBytes.addMetric(Arrays.asList(client.getKey(), "written"), client.getValue()[1]);
+    }
+    return Collections.singletonList(connectionBytes);
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.finn.signald.BuildConfig;
+import io.prometheus.client.Histogram;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+// writes messages to one client connection. Messages are serialized with a JsonGenerator straight into a buffer that belongs to the
+// calling thread and is reused for its next message, so no intermediate String or byte[] is built for each one. The encoded bytes are
+// then appended to the connection's pending buffer, and whichever thread gets to flush next writes everything that's pending with a
+// single write to the socket. When several replies and subscription messages are ready at once, they go out together, and the socket
+// lock is only held while writing, not while serializing. A thread whose message went out in another thread's write gets that write's
+// result: if it failed, every thread with a message in it gets the error, and so does every later write, since the socket is unusable.
+class ConnectionWriter {
+  private static final Histogram flushedMessages = Histogram.build()
+                                                       .name(BuildConfig.NAME + "_client_flush_messages")
+                                                       .help("number of messages written to a client connection with each write")
+                                                       .buckets(1, 2, 4, 8, 16, 32, 64)
+                                                       .register();
+  private static final SmileFactory smileFactory = new SmileFactory();
+  // buffers are kept between messages, unless a large message (a long contact list, say) grew them past this
+  private static final int MAX_RETAINED_BUFFER = 256 * 1024;
+  private static final ThreadLocal<Buffer> scratch = ThreadLocal.withInitial(Buffer::new);
+
+  private final Socket socket;
+  // guards everything down to failure
+  private final Object pendingLock = new Object();
+  private Buffer pending = new Buffer();
+  private int pendingMessages;
+  private boolean smile;
+  // messages are numbered in the order they're appended. written is the number of the last one that was written successfully.
+  private long appended;
+  private long written;
+  private IOException failure;
+  // only used while holding the socket lock: swapped with pending on every flush
+  private Buffer flushing = new Buffer();
+
+  ConnectionWriter(Socket socket) { this.socket = socket; }
+
+  void write(ObjectMapper mapper, Object message) throws IOException { flush(append(mapper, message, null)); }
+
+  // writes message, which is the last one sent in the current framing, and switches the connection to framing
+  void switchFraming(ObjectMapper mapper, Object message, String framing) throws IOException {
+    flush(append(mapper, message, framing));
+  }
+
+  // returns the message's number
+  private long append(ObjectMapper mapper, Object message, String framing) throws IOException {
+    Buffer encoded = scratch.get();
+    try {
+      boolean encodedSmile = isSmile();
+      encode(encoded, mapper, message, encodedSmile);
+      synchronized (pendingLock) {
+        if (failure != null) {
+          throw failed();
+        }
+        // the connection may have switched while the message was being encoded
+        if (encodedSmile != smile) {
+          encode(encoded, mapper, message, smile);
+        }
+        encoded.writeTo(pending);
+        pendingMessages++;
+        if (framing != null) {
+          smile = Framing.SMILE.equals(framing);
+        }
+        return ++appended;
+      }
+    } finally {
+      if (encoded.capacity() > MAX_RETAINED_BUFFER) {
+        scratch.remove();
+      }
+    }
+  }
+
+  // writes everything pending, unless message was already written along with another thread's
+  private void flush(long message) throws IOException {
+    synchronized (socket) {
+      int messages;
+      long through;
+      synchronized (pendingLock) {
+        if (message <= written) {
+          return;
+        }
+        if (failure != null) {
+          // message was in a write that failed, or was appended before it failed
+          throw failed();
+        }
+        Buffer full = pending;
+        pending = flushing;
+        flushing = full;
+        messages = pendingMessages;
+        pendingMessages = 0;
+        through = appended;
+      }
+      try {
+        OutputStream out = socket.getOutputStream();
+        flushing.writeTo(out);
+        out.flush();
+        flushedMessages.observe(messages);
+        synchronized (pendingLock) { written = through; }
+      } catch (IOException e) {
+        synchronized (pendingLock) { failure = e; }
+        throw e;
+      } finally {
+        flushing = flushing.capacity() > MAX_RETAINED_BUFFER ? new Buffer() : flushing;
+        flushing.reset();
+      }
+    }
+  }
+
+  // a new exception for each thread, so its stack trace shows where that thread's write was
+  private IOException failed() { return new IOException("write to client failed: " + failure.getMessage(), failure); }
+
+  boolean isSmile() {
+    synchronized (pendingLock) {
+      return smile;
+    }
+  }
+
+  // a line of JSON, or a frame: the length prefix and the Smile encoded message
+  static void encode(Buffer buffer, ObjectMapper mapper, Object message, boolean smile) throws IOException {
+    buffer.reset();
+    if (smile) {
+      buffer.write(new byte[4], 0, 4);
+    }
+    try (JsonGenerator generator = smile ? smileFactory.createGenerator(buffer) : mapper.getFactory().createGenerator(buffer)) {
+      mapper.writeValue(generator, message);
+    }
+    if (smile) {
+      buffer.setLengthPrefix();
+    } else {
+      buffer.write('\n');
+    }
+  }
+
+  static class Buffer extends ByteArrayOutputStream {
+    Buffer() { super(4096); }
+
+    int capacity() { return buf.length; }
+
+    // fills in the 4 bytes reserved at the start of the buffer with the length of the rest of it
+    void setLengthPrefix() {
+      int length = count - 4;
+      buf[0] = (byte)(length >>> 24);
+      buf[1] = (byte)(length >>> 16);
+      buf[2] = (byte)(length >>> 8);
+      buf[3] = (byte)length;
+    }
+  }
+}
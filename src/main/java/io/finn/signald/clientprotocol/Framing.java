@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// how messages are framed on a client connection. Every connection starts out with newline-delimited JSON, and a client can switch
+// its connection to length-prefixed Smile (https://github.com/FasterXML/smile-format-specification) frames with a set_framing
+// request. Each frame is a 4 byte big-endian length followed by that many bytes of Smile, encoding the same objects as the JSON
+// protocol. All writes to clients go through write(), so the rest of the client protocol code doesn't depend on the framing, and
+// each connection's writes are buffered and coalesced by its ConnectionWriter.
+public class Framing {
+  public static final String JSON = "json";
+  public static final String SMILE = "smile";
+  static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+  private static final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+  // the writer for each connection, which also keeps track of the connection's framing
+  private static final Map<Socket, ConnectionWriter> writers = new ConcurrentHashMap<>();
+
+  public static boolean isSupported(String framing) { return JSON.equals(framing) || SMILE.equals(framing); }
+
+  static void register(Socket socket) { writers.put(socket, new ConnectionWriter(socket)); }
+
+  static void remove(Socket socket) { writers.remove(socket); }
+
+  // writes a message to the client, in whichever framing its connection uses. mapper is the caller's usual JSON mapper, its settings
+  // are used for either framing.
+  public static void write(Socket socket, ObjectMapper mapper, Object message) throws IOException { getWriter(socket).write(mapper, message); }
+
+  // writes reply in the connection's current framing and switches the connection to framing, without letting other messages in between
+  static void switchFraming(Socket socket, ObjectMapper mapper, Object reply, String framing) throws IOException {
+    getWriter(socket).switchFraming(mapper, reply, framing);
+  }
+
+  // sockets are registered for as long as their ClientConnection is connected. A write that comes in after that (a subscription
+  // racing with the disconnect, for instance) gets a writer of its own and is written as JSON.
+  private static ConnectionWriter getWriter(Socket socket) {
+    ConnectionWriter writer = writers.get(socket);
+    return writer == null ? new ConnectionWriter(socket) : writer;
+  }
+
+  // a whole frame: the length prefix and the Smile encoded message
+  static byte[] encode(ObjectMapper mapper, Object message) throws IOException {
+    ConnectionWriter.Buffer buffer = new ConnectionWriter.Buffer();
+    ConnectionWriter.encode(buffer, mapper, message, true);
+    return buffer.toByteArray();
+  }
+
+  static JsonNode decode(byte[] payload) throws IOException { return smileMapper.readTree(payload); }
+
+  // reads the payload of the next frame, or returns null at the end of the stream
+  static byte[] readFrame(InputStream in) throws IOException {
+    int length = 0;
+    for (int i = 0; i < 4; i++) {
+      int b = in.read();
+      if (b == -1) {
+        if (i == 0) {
+          return null;
+        }
+        throw new EOFException("connection closed in the middle of a frame");
+      }
+      length = (length << 8) | b;
+    }
+    if (length < 0 || length > MAX_FRAME_SIZE) {
+      throw new IOException("frame too large: " + length + " bytes");
+    }
+    byte[] payload = in.readNBytes(length);
+    if (payload.length < length) {
+      throw new EOFException("connection closed in the middle of a frame");
+    }
+    return payload;
+  }
+
+  // reads the next line of newline-delimited JSON without buffering past it, so a switch to frames can read the rest of the stream.
+  // Returns null at the end of the stream.
+  static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b == -1) {
+        if (line.size() == 0) {
+          return null;
+        }
+        break;
+      }
+      line.write(b);
+    }
+    String s = line.toString(StandardCharsets.UTF_8);
+    return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+  }
+}
@@ -22,6 +22,8 @@ public interface MessageEncoder {
   void broadcastWebSocketConnectionStateChange(WebSocketConnectionState state, boolean unidentified) throws IOException;
   void broadcastStorageChange(long version) throws IOException;
   boolean isClosed();
+  // null if the subscriber is sent everything
+  SubscriptionFilter getFilter();
   boolean equals(Socket socket);
   boolean equals(MessageEncoder encoder);
 }
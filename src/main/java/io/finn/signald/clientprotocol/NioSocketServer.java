@@ -0,0 +1,533 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol;
+
+import io.finn.signald.BuildConfig;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Summary;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.newsclub.net.unix.AFUNIXSelectorProvider;
+import org.newsclub.net.unix.AFUNIXServerSocketChannel;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+import org.newsclub.net.unix.AFUNIXSocketChannel;
+import org.newsclub.net.unix.AFUNIXSocketCredentials;
+
+// serves the control socket from a single selector thread instead of a thread per connection, so idle clients don't cost a thread
+// each. Lines (or frames, see Framing) are read with non-blocking reads into pooled direct buffers and handed to ClientConnection,
+// which runs the request on the request executor. Everything that writes to a client (request replies, subscriptions) is given a Socket whose output streams
+// queue complete messages for the selector thread to write, so the rest of the client protocol code works unchanged.
+public class NioSocketServer implements Runnable, AutoCloseable {
+  private static final Logger logger = LogManager.getLogger();
+  private static final Counter bytesRead = Counter.build().name(BuildConfig.NAME + "_client_socket_read_bytes_total").help("bytes read from client connections").register();
+  private static final Counter bytesWritten =
+      Counter.build().name(BuildConfig.NAME + "_client_socket_written_bytes_total").help("bytes written to client connections").register();
+  private static final Summary connectionBytes = Summary.build()
+                                                     .name(BuildConfig.NAME + "_client_connection_bytes")
+                                                     .help("bytes read from or written to a client connection over its lifetime, observed when it closes")
+                                                     .labelNames("direction")
+                                                     .register();
+  // servers that haven't been closed, for ConnectionCollector
+  private static final Set<NioSocketServer> servers = ConcurrentHashMap.newKeySet();
+  private static final ConnectionCollector connectionCollector = new ConnectionCollector().register();
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_POOLED_BUFFERS = 32;
+  // a client that stops reading would otherwise make us queue everything sent to it in memory
+  private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+  private final AFUNIXServerSocketChannel serverChannel;
+  private final Selector selector;
+  private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+  private final Queue<Connection> pending = new ConcurrentLinkedQueue<>();
+  private final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooledBuffers = new AtomicInteger();
+
+  public NioSocketServer(File socketFile) throws IOException {
+    selector = AFUNIXSelectorProvider.provider().openSelector();
+    serverChannel = AFUNIXServerSocketChannel.open();
+    serverChannel.bind(AFUNIXSocketAddress.of(socketFile));
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    servers.add(this);
+  }
+
+  static Set<NioSocketServer> getServers() { return Collections.unmodifiableSet(servers); }
+
+  // the open connections, for their byte counters
+  public Set<Connection> getConnections() { return Collections.unmodifiableSet(connections); }
+
+  @Override
+  public void run() {
+    while (!Thread.interrupted() && selector.isOpen()) {
+      try {
+        selector.select();
+        Connection connection;
+        while ((connection = pending.poll()) != null) {
+          connection.writeScheduled.set(false);
+          try {
+            connection.flushOrClose();
+          } catch (RuntimeException e) {
+            failed(connection, e);
+          }
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          // one connection going wrong (a key cancelled under us, a bug handling its input) mustn't end the loop, since every other
+          // client and the listening socket depend on it
+          try {
+            handle(key);
+          } catch (RuntimeException e) {
+            failed(key.attachment() instanceof Connection ? (Connection)key.attachment() : null, e);
+          }
+        }
+      } catch (ClosedSelectorException e) {
+        break;
+      } catch (IOException | RuntimeException e) {
+        logger.catching(e);
+      }
+    }
+  }
+
+  private void handle(SelectionKey key) throws IOException {
+    if (!key.isValid()) {
+      return;
+    }
+    if (key.isAcceptable()) {
+      accept();
+      return;
+    }
+    Connection connection = (Connection)key.attachment();
+    if (key.isReadable()) {
+      connection.read();
+    }
+    if (key.isValid() && key.isWritable()) {
+      connection.flushOrClose();
+    }
+  }
+
+  private void failed(Connection connection, RuntimeException e) {
+    if (connection == null) {
+      logger.error("error accepting client connection", e);
+      return;
+    }
+    logger.error("error handling client pid {}, closing the connection", connection.pid, e);
+    connection.close();
+  }
+
+  // the pid of the client on the other end of a socket given to ClientConnection, or -1 if socket isn't one of ours
+  static long getClientPid(Socket socket) { return socket instanceof ConnectionSocket ? ((ConnectionSocket)socket).connection.pid : -1; }
+
+  // stops accepting connections. Connections that are already open are left to their clients.
+  @Override
+  public void close() throws IOException {
+    servers.remove(this);
+    serverChannel.close();
+    selector.close();
+  }
+
+  private void accept() throws IOException {
+    AFUNIXSocketChannel channel = serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    Connection connection = new Connection(channel);
+    try {
+      AFUNIXSocketCredentials credentials = channel.getPeerCredentials();
+      logger.debug("Connection from pid {} uid {}", credentials.getPid(), credentials.getUid());
+      connection.pid = credentials.getPid();
+    } catch (IOException e) {
+      logger.debug("error checking socket credentials", e);
+    }
+    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    connections.add(connection);
+    connection.start();
+  }
+
+  private ByteBuffer acquireBuffer() {
+    ByteBuffer buffer = bufferPool.poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+    pooledBuffers.decrementAndGet();
+    return buffer;
+  }
+
+  private void releaseBuffer(ByteBuffer buffer) {
+    buffer.clear();
+    if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+      bufferPool.add(buffer);
+    } else {
+      pooledBuffers.decrementAndGet();
+    }
+  }
+
+  public class Connection {
+    private final AFUNIXSocketChannel channel;
+    private final ConnectionSocket socket;
+    private final ClientConnection clientConnection;
+    private final Queue<byte[]> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private volatile boolean closeRequested;
+    private volatile boolean closed;
+    private SelectionKey key;
+    private long pid = -1;
+    // only touched by the selector thread. partialLine holds the start of a line that didn't fit in one read, writeBuffer is only
+    // held while there's output the client hasn't accepted yet, so idle connections don't hold on to a buffer
+    private ByteArrayOutputStream partialLine;
+    // set once the client switches to length-prefixed frames. frame is the payload being read, once its length has been read.
+    private boolean framed;
+    private int frameHeaderBytes;
+    private int frameLength;
+    private byte[] frame;
+    private int frameOffset;
+    private ByteBuffer writeBuffer;
+    private byte[] writeChunk;
+    private int writeChunkOffset;
+
+    private Connection(AFUNIXSocketChannel channel) throws IOException {
+      this.channel = channel;
+      socket = new ConnectionSocket(this);
+      clientConnection = new ClientConnection(socket);
+    }
+
+    public long getPid() { return pid; }
+
+    public long getBytesRead() { return read.get(); }
+
+    public long getBytesWritten() { return written.get(); }
+
+    private void start() {
+      try {
+        clientConnection.connected();
+      } catch (IOException e) {
+        logger.debug("client socket exception: " + e.getMessage());
+        close();
+      }
+    }
+
+    private void read() {
+      ByteBuffer buffer = acquireBuffer();
+      try {
+        int n = 0;
+        while (!closed && (n = channel.read(buffer)) > 0) {
+          read.addAndGet(n);
+          bytesRead.inc(n);
+          buffer.flip();
+          if (framed) {
+            splitFrames(buffer);
+          } else {
+            splitLines(buffer);
+          }
+          buffer.clear();
+        }
+        if (n < 0) {
+          close();
+        }
+      } catch (IOException e) {
+        logger.debug("client socket exception: " + e.getMessage());
+        close();
+      } finally {
+        releaseBuffer(buffer);
+      }
+    }
+
+    private void splitLines(ByteBuffer buffer) {
+      while (buffer.hasRemaining()) {
+        int newline = -1;
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+          if (buffer.get(i) == '\n') {
+            newline = i;
+            break;
+          }
+        }
+
+        if (newline == -1) {
+          if (partialLine == null) {
+            partialLine = new ByteArrayOutputStream();
+          }
+          if (partialLine.size() + buffer.remaining() > Framing.MAX_FRAME_SIZE) {
+            logger.warn("client pid {} sent a line longer than {} bytes, closing the connection", pid, Framing.MAX_FRAME_SIZE);
+            close();
+            return;
+          }
+          byte[] rest = new byte[buffer.remaining()];
+          buffer.get(rest);
+          partialLine.write(rest, 0, rest.length);
+          return;
+        }
+
+        byte[] line = new byte[newline - buffer.position()];
+        buffer.get(line);
+        buffer.get(); // the newline
+        if (partialLine != null) {
+          partialLine.write(line, 0, line.length);
+          line = partialLine.toByteArray();
+          partialLine = null;
+        }
+        int length = line.length;
+        if (length > 0 && line[length - 1] == '\r') {
+          length--;
+        }
+        if (clientConnection.dispatch(new String(line, 0, length, StandardCharsets.UTF_8))) {
+          framed = true;
+          splitFrames(buffer);
+          return;
+        }
+      }
+    }
+
+    private void splitFrames(ByteBuffer buffer) {
+      while (buffer.hasRemaining()) {
+        if (frame == null) {
+          while (frameHeaderBytes < 4 && buffer.hasRemaining()) {
+            frameLength = (frameLength << 8) | (buffer.get() & 0xff);
+            frameHeaderBytes++;
+          }
+          if (frameHeaderBytes < 4) {
+            return;
+          }
+          if (frameLength < 0 || frameLength > Framing.MAX_FRAME_SIZE) {
+            logger.warn("client pid {} sent a {} byte frame, closing the connection", pid, frameLength);
+            close();
+            return;
+          }
+          frame = new byte[frameLength];
+          frameOffset = 0;
+        }
+        int length = Math.min(buffer.remaining(), frame.length - frameOffset);
+        buffer.get(frame, frameOffset, length);
+        frameOffset += length;
+        if (frameOffset == frame.length) {
+          clientConnection.dispatchFrame(frame);
+          frame = null;
+          frameHeaderBytes = 0;
+          frameLength = 0;
+        }
+      }
+    }
+
+    // called from any thread with a complete message
+    private void enqueue(byte[] message) throws IOException {
+      if (closed || closeRequested) {
+        throw new SocketException("Socket is closed");
+      }
+      if (pendingBytes.addAndGet(message.length) > MAX_PENDING_BYTES) {
+        logger.warn("client pid {} isn't reading from its socket, closing the connection", pid);
+        requestClose();
+        throw new SocketException("too much unread output, connection closed");
+      }
+      outbound.add(message);
+      schedule();
+    }
+
+    private void requestClose() {
+      closeRequested = true;
+      schedule();
+    }
+
+    private void schedule() {
+      if (writeScheduled.compareAndSet(false, true)) {
+        pending.add(this);
+        selector.wakeup();
+      }
+    }
+
+    // selector thread only. A requested close happens after one last attempt to write what's queued, without waiting for the client.
+    private void flushOrClose() {
+      if (closed) {
+        return;
+      }
+      try {
+        flush();
+      } catch (IOException e) {
+        logger.debug("client socket exception: " + e.getMessage());
+        close();
+        return;
+      }
+      if (closeRequested) {
+        close();
+      }
+    }
+
+    // writes as much of the queued output as the client accepts, and waits for the socket to be writable if there's more
+    private void flush() throws IOException {
+      while (true) {
+        if (writeBuffer == null || !writeBuffer.hasRemaining()) {
+          if (!fillWriteBuffer()) {
+            key.interestOps(SelectionKey.OP_READ);
+            return;
+          }
+        }
+        int n = channel.write(writeBuffer);
+        written.addAndGet(n);
+        bytesWritten.inc(n);
+        if (writeBuffer.hasRemaining()) {
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return;
+        }
+      }
+    }
+
+    // copies queued messages into the write buffer, as many as fit. Returns false (and gives the buffer back) if nothing is queued.
+    private boolean fillWriteBuffer() {
+      if (writeBuffer == null) {
+        writeBuffer = acquireBuffer();
+      }
+      writeBuffer.clear();
+      while (writeBuffer.hasRemaining()) {
+        if (writeChunk == null) {
+          writeChunk = outbound.poll();
+          writeChunkOffset = 0;
+          if (writeChunk == null) {
+            break;
+          }
+        }
+        int length = Math.min(writeBuffer.remaining(), writeChunk.length - writeChunkOffset);
+        writeBuffer.put(writeChunk, writeChunkOffset, length);
+        writeChunkOffset += length;
+        if (writeChunkOffset == writeChunk.length) {
+          pendingBytes.addAndGet(-writeChunk.length);
+          writeChunk = null;
+        }
+      }
+      writeBuffer.flip();
+      if (!writeBuffer.hasRemaining()) {
+        releaseBuffer(writeBuffer);
+        writeBuffer = null;
+        return false;
+      }
+      return true;
+    }
+
+    // selector thread only
+    private void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      connections.remove(this);
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.debug("error closing client socket", e);
+      }
+      if (writeBuffer != null) {
+        releaseBuffer(writeBuffer);
+        writeBuffer = null;
+      }
+      outbound.clear();
+      connectionBytes.labels("read").observe(read.get());
+      connectionBytes.labels("written").observe(written.get());
+      logger.debug("client pid {} disconnected after {} bytes read, {} bytes written", pid, read.get(), written.get());
+      clientConnection.disconnected();
+    }
+  }
+
+  // stands in for the client's socket everywhere the client protocol code expects one. Each output stream collects what is written
+  // to it and queues it as one message when flushed, so messages written from different threads at once don't interleave.
+  private static class ConnectionSocket extends Socket {
+    private final Connection connection;
+
+    ConnectionSocket(Connection connection) throws SocketException {
+      super((SocketImpl)null);
+      this.connection = connection;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return InputStream.nullInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return new MessageOutputStream(connection);
+    }
+
+    @Override
+    public boolean isClosed() {
+      return connection.closed || connection.closeRequested;
+    }
+
+    @Override
+    public boolean isConnected() {
+      return !isClosed();
+    }
+
+    @Override
+    public void close() {
+      connection.requestClose();
+    }
+
+    @Override
+    public String toString() {
+      return "NioSocketServer.ConnectionSocket[pid=" + connection.pid + "]";
+    }
+  }
+
+  private static class MessageOutputStream extends OutputStream {
+    private final Connection connection;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    MessageOutputStream(Connection connection) { this.connection = connection; }
+
+    @Override
+    public synchronized void write(int b) {
+      buffer.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      buffer.write(b, off, len);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+      if (buffer.size() == 0) {
+        return;
+      }
+      byte[] message = buffer.toByteArray();
+      buffer.reset();
+      connection.enqueue(message);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
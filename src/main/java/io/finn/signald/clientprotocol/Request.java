@@ -24,11 +24,11 @@ import io.finn.signald.annotations.Deprecated;
 import io.finn.signald.clientprotocol.v1.*;
 import io.finn.signald.clientprotocol.v1.exceptions.ExceptionWrapper;
 import io.finn.signald.clientprotocol.v1.exceptions.RequestProcessingError;
+import io.finn.signald.util.AccountUsers;
 import io.finn.signald.util.JSONUtil;
 import io.finn.signald.util.RequestUtil;
 import io.sentry.Sentry;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.lang.reflect.Field;
 import java.net.Socket;
 import java.net.SocketException;
@@ -44,11 +44,11 @@ public class Request {
   public static final Map<String, String> defaultVersions = getDefaultVersions();
 
   private RequestType<?> requestType;
-  private final String type;
+  private String type;
   private String version;
   private String id;
   private final Socket socket;
-  private Logger logger;
+  private Logger logger = LogManager.getLogger();
 
   private final ObjectMapper mapper = JSONUtil.GetMapper();
 
@@ -89,9 +89,41 @@ public class Request {
   }
 
   public Request(JsonNode request, Socket s) throws IOException {
+    this(s);
+    JsonMessageWrapper response = handle(request);
+    reply(response);
+    if (response.data instanceof PostDeliveryCallback) {
+      ((PostDeliveryCallback)response.data).onResponseDelivered();
+    }
+  }
+
+  private Request(Socket s) {
     socket = s;
     initializeMapper();
+  }
 
+  // runs one of the requests in a batch on the batch's connection, and returns its reply instead of sending it. The caller is
+  // responsible for calling onResponseDelivered() if the reply's data is a PostDeliveryCallback.
+  public static JsonMessageWrapper runBatched(JsonNode request, Socket socket) {
+    Request r = new Request(socket);
+    long start = System.nanoTime();
+    JsonMessageWrapper response;
+    // parallel batches run their requests on other threads, which need a scope of their own
+    try (AccountUsers.Scope ignored = AccountUsers.begin()) {
+      response = r.handle(request);
+    } catch (RuntimeException e) {
+      // the request couldn't be parsed into its type, which is reported as an unexpected error when it isn't batched
+      r.logger.error("error while handling batched request", e);
+      response = JsonMessageWrapper.error(r.type, new RequestProcessingError(e), r.id);
+    }
+    if (r.requestType != null) {
+      ClientConnection.requestProcessingTime.labels(r.type, r.version).observe((System.nanoTime() - start) / 1e9);
+      ClientConnection.requestCount.labels(r.type, r.version).inc();
+    }
+    return response;
+  }
+
+  private JsonMessageWrapper handle(JsonNode request) {
     if (request.has("id")) {
       id = request.get("id").asText();
     }
@@ -99,33 +131,30 @@ public class Request {
     List<String> problems = new ArrayList<>();
     if (!request.has("type")) {
       problems.add("missing required argument: type");
+    } else {
+      type = request.get("type").asText();
     }
 
-    type = request.get("type").asText();
-
     if (request.has("version")) {
       version = request.get("version").asText();
-    } else if (defaultVersions.containsKey(type)) {
+    } else if (type != null && defaultVersions.containsKey(type)) {
       version = defaultVersions.get(type);
     } else {
       problems.add("missing required argument: version");
     }
 
     if (problems.size() > 0) {
-      error(new RequestValidationFailure(problems));
-      return;
+      return error(new RequestValidationFailure(problems));
     }
 
     logger = LogManager.getLogger(type);
 
     if (!requests.containsKey(type)) {
-      error(new RequestValidationFailure("Unknown request type: " + type));
-      return;
+      return error(new RequestValidationFailure("Unknown request type: " + type));
     }
 
     if (!requests.get(type).containsKey(version)) {
-      error(new RequestValidationFailure("unknown version of that request type"));
-      return;
+      return error(new RequestValidationFailure("unknown version of that request type"));
     }
 
     Class<? extends RequestType<?>> requestClass = requests.get(type).get(version);
@@ -138,29 +167,25 @@ public class Request {
     List<String> validationFailures = validate(request);
     if (validationFailures.size() > 0) {
       logger.warn("invalid request");
-      error(new RequestValidationFailure(validationFailures));
-      return;
+      return error(new RequestValidationFailure(validationFailures));
     }
 
     try {
       Object r = requestType.run(this);
-      reply(new JsonMessageWrapper(type, r, id));
       if (id != null) {
         logger.info("handled request {} successfully", id);
       }
-      if (r instanceof PostDeliveryCallback) {
-        ((PostDeliveryCallback)r).onResponseDelivered();
-      }
+      return new JsonMessageWrapper(type, r, id);
     } catch (ExceptionWrapper e) {
-      error(e);
       if (e.isUnexpected()) {
         logger.error("error while handling request", e);
         Sentry.captureException(e);
       }
+      return error(e);
     } catch (Throwable throwable) {
-      error(new RequestProcessingError(throwable));
       logger.error("error while handling request", throwable);
       Sentry.captureException(throwable);
+      return error(new RequestProcessingError(throwable));
     }
   }
 
@@ -230,11 +255,11 @@ public class Request {
     return errors;
   }
 
-  private void error(Object data) throws IOException { reply(JsonMessageWrapper.error(type, data, id)); }
+  private JsonMessageWrapper error(Object data) { return JsonMessageWrapper.error(type, data, id); }
 
   private void reply(JsonMessageWrapper message) throws IOException {
     try {
-      new PrintWriter(getSocket().getOutputStream(), true).println(mapper.writeValueAsString(message));
+      Framing.write(getSocket(), mapper, message);
     } catch (SocketException e) {
       logger.warn("Could not send reply: {}", e.getMessage());
     }
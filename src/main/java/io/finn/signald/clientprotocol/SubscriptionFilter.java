@@ -0,0 +1,196 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol;
+
+import io.finn.signald.AccountMetrics;
+import io.finn.signald.BuildConfig;
+import io.finn.signald.util.GroupsUtil;
+import io.prometheus.client.Counter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.whispersystems.signalservice.api.messages.SignalServiceContent;
+import org.whispersystems.signalservice.api.messages.SignalServiceDataMessage;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.api.messages.SignalServiceGroupContext;
+import org.whispersystems.signalservice.api.messages.multidevice.SentTranscriptMessage;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.util.Base64;
+
+// decides which events a subscriber is sent. MessageReceiver checks every event against each subscriber's filter before the subscriber
+// builds and serializes anything, so events the client doesn't want cost nothing past this check. Filtered events are counted per
+// account and event, summed over the account's subscribers, and each filter keeps its own counts, which SubscriberCollector reports
+// for the subscribers that are connected, labelled by client pid.
+public class SubscriptionFilter {
+  private static final Counter filteredEvents = Counter.build()
+                                                    .name(BuildConfig.NAME + "_subscriber_filtered_events")
+                                                    .help("events not sent to a subscriber because of its filter")
+                                                    .labelNames("account_uuid", "event")
+                                                    .register();
+
+  // the parts of an incoming message, named after the IncomingMessage fields
+  public static final String DATA_MESSAGE = "data_message";
+  public static final String SYNC_MESSAGE = "sync_message";
+  public static final String CALL_MESSAGE = "call_message";
+  public static final String RECEIPT_MESSAGE = "receipt_message";
+  public static final String TYPING_MESSAGE = "typing_message";
+  public static final String STORY_MESSAGE = "story_message";
+  public static final String DECRYPTION_ERROR_MESSAGE = "decryption_error_message";
+  // everything else a subscriber is sent
+  public static final String RECEIVE_ERROR = "receive_error";
+  public static final String LISTEN_STATE = "listen_state";
+  public static final String WEBSOCKET_CONNECTION_STATE = "websocket_connection_state";
+  public static final String STORAGE_CHANGE = "storage_change";
+  public static final List<String> EVENTS = Collections.unmodifiableList(Arrays.asList(DATA_MESSAGE, SYNC_MESSAGE, CALL_MESSAGE, RECEIPT_MESSAGE, TYPING_MESSAGE, STORY_MESSAGE,
+                                                                                        DECRYPTION_ERROR_MESSAGE, RECEIVE_ERROR, LISTEN_STATE, WEBSOCKET_CONNECTION_STATE,
+                                                                                        STORAGE_CHANGE));
+
+  private final ACI account;
+  private final String subscriber;
+  private final Set<String> events;
+  private final boolean dataMessagesOnly;
+  private final Set<String> groups;
+  private final Set<String> excludedGroups;
+  private final boolean excludeSelfSync;
+  private final Map<String, AtomicLong> filtered = new ConcurrentHashMap<>();
+
+  // subscriber identifies the client, its pid where that's known. null for any of the collections means it isn't used to filter.
+  public SubscriptionFilter(ACI account, String subscriber, Collection<String> events, boolean dataMessagesOnly, Collection<String> groups,
+                            Collection<String> excludedGroups, boolean excludeSelfSync) {
+    this.account = account;
+    this.subscriber = subscriber;
+    this.events = events == null ? null : new HashSet<>(events);
+    this.dataMessagesOnly = dataMessagesOnly;
+    this.groups = groups == null ? null : new HashSet<>(groups);
+    this.excludedGroups = excludedGroups == null ? null : new HashSet<>(excludedGroups);
+    this.excludeSelfSync = excludeSelfSync;
+  }
+
+  // for events other than incoming messages
+  public boolean accepts(String event) {
+    if (events == null || events.contains(event)) {
+      return true;
+    }
+    return filtered(event);
+  }
+
+  public boolean accepts(SignalServiceEnvelope envelope, SignalServiceContent content) { return accepts(getParts(envelope, content), () -> getGroupId(content)); }
+
+  // groupId is only looked up if the filter has a group list
+  boolean accepts(List<String> parts, Supplier<String> groupId) {
+    // counted under the first part, which is the only one for almost every message
+    String event = parts.isEmpty() ? "other" : parts.get(0);
+
+    if (events != null && Collections.disjoint(events, parts)) {
+      return filtered(event);
+    }
+    if (dataMessagesOnly && !parts.contains(DATA_MESSAGE)) {
+      return filtered(event);
+    }
+    if (excludeSelfSync && parts.contains(SYNC_MESSAGE)) {
+      return filtered(event);
+    }
+    if (groups != null || excludedGroups != null) {
+      String group = groupId.get();
+      if (groups != null && (group == null || !groups.contains(group))) {
+        return filtered(event);
+      }
+      if (excludedGroups != null && group != null && excludedGroups.contains(group)) {
+        return filtered(event);
+      }
+    }
+    return true;
+  }
+
+  public String getSubscriber() { return subscriber; }
+
+  // this subscriber's counts since it subscribed
+  public Map<String, Long> getFiltered() {
+    Map<String, Long> counts = new HashMap<>();
+    filtered.forEach((event, count) -> counts.put(event, count.get()));
+    return counts;
+  }
+
+  private boolean filtered(String event) {
+    filtered.computeIfAbsent(event, e -> new AtomicLong()).incrementAndGet();
+    filteredEvents.labels(AccountMetrics.label(account), event).inc();
+    return false;
+  }
+
+  private static List<String> getParts(SignalServiceEnvelope envelope, SignalServiceContent content) {
+    List<String> parts = new ArrayList<>(1);
+    if (content == null) {
+      // delivery receipts from the server have no content
+      if (envelope != null && envelope.isReceipt()) {
+        parts.add(RECEIPT_MESSAGE);
+      }
+      return parts;
+    }
+    if (content.getDataMessage().isPresent()) {
+      parts.add(DATA_MESSAGE);
+    }
+    if (content.getSyncMessage().isPresent()) {
+      parts.add(SYNC_MESSAGE);
+    }
+    if (content.getCallMessage().isPresent()) {
+      parts.add(CALL_MESSAGE);
+    }
+    if (content.getReceiptMessage().isPresent()) {
+      parts.add(RECEIPT_MESSAGE);
+    }
+    if (content.getTypingMessage().isPresent()) {
+      parts.add(TYPING_MESSAGE);
+    }
+    if (content.getStoryMessage().isPresent()) {
+      parts.add(STORY_MESSAGE);
+    }
+    if (content.getDecryptionErrorMessage().isPresent()) {
+      parts.add(DECRYPTION_ERROR_MESSAGE);
+    }
+    return parts;
+  }
+
+  // the ID of the group the message was sent to, in the same form as group_id elsewhere in the protocol, or null if it wasn't sent to
+  // a group
+  private static String getGroupId(SignalServiceContent content) {
+    if (content == null) {
+      return null;
+    }
+    Optional<SignalServiceDataMessage> dataMessage = content.getDataMessage();
+    if (!dataMessage.isPresent() && content.getSyncMessage().isPresent()) {
+      dataMessage = content.getSyncMessage().get().getSent().flatMap(SentTranscriptMessage::getDataMessage);
+    }
+    if (dataMessage.isPresent()) {
+      return getGroupId(dataMessage.get());
+    }
+    if (content.getTypingMessage().isPresent() && content.getTypingMessage().get().getGroupId().isPresent()) {
+      return Base64.encodeBytes(content.getTypingMessage().get().getGroupId().get());
+    }
+    return null;
+  }
+
+  static String getGroupId(SignalServiceDataMessage dataMessage) {
+    if (dataMessage.getGroupContext().isPresent()) {
+      SignalServiceGroupContext group = dataMessage.getGroupContext().get();
+      if (group.getGroupV2().isPresent()) {
+        return Base64.encodeBytes(GroupsUtil.GetIdentifierFromMasterKey(group.getGroupV2().get().getMasterKey()).serialize());
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol.v1;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.finn.signald.JsonMessageWrapper;
+import io.finn.signald.annotations.Doc;
+import io.finn.signald.annotations.ExampleValue;
+import io.finn.signald.annotations.ProtocolType;
+import io.finn.signald.annotations.Required;
+import io.finn.signald.annotations.RequiredNonEmpty;
+import io.finn.signald.clientprotocol.Request;
+import io.finn.signald.clientprotocol.RequestType;
+import io.finn.signald.clientprotocol.RequestValidationFailure;
+import io.finn.signald.clientprotocol.v1.exceptions.InternalError;
+import io.finn.signald.clientprotocol.v1.exceptions.InvalidRequestError;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@ProtocolType("batch")
+@Doc("run several requests and get a single response with the result of each one. Each request in the batch is validated and run the "
+     + "same way it would be if it was sent on its own, and fails or succeeds on its own. Batches can't be nested.")
+public class BatchRequest implements RequestType<BatchResponse> {
+  private static final String SEQUENTIAL = "sequential";
+  private static final String PARALLEL = "parallel";
+
+  // if the batch's response can't be delivered, the connection is gone. Requests waiting for the delivery (subscribe) give up after this.
+  private static final long DELIVERY_TIMEOUT_SECONDS = 60;
+  private static final String BATCH = BatchRequest.class.getAnnotation(ProtocolType.class).value();
+  private static final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @Doc("the requests to run, each one in the same form it would be sent on its own") @Required @RequiredNonEmpty public List<JsonNode> requests;
+
+  @ExampleValue("\"parallel\"")
+  @Doc("sequential (the default) runs the requests one at a time, in order. parallel runs the requests for each account in order, and the "
+       + "requests for different accounts at the same time. Requests without an account are run in order with each other.")
+  public String ordering;
+
+  @Override
+  public BatchResponse run(Request request) throws InvalidRequestError, InternalError {
+    if (ordering != null && !ordering.equals(SEQUENTIAL) && !ordering.equals(PARALLEL)) {
+      throw new InvalidRequestError("unknown ordering: " + ordering);
+    }
+
+    BatchResult[] results = new BatchResult[requests.size()];
+    if (!PARALLEL.equals(ordering)) {
+      for (int i = 0; i < requests.size(); i++) {
+        results[i] = run(request, requests.get(i));
+      }
+      List<BatchResult> list = Arrays.asList(results);
+      return new BatchResponse(list, () -> BatchResponse.deliver(list));
+    }
+
+    Map<String, List<Integer>> byAccount = new LinkedHashMap<>();
+    for (int i = 0; i < requests.size(); i++) {
+      JsonNode r = requests.get(i);
+      String account = r.has("account") ? r.get("account").asText() : "";
+      byAccount.computeIfAbsent(account, k -> new ArrayList<>()).add(i);
+    }
+
+    // a response that needs to know it was delivered (subscribe's) has to be told on the thread that ran the request, so each thread
+    // waits for the batch's response to be delivered before finishing
+    CountDownLatch done = new CountDownLatch(byAccount.size());
+    CountDownLatch delivered = new CountDownLatch(1);
+    for (List<Integer> indexes : byAccount.values()) {
+      executor.execute(() -> {
+        List<BatchResult> ran = new ArrayList<>();
+        try {
+          for (int i : indexes) {
+            results[i] = run(request, requests.get(i));
+            ran.add(results[i]);
+          }
+        } finally {
+          done.countDown();
+        }
+        try {
+          delivered.await(DELIVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        BatchResponse.deliver(ran);
+      });
+    }
+
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      throw new InternalError("interrupted while running batch", e);
+    }
+    return new BatchResponse(Arrays.asList(results), delivered::countDown);
+  }
+
+  private static BatchResult run(Request batch, JsonNode request) {
+    JsonMessageWrapper reply;
+    if (request.has("type") && request.get("type").asText().equals(BATCH)) {
+      String id = request.has("id") ? request.get("id").asText() : null;
+      reply = JsonMessageWrapper.error(BATCH, new RequestValidationFailure("batches can't be nested"), id);
+    } else {
+      reply = Request.runBatched(request, batch.getSocket());
+    }
+    return new BatchResult(reply);
+  }
+}
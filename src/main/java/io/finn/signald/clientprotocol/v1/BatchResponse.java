@@ -0,0 +1,38 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol.v1;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.finn.signald.annotations.Doc;
+import io.finn.signald.clientprotocol.Request;
+import java.util.List;
+
+public class BatchResponse implements Request.PostDeliveryCallback {
+  @Doc("one result for each request in the batch, in the same order as the requests") public List<BatchResult> results;
+  @JsonIgnore private final Runnable onDelivered;
+
+  BatchResponse(List<BatchResult> results, Runnable onDelivered) {
+    this.results = results;
+    this.onDelivered = onDelivered;
+  }
+
+  @Override
+  @JsonIgnore
+  public void onResponseDelivered() {
+    onDelivered.run();
+  }
+
+  // tells the responses that hold something back until they're delivered (subscribe's) that they were, as part of the batch
+  static void deliver(List<BatchResult> results) {
+    for (BatchResult result : results) {
+      if (result != null && result.data instanceof Request.PostDeliveryCallback) {
+        ((Request.PostDeliveryCallback)result.data).onResponseDelivered();
+      }
+    }
+  }
+}
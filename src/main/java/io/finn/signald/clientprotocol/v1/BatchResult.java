@@ -0,0 +1,29 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol.v1;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.finn.signald.JsonMessageWrapper;
+import io.finn.signald.annotations.Doc;
+
+@Doc("the outcome of one of the requests in a batch. The fields are the same as the reply the request would get if it was sent on its own")
+public class BatchResult {
+  @Doc("the id of the request, if it had one") public String id;
+  @Doc("the type of the request") public String type;
+  @Doc("the response to the request, if it succeeded. The structure depends on the request type") public Object data;
+  @Doc("the error, if the request failed") public Object error;
+  @Doc("the type of the error, if the request failed") @JsonProperty("error_type") public String errorType;
+
+  public BatchResult(JsonMessageWrapper reply) {
+    id = reply.id;
+    type = reply.type;
+    data = reply.data;
+    error = reply.error;
+    errorType = reply.errorType;
+  }
+}
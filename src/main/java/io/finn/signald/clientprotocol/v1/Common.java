@@ -175,7 +175,7 @@ public class Common {
       }
     }
 
-    Histogram.Timer timer = messageSendTime.labels(account.getACI().toString()).startTimer();
+    Histogram.Timer timer = messageSendTime.labels(AccountMetrics.label(account.getACI())).startTimer();
     try {
       MessageSender messageSender = new MessageSender(account);
       if (recipientGroupId != null) {
@@ -0,0 +1,17 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol.v1;
+
+import io.finn.signald.annotations.Doc;
+import io.finn.signald.annotations.ExampleValue;
+
+public class FramingInfo {
+  @ExampleValue("\"smile\"") @Doc("the framing used on this connection from now on") public String framing;
+
+  public FramingInfo(String framing) { this.framing = framing; }
+}
@@ -56,6 +56,9 @@ public class JsonGroupV2Info {
   @ExampleValue(ExampleValue.GROUP_TITLE) public String title;
   public String description;
   @ExampleValue(ExampleValue.LOCAL_GROUP_AVATAR_PATH) @Doc("path to the group's avatar on local disk, if available") public String avatar;
+  @JsonProperty("avatar_pending")
+  @Doc("true if the avatar for the current revision of the group is still being downloaded in the background. avatar may be missing or outdated until it finishes")
+  public boolean avatarPending;
   @ExampleValue("604800") public int timer;
 
   @JsonProperty public List<JsonAddress> members;
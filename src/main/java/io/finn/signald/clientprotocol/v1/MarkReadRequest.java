@@ -9,6 +9,7 @@ package io.finn.signald.clientprotocol.v1;
 
 import io.finn.signald.Account;
 import io.finn.signald.Empty;
+import io.finn.signald.ReceiptAggregator;
 import io.finn.signald.SignalDependencies;
 import io.finn.signald.annotations.Doc;
 import io.finn.signald.annotations.ExampleValue;
@@ -31,7 +32,6 @@ import java.util.List;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
 import org.whispersystems.signalservice.api.SignalSessionLock;
 import org.whispersystems.signalservice.api.crypto.UntrustedIdentityException;
-import org.whispersystems.signalservice.api.messages.SignalServiceReceiptMessage;
 import org.whispersystems.signalservice.api.messages.multidevice.ReadMessage;
 import org.whispersystems.signalservice.api.messages.multidevice.SignalServiceSyncMessage;
 import org.whispersystems.signalservice.api.push.exceptions.AuthorizationFailedException;
@@ -54,7 +54,6 @@ public class MarkReadRequest implements RequestType<Empty> {
     if (when == null) {
       when = System.currentTimeMillis();
     }
-    SignalServiceReceiptMessage message = new SignalServiceReceiptMessage(SignalServiceReceiptMessage.Type.READ, timestamps, when);
     Account a = Common.getAccount(account);
     Recipient recipient = Common.getRecipient(Database.Get(a.getACI()).RecipientsTable, to);
 
@@ -74,9 +73,23 @@ public class MarkReadRequest implements RequestType<Empty> {
     UnidentifiedAccessUtil unidentifiedAccessUtil = new UnidentifiedAccessUtil(a.getACI());
     SignalServiceMessageSender sender = dependencies.getMessageSender();
 
-    try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire()) {
-      final boolean includePNISignature = false; // TODO: figure out when to use this
-      sender.sendReceipt(recipient.getAddress(), unidentifiedAccessUtil.getAccessPairFor(recipient), message, includePNISignature);
+    // mark_read requests for the same recipient that arrive together share one receipt and one sync message
+    try {
+      ReceiptAggregator.get().read(a.getACI(), recipient, timestamps, when, message -> {
+        try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire(recipient.getServiceId())) {
+          final boolean includePNISignature = false; // TODO: figure out when to use this
+          sender.sendReceipt(recipient.getAddress(), unidentifiedAccessUtil.getAccessPairFor(recipient), message, includePNISignature);
+        }
+
+        List<ReadMessage> readMessages = new LinkedList<>();
+        for (Long ts : message.getTimestamps()) {
+          readMessages.add(new ReadMessage(recipient.getServiceId(), ts));
+        }
+
+        try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire(a.getACI())) {
+          sender.sendSyncMessage(SignalServiceSyncMessage.forRead(readMessages), unidentifiedAccessUtil.getAccessPairFor(a.getSelf()));
+        }
+      });
     } catch (AuthorizationFailedException e) {
       throw new AuthorizationFailedError(e);
     } catch (ProofRequiredException e) {
@@ -93,29 +106,8 @@ public class MarkReadRequest implements RequestType<Empty> {
       throw new ServerNotFoundError(e);
     } catch (InvalidProxyException e) {
       throw new InvalidProxyError(e);
-    }
-
-    List<ReadMessage> readMessages = new LinkedList<>();
-    for (Long ts : timestamps) {
-      readMessages.add(new ReadMessage(recipient.getServiceId(), ts));
-    }
-
-    try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire()) {
-      sender.sendSyncMessage(SignalServiceSyncMessage.forRead(readMessages), unidentifiedAccessUtil.getAccessPairFor(a.getSelf()));
-    } catch (AuthorizationFailedException e) {
-      throw new AuthorizationFailedError(e);
-    } catch (IOException e) {
-      throw new InternalError("error sending sync message", e);
-    } catch (UntrustedIdentityException e) {
-      throw new UntrustedIdentityError(a.getACI(), e);
-    } catch (NoSuchAccountException e) {
-      throw new NoSuchAccountError(e);
-    } catch (SQLException e) {
-      throw new SQLError(e);
-    } catch (ServerNotFoundException e) {
-      throw new ServerNotFoundError(e);
-    } catch (InvalidProxyException e) {
-      throw new InvalidProxyError(e);
+    } catch (Exception e) {
+      throw new InternalError("error sending receipt", e);
     }
     return new Empty();
   }
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol.v1;
+
+import io.finn.signald.annotations.Doc;
+import io.finn.signald.annotations.ExampleValue;
+import io.finn.signald.annotations.ProtocolType;
+import io.finn.signald.annotations.Required;
+import io.finn.signald.clientprotocol.Request;
+import io.finn.signald.clientprotocol.RequestType;
+import io.finn.signald.clientprotocol.v1.exceptions.InvalidRequestError;
+
+@Doc("change how messages are framed on this connection. Send it right after the version message, before any other request, and wait "
+     + "for the reply. The reply is the last message sent as a line of JSON: after it, messages in both directions are a 4 byte "
+     + "big-endian length followed by that many bytes of the requested format, encoding the same objects as the JSON protocol. "
+     + "Supported framings are json (the default) and smile")
+@ProtocolType("set_framing")
+public class SetFramingRequest implements RequestType<FramingInfo> {
+  @ExampleValue("\"smile\"") @Doc("the framing to switch to") @Required public String framing;
+
+  // the switch itself happens as the request is read, in ClientConnection, so this is only reached if the request arrives some other
+  // way, such as in a frame after the connection already switched
+  @Override
+  public FramingInfo run(Request request) throws InvalidRequestError {
+    throw new InvalidRequestError("set_framing must be sent on its own, as a line of JSON, and the framing can only be changed once");
+  }
+}
@@ -8,6 +8,7 @@
 package io.finn.signald.clientprotocol.v1;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.finn.signald.Account;
 import io.finn.signald.Empty;
@@ -16,9 +17,12 @@ import io.finn.signald.annotations.Doc;
 import io.finn.signald.annotations.ExampleValue;
 import io.finn.signald.annotations.ProtocolType;
 import io.finn.signald.annotations.Required;
+import io.finn.signald.clientprotocol.ClientConnection;
+import io.finn.signald.clientprotocol.Framing;
 import io.finn.signald.clientprotocol.MessageEncoder;
 import io.finn.signald.clientprotocol.Request;
 import io.finn.signald.clientprotocol.RequestType;
+import io.finn.signald.clientprotocol.SubscriptionFilter;
 import io.finn.signald.clientprotocol.v1.exceptions.*;
 import io.finn.signald.clientprotocol.v1.exceptions.InternalError;
 import io.finn.signald.exceptions.InvalidProxyException;
@@ -27,7 +31,6 @@ import io.finn.signald.exceptions.ServerNotFoundException;
 import io.finn.signald.jobs.RefreshPreKeysJob;
 import io.finn.signald.util.JSONUtil;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.Socket;
@@ -58,10 +61,33 @@ import org.whispersystems.signalservice.api.push.exceptions.AuthorizationFailedE
 public class SubscribeRequest implements RequestType<Empty> {
   @ExampleValue(ExampleValue.LOCAL_UUID) @Doc("The account to subscribe to incoming message for") @Required public String account;
 
+  @ExampleValue("[\"data_message\", \"listen_state\"]")
+  @Doc("only send these kinds of events. Incoming messages are data_message, sync_message, call_message, receipt_message, typing_message, "
+       + "story_message or decryption_error_message, depending on which part of the message is set. Other events are receive_error, "
+       + "listen_state, websocket_connection_state and storage_change. Everything is sent if this is not set.")
+  public List<String> events;
+
+  @Doc("only send incoming messages that have a data message. Events other than incoming messages are still sent")
+  @JsonProperty("data_messages_only")
+  public boolean dataMessagesOnly;
+
+  @ExampleValue(ExampleValue.GROUP_ID)
+  @Doc("only send incoming messages in these groups. Messages that aren't in a group are not sent either. Events other than incoming "
+       + "messages are still sent")
+  public List<String> groups;
+
+  @ExampleValue(ExampleValue.GROUP_ID) @Doc("don't send incoming messages in these groups") @JsonProperty("exclude_groups") public List<String> excludeGroups;
+
+  @Doc("don't send sync messages, such as transcripts of messages sent from this account's other devices")
+  @JsonProperty("exclude_self_sync")
+  public boolean excludeSelfSync;
+
   @Override
-  public Empty run(Request request) throws NoSuchAccountError, ServerNotFoundError, InvalidProxyError, InternalError, AuthorizationFailedError, SQLError {
+  public Empty run(Request request) throws NoSuchAccountError, ServerNotFoundError, InvalidProxyError, InternalError, AuthorizationFailedError, SQLError, InvalidRequestError {
+    validateFilter();
 
     Account a = Common.getAccount(account);
+    SubscriptionFilter filter = getFilter(a.getACI(), request.getSocket());
 
     try {
       RefreshPreKeysJob.runIfNeeded(a);
@@ -79,7 +105,7 @@ public class SubscribeRequest implements RequestType<Empty> {
 
     EmptyWithCallback reply = new EmptyWithCallback();
     try {
-      MessageReceiver.subscribe(a.getACI(), new IncomingMessageEncoder(request.getSocket(), a.getACI(), account, reply.lock));
+      MessageReceiver.subscribe(a.getACI(), new IncomingMessageEncoder(request.getSocket(), a.getACI(), account, reply.lock, filter));
     } catch (io.finn.signald.exceptions.NoSuchAccountException e) {
       throw new NoSuchAccountError(e);
     } catch (io.finn.signald.exceptions.InvalidProxyException e) {
@@ -94,6 +120,25 @@ public class SubscribeRequest implements RequestType<Empty> {
     return reply;
   }
 
+  private void validateFilter() throws InvalidRequestError {
+    if (events != null) {
+      for (String event : events) {
+        if (!SubscriptionFilter.EVENTS.contains(event)) {
+          throw new InvalidRequestError("unknown event type: " + event);
+        }
+      }
+    }
+  }
+
+  private SubscriptionFilter getFilter(ACI aci, Socket socket) {
+    if (events == null && !dataMessagesOnly && groups == null && excludeGroups == null && !excludeSelfSync) {
+      return null;
+    }
+    long pid = ClientConnection.getClientPid(socket);
+    String subscriber = pid == -1 ? "" : Long.toString(pid);
+    return new SubscriptionFilter(aci, subscriber, events, dataMessagesOnly, groups, excludeGroups, excludeSelfSync);
+  }
+
   static class IncomingMessageEncoder implements MessageEncoder {
     private static final Logger logger = LogManager.getLogger();
     private final ObjectMapper mapper = JSONUtil.GetMapper();
@@ -101,6 +146,7 @@ public class SubscribeRequest implements RequestType<Empty> {
     ACI aci;
     String account; // account identifier is still e164 for now, so that needs to be stored separately from the UUID
     Lock lock;
+    SubscriptionFilter filter;
 
     private static final HashMap<Class<? extends Exception>, Class<? extends ExceptionWrapper>> exceptions = new HashMap<>();
     static {
@@ -125,18 +171,21 @@ public class SubscribeRequest implements RequestType<Empty> {
 
     public static List<Class<?>> getIncomingTypes() { return incomingTypes; }
 
-    IncomingMessageEncoder(Socket socket, ACI aci, String account, Lock lock) {
+    IncomingMessageEncoder(Socket socket, ACI aci, String account, Lock lock, SubscriptionFilter filter) {
       this.socket = socket;
       this.aci = aci;
       this.account = account;
       this.lock = lock;
+      this.filter = filter;
     }
 
     public void broadcast(ClientMessageWrapper w) throws IOException {
       lock.lock();
-      PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-      out.println(mapper.writeValueAsString(w));
-      lock.unlock();
+      try {
+        Framing.write(socket, mapper, w);
+      } finally {
+        lock.unlock();
+      }
     }
 
     @Override
@@ -182,6 +231,11 @@ public class SubscribeRequest implements RequestType<Empty> {
       return socket.isClosed();
     }
 
+    @Override
+    public SubscriptionFilter getFilter() {
+      return filter;
+    }
+
     @Override
     public boolean equals(Socket s) {
       return socket.equals(s);
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+// the handle StatementCache.prepare() returns for a checked out statement. Every call goes straight to the statement, except close(),
+// which gives it back to the cache instead of closing it. Calls made after that throw rather than touching a statement that another
+// thread may have checked out since. A handle is only used by the thread that checked it out, so none of this is synchronized.
+class CachedStatement implements PreparedStatement {
+  private final StatementCache cache;
+  private final StatementCache.Pool pool;
+  private final PreparedStatement statement;
+  private boolean released;
+
+  CachedStatement(StatementCache cache, StatementCache.Pool pool, PreparedStatement statement) {
+    this.cache = cache;
+    this.pool = pool;
+    this.statement = statement;
+  }
+
+  private PreparedStatement open() throws SQLException {
+    if (released) {
+      throw new SQLException("statement has been returned to the cache");
+    }
+    return statement;
+  }
+
+  @Override
+  public void close() {
+    if (!released) {
+      released = true;
+      cache.release(pool, statement);
+    }
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException { return released || statement.isClosed(); }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException { return open().unwrap(iface); }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException { return open().isWrapperFor(iface); }
+
+  @Override
+  public ResultSet executeQuery(String sql) throws SQLException { return open().executeQuery(sql); }
+
+  @Override
+  public int executeUpdate(String sql) throws SQLException { return open().executeUpdate(sql); }
+
+  @Override
+  public int getMaxFieldSize() throws SQLException { return open().getMaxFieldSize(); }
+
+  @Override
+  public void setMaxFieldSize(int max) throws SQLException { open().setMaxFieldSize(max); }
+
+  @Override
+  public int getMaxRows() throws SQLException { return open().getMaxRows(); }
+
+  @Override
+  public void setMaxRows(int max) throws SQLException { open().setMaxRows(max); }
+
+  @Override
+  public void setEscapeProcessing(boolean enable) throws SQLException { open().setEscapeProcessing(enable); }
+
+  @Override
+  public int getQueryTimeout() throws SQLException { return open().getQueryTimeout(); }
+
+  @Override
+  public void setQueryTimeout(int seconds) throws SQLException { open().setQueryTimeout(seconds); }
+
+  @Override
+  public void cancel() throws SQLException { open().cancel(); }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException { return open().getWarnings(); }
+
+  @Override
+  public void clearWarnings() throws SQLException { open().clearWarnings(); }
+
+  @Override
+  public void setCursorName(String name) throws SQLException { open().setCursorName(name); }
+
+  @Override
+  public boolean execute(String sql) throws SQLException { return open().execute(sql); }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException { return open().getResultSet(); }
+
+  @Override
+  public int getUpdateCount() throws SQLException { return open().getUpdateCount(); }
+
+  @Override
+  public boolean getMoreResults() throws SQLException { return open().getMoreResults(); }
+
+  @Override
+  public void setFetchDirection(int direction) throws SQLException { open().setFetchDirection(direction); }
+
+  @Override
+  public int getFetchDirection() throws SQLException { return open().getFetchDirection(); }
+
+  @Override
+  public void setFetchSize(int rows) throws SQLException { open().setFetchSize(rows); }
+
+  @Override
+  public int getFetchSize() throws SQLException { return open().getFetchSize(); }
+
+  @Override
+  public int getResultSetConcurrency() throws SQLException { return open().getResultSetConcurrency(); }
+
+  @Override
+  public int getResultSetType() throws SQLException { return open().getResultSetType(); }
+
+  @Override
+  public void addBatch(String sql) throws SQLException { open().addBatch(sql); }
+
+  @Override
+  public void clearBatch() throws SQLException { open().clearBatch(); }
+
+  @Override
+  public int[] executeBatch() throws SQLException { return open().executeBatch(); }
+
+  @Override
+  public Connection getConnection() throws SQLException { return open().getConnection(); }
+
+  @Override
+  public boolean getMoreResults(int current) throws SQLException { return open().getMoreResults(current); }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException { return open().getGeneratedKeys(); }
+
+  @Override
+  public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException { return open().executeUpdate(sql, autoGeneratedKeys); }
+
+  @Override
+  public int executeUpdate(String sql, int[] columnIndexes) throws SQLException { return open().executeUpdate(sql, columnIndexes); }
+
+  @Override
+  public int executeUpdate(String sql, String[] columnNames) throws SQLException { return open().executeUpdate(sql, columnNames); }
+
+  @Override
+  public boolean execute(String sql, int autoGeneratedKeys) throws SQLException { return open().execute(sql, autoGeneratedKeys); }
+
+  @Override
+  public boolean execute(String sql, int[] columnIndexes) throws SQLException { return open().execute(sql, columnIndexes); }
+
+  @Override
+  public boolean execute(String sql, String[] columnNames) throws SQLException { return open().execute(sql, columnNames); }
+
+  @Override
+  public int getResultSetHoldability() throws SQLException { return open().getResultSetHoldability(); }
+
+  @Override
+  public void setPoolable(boolean poolable) throws SQLException { open().setPoolable(poolable); }
+
+  @Override
+  public boolean isPoolable() throws SQLException { return open().isPoolable(); }
+
+  @Override
+  public void closeOnCompletion() throws SQLException { open().closeOnCompletion(); }
+
+  @Override
+  public boolean isCloseOnCompletion() throws SQLException { return open().isCloseOnCompletion(); }
+
+  @Override
+  public ResultSet executeQuery() throws SQLException { return open().executeQuery(); }
+
+  @Override
+  public int executeUpdate() throws SQLException { return open().executeUpdate(); }
+
+  @Override
+  public void setNull(int parameterIndex, int sqlType) throws SQLException { open().setNull(parameterIndex, sqlType); }
+
+  @Override
+  public void setBoolean(int parameterIndex, boolean x) throws SQLException { open().setBoolean(parameterIndex, x); }
+
+  @Override
+  public void setByte(int parameterIndex, byte x) throws SQLException { open().setByte(parameterIndex, x); }
+
+  @Override
+  public void setShort(int parameterIndex, short x) throws SQLException { open().setShort(parameterIndex, x); }
+
+  @Override
+  public void setInt(int parameterIndex, int x) throws SQLException { open().setInt(parameterIndex, x); }
+
+  @Override
+  public void setLong(int parameterIndex, long x) throws SQLException { open().setLong(parameterIndex, x); }
+
+  @Override
+  public void setFloat(int parameterIndex, float x) throws SQLException { open().setFloat(parameterIndex, x); }
+
+  @Override
+  public void setDouble(int parameterIndex, double x) throws SQLException { open().setDouble(parameterIndex, x); }
+
+  @Override
+  public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException { open().setBigDecimal(parameterIndex, x); }
+
+  @Override
+  public void setString(int parameterIndex, String x) throws SQLException { open().setString(parameterIndex, x); }
+
+  @Override
+  public void setBytes(int parameterIndex, byte[] x) throws SQLException { open().setBytes(parameterIndex, x); }
+
+  @Override
+  public void setDate(int parameterIndex, Date x) throws SQLException { open().setDate(parameterIndex, x); }
+
+  @Override
+  public void setTime(int parameterIndex, Time x) throws SQLException { open().setTime(parameterIndex, x); }
+
+  @Override
+  public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException { open().setTimestamp(parameterIndex, x); }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException { open().setAsciiStream(parameterIndex, x, length); }
+
+  @Override
+  public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException { open().setUnicodeStream(parameterIndex, x, length); }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException { open().setBinaryStream(parameterIndex, x, length); }
+
+  @Override
+  public void clearParameters() throws SQLException { open().clearParameters(); }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException { open().setObject(parameterIndex, x, targetSqlType); }
+
+  @Override
+  public void setObject(int parameterIndex, Object x) throws SQLException { open().setObject(parameterIndex, x); }
+
+  @Override
+  public boolean execute() throws SQLException { return open().execute(); }
+
+  @Override
+  public void addBatch() throws SQLException { open().addBatch(); }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException { open().setCharacterStream(parameterIndex, reader, length); }
+
+  @Override
+  public void setRef(int parameterIndex, Ref x) throws SQLException { open().setRef(parameterIndex, x); }
+
+  @Override
+  public void setBlob(int parameterIndex, Blob x) throws SQLException { open().setBlob(parameterIndex, x); }
+
+  @Override
+  public void setClob(int parameterIndex, Clob x) throws SQLException { open().setClob(parameterIndex, x); }
+
+  @Override
+  public void setArray(int parameterIndex, Array x) throws SQLException { open().setArray(parameterIndex, x); }
+
+  @Override
+  public ResultSetMetaData getMetaData() throws SQLException { return open().getMetaData(); }
+
+  @Override
+  public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException { open().setDate(parameterIndex, x, cal); }
+
+  @Override
+  public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException { open().setTime(parameterIndex, x, cal); }
+
+  @Override
+  public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException { open().setTimestamp(parameterIndex, x, cal); }
+
+  @Override
+  public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException { open().setNull(parameterIndex, sqlType, typeName); }
+
+  @Override
+  public void setURL(int parameterIndex, URL x) throws SQLException { open().setURL(parameterIndex, x); }
+
+  @Override
+  public ParameterMetaData getParameterMetaData() throws SQLException { return open().getParameterMetaData(); }
+
+  @Override
+  public void setRowId(int parameterIndex, RowId x) throws SQLException { open().setRowId(parameterIndex, x); }
+
+  @Override
+  public void setNString(int parameterIndex, String x) throws SQLException { open().setNString(parameterIndex, x); }
+
+  @Override
+  public void setNCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException { open().setNCharacterStream(parameterIndex, reader, length); }
+
+  @Override
+  public void setNClob(int parameterIndex, NClob x) throws SQLException { open().setNClob(parameterIndex, x); }
+
+  @Override
+  public void setClob(int parameterIndex, Reader reader, long length) throws SQLException { open().setClob(parameterIndex, reader, length); }
+
+  @Override
+  public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException { open().setBlob(parameterIndex, inputStream, length); }
+
+  @Override
+  public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException { open().setNClob(parameterIndex, reader, length); }
+
+  @Override
+  public void setSQLXML(int parameterIndex, SQLXML x) throws SQLException { open().setSQLXML(parameterIndex, x); }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+    open().setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException { open().setAsciiStream(parameterIndex, x, length); }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException { open().setBinaryStream(parameterIndex, x, length); }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException { open().setCharacterStream(parameterIndex, reader, length); }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException { open().setAsciiStream(parameterIndex, x); }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException { open().setBinaryStream(parameterIndex, x); }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException { open().setCharacterStream(parameterIndex, reader); }
+
+  @Override
+  public void setNCharacterStream(int parameterIndex, Reader reader) throws SQLException { open().setNCharacterStream(parameterIndex, reader); }
+
+  @Override
+  public void setClob(int parameterIndex, Reader reader) throws SQLException { open().setClob(parameterIndex, reader); }
+
+  @Override
+  public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException { open().setBlob(parameterIndex, inputStream); }
+
+  @Override
+  public void setNClob(int parameterIndex, Reader reader) throws SQLException { open().setNClob(parameterIndex, reader); }
+}
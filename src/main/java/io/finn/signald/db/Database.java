@@ -13,6 +13,8 @@ import static io.finn.signald.db.Database.Type.SQLITE;
 import io.finn.signald.BuildConfig;
 import io.finn.signald.Config;
 import io.finn.signald.exceptions.InvalidProxyException;
+import io.finn.signald.util.AccountUsers;
+import io.finn.signald.util.LastUsed;
 import io.prometheus.client.Histogram;
 import java.net.SocketTimeoutException;
 import java.net.URI;
@@ -20,7 +22,9 @@ import java.sql.*;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.sqlite.SQLiteErrorCode;
@@ -34,18 +38,45 @@ public class Database {
   private static final Histogram queryLatency =
       Histogram.build().name(BuildConfig.NAME + "_sqlite_query_latency_seconds").help("sqlite latency in seconds.").labelNames("query", "write").register();
 
-  private static final Map<ServiceId, Database> DatabaseInstances = new HashMap<>();
+  // read on almost every store and table access, so lookups must not take a lock
+  private static final ConcurrentHashMap<ServiceId, Database> DatabaseInstances = new ConcurrentHashMap<>();
 
   private static final int maxRetries = 5;
   private static final long initialBackoff = 500;
 
-  public static Database Get() { return Get(ACI.from(UuidUtil.UNKNOWN_UUID)); }
+  private static final ACI UNKNOWN_ACI = ACI.from(UuidUtil.UNKNOWN_UUID);
+
+  public static Database Get() { return Get(UNKNOWN_ACI); }
   public static Database Get(ACI aci) {
-    synchronized (DatabaseInstances) {
-      if (!DatabaseInstances.containsKey(aci)) {
-        DatabaseInstances.put(aci, new Database(aci, GetConnectionType()));
+    if (!aci.equals(UNKNOWN_ACI)) {
+      AccountUsers.used(aci.toString());
+    }
+    // computeIfAbsent can lock the bin even when the key is already present, so try a plain get first
+    Database database = DatabaseInstances.get(aci);
+    if (database == null) {
+      database = DatabaseInstances.computeIfAbsent(aci, k -> new Database(aci, GetConnectionType()));
+    }
+    database.lastUsed.touch();
+    return database;
+  }
+
+  // when each account's instance was last looked up, not including the instance for Database.Get(), which is always kept
+  public static Map<String, Long> getLastUsed() {
+    Map<String, Long> lastUsed = new HashMap<>();
+    for (Map.Entry<ServiceId, Database> entry : DatabaseInstances.entrySet()) {
+      if (!entry.getKey().equals(UNKNOWN_ACI)) {
+        lastUsed.put(entry.getKey().toString(), entry.getValue().lastUsed.get());
       }
-      return DatabaseInstances.get(aci);
+    }
+    return lastUsed;
+  }
+
+  public static int getResidentCount() { return DatabaseInstances.size(); }
+
+  // drops an idle account's instance, the next Database.Get for the account creates a new one
+  public static void evict(ACI aci) {
+    if (!aci.equals(UNKNOWN_ACI)) {
+      DatabaseInstances.remove(aci);
     }
   }
 
@@ -70,6 +101,8 @@ public class Database {
   public final IProfileKeysTable ProfileKeysTable;
   public final IProfileCapabilitiesTable ProfileCapabilitiesTable;
   public final IProfileBadgesTable ProfileBadgesTable;
+  private final LastUsed lastUsed = new LastUsed();
+
   private Database(ACI aci, Type databaseType) {
     switch (databaseType) {
     case SQLITE:
@@ -139,27 +172,90 @@ public class Database {
   }
 
   private static Connection conn;
+  private static StatementCache statementCache;
+  // returns the connection for the transaction open on this thread, if there is one, or the shared connection otherwise
   public static Connection getConn() throws SQLException {
+    Transaction transaction = Transaction.current();
+    if (transaction != null) {
+      return transaction.getConnection();
+    }
     if (conn == null || conn.isClosed()) {
       close();
+      conn = connect();
+      statementCache = new StatementCache(conn);
+    }
+    return conn;
+  }
 
-      switch (GetConnectionType()) {
-      case SQLITE:
-        conn = DriverManager.getConnection(Config.getDb());
-        break;
-      case POSTGRESQL:
-        conn = DriverManager.getConnection(Config.getDb(), Config.getDbUser(), Config.getDbPassword());
-        // per this one-vote non-accepted answer on stackoverflow, pg ignores the first param: https://stackoverflow.com/a/56257826
-        conn.setNetworkTimeout(null, Config.getDBTimeout());
-        break;
-      default:
-        throw new AssertionError("unsupported database type");
+  static Connection connect() throws SQLException {
+    Connection connection;
+    Properties properties = new Properties();
+    switch (GetConnectionType()) {
+    case SQLITE:
+      // transactions run on their own connection, and take the write lock when they begin rather than on their first write. A deferred
+      // transaction that has read something can't get the write lock while another connection is writing, and fails instead of waiting.
+      properties.setProperty("transaction_mode", "IMMEDIATE");
+      // with a write-ahead log, reads on the shared connection don't wait for an open transaction, and the transaction doesn't wait for
+      // them. Writes still take turns, so a connection waits up to the timeout for the write lock before giving up with SQLITE_BUSY.
+      properties.setProperty("journal_mode", "WAL");
+      properties.setProperty("busy_timeout", Integer.toString(Config.getDBTimeout()));
+      connection = DriverManager.getConnection(Config.getDb(), properties);
+      break;
+    case POSTGRESQL:
+      if (Config.getDbUser() != null) {
+        properties.setProperty("user", Config.getDbUser());
+      }
+      if (Config.getDbPassword() != null) {
+        properties.setProperty("password", Config.getDbPassword());
       }
+      // statements are reused through the statement cache, so have the server prepare them on first use instead of the fifth.
+      // a prepareThreshold in the database URL takes precedence over this.
+      properties.setProperty("prepareThreshold", "1");
+      // send batched inserts (sender key shared marks, pre keys) as multi-row INSERTs instead of one statement per row
+      properties.setProperty("reWriteBatchedInserts", "true");
+      connection = DriverManager.getConnection(Config.getDb(), properties);
+      // per this one-vote non-accepted answer on stackoverflow, pg ignores the first param: https://stackoverflow.com/a/56257826
+      connection.setNetworkTimeout(null, Config.getDBTimeout());
+      break;
+    default:
+      throw new AssertionError("unsupported database type");
+    }
+    return connection;
+  }
+
+  // returns a prepared statement for the query from the current connection's statement cache. queryId must always be used
+  // with the same SQL, and the statement must be closed (returned to the cache) when the caller is done with it.
+  public static PreparedStatement prepare(String queryId, String sql) throws SQLException {
+    Transaction transaction = Transaction.current();
+    if (transaction != null) {
+      return transaction.prepare(queryId, sql);
+    }
+    getConn();
+    return statementCache.prepare(queryId, sql);
+  }
+
+  // see Transaction. Must be closed, which rolls it back unless it was committed.
+  public static Transaction beginTransaction() throws SQLException { return new Transaction(); }
+
+  @FunctionalInterface
+  public interface TransactionBody<T, E extends Exception> {
+    T run(Database tx) throws E;
+  }
+
+  // runs body in a transaction, committing it if body returns normally and rolling it back if it throws. Table calls made by body on
+  // this thread, through tx or otherwise, are part of the transaction.
+  public <T, E extends Exception> T inTransaction(TransactionBody<T, E> body) throws SQLException, E {
+    try (Transaction tx = beginTransaction()) {
+      T result = body.run(this);
+      tx.commit();
+      return result;
     }
-    return conn;
   }
 
   public static void close() {
+    if (statementCache != null) {
+      statementCache.close();
+    }
     try {
       if (conn != null) {
         conn.close();
@@ -167,8 +263,10 @@ public class Database {
     } catch (SQLException e) {
       logger.warn("Failed to close database connection", e);
     }
+    Transaction.closeIdleConnections();
     connectionType = Optional.empty();
     conn = null;
+    statementCache = null;
   }
 
   // Methods that require switching per connection type
@@ -212,6 +310,9 @@ public class Database {
 
   public static int[] executeBatch(String name, PreparedStatement statement) throws SQLException { return execute(name, false, statement::executeBatch); }
 
+  // BEGIN and COMMIT take the write lock like any other write, so they are retried the same way when SQLite is busy
+  static void executeTransactionStatement(String name, dbQueryFn<Void> fn) throws SQLException { execute(name, false, fn); }
+
   @FunctionalInterface
   interface dbQueryFn<T> {
     T get() throws SQLException;
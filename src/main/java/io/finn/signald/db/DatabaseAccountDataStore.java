@@ -97,6 +97,8 @@ public class DatabaseAccountDataStore implements SignalServiceAccountDataStore {
     preKeys.storePreKey(preKeyId, record);
   }
 
+  public void storePreKeys(List<PreKeyRecord> records) throws SQLException { preKeys.storePreKeys(records); }
+
   @Override
   public boolean containsPreKey(int preKeyId) {
     return preKeys.containsPreKey(preKeyId);
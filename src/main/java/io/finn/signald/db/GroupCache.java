@@ -0,0 +1,203 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db;
+
+import io.finn.signald.BuildConfig;
+import io.prometheus.client.Counter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.signal.libsignal.zkgroup.groups.GroupIdentifier;
+import org.signal.libsignal.zkgroup.groups.GroupMasterKey;
+import org.signal.libsignal.zkgroup.groups.GroupSecretParams;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedMember;
+import org.signal.storageservice.protos.groups.local.DecryptedPendingMember;
+import org.signal.storageservice.protos.groups.local.DecryptedRequestingMember;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.util.UuidUtil;
+import org.whispersystems.util.Base64;
+
+// per-account cache of decoded group state, keyed by group ID and revision. Each GroupsTable owns one, so the group_info
+// protobuf is parsed, the secret params derived and the member lists resolved once per revision rather than on every lookup.
+public class GroupCache {
+  private static final Counter lookups = Counter.build().name(BuildConfig.NAME + "_group_cache_lookups").help("decoded group cache lookups").labelNames("hit").register();
+
+  private final ACI aci;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  // the entries with a resolved member list that includes each recipient, so a recipient change only touches the groups it's in.
+  // Changes to entries and to the index are made while holding the cache's lock, lookups don't take it.
+  private final Map<Integer, Set<Entry>> byRecipient = new HashMap<>();
+  // incremented whenever members are invalidated, so a list resolved while that happened isn't cached
+  private volatile long invalidations;
+
+  public GroupCache(ACI aci) { this.aci = aci; }
+
+  // returns the cached entry for the group if it is at the requested revision, or null if the group needs to be parsed and put()
+  public Entry get(byte[] groupId, int revision) {
+    Entry entry = entries.get(Base64.encodeBytes(groupId));
+    if (entry != null && entry.revision == revision) {
+      lookups.labels("true").inc();
+      return entry;
+    }
+    lookups.labels("false").inc();
+    return null;
+  }
+
+  public Entry put(GroupMasterKey masterKey, DecryptedGroup group) {
+    Entry entry = new Entry(masterKey, group);
+    synchronized (this) {
+      unindex(entries.put(entry.key, entry));
+    }
+    return entry;
+  }
+
+  public synchronized void invalidate(byte[] groupId) { unindex(entries.remove(Base64.encodeBytes(groupId))); }
+
+  public synchronized void clear() {
+    entries.clear();
+    byRecipient.clear();
+  }
+
+  // resolved member lists hold Recipient objects, which go stale when the recipients table changes. Called by the
+  // recipients table after a recipient is updated, so the next access to the groups it is in re-resolves them. Groups it isn't in
+  // keep their lists.
+  public synchronized void invalidateMembers(int recipientId) {
+    invalidations++;
+    Set<Entry> affected = byRecipient.get(recipientId);
+    if (affected == null) {
+      return;
+    }
+    for (Entry entry : new ArrayList<>(affected)) {
+      unindex(entry);
+      entry.invalidateMembers();
+    }
+  }
+
+  // caches a member list resolved for entry, unless a recipient changed or the entry was replaced while it was being resolved
+  private synchronized void publish(Entry entry, List<Recipient> resolved, long seen, Consumer<List<Recipient>> set) {
+    if (invalidations != seen || entries.get(entry.key) != entry) {
+      return;
+    }
+    set.accept(resolved);
+    for (Recipient recipient : resolved) {
+      byRecipient.computeIfAbsent(recipient.getId(), id -> new HashSet<>()).add(entry);
+    }
+  }
+
+  private void unindex(Entry entry) {
+    if (entry == null) {
+      return;
+    }
+    unindex(entry, entry.members);
+    unindex(entry, entry.pendingMembers);
+    unindex(entry, entry.requestingMembers);
+  }
+
+  private void unindex(Entry entry, List<Recipient> recipients) {
+    if (recipients == null) {
+      return;
+    }
+    for (Recipient recipient : recipients) {
+      Set<Entry> indexed = byRecipient.get(recipient.getId());
+      if (indexed != null && indexed.remove(entry) && indexed.isEmpty()) {
+        byRecipient.remove(recipient.getId());
+      }
+    }
+  }
+
+  public class Entry {
+    private final int revision;
+    private final DecryptedGroup group;
+    private final GroupMasterKey masterKey;
+    private final GroupSecretParams secretParams;
+    private final GroupIdentifier groupId;
+    private final String key;
+    private volatile List<Recipient> members;
+    private volatile List<Recipient> pendingMembers;
+    private volatile List<Recipient> requestingMembers;
+
+    private Entry(GroupMasterKey masterKey, DecryptedGroup group) {
+      this.revision = group.getRevision();
+      this.group = group;
+      this.masterKey = masterKey;
+      this.secretParams = GroupSecretParams.deriveFromMasterKey(masterKey);
+      this.groupId = secretParams.getPublicParams().getGroupIdentifier();
+      this.key = Base64.encodeBytes(groupId.serialize());
+    }
+
+    public int getRevision() { return revision; }
+
+    public DecryptedGroup getGroup() { return group; }
+
+    public GroupMasterKey getMasterKey() { return masterKey; }
+
+    public GroupSecretParams getSecretParams() { return secretParams; }
+
+    public GroupIdentifier getGroupId() { return groupId; }
+
+    public List<Recipient> getMembers() throws SQLException {
+      List<Recipient> result = members;
+      if (result == null) {
+        long seen = invalidations;
+        List<ACI> serviceIds = new ArrayList<>();
+        for (DecryptedMember member : group.getMembersList()) {
+          serviceIds.add(ACI.from(UuidUtil.fromByteString(member.getUuid())));
+        }
+        result = resolve(serviceIds);
+        publish(this, result, seen, resolved -> members = resolved);
+      }
+      return result;
+    }
+
+    public List<Recipient> getPendingMembers() throws SQLException {
+      List<Recipient> result = pendingMembers;
+      if (result == null) {
+        long seen = invalidations;
+        List<ACI> serviceIds = new ArrayList<>();
+        for (DecryptedPendingMember member : group.getPendingMembersList()) {
+          serviceIds.add(ACI.from(UuidUtil.fromByteString(member.getUuid())));
+        }
+        result = resolve(serviceIds);
+        publish(this, result, seen, resolved -> pendingMembers = resolved);
+      }
+      return result;
+    }
+
+    public List<Recipient> getRequestingMembers() throws SQLException {
+      List<Recipient> result = requestingMembers;
+      if (result == null) {
+        long seen = invalidations;
+        List<ACI> serviceIds = new ArrayList<>();
+        for (DecryptedRequestingMember member : group.getRequestingMembersList()) {
+          serviceIds.add(ACI.from(UuidUtil.fromByteString(member.getUuid())));
+        }
+        result = resolve(serviceIds);
+        publish(this, result, seen, resolved -> requestingMembers = resolved);
+      }
+      return result;
+    }
+
+    private void invalidateMembers() {
+      members = null;
+      pendingMembers = null;
+      requestingMembers = null;
+    }
+
+    private List<Recipient> resolve(List<ACI> serviceIds) throws SQLException {
+      return Collections.unmodifiableList(Database.Get(aci).RecipientsTable.getOrCreateAll(serviceIds));
+    }
+  }
+}
@@ -39,6 +39,7 @@ public interface IGroupsTable {
   File getGroupAvatarFile(GroupIdentifier groupId);
   void deleteAccount(ACI aci) throws SQLException;
   void setGroupAvatarPath(String path) throws IOException;
+  GroupCache getCache();
 
   default Optional<IGroup> get(SignalServiceGroupV2 group) throws InvalidProtocolBufferException, InvalidInputException, SQLException {
     return get(GroupSecretParams.deriveFromMasterKey(group.getMasterKey()).getPublicParams().getGroupIdentifier());
@@ -63,6 +64,8 @@ public interface IGroupsTable {
     GroupIdentifier getId();
     String getIdString();
     int getRevision();
+    int getLastAvatarFetch();
+    void setLastAvatarFetch(int revision) throws SQLException;
     GroupMasterKey getMasterKey();
     GroupSecretParams getSecretParams();
     DecryptedGroup getDecryptedGroup();
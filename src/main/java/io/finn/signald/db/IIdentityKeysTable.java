@@ -24,6 +24,7 @@ public interface IIdentityKeysTable extends IdentityKeyStore {
   List<IdentityKeyRow> getIdentities() throws SQLException, InvalidKeyException;
   void deleteAccount(ACI aci) throws SQLException;
   void trustAllKeys() throws SQLException;
+  IdentityKeyCache getCache();
 
   default boolean saveIdentity(Recipient recipient, IdentityKey identityKey, TrustLevel trustLevel) { return saveIdentity(recipient, identityKey, trustLevel, new Date()); }
 
@@ -8,6 +8,8 @@
 package io.finn.signald.db;
 
 import java.sql.SQLException;
+import java.util.List;
+import org.signal.libsignal.protocol.state.PreKeyRecord;
 import org.signal.libsignal.protocol.state.PreKeyStore;
 import org.whispersystems.signalservice.api.push.ACI;
 
@@ -16,5 +18,8 @@ public interface IPreKeysTable extends PreKeyStore {
   String ID = "id";
   String RECORD = "record";
 
+  // stores a batch of pre-keys in a single transaction, under their own IDs
+  void storePreKeys(List<PreKeyRecord> records) throws SQLException;
+
   void deleteAccount(ACI aci) throws SQLException;
 }
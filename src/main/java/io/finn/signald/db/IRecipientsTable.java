@@ -4,6 +4,7 @@ import io.finn.signald.clientprotocol.v1.JsonAddress;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 import org.whispersystems.signalservice.api.push.ACI;
@@ -21,6 +22,11 @@ public interface IRecipientsTable {
   Recipient get(String e164, ServiceId aci) throws SQLException, IOException;
   Recipient self() throws SQLException, IOException;
   void setRegistrationStatus(Recipient recipient, boolean registered) throws SQLException, IOException;
+
+  // resolves recipients for a batch of service IDs in a single transaction, creating rows for any that aren't known yet.
+  // unlike get(), this never merges rows by e164 or asks the server, so it's meant for lists of members from group state.
+  // results are in the same order as the input.
+  List<Recipient> getOrCreateAll(Collection<? extends ServiceId> serviceIds) throws SQLException;
   void deleteAccount(ACI aci) throws SQLException;
 
   default List<Recipient> get(List<SignalServiceAddress> addresses) throws SQLException, IOException {
@@ -18,4 +18,5 @@ public interface ISenderKeysTable extends SenderKeyStore {
   long getCreatedTime(SignalProtocolAddress address, UUID distributionId) throws SQLException;
   void deleteAllFor(String address, DistributionId distributionId) throws SQLException;
   void deleteAccount(ACI aci) throws SQLException;
+  SenderKeyCache getCache();
 }
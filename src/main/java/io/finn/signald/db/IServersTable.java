@@ -11,10 +11,12 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import io.finn.signald.BuildConfig;
 import io.finn.signald.Config;
+import io.finn.signald.Util;
 import io.finn.signald.exceptions.InvalidProxyException;
 import io.finn.signald.exceptions.ServerNotFoundException;
 import io.finn.signald.util.JSONUtil;
 import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
 import java.io.IOException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -24,7 +26,9 @@ import java.sql.SQLException;
 import java.util.*;
 import okhttp3.Interceptor;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import okhttp3.logging.HttpLoggingInterceptor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -231,13 +235,54 @@ public interface IServersTable {
   class MetricsInterceptor implements Interceptor {
     static final Counter requests =
         Counter.build().name(BuildConfig.NAME + "_http_requests_total").help("number http requests sent to the server").labelNames("domain", "status").register();
+    static final Histogram requestDuration = Histogram.build()
+                                                 .name(BuildConfig.NAME + "_http_request_duration_seconds")
+                                                 .help("time from sending an http request to the server until the response headers are received")
+                                                 .labelNames("domain", "method", "endpoint", "status")
+                                                 .buckets(0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+                                                 .register();
+    static final Histogram requestSize = Histogram.build()
+                                             .name(BuildConfig.NAME + "_http_request_size_bytes")
+                                             .help("size of http request bodies sent to the server")
+                                             .labelNames("domain", "method", "endpoint")
+                                             .exponentialBuckets(64, 4, 9)
+                                             .register();
+    static final Histogram responseSize = Histogram.build()
+                                              .name(BuildConfig.NAME + "_http_response_size_bytes")
+                                              .help("size of http response bodies received from the server, when the server sends a content length")
+                                              .labelNames("domain", "method", "endpoint", "status")
+                                              .exponentialBuckets(64, 4, 9)
+                                              .register();
 
     @NotNull
     @Override
     public Response intercept(@NotNull Chain chain) throws IOException {
       Request request = chain.request();
-      Response response = chain.proceed(request);
-      requests.labels(request.url().host(), String.valueOf(response.code())).inc();
+      String domain = request.url().host();
+      String method = request.method();
+      String endpoint = Util.endpointTemplate(request.url().encodedPath());
+
+      RequestBody body = request.body();
+      if (body != null && body.contentLength() >= 0) {
+        requestSize.labels(domain, method, endpoint).observe(body.contentLength());
+      }
+
+      long start = System.nanoTime();
+      Response response;
+      try {
+        response = chain.proceed(request);
+      } catch (IOException e) {
+        requestDuration.labels(domain, method, endpoint, "error").observe((System.nanoTime() - start) / 1e9);
+        throw e;
+      }
+
+      String status = String.valueOf(response.code());
+      requestDuration.labels(domain, method, endpoint, status).observe((System.nanoTime() - start) / 1e9);
+      requests.labels(domain, status).inc();
+      ResponseBody responseBody = response.body();
+      if (responseBody != null && responseBody.contentLength() >= 0) {
+        responseSize.labels(domain, method, endpoint, status).observe(responseBody.contentLength());
+      }
       return response;
     }
   }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db;
+
+import io.finn.signald.AccountMetrics;
+import io.finn.signald.BuildConfig;
+import io.prometheus.client.Counter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.asamk.signal.TrustLevel;
+import org.signal.libsignal.protocol.IdentityKey;
+import org.signal.libsignal.protocol.IdentityKeyPair;
+import org.whispersystems.signalservice.api.push.ACI;
+
+// per-account cache for the identity key store. libsignal asks for the account's own key pair and registration ID on every encrypt
+// and decrypt, and checks the peer's identity key against the ones we know about, so each IdentityKeysTable owns one of these to
+// avoid reading and parsing the same rows every time. Known keys are cached per recipient and dropped whenever a key is saved for
+// that recipient.
+public class IdentityKeyCache {
+  private static final Counter lookups = Counter.build()
+                                             .name(BuildConfig.NAME + "_identity_cache_lookups")
+                                             .help("identity key store cache lookups")
+                                             .labelNames("account_uuid", "kind", "hit")
+                                             .register();
+  // trustAllKeys changes keys for every account at once, so it bumps this to invalidate every account's cache
+  private static final AtomicLong generation = new AtomicLong();
+
+  private final String accountUUID;
+  private final Map<Integer, List<KnownKey>> knownKeys = new ConcurrentHashMap<>();
+  private final AtomicLong invalidations = new AtomicLong();
+  private volatile IdentityKeyPair identityKeyPair;
+  private volatile Integer localRegistrationId;
+  private volatile long cachedGeneration = generation.get();
+
+  public IdentityKeyCache(ACI aci) { accountUUID = aci.toString(); }
+
+  public static void invalidateAll() { generation.incrementAndGet(); }
+
+  // returns null if the key pair needs to be loaded and put in the cache
+  public IdentityKeyPair getIdentityKeyPair() { return record("identity_key_pair", identityKeyPair); }
+
+  public void setIdentityKeyPair(IdentityKeyPair identityKeyPair) { this.identityKeyPair = identityKeyPair; }
+
+  // returns null if the registration ID needs to be loaded and put in the cache
+  public Integer getLocalRegistrationId() { return record("registration_id", localRegistrationId); }
+
+  public void setLocalRegistrationId(Integer localRegistrationId) { this.localRegistrationId = localRegistrationId; }
+
+  // returns null if the recipient's keys need to be loaded and put in the cache. An empty list means there are no known keys.
+  public List<KnownKey> getKnownKeys(int recipientId) {
+    checkGeneration();
+    return record("known_keys", knownKeys.get(recipientId));
+  }
+
+  // taken before loading a recipient's keys and passed to putKnownKeys, so keys loaded before a save aren't cached after it
+  public long stamp() { return invalidations.get() + generation.get(); }
+
+  public void putKnownKeys(int recipientId, List<KnownKey> keys, long stamp) {
+    knownKeys.put(recipientId, Collections.unmodifiableList(keys));
+    if (stamp() != stamp) {
+      knownKeys.remove(recipientId);
+    }
+  }
+
+  public void invalidate(int recipientId) {
+    invalidations.incrementAndGet();
+    knownKeys.remove(recipientId);
+  }
+
+  public void clear() {
+    invalidations.incrementAndGet();
+    identityKeyPair = null;
+    localRegistrationId = null;
+    knownKeys.clear();
+  }
+
+  private void checkGeneration() {
+    long current = generation.get();
+    if (cachedGeneration != current) {
+      knownKeys.clear();
+      cachedGeneration = current;
+    }
+  }
+
+  private <T> T record(String kind, T value) {
+    lookups.labels(AccountMetrics.label(accountUUID), kind, value == null ? "false" : "true").inc();
+    return value;
+  }
+
+  public static class KnownKey {
+    private final IdentityKey identityKey;
+    private final TrustLevel trustLevel;
+
+    public KnownKey(IdentityKey identityKey, TrustLevel trustLevel) {
+      this.identityKey = identityKey;
+      this.trustLevel = trustLevel;
+    }
+
+    public IdentityKey getIdentityKey() { return identityKey; }
+
+    public boolean isTrusted() { return trustLevel == TrustLevel.TRUSTED_UNVERIFIED || trustLevel == TrustLevel.TRUSTED_VERIFIED; }
+  }
+}
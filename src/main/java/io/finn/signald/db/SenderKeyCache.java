@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db;
+
+import io.finn.signald.BuildConfig;
+import io.prometheus.client.Counter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+import org.signal.libsignal.protocol.groups.state.SenderKeyRecord;
+
+// per-account cache of decoded sender key records, keyed by address, device and distribution ID. Each SenderKeysTable owns one, so
+// the record is read and parsed once rather than on every group message sent or received. Stores write through to the cache, and
+// the least recently used records are dropped once there are more than maxSize of them.
+public class SenderKeyCache {
+  private static final Counter lookups = Counter.build().name(BuildConfig.NAME + "_sender_key_cache_lookups").help("sender key cache lookups").labelNames("hit").register();
+
+  private final int maxSize;
+  private final LinkedHashMap<Key, Entry> entries;
+  private long invalidations;
+
+  public SenderKeyCache(int maxSize) {
+    this.maxSize = maxSize;
+    entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+        return size() > SenderKeyCache.this.maxSize;
+      }
+    };
+  }
+
+  // returns null if the record needs to be loaded and put in the cache with putLoaded()
+  public synchronized Entry get(SignalProtocolAddress address, UUID distributionId) {
+    Entry entry = entries.get(new Key(address, distributionId));
+    lookups.labels(entry == null ? "false" : "true").inc();
+    return entry;
+  }
+
+  // taken before loading a record and passed to putLoaded, so a record loaded before a store or delete isn't cached after it
+  public synchronized long stamp() { return invalidations; }
+
+  public synchronized void putLoaded(SignalProtocolAddress address, UUID distributionId, Entry entry, long stamp) {
+    if (maxSize > 0 && stamp == invalidations) {
+      entries.put(new Key(address, distributionId), entry);
+    }
+  }
+
+  // write-through for a record that was just stored. The returned entry is passed to stored() once the store is committed.
+  public synchronized Entry put(SignalProtocolAddress address, UUID distributionId, SenderKeyRecord record, long createdAt) {
+    invalidations++;
+    Entry entry = new Entry(record, createdAt);
+    if (maxSize > 0) {
+      entries.put(new Key(address, distributionId), entry);
+    }
+    return entry;
+  }
+
+  // called when the transaction a record was stored in completes. Another thread may have cached the old row while the transaction
+  // was open, so the entry is dropped unless it is still the one that was stored. A rolled back store is always dropped.
+  public synchronized void stored(SignalProtocolAddress address, UUID distributionId, Entry entry, boolean committed) {
+    invalidations++;
+    Key key = new Key(address, distributionId);
+    if (!committed || entries.get(key) != entry) {
+      entries.remove(key);
+    }
+  }
+
+  // drops every device's record for the address and distribution ID
+  public synchronized void invalidate(String address, UUID distributionId) {
+    invalidations++;
+    entries.keySet().removeIf(key -> key.address.equals(address) && key.distributionId.equals(distributionId));
+  }
+
+  public synchronized void clear() {
+    invalidations++;
+    entries.clear();
+  }
+
+  public static class Entry {
+    private final SenderKeyRecord record;
+    private final long createdAt;
+
+    // record is null and createdAt -1 if there is no stored record
+    public Entry(SenderKeyRecord record, long createdAt) {
+      this.record = record;
+      this.createdAt = createdAt;
+    }
+
+    public SenderKeyRecord getRecord() { return record; }
+
+    public long getCreatedAt() { return createdAt; }
+  }
+
+  private static class Key {
+    private final String address;
+    private final int deviceId;
+    private final UUID distributionId;
+
+    private Key(SignalProtocolAddress address, UUID distributionId) {
+      this.address = address.getName();
+      this.deviceId = address.getDeviceId();
+      this.distributionId = distributionId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key)o;
+      return deviceId == key.deviceId && address.equals(key.address) && distributionId.equals(key.distributionId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(address, deviceId, distributionId);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db;
+
+import io.finn.signald.BuildConfig;
+import io.prometheus.client.Counter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+// keeps prepared statements open between uses, so frequently run queries are only parsed and planned once per connection.
+// Statements are keyed by query ID and checked out for exclusive use: closing the handle returned by prepare() puts the
+// statement back rather than closing it. A query that is in use on several threads at once gets a few idle statements.
+public class StatementCache {
+  private static final Logger logger = LogManager.getLogger();
+  private static final Counter lookups =
+      Counter.build().name(BuildConfig.NAME + "_prepared_statement_cache_lookups").help("prepared statement cache lookups").labelNames("query", "hit").register();
+  private static final int MAX_IDLE_PER_QUERY = 4;
+
+  private final Connection conn;
+  private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+  private volatile boolean closed;
+
+  public StatementCache(Connection conn) { this.conn = conn; }
+
+  public Connection getConnection() { return conn; }
+
+  public PreparedStatement prepare(String queryId, String sql) throws SQLException {
+    Pool pool = pools.computeIfAbsent(queryId, k -> new Pool(sql));
+    if (!pool.sql.equals(sql)) {
+      throw new IllegalArgumentException("query ID " + queryId + " is already used for a different query");
+    }
+
+    PreparedStatement statement = pool.idle.poll();
+    if (statement != null) {
+      pool.size.decrementAndGet();
+      lookups.labels(queryId, "true").inc();
+    } else {
+      lookups.labels(queryId, "false").inc();
+      statement = conn.prepareStatement(sql);
+    }
+    return new CachedStatement(this, pool, statement);
+  }
+
+  public void close() {
+    closed = true;
+    for (Pool pool : pools.values()) {
+      PreparedStatement statement;
+      while ((statement = pool.idle.poll()) != null) {
+        closeQuietly(statement);
+      }
+    }
+    pools.clear();
+  }
+
+  void release(Pool pool, PreparedStatement statement) {
+    if (closed || pool.size.get() >= MAX_IDLE_PER_QUERY) {
+      closeQuietly(statement);
+      return;
+    }
+
+    try {
+      // callers rely on unset parameters being null, as they would be on a freshly prepared statement
+      statement.clearParameters();
+      statement.clearBatch();
+    } catch (SQLException e) {
+      logger.debug("failed to reset cached statement, closing it", e);
+      closeQuietly(statement);
+      return;
+    }
+    pool.size.incrementAndGet();
+    pool.idle.add(statement);
+  }
+
+  private static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      logger.debug("failed to close cached statement", e);
+    }
+  }
+
+  static class Pool {
+    private final String sql;
+    private final Queue<PreparedStatement> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private Pool(String sql) { this.sql = sql; }
+  }
+}
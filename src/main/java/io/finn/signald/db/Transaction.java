@@ -0,0 +1,243 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db;
+
+import io.finn.signald.BuildConfig;
+import io.finn.signald.Config;
+import io.prometheus.client.Counter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+// a unit of work, opened with Database.beginTransaction() or Database.inTransaction(). While it is open, Database.getConn() and
+// Database.prepare() on the thread that opened it return its connection, so every table call made on that thread is part of it, and
+// other threads keep using the shared connection without seeing its writes. Transactions get a connection of their own from a small
+// pool, and wait for one when they are all in use: up to --db-transaction-connections on PostgreSQL, and just one on SQLite, where only
+// one transaction can hold the write lock at a time anyway. A transaction opened while another is already open on the same thread
+// becomes a savepoint, so a failure inside it only undoes its own writes.
+//
+// On SQLite an open transaction holds the database write lock, so keep network requests out of them.
+public class Transaction implements AutoCloseable {
+  private static final Logger logger = LogManager.getLogger();
+  private static final Counter transactions =
+      Counter.build().name(BuildConfig.NAME + "_db_transactions").help("database transactions, by whether they were committed").labelNames("committed").register();
+  private static final int MAX_IDLE_CONNECTIONS = 4;
+  // a transaction that can't get a connection in this long fails rather than waiting forever on a transaction that is stuck
+  private static final long CONNECTION_WAIT_SECONDS = 60;
+
+  private static final ThreadLocal<Transaction> current = new ThreadLocal<>();
+  private static final Queue<StatementCache> idleConnections = new ConcurrentLinkedQueue<>();
+  private static final AtomicInteger idleConnectionCount = new AtomicInteger();
+  private static volatile Semaphore connectionPermits;
+
+  private final Transaction parent;
+  private final StatementCache statementCache;
+  private final Savepoint savepoint;
+  // the permit for the connection, held by the outermost transaction
+  private final Semaphore permits;
+  private final List<Consumer<Boolean>> afterCompletion = new ArrayList<>();
+  private boolean finished;
+
+  Transaction() throws SQLException {
+    parent = current.get();
+    if (parent != null) {
+      statementCache = parent.statementCache;
+      savepoint = getConnection().setSavepoint();
+      permits = null;
+    } else {
+      permits = getConnectionPermits();
+      acquire(permits);
+      try {
+        statementCache = checkoutConnection();
+      } catch (SQLException | RuntimeException e) {
+        permits.release();
+        throw e;
+      }
+      savepoint = null;
+      Connection connection = statementCache.getConnection();
+      try {
+        Database.executeTransactionStatement("transaction_begin", () -> {
+          connection.setAutoCommit(false);
+          return null;
+        });
+      } catch (SQLException e) {
+        discardConnection(statementCache);
+        permits.release();
+        throw e;
+      }
+    }
+    current.set(this);
+  }
+
+  static Transaction current() { return current.get(); }
+
+  // runs the callback once the transaction open on this thread has been committed or rolled back, or straight away if there isn't
+  // one. Used to drop cached state that was changed inside a transaction, since other threads can read (and cache) the old rows
+  // until it commits, and a rollback undoes the change.
+  public static void afterCompletion(Runnable callback) { afterCompletion(committed -> callback.run()); }
+
+  // like afterCompletion(Runnable), but the callback is told whether the changes made so far were committed. Changes in a savepoint
+  // that is rolled back are reported as not committed as soon as the savepoint is rolled back.
+  public static void afterCompletion(Consumer<Boolean> callback) {
+    Transaction transaction = current.get();
+    if (transaction == null) {
+      callback.accept(true);
+      return;
+    }
+    transaction.afterCompletion.add(callback);
+  }
+
+  Connection getConnection() { return statementCache.getConnection(); }
+
+  PreparedStatement prepare(String queryId, String sql) throws SQLException { return statementCache.prepare(queryId, sql); }
+
+  public void commit() throws SQLException {
+    if (finished) {
+      throw new IllegalStateException("transaction has already been committed");
+    }
+    if (savepoint == null) {
+      Connection connection = getConnection();
+      Database.executeTransactionStatement("transaction_commit", () -> {
+        connection.commit();
+        return null;
+      });
+      transactions.labels("true").inc();
+    } else {
+      getConnection().releaseSavepoint(savepoint);
+    }
+    finished = true;
+  }
+
+  // rolls back anything that wasn't committed
+  @Override
+  public void close() throws SQLException {
+    if (current.get() != this) {
+      throw new IllegalStateException("transactions must be closed on the thread that opened them, innermost first");
+    }
+    current.set(parent);
+    if (savepoint != null) {
+      if (finished) {
+        // the savepoint's changes are now part of the parent, and are kept or undone along with it
+        parent.afterCompletion.addAll(afterCompletion);
+        return;
+      }
+      try {
+        getConnection().rollback(savepoint);
+        getConnection().releaseSavepoint(savepoint);
+        finished = true;
+      } finally {
+        runAfterCompletion(false);
+      }
+      return;
+    }
+
+    boolean reusable = false;
+    boolean committed = finished;
+    try {
+      if (!finished) {
+        getConnection().rollback();
+        transactions.labels("false").inc();
+        finished = true;
+      }
+      getConnection().setAutoCommit(true);
+      reusable = true;
+    } finally {
+      if (reusable) {
+        releaseConnection(statementCache);
+      } else {
+        discardConnection(statementCache);
+      }
+      permits.release();
+      runAfterCompletion(committed);
+    }
+  }
+
+  private void runAfterCompletion(boolean committed) {
+    for (Consumer<Boolean> callback : afterCompletion) {
+      try {
+        callback.accept(committed);
+      } catch (RuntimeException e) {
+        logger.catching(e);
+      }
+    }
+  }
+
+  static void closeIdleConnections() {
+    StatementCache cache;
+    while ((cache = idleConnections.poll()) != null) {
+      idleConnectionCount.decrementAndGet();
+      discardConnection(cache);
+    }
+  }
+
+  private static Semaphore getConnectionPermits() {
+    Semaphore result = connectionPermits;
+    if (result == null) {
+      synchronized (Transaction.class) {
+        if (connectionPermits == null) {
+          int connections = Database.GetConnectionType() == Database.Type.SQLITE ? 1 : Config.getDbTransactionConnections();
+          connectionPermits = new Semaphore(connections, true);
+        }
+        result = connectionPermits;
+      }
+    }
+    return result;
+  }
+
+  private static void acquire(Semaphore permits) throws SQLException {
+    try {
+      if (!permits.tryAcquire(CONNECTION_WAIT_SECONDS, TimeUnit.SECONDS)) {
+        throw new SQLException("timed out waiting for a database connection for a transaction");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("interrupted while waiting for a database connection for a transaction", e);
+    }
+  }
+
+  private static StatementCache checkoutConnection() throws SQLException {
+    StatementCache cache;
+    while ((cache = idleConnections.poll()) != null) {
+      idleConnectionCount.decrementAndGet();
+      if (!cache.getConnection().isClosed()) {
+        return cache;
+      }
+      discardConnection(cache);
+    }
+    return new StatementCache(Database.connect());
+  }
+
+  private static void releaseConnection(StatementCache cache) {
+    if (idleConnectionCount.incrementAndGet() > MAX_IDLE_CONNECTIONS) {
+      idleConnectionCount.decrementAndGet();
+      discardConnection(cache);
+      return;
+    }
+    idleConnections.add(cache);
+  }
+
+  private static void discardConnection(StatementCache cache) {
+    cache.close();
+    try {
+      cache.getConnection().close();
+    } catch (SQLException e) {
+      logger.warn("failed to close transaction connection", e);
+    }
+  }
+}
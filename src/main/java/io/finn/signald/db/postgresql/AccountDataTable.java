@@ -16,10 +16,14 @@ import org.whispersystems.signalservice.api.push.ACI;
 public class AccountDataTable implements IAccountDataTable {
   private static final String TABLE_NAME = "signald_account_data";
 
+  private static final String GET_BYTES_QUERY = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", VALUE, TABLE_NAME, KEY, ACCOUNT_UUID);
+  private static final String SET_BYTES_QUERY = String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?) ON CONFLICT (%s, %s) DO UPDATE SET %s=EXCLUDED.%s", TABLE_NAME,
+                                                              ACCOUNT_UUID, KEY, VALUE, ACCOUNT_UUID, KEY, VALUE, VALUE);
+  private static final String DELETE_ACCOUNT_QUERY = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
+
   @Override
   public byte[] getBytes(ACI aci, Key key) throws SQLException {
-    var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", VALUE, TABLE_NAME, KEY, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_get_bytes", GET_BYTES_QUERY)) {
       statement.setString(1, key.name());
       statement.setObject(2, aci.uuid());
       try (var rows = Database.executeQuery(TABLE_NAME + "_get_bytes", statement)) {
@@ -30,9 +34,7 @@ public class AccountDataTable implements IAccountDataTable {
 
   @Override
   public void set(ACI aci, Key key, byte[] value) throws SQLException {
-    var query = String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?) ON CONFLICT (%s, %s) DO UPDATE SET %s=EXCLUDED.%s", TABLE_NAME, ACCOUNT_UUID, KEY, VALUE, ACCOUNT_UUID,
-                              KEY, VALUE, VALUE);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_set_bytes", SET_BYTES_QUERY)) {
       statement.setObject(1, aci.uuid());
       statement.setString(2, key.name());
       statement.setBytes(3, value);
@@ -42,8 +44,7 @@ public class AccountDataTable implements IAccountDataTable {
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setObject(1, aci);
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
@@ -9,17 +9,12 @@ package io.finn.signald.db.postgresql;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.finn.signald.Account;
-import io.finn.signald.ServiceConfig;
-import io.finn.signald.Util;
 import io.finn.signald.clientprotocol.v1.JsonGroupV2Info;
 import io.finn.signald.db.Database;
+import io.finn.signald.db.GroupCache;
 import io.finn.signald.db.IGroupsTable;
 import io.finn.signald.db.Recipient;
-import io.finn.signald.exceptions.InvalidProxyException;
-import io.finn.signald.exceptions.NoSuchAccountException;
-import io.finn.signald.exceptions.ServerNotFoundException;
-import io.finn.signald.util.FileUtil;
-import io.finn.signald.util.GroupsUtil;
+import io.finn.signald.jobs.FetchGroupAvatarJob;
 import io.sentry.Sentry;
 import java.io.*;
 import java.nio.file.Files;
@@ -37,13 +32,9 @@ import org.signal.libsignal.zkgroup.groups.GroupSecretParams;
 import org.signal.storageservice.protos.groups.Member;
 import org.signal.storageservice.protos.groups.local.DecryptedGroup;
 import org.signal.storageservice.protos.groups.local.DecryptedMember;
-import org.signal.storageservice.protos.groups.local.DecryptedPendingMember;
-import org.signal.storageservice.protos.groups.local.DecryptedRequestingMember;
-import org.whispersystems.signalservice.api.groupsv2.GroupsV2Operations;
 import org.whispersystems.signalservice.api.messages.SignalServiceGroupV2;
 import org.whispersystems.signalservice.api.push.ACI;
 import org.whispersystems.signalservice.api.push.DistributionId;
-import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
 import org.whispersystems.signalservice.api.util.UuidUtil;
 import org.whispersystems.util.Base64;
 
@@ -55,8 +46,14 @@ public class GroupsTable implements IGroupsTable {
   private static final String TABLE_NAME = "signald_groups";
 
   private final ACI aci;
+  private final Account account;
+  private final GroupCache cache;
 
-  public GroupsTable(ACI aci) { this.aci = aci; }
+  public GroupsTable(ACI aci) {
+    this.aci = aci;
+    this.account = new Account(aci);
+    this.cache = new GroupCache(aci);
+  }
 
   @Override
   public Optional<IGroup> get(GroupIdentifier identifier) throws SQLException, InvalidInputException, InvalidProtocolBufferException {
@@ -110,6 +107,7 @@ public class GroupsTable implements IGroupsTable {
       statement.setBytes(i++, decryptedGroup.toByteArray());
       Database.executeUpdate(TABLE_NAME + "_upsert", statement);
     }
+    cache.put(masterKey, decryptedGroup);
   }
 
   @Override
@@ -124,6 +122,12 @@ public class GroupsTable implements IGroupsTable {
       statement.setObject(1, aci);
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
+    cache.clear();
+  }
+
+  @Override
+  public GroupCache getCache() {
+    return cache;
   }
 
   @Override
@@ -134,27 +138,24 @@ public class GroupsTable implements IGroupsTable {
 
   public class Group implements IGroup {
     private final int rowId;
-    private final Account account;
-    private final GroupMasterKey masterKey;
-    private int revision;
     private int lastAvatarFetch;
     private DistributionId distributionId;
-    private DecryptedGroup group;
+    private GroupCache.Entry cached;
 
     private Group(ResultSet row) throws SQLException, InvalidInputException, InvalidProtocolBufferException {
-      account = new Account(ACI.parseOrThrow(row.getString(ACCOUNT_UUID)));
       rowId = row.getInt(ROWID);
-      masterKey = new GroupMasterKey(row.getBytes(MASTER_KEY));
-      revision = row.getInt(REVISION);
+      cached = cache.get(row.getBytes(GROUP_ID), row.getInt(REVISION));
+      if (cached == null) {
+        cached = cache.put(new GroupMasterKey(row.getBytes(MASTER_KEY)), DecryptedGroup.parseFrom(row.getBytes(GROUP_INFO)));
+      }
       lastAvatarFetch = row.getInt(LAST_AVATAR_FETCH);
       String distributionIdString = row.getString(DISTRIBUTION_ID);
       distributionId = distributionIdString == null ? null : DistributionId.from(distributionIdString);
-      group = DecryptedGroup.parseFrom(row.getBytes(GROUP_INFO));
     }
 
     @Override
     public GroupIdentifier getId() {
-      return GroupsUtil.GetIdentifierFromMasterKey(masterKey);
+      return cached.getGroupId();
     }
 
     @Override
@@ -164,22 +165,38 @@ public class GroupsTable implements IGroupsTable {
 
     @Override
     public int getRevision() {
-      return revision;
+      return cached.getRevision();
+    }
+
+    @Override
+    public int getLastAvatarFetch() {
+      return lastAvatarFetch;
+    }
+
+    @Override
+    public void setLastAvatarFetch(int revision) throws SQLException {
+      var query = String.format("UPDATE %s SET %s=? WHERE %s=?", TABLE_NAME, LAST_AVATAR_FETCH, ROWID);
+      try (var statement = Database.getConn().prepareStatement(query)) {
+        statement.setInt(1, revision);
+        statement.setInt(2, rowId);
+        Database.executeUpdate(TABLE_NAME + "_set_last_avatar_fetch", statement);
+        lastAvatarFetch = revision;
+      }
     }
 
     @Override
     public GroupMasterKey getMasterKey() {
-      return masterKey;
+      return cached.getMasterKey();
     }
 
     @Override
     public GroupSecretParams getSecretParams() {
-      return GroupSecretParams.deriveFromMasterKey(masterKey);
+      return cached.getSecretParams();
     }
 
     @Override
     public DecryptedGroup getDecryptedGroup() {
-      return group;
+      return cached.getGroup();
     }
 
     @Override
@@ -190,14 +207,13 @@ public class GroupsTable implements IGroupsTable {
         statement.setBytes(2, decryptedGroup.toByteArray());
         statement.setInt(3, rowId);
         Database.executeUpdate(TABLE_NAME + "_set_decrypted_group", statement);
-        revision = decryptedGroup.getRevision();
-        this.group = decryptedGroup;
+        cached = cache.put(cached.getMasterKey(), decryptedGroup);
       }
     }
 
     @Override
     public SignalServiceGroupV2 getSignalServiceGroupV2() {
-      return SignalServiceGroupV2.newBuilder(masterKey).withRevision(revision).build();
+      return SignalServiceGroupV2.newBuilder(cached.getMasterKey()).withRevision(cached.getRevision()).build();
     }
 
     @Override
@@ -207,81 +223,34 @@ public class GroupsTable implements IGroupsTable {
         statement.setInt(1, rowId);
         Database.executeUpdate(TABLE_NAME + "_delete", statement);
       }
+      cache.invalidate(cached.getGroupId().serialize());
     }
 
     @Override
     public JsonGroupV2Info getJsonGroupV2Info() {
-      try {
-        fetchAvatar();
-      } catch (IOException | InvalidProxyException | SQLException | ServerNotFoundException | NoSuchAccountException e) {
-        logger.warn("Failed to fetch group avatar: " + e.getMessage());
-        logger.debug("stack trace for group avi fetch failure: ", e);
-      }
-      JsonGroupV2Info jsonGroupV2Info = new JsonGroupV2Info(SignalServiceGroupV2.newBuilder(masterKey).withRevision(revision).build(), group);
+      JsonGroupV2Info jsonGroupV2Info = new JsonGroupV2Info(getSignalServiceGroupV2(), cached.getGroup());
       File avatarFile = getGroupAvatarFile(getId());
       if (avatarFile.exists()) {
         jsonGroupV2Info.avatar = avatarFile.getAbsolutePath();
       }
+      jsonGroupV2Info.avatarPending = FetchGroupAvatarJob.queueIfNeeded(account.getACI(), this);
       return jsonGroupV2Info;
     }
 
-    private void fetchAvatar() throws IOException, InvalidProxyException, SQLException, ServerNotFoundException, NoSuchAccountException {
-      File avatarFile = getGroupAvatarFile(getId());
-      if (lastAvatarFetch == revision) {
-        // group avatar has already been downloaded for this revision of the group
-        return;
-      }
-      GroupSecretParams groupSecretParams = GroupSecretParams.deriveFromMasterKey(masterKey);
-      GroupsV2Operations.GroupOperations groupOperations = GroupsUtil.GetGroupsV2Operations(account.getServiceConfiguration()).forGroup(groupSecretParams);
-
-      File tmpFile = FileUtil.createTempFile();
-      try (InputStream input =
-               account.getSignalDependencies().getMessageReceiver().retrieveGroupsV2ProfileAvatar(group.getAvatar(), tmpFile, ServiceConfig.AVATAR_DOWNLOAD_FAILSAFE_MAX_SIZE)) {
-        byte[] encryptedData = Util.readFully(input);
-        byte[] decryptedData = groupOperations.decryptAvatar(encryptedData);
-        OutputStream outputStream = new FileOutputStream(avatarFile);
-        outputStream.write(decryptedData);
-        lastAvatarFetch = revision;
-      } catch (NonSuccessfulResponseCodeException e) {
-        lastAvatarFetch = revision;
-      } finally {
-        try {
-          Files.delete(tmpFile.toPath());
-        } catch (IOException e) {
-          logger.warn("Failed to delete received group avatar temp file " + tmpFile + ", ignoring: " + e.getMessage());
-        }
-      }
-    }
-
     public List<Recipient> getMembers() throws IOException, SQLException {
-      List<Recipient> recipients = new ArrayList<>();
-      for (DecryptedMember member : group.getMembersList()) {
-        Recipient recipient = Database.Get(account.getACI()).RecipientsTable.get(UuidUtil.fromByteString(member.getUuid()));
-        recipients.add(recipient);
-      }
-      return recipients;
+      return new ArrayList<>(cached.getMembers());
     }
 
     public List<Recipient> getPendingMembers() throws IOException, SQLException {
-      List<Recipient> recipients = new ArrayList<>();
-      for (DecryptedPendingMember member : group.getPendingMembersList()) {
-        Recipient recipient = Database.Get(account.getACI()).RecipientsTable.get(UuidUtil.fromByteString(member.getUuid()));
-        recipients.add(recipient);
-      }
-      return recipients;
+      return new ArrayList<>(cached.getPendingMembers());
     }
 
     public List<Recipient> getRequestingMembers() throws IOException, SQLException {
-      List<Recipient> recipients = new ArrayList<>();
-      for (DecryptedRequestingMember member : group.getRequestingMembersList()) {
-        Recipient recipient = Database.Get(account.getACI()).RecipientsTable.get(UuidUtil.fromByteString(member.getUuid()));
-        recipients.add(recipient);
-      }
-      return recipients;
+      return new ArrayList<>(cached.getRequestingMembers());
     }
 
     public boolean isAdmin(Recipient recipient) {
-      for (DecryptedMember member : group.getMembersList()) {
+      for (DecryptedMember member : cached.getGroup().getMembersList()) {
         if (UuidUtil.fromByteString(member.getUuid()).equals(recipient.getUUID())) {
           return member.getRole() == Member.Role.ADMINISTRATOR;
         }
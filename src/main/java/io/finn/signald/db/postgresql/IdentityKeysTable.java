@@ -11,7 +11,9 @@ import io.finn.signald.Account;
 import io.finn.signald.Config;
 import io.finn.signald.db.Database;
 import io.finn.signald.db.IIdentityKeysTable;
+import io.finn.signald.db.IdentityKeyCache;
 import io.finn.signald.db.Recipient;
+import io.finn.signald.db.Transaction;
 import io.sentry.Sentry;
 import java.io.IOException;
 import java.sql.SQLException;
@@ -35,10 +37,61 @@ public class IdentityKeysTable implements IIdentityKeysTable {
 
   private static final String TABLE_NAME = "signald_identity_keys";
 
+  private static final String ALL_GET_IDENTITIES_QUERY = String.format("SELECT %s.%s, %s.%s, %s, %s, %s FROM %s JOIN %s ON %s.%s=%s.%s WHERE %s.%s=?",
+                                                                       // SELECT
+                                                                       RecipientsTable.TABLE_NAME, RecipientsTable.UUID, // recipients.uuid
+                                                                       RecipientsTable.TABLE_NAME, RecipientsTable.E164, // recipients.e164
+                                                                       IDENTITY_KEY, TRUST_LEVEL, ADDED,
+                                                                       // FROM
+                                                                       TABLE_NAME,
+                                                                       // JOIN
+                                                                       RecipientsTable.TABLE_NAME, TABLE_NAME, RECIPIENT, RecipientsTable.TABLE_NAME, RecipientsTable.ROW_ID,
+                                                                       // WHERE
+                                                                       TABLE_NAME, ACCOUNT_UUID);
+  private static final String SAVE_IDENTITY_QUERY =
+      String.format("INSERT INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?) ON CONFLICT (%s, %s, %s) DO UPDATE SET %s=EXCLUDED.%s",
+                    // INSERT INTO
+                    TABLE_NAME,
+                    // COLUMNS
+                    ACCOUNT_UUID, RECIPIENT, IDENTITY_KEY, TRUST_LEVEL, ADDED,
+                    // ON CONFLICT
+                    ACCOUNT_UUID, RECIPIENT, IDENTITY_KEY,
+                    // DO UPDATE SET
+                    TRUST_LEVEL, TRUST_LEVEL);
+  private static final String SAVE_IDENTITY_IF_NEW_QUERY =
+      String.format("INSERT INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?) ON CONFLICT (%s, %s, %s) DO NOTHING",
+                    // INSERT INTO
+                    TABLE_NAME,
+                    // COLUMNS
+                    ACCOUNT_UUID, RECIPIENT, IDENTITY_KEY, TRUST_LEVEL, ADDED,
+                    // ON CONFLICT
+                    ACCOUNT_UUID, RECIPIENT, IDENTITY_KEY);
+  private static final String DELETE_ACCOUNT_QUERY = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
+  private static final String TRUST_ALL_EXISTING_KEYS_QUERY = String.format("UPDATE %s SET %s=? WHERE %s=?", TABLE_NAME, TRUST_LEVEL, TRUST_LEVEL);
+
+  static final String IS_TRUSTED_IDENTITY_QUERY = String.format("SELECT %s, %s FROM %s WHERE %s=? AND %s=?", IDENTITY_KEY, TRUST_LEVEL, TABLE_NAME, ACCOUNT_UUID, RECIPIENT);
+  static final String GET_IDENTITY_QUERY =
+      String.format("SELECT %s FROM %s WHERE %s=? AND %s=? ORDER BY %s DESC LIMIT 1", IDENTITY_KEY, TABLE_NAME, ACCOUNT_UUID, RECIPIENT, ADDED);
+  static final String GET_IDENTITIES_QUERY = String.format("SELECT %s.%s, %s.%s, %s, %s, %s FROM %s JOIN %s ON %s.%s=%s.%s WHERE %s.%s=? AND %s=?",
+                                                           // SELECT
+                                                           RecipientsTable.TABLE_NAME, RecipientsTable.UUID, // recipients.uuid
+                                                           RecipientsTable.TABLE_NAME, RecipientsTable.E164, // recipients.e164
+                                                           IDENTITY_KEY, TRUST_LEVEL, ADDED,
+                                                           // FROM
+                                                           TABLE_NAME,
+                                                           // JOIN
+                                                           RecipientsTable.TABLE_NAME, TABLE_NAME, RECIPIENT, RecipientsTable.TABLE_NAME, RecipientsTable.ROW_ID,
+                                                           // WHERE
+                                                           TABLE_NAME, ACCOUNT_UUID, RECIPIENT);
+
   private Account account;
   private String pendingAccountIdentifier;
+  private IdentityKeyCache cache;
 
-  public IdentityKeysTable(ACI aci) { account = new Account(aci); }
+  public IdentityKeysTable(ACI aci) {
+    account = new Account(aci);
+    cache = new IdentityKeyCache(aci);
+  }
 
   public IdentityKeysTable(String pendingAccountIdentifier) { this.pendingAccountIdentifier = pendingAccountIdentifier; }
 
@@ -47,7 +100,12 @@ public class IdentityKeysTable implements IIdentityKeysTable {
     try {
       byte[] b;
       if (pendingAccountIdentifier == null) {
-        return account.getACIIdentityKeyPair();
+        IdentityKeyPair identityKeyPair = cache.getIdentityKeyPair();
+        if (identityKeyPair == null) {
+          identityKeyPair = account.getACIIdentityKeyPair();
+          cache.setIdentityKeyPair(identityKeyPair);
+        }
+        return identityKeyPair;
       } else {
         b = Database.Get().PendingAccountDataTable.getBytes(pendingAccountIdentifier, PendingAccountDataTable.Key.ACI_IDENTITY_KEY_PAIR);
       }
@@ -65,7 +123,12 @@ public class IdentityKeysTable implements IIdentityKeysTable {
   public int getLocalRegistrationId() {
     try {
       if (pendingAccountIdentifier == null) {
-        return account.getLocalRegistrationId();
+        Integer localRegistrationId = cache.getLocalRegistrationId();
+        if (localRegistrationId == null) {
+          localRegistrationId = account.getLocalRegistrationId();
+          cache.setLocalRegistrationId(localRegistrationId);
+        }
+        return localRegistrationId;
       } else {
         return Database.Get().PendingAccountDataTable.getInt(pendingAccountIdentifier, PendingAccountDataTable.Key.LOCAL_REGISTRATION_ID);
       }
@@ -97,34 +160,24 @@ public class IdentityKeysTable implements IIdentityKeysTable {
       return false;
     }
     try {
-      String query;
-      if (trustLevel != null) {
-        query = String.format("INSERT INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?) ON CONFLICT (%s, %s, %s) DO UPDATE SET %s=EXCLUDED.%s",
-                              // INSERT INTO
-                              TABLE_NAME,
-                              // COLUMNS
-                              ACCOUNT_UUID, RECIPIENT, IDENTITY_KEY, TRUST_LEVEL, ADDED,
-                              // ON CONFLICT
-                              ACCOUNT_UUID, RECIPIENT, IDENTITY_KEY,
-                              // DO UPDATE SET
-                              TRUST_LEVEL, TRUST_LEVEL);
-      } else {
-        query = String.format("INSERT INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?) ON CONFLICT (%s, %s, %s) DO NOTHING",
-                              // INSERT INTO
-                              TABLE_NAME,
-                              // COLUMNS
-                              ACCOUNT_UUID, RECIPIENT, IDENTITY_KEY, TRUST_LEVEL, ADDED,
-                              // ON CONFLICT
-                              ACCOUNT_UUID, RECIPIENT, IDENTITY_KEY);
+      String queryId = TABLE_NAME + "_save_identity";
+      String query = SAVE_IDENTITY_QUERY;
+      if (trustLevel == null) {
+        queryId = TABLE_NAME + "_save_identity_if_new";
+        query = SAVE_IDENTITY_IF_NEW_QUERY;
         trustLevel = TrustLevel.TRUSTED_UNVERIFIED;
       }
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(queryId, query)) {
         statement.setObject(1, account.getUUID());
         statement.setInt(2, recipient.getId());
         statement.setBytes(3, identityKey.serialize());
         statement.setString(4, trustLevel.name());
         statement.setTimestamp(5, new Timestamp(added.getTime()));
-        return Database.executeUpdate(TABLE_NAME + "_save_identity", statement) > 0;
+        boolean changed = Database.executeUpdate(queryId, statement) > 0;
+        int recipientId = recipient.getId();
+        cache.invalidate(recipientId);
+        Transaction.afterCompletion(() -> cache.invalidate(recipientId));
+        return changed;
       }
     } catch (SQLException e) {
       logger.catching(e);
@@ -137,27 +190,14 @@ public class IdentityKeysTable implements IIdentityKeysTable {
   public boolean isTrustedIdentity(SignalProtocolAddress address, IdentityKey identityKey, Direction direction) {
     try {
       Recipient recipient = Database.Get(account.getACI()).RecipientsTable.get(address.getName());
-      var query = String.format("SELECT %s, %s FROM %s WHERE %s=? AND %s=?", IDENTITY_KEY, TRUST_LEVEL, TABLE_NAME, ACCOUNT_UUID, RECIPIENT);
-      try (var statement = Database.getConn().prepareStatement(query)) {
-        statement.setObject(1, account.getUUID());
-        statement.setInt(2, recipient.getId());
-        try (var rows = Database.executeQuery(TABLE_NAME + "_is_trusted_identity", statement)) {
-          boolean moreRows = rows.next();
-          if (!moreRows) {
-            // no known keys, trust key on first use
-            return true;
-          }
-          while (moreRows) {
-            try {
-              if (identityKey.equals(new IdentityKey(rows.getBytes(IDENTITY_KEY), 0))) {
-                TrustLevel trustLevel = TrustLevel.valueOf(rows.getString(TRUST_LEVEL));
-                return trustLevel == TrustLevel.TRUSTED_UNVERIFIED || trustLevel == TrustLevel.TRUSTED_VERIFIED;
-              }
-            } catch (InvalidKeyException e) {
-              logger.warn("Error parsing IdentityKey on row {}: {}", rows.getRow(), e.getMessage());
-            }
-            moreRows = rows.next();
-          }
+      List<IdentityKeyCache.KnownKey> knownKeys = getKnownKeys(recipient);
+      if (knownKeys.isEmpty()) {
+        // no known keys, trust key on first use
+        return true;
+      }
+      for (IdentityKeyCache.KnownKey knownKey : knownKeys) {
+        if (identityKey.equals(knownKey.getIdentityKey())) {
+          return knownKey.isTrusted();
         }
       }
       saveIdentity(address.getName(), identityKey, Config.getNewKeyTrustLevel());
@@ -177,12 +217,38 @@ public class IdentityKeysTable implements IIdentityKeysTable {
     }
   }
 
+  private List<IdentityKeyCache.KnownKey> getKnownKeys(Recipient recipient) throws SQLException {
+    List<IdentityKeyCache.KnownKey> cached = cache.getKnownKeys(recipient.getId());
+    if (cached != null) {
+      return cached;
+    }
+
+    long stamp = cache.stamp();
+    List<IdentityKeyCache.KnownKey> knownKeys = new ArrayList<>();
+    try (var statement = Database.prepare(TABLE_NAME + "_is_trusted_identity", IS_TRUSTED_IDENTITY_QUERY)) {
+      statement.setObject(1, account.getUUID());
+      statement.setInt(2, recipient.getId());
+      try (var rows = Database.executeQuery(TABLE_NAME + "_is_trusted_identity", statement)) {
+        while (rows.next()) {
+          try {
+            knownKeys.add(new IdentityKeyCache.KnownKey(new IdentityKey(rows.getBytes(IDENTITY_KEY), 0), TrustLevel.valueOf(rows.getString(TRUST_LEVEL))));
+          } catch (InvalidKeyException e) {
+            logger.warn("Error parsing IdentityKey on row {}: {}", rows.getRow(), e.getMessage());
+            // kept without a key, so the recipient still counts as having known keys and a new key isn't trusted on first use
+            knownKeys.add(new IdentityKeyCache.KnownKey(null, null));
+          }
+        }
+      }
+    }
+    cache.putKnownKeys(recipient.getId(), knownKeys, stamp);
+    return knownKeys;
+  }
+
   @Override
   public IdentityKey getIdentity(SignalProtocolAddress address) {
     try {
       int recipientID = Database.Get(account.getACI()).RecipientsTable.get(address.getName()).getId();
-      var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=? ORDER BY %s DESC LIMIT 1", IDENTITY_KEY, TABLE_NAME, ACCOUNT_UUID, RECIPIENT, ADDED);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_get_identity", GET_IDENTITY_QUERY)) {
         statement.setObject(1, account.getUUID());
         statement.setInt(2, recipientID);
         try (var rows = Database.executeQuery(TABLE_NAME + "_get_identity", statement)) {
@@ -197,18 +263,7 @@ public class IdentityKeysTable implements IIdentityKeysTable {
 
   @Override
   public List<IdentityKeyRow> getIdentities(Recipient recipient) throws SQLException, InvalidKeyException {
-    var query = String.format("SELECT %s.%s, %s.%s, %s, %s, %s FROM %s JOIN %s ON %s.%s=%s.%s WHERE %s.%s=? AND %s=?",
-                              // SELECT
-                              RecipientsTable.TABLE_NAME, RecipientsTable.UUID, // recipients.uuid
-                              RecipientsTable.TABLE_NAME, RecipientsTable.E164, // recipients.e164
-                              IDENTITY_KEY, TRUST_LEVEL, ADDED,
-                              // FROM
-                              TABLE_NAME,
-                              // JOIN
-                              RecipientsTable.TABLE_NAME, TABLE_NAME, RECIPIENT, RecipientsTable.TABLE_NAME, RecipientsTable.ROW_ID,
-                              // WHERE
-                              TABLE_NAME, ACCOUNT_UUID, RECIPIENT);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_get_identities", GET_IDENTITIES_QUERY)) {
       statement.setObject(1, account.getUUID());
       statement.setInt(2, recipient.getId());
       try (var rows = Database.executeQuery(TABLE_NAME + "_get_identities", statement)) {
@@ -232,18 +287,7 @@ public class IdentityKeysTable implements IIdentityKeysTable {
 
   @Override
   public List<IdentityKeyRow> getIdentities() throws SQLException, InvalidKeyException {
-    var query = String.format("SELECT %s.%s, %s.%s, %s, %s, %s FROM %s JOIN %s ON %s.%s=%s.%s WHERE %s.%s=?",
-                              // SELECT
-                              RecipientsTable.TABLE_NAME, RecipientsTable.UUID, // recipients.uuid
-                              RecipientsTable.TABLE_NAME, RecipientsTable.E164, // recipients.e164
-                              IDENTITY_KEY, TRUST_LEVEL, ADDED,
-                              // FROM
-                              TABLE_NAME,
-                              // JOIN
-                              RecipientsTable.TABLE_NAME, TABLE_NAME, RECIPIENT, RecipientsTable.TABLE_NAME, RecipientsTable.ROW_ID,
-                              // WHERE
-                              TABLE_NAME, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_all_get_identities", ALL_GET_IDENTITIES_QUERY)) {
       statement.setObject(1, account.getUUID());
       try (var rows = Database.executeQuery(TABLE_NAME + "_all_get_identities", statement)) {
         List<IdentityKeyRow> results = new ArrayList<>();
@@ -266,22 +310,25 @@ public class IdentityKeysTable implements IIdentityKeysTable {
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setObject(1, aci);
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
+    Database.Get(aci).IdentityKeysTable.getCache().clear();
   }
 
   @Override
   public void trustAllKeys() throws SQLException {
     logger.info("marking all currently UNTRUSTED keys in as TRUSTED_UNVERIFIED for all accounts");
-    var query = String.format("UPDATE %s SET %s=? WHERE %s=?", TABLE_NAME, TRUST_LEVEL, TRUST_LEVEL);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_trust_all_existing_keys", TRUST_ALL_EXISTING_KEYS_QUERY)) {
       statement.setString(1, TrustLevel.TRUSTED_UNVERIFIED.name());
       statement.setString(2, TrustLevel.UNTRUSTED.name());
       var count = Database.executeUpdate(TABLE_NAME + "_trust_all_existing_keys", statement);
       logger.info("marked {} key(s) as TRUSTED_UNVERIFIED", count);
     }
+    IdentityKeyCache.invalidateAll();
   }
+
+  @Override
+  public IdentityKeyCache getCache() { return cache; }
 }
@@ -20,20 +20,25 @@ import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 public class MessageQueueTable implements IMessageQueueTable {
   private static final String TABLE_NAME = "signald_message_queue";
 
+  private static final String STORE_ENVELOPE_QUERY =
+      String.format("INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING %s", TABLE_NAME,
+                    // FIELDS
+                    ACCOUNT, VERSION, TYPE, SOURCE_E164, SOURCE_UUID, SOURCE_DEVICE, TIMESTAMP, CONTENT, SERVER_RECEIVED_TIMESTAMP, SERVER_DELIVERED_TIMESTAMP, SERVER_UUID,
+                    DESTINATION_UUID, URGENT, UPDATED_PNI, STORY,
+                    // RETURNING
+                    ID);
+  private static final String DELETE_ACCOUNT_QUERY = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT);
+
+  static final String NEXT_ENVELOPE_QUERY = String.format("SELECT * FROM %s WHERE %s=? ORDER BY %s LIMIT 1", TABLE_NAME, ACCOUNT, ID);
+  static final String DELETE_ENVELOPE_QUERY = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ID);
+
   private final ACI aci;
 
   public MessageQueueTable(ACI aci) { this.aci = aci; }
 
   @Override
   public long storeEnvelope(SignalServiceEnvelope envelope) throws SQLException {
-    var query =
-        String.format("INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING %s", TABLE_NAME,
-                      // FIELDS
-                      ACCOUNT, VERSION, TYPE, SOURCE_E164, SOURCE_UUID, SOURCE_DEVICE, TIMESTAMP, CONTENT, SERVER_RECEIVED_TIMESTAMP, SERVER_DELIVERED_TIMESTAMP, SERVER_UUID,
-                      DESTINATION_UUID, URGENT, UPDATED_PNI, STORY,
-                      // RETURNING
-                      ID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_store_name", STORE_ENVELOPE_QUERY)) {
       UUID sourceUuid = envelope.getSourceUuid().isPresent() && !envelope.getSourceUuid().get().equals("") ? UUID.fromString(envelope.getSourceUuid().get()) : null;
       int i = 1;
       statement.setObject(i++, aci.uuid());
@@ -62,8 +67,7 @@ public class MessageQueueTable implements IMessageQueueTable {
 
   @Override
   public void deleteEnvelope(long id) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_envelope", DELETE_ENVELOPE_QUERY)) {
       statement.setLong(1, id);
       Database.executeUpdate(TABLE_NAME + "_delete_envelope", statement);
     }
@@ -71,8 +75,7 @@ public class MessageQueueTable implements IMessageQueueTable {
 
   @Override
   public StoredEnvelope nextEnvelope() throws SQLException {
-    var query = String.format("SELECT * FROM %s WHERE %s=? ORDER BY %s LIMIT 1", TABLE_NAME, ACCOUNT, ID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_next_envelope", NEXT_ENVELOPE_QUERY)) {
       statement.setObject(1, aci.uuid());
       try (var rows = Database.executeQuery(TABLE_NAME + "_next_envelope", statement)) {
         if (!rows.next()) {
@@ -107,8 +110,7 @@ public class MessageQueueTable implements IMessageQueueTable {
 
   @Override
   public void deleteAccount(String account) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setObject(1, UUID.fromString(account));
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
@@ -9,8 +9,10 @@ package io.finn.signald.db.postgresql;
 
 import io.finn.signald.db.Database;
 import io.finn.signald.db.IPreKeysTable;
+import io.finn.signald.db.Transaction;
 import io.sentry.Sentry;
 import java.sql.SQLException;
+import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.signal.libsignal.protocol.InvalidKeyIdException;
@@ -23,6 +25,18 @@ public class PreKeysTable implements IPreKeysTable {
 
   private static final String TABLE_NAME = "signald_prekeys";
 
+  static final String LOAD_PRE_KEY_QUERY = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, ID);
+  static final String STORE_PRE_KEY_QUERY = String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?) ON CONFLICT (%s, %s) DO UPDATE SET %s=EXCLUDED.%s", TABLE_NAME,
+                                                          // FIELDS
+                                                          ACCOUNT_UUID, ID, RECORD,
+                                                          // ON CONFLICT
+                                                          ACCOUNT_UUID, ID,
+                                                          // DO UPDATE SET
+                                                          RECORD, RECORD);
+  private static final String CONTAINS_PRE_KEY_QUERY = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, ID);
+  private static final String REMOVE_PRE_KEY_QUERY = String.format("DELETE FROM %s WHERE %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, ID);
+  private static final String DELETE_ACCOUNT_QUERY = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
+
   private final ACI aci;
 
   public PreKeysTable(ACI aci) { this.aci = aci; }
@@ -30,8 +44,7 @@ public class PreKeysTable implements IPreKeysTable {
   @Override
   public PreKeyRecord loadPreKey(int preKeyId) throws InvalidKeyIdException {
     try {
-      var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_load_pre_key", LOAD_PRE_KEY_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, preKeyId);
         try (var rows = Database.executeQuery(TABLE_NAME + "_load_pre_key", statement)) {
@@ -49,14 +62,7 @@ public class PreKeysTable implements IPreKeysTable {
   @Override
   public void storePreKey(int preKeyId, PreKeyRecord record) {
     try {
-      var query = String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?) ON CONFLICT (%s, %s) DO UPDATE SET %s=EXCLUDED.%s", TABLE_NAME,
-                                // FIELDS
-                                ACCOUNT_UUID, ID, RECORD,
-                                // ON CONFLICT
-                                ACCOUNT_UUID, ID,
-                                // DO UPDATE SET
-                                RECORD, RECORD);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_store_pre_key", STORE_PRE_KEY_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, preKeyId);
         statement.setBytes(3, record.serialize());
@@ -68,11 +74,26 @@ public class PreKeysTable implements IPreKeysTable {
     }
   }
 
+  @Override
+  public void storePreKeys(List<PreKeyRecord> records) throws SQLException {
+    try (Transaction tx = Database.beginTransaction()) {
+      try (var statement = Database.prepare(TABLE_NAME + "_store_pre_keys", STORE_PRE_KEY_QUERY)) {
+        for (PreKeyRecord record : records) {
+          statement.setObject(1, aci.uuid());
+          statement.setInt(2, record.getId());
+          statement.setBytes(3, record.serialize());
+          statement.addBatch();
+        }
+        Database.executeBatch(TABLE_NAME + "_store_pre_keys", statement);
+      }
+      tx.commit();
+    }
+  }
+
   @Override
   public boolean containsPreKey(int preKeyId) {
     try {
-      var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_contains_pre_key", CONTAINS_PRE_KEY_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, preKeyId);
         try (var rows = Database.executeQuery(TABLE_NAME + "_contains_pre_key", statement)) {
@@ -89,8 +110,7 @@ public class PreKeysTable implements IPreKeysTable {
   @Override
   public void removePreKey(int preKeyId) {
     try {
-      var query = String.format("DELETE FROM %s WHERE %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_remove_pre_key", REMOVE_PRE_KEY_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, preKeyId);
         Database.executeUpdate(TABLE_NAME + "_remove_pre_key", statement);
@@ -103,8 +123,7 @@ public class PreKeysTable implements IPreKeysTable {
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setObject(1, aci);
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
@@ -14,6 +14,7 @@ import org.whispersystems.signalservice.api.push.ACI;
 
 public class ProfileKeysTable implements IProfileKeysTable {
   private static final String TABLE_NAME = "signald_profile_keys";
+
   private Account account;
 
   public ProfileKeysTable(ACI aci) { account = new Account(aci); }
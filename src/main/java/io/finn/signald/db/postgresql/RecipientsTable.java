@@ -9,8 +9,10 @@ package io.finn.signald.db.postgresql;
 
 import io.finn.signald.SignalDependencies;
 import io.finn.signald.db.Database;
+import io.finn.signald.db.GroupCache;
 import io.finn.signald.db.IRecipientsTable;
 import io.finn.signald.db.Recipient;
+import io.finn.signald.db.Transaction;
 import io.finn.signald.exceptions.InvalidProxyException;
 import io.finn.signald.exceptions.NoSuchAccountException;
 import io.finn.signald.exceptions.ServerNotFoundException;
@@ -39,6 +41,34 @@ public class RecipientsTable implements IRecipientsTable {
 
   static final String TABLE_NAME = "signald_recipients";
 
+  private static final String STORE_NEW_BATCH_QUERY = String.format("INSERT INTO %s (%s, %s) VALUES (?, ?)", TABLE_NAME, ACCOUNT_UUID, UUID);
+  private static final String GET_ALL_BY_UUID_QUERY = String.format("SELECT %s, %s, %s, %s, %s FROM %s WHERE %s=? AND %s=ANY(?) ORDER BY %s",
+                                                                    // FIELDS
+                                                                    ROW_ID, E164, UUID, REGISTERED, NEEDS_PNI_SIGNATURE,
+                                                                    // FROM
+                                                                    TABLE_NAME,
+                                                                    // WHERE
+                                                                    ACCOUNT_UUID, UUID,
+                                                                    // ORDER BY
+                                                                    ROW_ID);
+  private static final String STORE_NEW_QUERY = String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?) RETURNING %s", TABLE_NAME, ACCOUNT_UUID, UUID, E164, ROW_ID);
+  private static final String DELETE_QUERY = String.format("DELETE FROM %s WHERE %s=? AND %s=?", TABLE_NAME, ROW_ID, ACCOUNT_UUID);
+  private static final String DELETE_ACCOUNT_QUERY = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
+  // a UNION of the two lookups rather than "uuid=? OR e164=?", so each half is answered from its own index
+  static final String GET_QUERY = String.format("SELECT %s, %s, %s, %s, %s FROM %s WHERE %s=? AND %s=? UNION SELECT %s, %s, %s, %s, %s FROM %s WHERE %s=? AND %s=?",
+                                                // FIELDS
+                                                ROW_ID, E164, UUID, REGISTERED, NEEDS_PNI_SIGNATURE,
+                                                // FROM
+                                                TABLE_NAME,
+                                                // WHERE
+                                                ACCOUNT_UUID, UUID,
+                                                // UNION FIELDS
+                                                ROW_ID, E164, UUID, REGISTERED, NEEDS_PNI_SIGNATURE,
+                                                // FROM
+                                                TABLE_NAME,
+                                                // WHERE
+                                                ACCOUNT_UUID, E164);
+
   private final UUID accountUUID;
 
   public RecipientsTable(ACI aci) { accountUUID = aci.uuid(); }
@@ -47,17 +77,11 @@ public class RecipientsTable implements IRecipientsTable {
   public synchronized Recipient get(String queryE164, ServiceId queryServiceId) throws SQLException, IOException {
     logger.trace("looking up recipient {}/{}", queryE164, queryServiceId);
     List<Recipient> results = new ArrayList<>();
-    var query = String.format("SELECT %s, %s, %s, %s, %s FROM %s WHERE (%s=? OR %s=?) AND %s=?",
-                              // FIELDS
-                              ROW_ID, E164, UUID, REGISTERED, NEEDS_PNI_SIGNATURE,
-                              // FROM
-                              TABLE_NAME,
-                              // WHERE
-                              UUID, E164, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
-      statement.setObject(1, queryServiceId != null ? queryServiceId.uuid() : null);
-      statement.setString(2, queryE164);
+    try (var statement = Database.prepare(TABLE_NAME + "_get", GET_QUERY)) {
+      statement.setObject(1, accountUUID);
+      statement.setObject(2, queryServiceId != null ? queryServiceId.uuid() : null);
       statement.setObject(3, accountUUID);
+      statement.setString(4, queryE164);
       try (var rows = Database.executeQuery(TABLE_NAME + "_get", statement)) {
         while (rows.next()) {
           int rowId = rows.getInt(ROW_ID);
@@ -157,10 +181,59 @@ public class RecipientsTable implements IRecipientsTable {
 
   public Recipient self() throws SQLException, IOException { return get(accountUUID); }
 
+  @Override
+  public synchronized List<Recipient> getOrCreateAll(Collection<? extends ServiceId> serviceIds) throws SQLException {
+    Map<UUID, Recipient> known = new HashMap<>();
+    try (Transaction tx = Database.beginTransaction()) {
+      Set<UUID> queryUUIDs = new LinkedHashSet<>();
+      for (ServiceId serviceId : serviceIds) {
+        queryUUIDs.add(serviceId.uuid());
+      }
+      getAllByUUID(queryUUIDs, known);
+
+      Set<UUID> missing = new LinkedHashSet<>(queryUUIDs);
+      missing.removeAll(known.keySet());
+      if (missing.size() > 0) {
+        logger.trace("storing {} new recipients", missing.size());
+        try (var statement = Database.prepare(TABLE_NAME + "_store_new_batch", STORE_NEW_BATCH_QUERY)) {
+          for (UUID serviceId : missing) {
+            statement.setObject(1, accountUUID);
+            statement.setObject(2, serviceId);
+            statement.addBatch();
+          }
+          Database.executeBatch(TABLE_NAME + "_store_new_batch", statement);
+        }
+        getAllByUUID(missing, known);
+      }
+
+      tx.commit();
+    }
+
+    List<Recipient> results = new ArrayList<>();
+    for (ServiceId serviceId : serviceIds) {
+      results.add(known.get(serviceId.uuid()));
+    }
+    return results;
+  }
+
+  private void getAllByUUID(Collection<UUID> uuids, Map<UUID, Recipient> results) throws SQLException {
+    try (var statement = Database.prepare(TABLE_NAME + "_get_all_by_uuid", GET_ALL_BY_UUID_QUERY)) {
+      statement.setObject(1, accountUUID);
+      statement.setArray(2, Database.getConn().createArrayOf("uuid", uuids.toArray()));
+      try (var rows = Database.executeQuery(TABLE_NAME + "_get_all_by_uuid", statement)) {
+        while (rows.next()) {
+          UUID storedUUID = rows.getObject(UUID, java.util.UUID.class);
+          SignalServiceAddress address = new SignalServiceAddress(ACI.from(storedUUID), rows.getString(E164));
+          // if there are duplicate rows for a UUID, prefer the oldest one
+          results.putIfAbsent(storedUUID, new Recipient(accountUUID, rows.getInt(ROW_ID), address, rows.getBoolean(REGISTERED), rows.getBoolean(NEEDS_PNI_SIGNATURE)));
+        }
+      }
+    }
+  }
+
   private int storeNew(ServiceId serviceId, String e164) throws SQLException {
     logger.trace("storing new recipient {}/{}", e164, serviceId);
-    var query = String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?) RETURNING %s", TABLE_NAME, ACCOUNT_UUID, UUID, E164, ROW_ID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_store_name", STORE_NEW_QUERY)) {
       statement.setObject(1, accountUUID);
       statement.setObject(2, serviceId.uuid());
       statement.setString(3, e164);
@@ -184,24 +257,25 @@ public class RecipientsTable implements IRecipientsTable {
       statement.setInt(3, row);
       Database.executeUpdate(TABLE_NAME + "_update", statement);
     }
+    invalidateCachedGroupMembers(row);
     logger.trace("updated");
   }
 
   private void delete(int row)throws SQLException {
     logger.trace("deleting recipient {}", row);
-    var query = String.format("DELETE FROM %s WHERE %s=? AND %s=?", TABLE_NAME, ROW_ID, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete", DELETE_QUERY)) {
       statement.setInt(1, row);
       statement.setObject(2, accountUUID);
       Database.executeUpdate(TABLE_NAME + "_delete", statement);
     }
+    invalidateCachedGroupMembers(row);
+    invalidateCachedIdentityKeys(row);
     logger.trace("deleted");
   }
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setObject(1, aci);
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
@@ -244,4 +318,13 @@ public class RecipientsTable implements IRecipientsTable {
   }
 
   public void setRegistrationStatus(Recipient recipient, boolean registered) throws SQLException { update(REGISTERED, registered, recipient.getId()); }
+
+  // cached group member lists hold resolved recipients, so the lists of the groups the recipient is in are dropped when it changes.
+  // Not until the change is committed, since until then other threads can still read the old row and cache it again.
+  private void invalidateCachedGroupMembers(int row) {
+    GroupCache cache = Database.Get(ACI.from(accountUUID)).GroupsTable.getCache();
+    Transaction.afterCompletion(() -> cache.invalidateMembers(row));
+  }
+
+  private void invalidateCachedIdentityKeys(int row) { Database.Get(ACI.from(accountUUID)).IdentityKeysTable.getCache().invalidate(row); }
 }
@@ -11,6 +11,7 @@ import io.finn.signald.Account;
 import io.finn.signald.db.Database;
 import io.finn.signald.db.ISenderKeySharedTable;
 import io.finn.signald.db.Recipient;
+import io.finn.signald.db.Transaction;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.HashSet;
@@ -26,6 +27,24 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   private static final String TABLE_NAME = "signald_sender_key_shared";
 
+  static final String GET_SENDER_KEY_SHARED_WITH_QUERY =
+      String.format("SELECT %s, %s FROM %s WHERE %s=? AND %s=?", ADDRESS, DEVICE, TABLE_NAME, ACCOUNT_UUID, DISTRIBUTION_ID);
+  static final String MARK_SENDER_KEY_SHARED_WITH_QUERY =
+      String.format("INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, ?, ?) ON CONFLICT (%s, %s, %s) DO UPDATE SET %s=EXCLUDED.%s", TABLE_NAME,
+                    // FIELDS
+                    ACCOUNT_UUID, ADDRESS, DEVICE, DISTRIBUTION_ID,
+                    // ON CONFLICT
+                    ACCOUNT_UUID, ADDRESS, DEVICE,
+                    // SET
+                    DISTRIBUTION_ID, DISTRIBUTION_ID);
+  static final String CLEAR_SENDER_KEY_SHARED_WITH_QUERY =
+      String.format("DELETE FROM %s WHERE %s=? AND %s=? AND %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, ADDRESS, DEVICE, DISTRIBUTION_ID);
+  private static final String CLEAR_SENDER_KEY_SHARED_WITH_ALL_QUERY = String.format("DELETE FROM %s WHERE %s=? AND %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, ADDRESS, DEVICE);
+  private static final String DELETE_ALL_FOR_DISTRIBUTIONID_QUERY = String.format("DELETE FROM %s WHERE %s = ? AND %s = ?", TABLE_NAME, ACCOUNT_UUID, DISTRIBUTION_ID);
+  private static final String DELETE_ALL_FOR_RECIPIENT_QUERY = String.format("DELETE FROM %s WHERE %s = ? AND %s = ?", TABLE_NAME, ACCOUNT_UUID, ADDRESS);
+  private static final String DELETE_ACCOUNT_QUERY = String.format("DELETE FROM %s WHERE %s = ?", TABLE_NAME, ACCOUNT_UUID);
+  private static final String DELETE_SHARED_WITH_QUERY = String.format("DELETE FROM %s WHERE %s = ? AND %s = ?", TABLE_NAME, ACCOUNT_UUID, ADDRESS);
+
   private final ACI aci;
 
   public SenderKeySharedTable(ACI aci) { this.aci = aci; }
@@ -34,8 +53,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
   public Set<SignalProtocolAddress> getSenderKeySharedWith(DistributionId distributionId) {
     Set<SignalProtocolAddress> addresses = new HashSet<>();
     try {
-      var query = String.format("SELECT %s, %s FROM %s WHERE %s=? AND %s=?", ADDRESS, DEVICE, TABLE_NAME, ACCOUNT_UUID, DISTRIBUTION_ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_get_sender_key_shared_with", GET_SENDER_KEY_SHARED_WITH_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setObject(2, distributionId.asUuid());
 
@@ -54,15 +72,11 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void markSenderKeySharedWith(DistributionId distributionId, Collection<SignalProtocolAddress> addresses) {
-    try {
-      var query = String.format("INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, ?, ?) ON CONFLICT (%s, %s, %s) DO UPDATE SET %s=EXCLUDED.%s", TABLE_NAME,
-                                // FIELDS
-                                ACCOUNT_UUID, ADDRESS, DEVICE, DISTRIBUTION_ID,
-                                // ON CONFLICT
-                                ACCOUNT_UUID, ADDRESS, DEVICE,
-                                // SET
-                                DISTRIBUTION_ID, DISTRIBUTION_ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+    if (addresses.isEmpty()) {
+      return;
+    }
+    try (Transaction tx = Database.beginTransaction()) {
+      try (var statement = Database.prepare(TABLE_NAME + "_mark_sender_key_shared_with", MARK_SENDER_KEY_SHARED_WITH_QUERY)) {
         for (SignalProtocolAddress address : addresses) {
           statement.setObject(1, aci.uuid());
           statement.setString(2, address.getName());
@@ -72,6 +86,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
         }
         Database.executeBatch(TABLE_NAME + "_mark_sender_key_shared_with", statement);
       }
+      tx.commit();
     } catch (SQLException e) {
       logger.catching(e);
     }
@@ -79,9 +94,11 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void clearSenderKeySharedWith(DistributionId distributionId, Collection<SignalProtocolAddress> addresses) {
-    try {
-      var query = String.format("DELETE FROM %s WHERE %s=? AND %s=? AND %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, ADDRESS, DEVICE, DISTRIBUTION_ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+    if (addresses.isEmpty()) {
+      return;
+    }
+    try (Transaction tx = Database.beginTransaction()) {
+      try (var statement = Database.prepare(TABLE_NAME + "_clear_sender_key_shared_with", CLEAR_SENDER_KEY_SHARED_WITH_QUERY)) {
         for (SignalProtocolAddress address : addresses) {
           statement.setObject(1, aci.uuid());
           statement.setString(2, address.getName());
@@ -91,6 +108,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
         }
         Database.executeBatch(TABLE_NAME + "_clear_sender_key_shared_with", statement);
       }
+      tx.commit();
     } catch (SQLException e) {
       logger.catching(e);
     }
@@ -98,17 +116,20 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void clearSenderKeySharedWith(Collection<SignalProtocolAddress> addresses) {
-    try {
-      var query = String.format("DELETE FROM %s WHERE %s=? AND %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, ADDRESS, DEVICE);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+    if (addresses.isEmpty()) {
+      return;
+    }
+    try (Transaction tx = Database.beginTransaction()) {
+      try (var statement = Database.prepare(TABLE_NAME + "_clear_sender_key_shared_with_all", CLEAR_SENDER_KEY_SHARED_WITH_ALL_QUERY)) {
         for (SignalProtocolAddress address : addresses) {
           statement.setObject(1, aci.uuid());
           statement.setString(2, address.getName());
           statement.setInt(3, address.getDeviceId());
           statement.addBatch();
         }
-        Database.executeBatch(TABLE_NAME + "_clear_sender_key_shared_with", statement);
+        Database.executeBatch(TABLE_NAME + "_clear_sender_key_shared_with_all", statement);
       }
+      tx.commit();
     } catch (SQLException e) {
       logger.catching(e);
     }
@@ -121,8 +142,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void deleteAllFor(DistributionId distributionId) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s = ? AND %s = ?", TABLE_NAME, ACCOUNT_UUID, DISTRIBUTION_ID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_all_for_distributionid", DELETE_ALL_FOR_DISTRIBUTIONID_QUERY)) {
       statement.setObject(1, aci.uuid());
       statement.setObject(2, distributionId.asUuid());
       Database.executeUpdate(TABLE_NAME + "_delete_all_for_distributionid", statement);
@@ -131,8 +151,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void deleteForAll(Recipient recipient) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s = ? AND %s = ?", TABLE_NAME, ACCOUNT_UUID, ADDRESS);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_all_for_recipient", DELETE_ALL_FOR_RECIPIENT_QUERY)) {
       statement.setObject(1, aci.uuid());
       statement.setObject(2, recipient.getServiceId().toString());
       Database.executeUpdate(TABLE_NAME + "_delete_all_for_recipient", statement);
@@ -141,8 +160,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s = ?", TABLE_NAME, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setObject(1, aci);
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
@@ -150,8 +168,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void deleteSharedWith(Recipient source) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s = ? AND %s = ?", TABLE_NAME, ACCOUNT_UUID, ADDRESS);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_shared_with", DELETE_SHARED_WITH_QUERY)) {
       statement.setObject(1, aci.uuid());
       statement.setString(2, source.getServiceId().toString());
       Database.executeUpdate(TABLE_NAME + "_delete_shared_with", statement);
@@ -7,12 +7,14 @@
 
 package io.finn.signald.db.postgresql;
 
+import io.finn.signald.Config;
 import io.finn.signald.db.Database;
 import io.finn.signald.db.ISenderKeysTable;
+import io.finn.signald.db.SenderKeyCache;
+import io.finn.signald.db.Transaction;
 import io.sentry.Sentry;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.util.Date;
 import java.util.UUID;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -27,31 +29,43 @@ public class SenderKeysTable implements ISenderKeysTable {
 
   private static final String TABLE_NAME = "signald_sender_keys";
 
+  static final String STORE_QUERY =
+      String.format("INSERT INTO %s (%s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (%s, %s, %s, %s) DO UPDATE SET %s=EXCLUDED.%s, %s=EXCLUDED.%s", TABLE_NAME,
+                    // FIELDS
+                    ACCOUNT_UUID, ADDRESS, DEVICE, DISTRIBUTION_ID, RECORD, CREATED_AT,
+                    // ON CONFLICT
+                    ACCOUNT_UUID, ADDRESS, DEVICE, DISTRIBUTION_ID,
+                    // DO UPDATE SET
+                    RECORD, RECORD, CREATED_AT, CREATED_AT);
+  static final String LOAD_QUERY = String.format("SELECT %s, %s FROM %s WHERE %s=? AND %s=? AND %s=? AND %s=?", RECORD, CREATED_AT, TABLE_NAME,
+                                                 // WHERE
+                                                 ACCOUNT_UUID, ADDRESS, DEVICE, DISTRIBUTION_ID);
+  private static final String DELETE_ALL_FOR_QUERY = String.format("DELETE FROM %s WHERE %s=? AND %s=? AND %s=?", TABLE_NAME,
+                                                                   // WHERE
+                                                                   ACCOUNT_UUID, ADDRESS, DISTRIBUTION_ID);
+  private static final String DELETE_ACCOUNT_QUERY = String.format("DELETE FROM %s WHERE %s = ?", TABLE_NAME, ACCOUNT_UUID);
+
   private final ACI aci;
+  private final SenderKeyCache cache = new SenderKeyCache(Config.getSenderKeyCacheSize());
 
   public SenderKeysTable(ACI aci) { this.aci = aci; }
 
   @Override
   public void storeSenderKey(SignalProtocolAddress address, UUID distributionId, SenderKeyRecord record) {
+    long createdAt = System.currentTimeMillis();
     try {
-      var query =
-          String.format("INSERT INTO %s (%s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (%s, %s, %s, %s) DO UPDATE SET %s=EXCLUDED.%s, %s=EXCLUDED.%s", TABLE_NAME,
-                        // FIELDS
-                        ACCOUNT_UUID, ADDRESS, DEVICE, DISTRIBUTION_ID, RECORD, CREATED_AT,
-                        // ON CONFLICT
-                        ACCOUNT_UUID, ADDRESS, DEVICE, DISTRIBUTION_ID,
-                        // DO UPDATE SET
-                        RECORD, RECORD, CREATED_AT, CREATED_AT);
       // account_uuid,address,device,distribution_id
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_store", STORE_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setString(2, address.getName());
         statement.setInt(3, address.getDeviceId());
         statement.setObject(4, distributionId);
         statement.setBytes(5, record.serialize());
-        statement.setTimestamp(6, new Timestamp(new Date().getTime()));
+        statement.setTimestamp(6, new Timestamp(createdAt));
         Database.executeUpdate(TABLE_NAME + "_store", statement);
       }
+      SenderKeyCache.Entry entry = cache.put(address, distributionId, record, createdAt);
+      Transaction.afterCompletion(committed -> cache.stored(address, distributionId, entry, committed));
     } catch (SQLException e) {
       logger.catching(e);
     }
@@ -60,18 +74,7 @@ public class SenderKeysTable implements ISenderKeysTable {
   @Override
   public SenderKeyRecord loadSenderKey(SignalProtocolAddress address, UUID distributionId) {
     try {
-      var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=? AND %s=? AND %s=?", RECORD, TABLE_NAME,
-                                // WHERE
-                                ACCOUNT_UUID, ADDRESS, DEVICE, DISTRIBUTION_ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
-        statement.setObject(1, aci.uuid());
-        statement.setString(2, address.getName());
-        statement.setInt(3, address.getDeviceId());
-        statement.setObject(4, distributionId);
-        try (var rows = Database.executeQuery(TABLE_NAME + "_load", statement)) {
-          return rows.next() ? new SenderKeyRecord(rows.getBytes(RECORD)) : null;
-        }
-      }
+      return load(address, distributionId).getRecord();
     } catch (SQLException | InvalidMessageException e) {
       logger.error("unexpected error while trying to load sender key", e);
       Sentry.captureException(e);
@@ -81,39 +84,55 @@ public class SenderKeysTable implements ISenderKeysTable {
 
   @Override
   public long getCreatedTime(SignalProtocolAddress address, UUID distributionId) throws SQLException {
-    var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=? AND %s=? AND %s=?", CREATED_AT, TABLE_NAME,
-                              // WHERE
-                              ACCOUNT_UUID, ADDRESS, DEVICE, DISTRIBUTION_ID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try {
+      return load(address, distributionId).getCreatedAt();
+    } catch (InvalidMessageException e) {
+      logger.error("unexpected error while trying to load sender key", e);
+      Sentry.captureException(e);
+      return -1;
+    }
+  }
+
+  private SenderKeyCache.Entry load(SignalProtocolAddress address, UUID distributionId) throws SQLException, InvalidMessageException {
+    SenderKeyCache.Entry entry = cache.get(address, distributionId);
+    if (entry != null) {
+      return entry;
+    }
+
+    long stamp = cache.stamp();
+    try (var statement = Database.prepare(TABLE_NAME + "_load", LOAD_QUERY)) {
       statement.setObject(1, aci.uuid());
       statement.setString(2, address.getName());
       statement.setInt(3, address.getDeviceId());
       statement.setObject(4, distributionId);
-      try (var rows = Database.executeQuery(TABLE_NAME + "_get_created_time", statement)) {
-        return rows.next() ? rows.getTimestamp(CREATED_AT).getTime() : -1;
+      try (var rows = Database.executeQuery(TABLE_NAME + "_load", statement)) {
+        entry = rows.next() ? new SenderKeyCache.Entry(new SenderKeyRecord(rows.getBytes(RECORD)), rows.getTimestamp(CREATED_AT).getTime()) : new SenderKeyCache.Entry(null, -1);
       }
     }
+    cache.putLoaded(address, distributionId, entry, stamp);
+    return entry;
   }
 
   @Override
   public void deleteAllFor(String address, DistributionId distributionId) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s=? AND %s=? AND %s=?", TABLE_NAME,
-                              // WHERE
-                              ACCOUNT_UUID, ADDRESS, DISTRIBUTION_ID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_all_for", DELETE_ALL_FOR_QUERY)) {
       statement.setObject(1, aci.uuid());
       statement.setString(2, address);
       statement.setObject(3, distributionId.asUuid());
       Database.executeUpdate(TABLE_NAME + "_delete_all_for", statement);
     }
+    cache.invalidate(address, distributionId.asUuid());
   }
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s = ?", TABLE_NAME, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setObject(1, aci);
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
+    Database.Get(aci).SenderKeysTable.getCache().clear();
   }
+
+  @Override
+  public SenderKeyCache getCache() { return cache; }
 }
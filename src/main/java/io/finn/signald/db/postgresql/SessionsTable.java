@@ -34,6 +34,22 @@ public class SessionsTable implements ISessionsTable {
 
   private static final String TABLE_NAME = "signald_sessions";
 
+  static final String LOAD_QUERY = String.format("SELECT %s FROM %s WHERE %s=? AND %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, RECIPIENT, DEVICE_ID);
+  private static final String LOAD_EXISTING_QUERY = String.format("SELECT %s FROM %s WHERE %s=? AND %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, RECIPIENT, DEVICE_ID);
+  static final String GET_SUB_DEVICE_SESSION_QUERY = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", DEVICE_ID, TABLE_NAME, ACCOUNT_UUID, RECIPIENT);
+  static final String STORE_QUERY = String.format("INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, ?, ?) ON CONFLICT (%s, %s, %s) DO UPDATE SET %s=EXCLUDED.%s", TABLE_NAME,
+                                                  // FIELDS
+                                                  ACCOUNT_UUID, RECIPIENT, DEVICE_ID, RECORD,
+                                                  // ON CONFLICT
+                                                  ACCOUNT_UUID, RECIPIENT, DEVICE_ID,
+                                                  // DO UPDATE SET
+                                                  RECORD, RECORD);
+  private static final String CONTAINS_QUERY = String.format("SELECT %s FROM %s WHERE %s=? AND %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, RECIPIENT, DEVICE_ID);
+  private static final String DELETE_QUERY = String.format("DELETE FROM %s WHERE %s=? AND %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, RECIPIENT, DEVICE_ID);
+  private static final String DELETE_ALL_QUERY = String.format("DELETE FROM %s WHERE %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, RECIPIENT);
+  private static final String DELETE_ACCOUNT_QUERY = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
+  private static final String ARCHIVE_ALL_SESSIONS_FIND_QUERY = String.format("SELECT %s, %s FROM %s WHERE %s=? AND %s=?", RECORD, DEVICE_ID, TABLE_NAME, ACCOUNT_UUID, RECIPIENT);
+
   private final ACI aci;
 
   public SessionsTable(ACI aci) { this.aci = aci; }
@@ -42,8 +58,7 @@ public class SessionsTable implements ISessionsTable {
   public SessionRecord loadSession(SignalProtocolAddress address) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(address.getName());
-      var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, RECIPIENT, DEVICE_ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_load", LOAD_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, recipient.getId());
         statement.setInt(3, address.getDeviceId());
@@ -67,8 +82,7 @@ public class SessionsTable implements ISessionsTable {
     for (SignalProtocolAddress address : list) {
       try {
         Recipient recipient = Database.Get(aci).RecipientsTable.get(address.getName());
-        var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, RECIPIENT, DEVICE_ID);
-        try (var statement = Database.getConn().prepareStatement(query)) {
+        try (var statement = Database.prepare(TABLE_NAME + "_load_existing", LOAD_EXISTING_QUERY)) {
           statement.setObject(1, aci.uuid());
           statement.setInt(2, recipient.getId());
           statement.setInt(3, address.getDeviceId());
@@ -90,8 +104,7 @@ public class SessionsTable implements ISessionsTable {
   public List<Integer> getSubDeviceSessions(String name) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(name);
-      var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", DEVICE_ID, TABLE_NAME, ACCOUNT_UUID, RECIPIENT);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_get_sub_device_session", GET_SUB_DEVICE_SESSION_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, recipient.getId());
         try (var rows = Database.executeQuery(TABLE_NAME + "_get_sub_device_session", statement)) {
@@ -115,14 +128,7 @@ public class SessionsTable implements ISessionsTable {
   public void storeSession(SignalProtocolAddress address, SessionRecord record) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(address.getName());
-      var query = String.format("INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, ?, ?) ON CONFLICT (%s, %s, %s) DO UPDATE SET %s=EXCLUDED.%s", TABLE_NAME,
-                                // FIELDS
-                                ACCOUNT_UUID, RECIPIENT, DEVICE_ID, RECORD,
-                                // ON CONFLICT
-                                ACCOUNT_UUID, RECIPIENT, DEVICE_ID,
-                                // DO UPDATE SET
-                                RECORD, RECORD);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_store", STORE_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, recipient.getId());
         statement.setInt(3, address.getDeviceId());
@@ -138,8 +144,7 @@ public class SessionsTable implements ISessionsTable {
   public boolean containsSession(SignalProtocolAddress address) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(address.getName());
-      var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, RECIPIENT, DEVICE_ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_contains", CONTAINS_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, recipient.getId());
         statement.setInt(3, address.getDeviceId());
@@ -161,8 +166,7 @@ public class SessionsTable implements ISessionsTable {
   public void deleteSession(SignalProtocolAddress address) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(address.getName());
-      var query = String.format("DELETE FROM %s WHERE %s=? AND %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, RECIPIENT, DEVICE_ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_delete", DELETE_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, recipient.getId());
         statement.setInt(3, address.getDeviceId());
@@ -177,8 +181,7 @@ public class SessionsTable implements ISessionsTable {
   public void deleteAllSessions(String name) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(name);
-      var query = String.format("DELETE FROM %s WHERE %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, RECIPIENT);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_delete_all", DELETE_ALL_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, recipient.getId());
         Database.executeUpdate(TABLE_NAME + "_delete_all", statement);
@@ -189,8 +192,7 @@ public class SessionsTable implements ISessionsTable {
   }
 
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setObject(1, aci);
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
@@ -234,8 +236,7 @@ public class SessionsTable implements ISessionsTable {
   }
 
   public void archiveAllSessions(Recipient recipient) throws SQLException {
-    var query = String.format("SELECT %s, %s FROM %s WHERE %s=? AND %s=?", RECORD, DEVICE_ID, TABLE_NAME, ACCOUNT_UUID, RECIPIENT);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_archive_all_sessions_find", ARCHIVE_ALL_SESSIONS_FIND_QUERY)) {
       statement.setObject(1, aci.uuid());
       statement.setInt(2, recipient.getId());
       List<Pair<Integer, SessionRecord>> records = new ArrayList<>();
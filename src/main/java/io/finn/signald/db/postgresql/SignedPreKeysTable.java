@@ -23,6 +23,13 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   private final static Logger logger = LogManager.getLogger();
 
   private final static String TABLE_NAME = "signald_signed_prekeys";
+  static final String LOAD_SIGNED_PREKEY_QUERY = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, ID);
+  private static final String LOAD_ALL_SIGNED_PREKEYS_QUERY = String.format("SELECT %s FROM %s WHERE %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID);
+  private static final String STORE_SIGNED_PREKEY_QUERY = String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?) ON CONFLICT (%s, %s) DO UPDATE SET %s=excluded.%s",
+                                                                        TABLE_NAME, ACCOUNT_UUID, ID, RECORD, ACCOUNT_UUID, ID, RECORD, RECORD);
+  private static final String CONTAINS_SIGNED_PREKEY_QUERY = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, ID);
+  private static final String REMOVE_SIGNED_PREKEY_QUERY = String.format("DELETE FROM %s WHERE %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, ID);
+  private static final String DELETE_ACCOUNT_QUERY = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
 
   private final ACI aci;
 
@@ -31,8 +38,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   @Override
   public SignedPreKeyRecord loadSignedPreKey(int signedPreKeyId) throws InvalidKeyIdException {
     try {
-      var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_load_signed_prekey", LOAD_SIGNED_PREKEY_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, signedPreKeyId);
         try (var rows = Database.executeQuery(TABLE_NAME + "_load_signed_prekey", statement)) {
@@ -51,8 +57,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   @Override
   public List<SignedPreKeyRecord> loadSignedPreKeys() {
     try {
-      var query = String.format("SELECT %s FROM %s WHERE %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_load_all_signed_prekeys", LOAD_ALL_SIGNED_PREKEYS_QUERY)) {
         statement.setObject(1, aci.uuid());
         try (var rows = Database.executeQuery(TABLE_NAME + "_load_all_signed_prekeys", statement)) {
           List<SignedPreKeyRecord> results = new ArrayList<>();
@@ -71,14 +76,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   @Override
   public void storeSignedPreKey(int signedPreKeyId, SignedPreKeyRecord record) {
     try {
-      var query = String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?) ON CONFLICT (%s, %s) DO UPDATE SET %s=excluded.%s", TABLE_NAME,
-                                // FIELDS
-                                ACCOUNT_UUID, ID, RECORD,
-                                // ON CONFLICT
-                                ACCOUNT_UUID, ID,
-                                // DO UPDATE SET
-                                RECORD, RECORD);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_store_signed_prekey", STORE_SIGNED_PREKEY_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, signedPreKeyId);
         statement.setBytes(3, record.serialize());
@@ -93,8 +91,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   @Override
   public boolean containsSignedPreKey(int signedPreKeyId) {
     try {
-      var query = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", RECORD, TABLE_NAME, ACCOUNT_UUID, ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_contains_signed_prekey", CONTAINS_SIGNED_PREKEY_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, signedPreKeyId);
         try (var rows = Database.executeQuery(TABLE_NAME + "_contains_signed_prekey", statement)) {
@@ -110,8 +107,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   @Override
   public void removeSignedPreKey(int signedPreKeyId) {
     try {
-      var query = String.format("DELETE FROM %s WHERE %s=? AND %s=?", TABLE_NAME, ACCOUNT_UUID, ID);
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_remove_signed_prekey", REMOVE_SIGNED_PREKEY_QUERY)) {
         statement.setObject(1, aci.uuid());
         statement.setInt(2, signedPreKeyId);
         Database.executeUpdate(TABLE_NAME + "_remove_signed_prekey", statement);
@@ -124,8 +120,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = String.format("DELETE FROM %s WHERE %s=?", TABLE_NAME, ACCOUNT_UUID);
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setObject(1, aci);
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
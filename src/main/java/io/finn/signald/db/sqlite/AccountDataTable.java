@@ -13,12 +13,16 @@ import java.sql.SQLException;
 import org.whispersystems.signalservice.api.push.ACI;
 
 public class AccountDataTable implements IAccountDataTable {
-  String TABLE_NAME = "account_data";
+  private static final String TABLE_NAME = "account_data";
+
+  private static final String GET_BYTES_QUERY = "SELECT " + VALUE + " FROM " + TABLE_NAME + " WHERE " + KEY + " = ? AND " + ACCOUNT_UUID + " = ?";
+  private static final String SET_BYTES_QUERY = "INSERT INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + KEY + "," + VALUE + ") VALUES (?, ?, ?) ON CONFLICT(" + ACCOUNT_UUID +
+                                                "," + KEY + ") DO UPDATE SET " + VALUE + " = excluded." + VALUE;
+  private static final String DELETE_ACCOUNT_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
 
   @Override
   public byte[] getBytes(ACI aci, Key key) throws SQLException {
-    var query = "SELECT " + VALUE + " FROM " + TABLE_NAME + " WHERE " + KEY + " = ? AND " + ACCOUNT_UUID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_get_bytes", GET_BYTES_QUERY)) {
       statement.setString(1, key.name());
       statement.setString(2, aci.toString());
       try (var rows = Database.executeQuery(TABLE_NAME + "_get_bytes", statement)) {
@@ -29,9 +33,7 @@ public class AccountDataTable implements IAccountDataTable {
 
   @Override
   public void set(ACI aci, Key key, byte[] value) throws SQLException {
-    var query = "INSERT INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + KEY + "," + VALUE + ") VALUES (?, ?, ?) ON CONFLICT(" + ACCOUNT_UUID + "," + KEY + ") DO UPDATE SET " +
-                VALUE + " = excluded." + VALUE;
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_set_bytes", SET_BYTES_QUERY)) {
       statement.setString(1, aci.toString());
       statement.setString(2, key.name());
       statement.setBytes(3, value);
@@ -41,8 +43,7 @@ public class AccountDataTable implements IAccountDataTable {
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setString(1, aci.toString());
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
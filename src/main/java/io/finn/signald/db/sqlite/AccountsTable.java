@@ -45,26 +45,26 @@ public class AccountsTable implements IAccountsTable {
 
   @Override
   public void DeleteAccount(ACI aci, String legacyUsername) throws SQLException {
-    Database.getConn().setAutoCommit(false);
-    // TODO we should use ON DELETE CASCADE for SQLite as well eventually
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + UUID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
-      statement.setString(1, aci.toString());
-      Database.executeUpdate(TABLE_NAME + "_delete", statement);
-    }
-    Database.Get().AccountDataTable.deleteAccount(aci);
-    Database.Get(aci).GroupCredentialsTable.deleteAccount(aci);
-    Database.Get(aci).GroupsTable.deleteAccount(aci);
-    Database.Get(aci).IdentityKeysTable.deleteAccount(aci);
-    Database.Get(aci).MessageQueueTable.deleteAccount(legacyUsername);
-    Database.Get(aci).PreKeysTable.deleteAccount(aci);
-    Database.Get(aci).SessionsTable.deleteAccount(aci);
-    Database.Get(aci).RecipientsTable.deleteAccount(aci);
-    Database.Get(aci).SenderKeySharedTable.deleteAccount(aci);
-    Database.Get(aci).SenderKeysTable.deleteAccount(aci);
-    Database.Get(aci).SignedPreKeysTable.deleteAccount(aci);
-    Database.getConn().commit();
-    Database.getConn().setAutoCommit(true);
+    Database.Get(aci).inTransaction(tx -> {
+      // TODO we should use ON DELETE CASCADE for SQLite as well eventually
+      var query = "DELETE FROM " + TABLE_NAME + " WHERE " + UUID + " = ?";
+      try (var statement = Database.getConn().prepareStatement(query)) {
+        statement.setString(1, aci.toString());
+        Database.executeUpdate(TABLE_NAME + "_delete", statement);
+      }
+      Database.Get().AccountDataTable.deleteAccount(aci);
+      tx.GroupCredentialsTable.deleteAccount(aci);
+      tx.GroupsTable.deleteAccount(aci);
+      tx.IdentityKeysTable.deleteAccount(aci);
+      tx.MessageQueueTable.deleteAccount(legacyUsername);
+      tx.PreKeysTable.deleteAccount(aci);
+      tx.SessionsTable.deleteAccount(aci);
+      tx.RecipientsTable.deleteAccount(aci);
+      tx.SenderKeySharedTable.deleteAccount(aci);
+      tx.SenderKeysTable.deleteAccount(aci);
+      tx.SignedPreKeysTable.deleteAccount(aci);
+      return null;
+    });
   }
 
   @Override
@@ -22,16 +22,22 @@ import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 public class MessageQueueTable implements IMessageQueueTable {
   private static final String TABLE_NAME = "message_queue";
 
+  private static final String STORE_ENVELOPE_QUERY = "INSERT INTO " + TABLE_NAME + " (" + ACCOUNT + ", " + VERSION + ", " + TYPE + ", " + SOURCE_E164 + ", " + SOURCE_UUID + ", " +
+                                                     SOURCE_DEVICE + ", " + TIMESTAMP + ", " + CONTENT + ", " + SERVER_RECEIVED_TIMESTAMP + ", " + SERVER_DELIVERED_TIMESTAMP +
+                                                     ", " + SERVER_UUID + ", " + DESTINATION_UUID + ", " + URGENT + ", " + UPDATED_PNI + ", " + STORY +
+                                                     ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+  private static final String DELETE_ACCOUNT_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT + " = ?";
+
+  static final String NEXT_ENVELOPE_QUERY = "SELECT * FROM " + TABLE_NAME + " WHERE " + ACCOUNT + " = ? ORDER BY " + ID + " LIMIT 1";
+  static final String DELETE_ENVELOPE_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ID + " = ?";
+
   private final ACI aci;
 
   public MessageQueueTable(ACI aci) { this.aci = aci; }
 
   @Override
   public long storeEnvelope(SignalServiceEnvelope envelope) throws SQLException {
-    var query = "INSERT INTO " + TABLE_NAME + " (" + ACCOUNT + ", " + VERSION + ", " + TYPE + ", " + SOURCE_E164 + ", " + SOURCE_UUID + ", " + SOURCE_DEVICE + ", " + TIMESTAMP +
-                ", " + CONTENT + ", " + SERVER_RECEIVED_TIMESTAMP + ", " + SERVER_DELIVERED_TIMESTAMP + ", " + SERVER_UUID + ", " + DESTINATION_UUID + ", " + URGENT + ", " +
-                UPDATED_PNI + ", " + STORY + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_store_envelope", STORE_ENVELOPE_QUERY)) {
       int i = 1;
       statement.setString(i++, aci.toString());
       statement.setInt(i++, 2); // Version is hard-coded to 2
@@ -63,8 +69,7 @@ public class MessageQueueTable implements IMessageQueueTable {
 
   @Override
   public void deleteEnvelope(long id) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_envelope", DELETE_ENVELOPE_QUERY)) {
       statement.setLong(1, id);
       Database.executeUpdate(TABLE_NAME + "_delete_envelope", statement);
     }
@@ -72,8 +77,7 @@ public class MessageQueueTable implements IMessageQueueTable {
 
   @Override
   public StoredEnvelope nextEnvelope() throws SQLException {
-    var query = "SELECT * FROM " + TABLE_NAME + " WHERE " + ACCOUNT + " = ? ORDER BY " + ID + " LIMIT 1";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_next_envelope", NEXT_ENVELOPE_QUERY)) {
       statement.setString(1, aci.toString());
       try (var rows = Database.executeQuery(TABLE_NAME + "_next_envelope", statement)) {
         if (!rows.next()) {
@@ -107,8 +111,7 @@ public class MessageQueueTable implements IMessageQueueTable {
 
   @Override
   public void deleteAccount(String account) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setString(1, account);
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
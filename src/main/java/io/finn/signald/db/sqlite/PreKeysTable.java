@@ -9,8 +9,10 @@ package io.finn.signald.db.sqlite;
 
 import io.finn.signald.db.Database;
 import io.finn.signald.db.IPreKeysTable;
+import io.finn.signald.db.Transaction;
 import io.sentry.Sentry;
 import java.sql.SQLException;
+import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.signal.libsignal.protocol.InvalidKeyIdException;
@@ -26,6 +28,12 @@ public class PreKeysTable implements IPreKeysTable {
   private static final String ID = "id";
   private static final String RECORD = "record";
 
+  static final String LOAD_PRE_KEY_QUERY = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
+  static final String STORE_PRE_KEY_QUERY = "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + ID + "," + RECORD + ") VALUES (?, ?, ?);";
+  private static final String CONTAINS_PRE_KEY_QUERY = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
+  private static final String REMOVE_PRE_KEY_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
+  private static final String DELETE_ACCOUNT_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
+
   private final ACI aci;
 
   public PreKeysTable(ACI aci) { this.aci = aci; }
@@ -33,8 +41,7 @@ public class PreKeysTable implements IPreKeysTable {
   @Override
   public PreKeyRecord loadPreKey(int preKeyId) throws InvalidKeyIdException {
     try {
-      var query = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_load_pre_key", LOAD_PRE_KEY_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, preKeyId);
         try (var rows = Database.executeQuery(TABLE_NAME + "_load_pre_key", statement)) {
@@ -52,8 +59,7 @@ public class PreKeysTable implements IPreKeysTable {
   @Override
   public void storePreKey(int preKeyId, PreKeyRecord record) {
     try {
-      var query = "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + ID + "," + RECORD + ") VALUES (?, ?, ?);";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_store_pre_key", STORE_PRE_KEY_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, preKeyId);
         statement.setBytes(3, record.serialize());
@@ -65,11 +71,26 @@ public class PreKeysTable implements IPreKeysTable {
     }
   }
 
+  @Override
+  public void storePreKeys(List<PreKeyRecord> records) throws SQLException {
+    try (Transaction tx = Database.beginTransaction()) {
+      try (var statement = Database.prepare(TABLE_NAME + "_store_pre_keys", STORE_PRE_KEY_QUERY)) {
+        for (PreKeyRecord record : records) {
+          statement.setString(1, aci.toString());
+          statement.setInt(2, record.getId());
+          statement.setBytes(3, record.serialize());
+          statement.addBatch();
+        }
+        Database.executeBatch(TABLE_NAME + "_store_pre_keys", statement);
+      }
+      tx.commit();
+    }
+  }
+
   @Override
   public boolean containsPreKey(int preKeyId) {
     try {
-      var query = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_contains_pre_key", CONTAINS_PRE_KEY_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, preKeyId);
         try (var rows = Database.executeQuery(TABLE_NAME + "_contains_pre_key", statement)) {
@@ -86,8 +107,7 @@ public class PreKeysTable implements IPreKeysTable {
   @Override
   public void removePreKey(int preKeyId) {
     try {
-      var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_remove_pre_key", REMOVE_PRE_KEY_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, preKeyId);
         Database.executeUpdate(TABLE_NAME + "_remove_pre_key", statement);
@@ -100,8 +120,7 @@ public class PreKeysTable implements IPreKeysTable {
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setString(1, aci.toString());
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
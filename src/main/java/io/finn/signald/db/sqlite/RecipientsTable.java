@@ -9,8 +9,10 @@ package io.finn.signald.db.sqlite;
 
 import io.finn.signald.SignalDependencies;
 import io.finn.signald.db.Database;
+import io.finn.signald.db.GroupCache;
 import io.finn.signald.db.IRecipientsTable;
 import io.finn.signald.db.Recipient;
+import io.finn.signald.db.Transaction;
 import io.finn.signald.exceptions.InvalidProxyException;
 import io.finn.signald.exceptions.NoSuchAccountException;
 import io.finn.signald.exceptions.ServerNotFoundException;
@@ -38,6 +40,18 @@ public class RecipientsTable implements IRecipientsTable {
 
   static final String TABLE_NAME = "recipients";
 
+  private static final String STORE_NEW_BATCH_QUERY = "INSERT INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + UUID + ") VALUES (?, ?)";
+  private static final String STORE_NEW_QUERY = "INSERT INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + UUID + "," + E164 + ") VALUES (?, ?, ?)";
+  private static final String DELETE_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ROW_ID + " = ? AND " + ACCOUNT_UUID + " = ?";
+  private static final String DELETE_ACCOUNT_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
+  private static final String SET_REGISTERED_QUERY = "UPDATE " + TABLE_NAME + " SET " + REGISTERED + " = ? WHERE " + ACCOUNT_UUID + " = ? AND " + ROW_ID + " = ?";
+  // sqlite limits the number of parameters in a single statement, so large lookups are split into chunks
+  private static final int MAX_PARAMETERS_PER_QUERY = 500;
+  // a UNION of the two lookups rather than "uuid = ? OR e164 = ?", so each half is answered from its own index
+  static final String GET_QUERY = "SELECT " + ROW_ID + "," + E164 + "," + UUID + "," + REGISTERED + "," + NEEDS_PNI_SIGNATURE + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID +
+                                  " = ? AND " + UUID + " = ? UNION SELECT " + ROW_ID + "," + E164 + "," + UUID + "," + REGISTERED + "," + NEEDS_PNI_SIGNATURE + " FROM " +
+                                  TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + E164 + " = ?";
+
   private final UUID uuid;
 
   public RecipientsTable(java.util.UUID u) { uuid = u; }
@@ -46,18 +60,17 @@ public class RecipientsTable implements IRecipientsTable {
 
   public Recipient get(String e164, ServiceId serviceId) throws SQLException, IOException {
     List<Recipient> results = new ArrayList<>();
-    var query = "SELECT " + ROW_ID + "," + E164 + "," + UUID + "," + REGISTERED + ", " + NEEDS_PNI_SIGNATURE + " FROM " + TABLE_NAME + " WHERE (" + UUID + " = ? OR " + E164 +
-                " = ?) AND " + ACCOUNT_UUID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_get", GET_QUERY)) {
+      statement.setString(1, uuid.toString());
       if (serviceId != null) {
-        statement.setString(1, serviceId.toString());
+        statement.setString(2, serviceId.toString());
       }
 
+      statement.setString(3, uuid.toString());
       if (e164 != null) {
-        statement.setString(2, e164);
+        statement.setString(4, e164);
       }
 
-      statement.setString(3, uuid.toString());
       try (var rows = Database.executeQuery(TABLE_NAME + "_get", statement)) {
         while (rows.next()) {
           int rowId = rows.getInt(ROW_ID);
@@ -145,9 +158,67 @@ public class RecipientsTable implements IRecipientsTable {
 
   public Recipient self() throws SQLException, IOException { return get(uuid); }
 
+  @Override
+  public synchronized List<Recipient> getOrCreateAll(Collection<? extends ServiceId> serviceIds) throws SQLException {
+    Map<String, Recipient> known = new HashMap<>();
+    try (Transaction tx = Database.beginTransaction()) {
+      Set<String> queryUUIDs = new LinkedHashSet<>();
+      for (ServiceId serviceId : serviceIds) {
+        queryUUIDs.add(serviceId.toString());
+      }
+      getAllByUUID(queryUUIDs, known);
+
+      Set<String> missing = new LinkedHashSet<>(queryUUIDs);
+      missing.removeAll(known.keySet());
+      if (missing.size() > 0) {
+        try (var statement = Database.prepare(TABLE_NAME + "_store_new_batch", STORE_NEW_BATCH_QUERY)) {
+          for (String serviceId : missing) {
+            statement.setString(1, uuid.toString());
+            statement.setString(2, serviceId);
+            statement.addBatch();
+          }
+          Database.executeBatch(TABLE_NAME + "_store_new_batch", statement);
+        }
+        getAllByUUID(missing, known);
+      }
+
+      tx.commit();
+    }
+
+    List<Recipient> results = new ArrayList<>();
+    for (ServiceId serviceId : serviceIds) {
+      results.add(known.get(serviceId.toString()));
+    }
+    return results;
+  }
+
+  private void getAllByUUID(Collection<String> uuids, Map<String, Recipient> results) throws SQLException {
+    List<String> remaining = new ArrayList<>(uuids);
+    while (remaining.size() > 0) {
+      List<String> chunk = remaining.subList(0, Math.min(remaining.size(), MAX_PARAMETERS_PER_QUERY));
+      var query = "SELECT " + ROW_ID + "," + E164 + "," + UUID + "," + REGISTERED + "," + NEEDS_PNI_SIGNATURE + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " +
+                  UUID + " IN (" + String.join(",", Collections.nCopies(chunk.size(), "?")) + ") ORDER BY " + ROW_ID;
+      try (var statement = Database.getConn().prepareStatement(query)) {
+        int i = 1;
+        statement.setString(i++, uuid.toString());
+        for (String u : chunk) {
+          statement.setString(i++, u);
+        }
+        try (var rows = Database.executeQuery(TABLE_NAME + "_get_all_by_uuid", statement)) {
+          while (rows.next()) {
+            String storedUUID = rows.getString(UUID);
+            SignalServiceAddress address = new SignalServiceAddress(ACI.from(java.util.UUID.fromString(storedUUID)), rows.getString(E164));
+            // if there are duplicate rows for a UUID, prefer the oldest one
+            results.putIfAbsent(storedUUID, new Recipient(uuid, rows.getInt(ROW_ID), address, rows.getBoolean(REGISTERED), rows.getBoolean(NEEDS_PNI_SIGNATURE)));
+          }
+        }
+      }
+      chunk.clear();
+    }
+  }
+
   private int storeNew(ServiceId serviceId, String e164) throws SQLException {
-    var query = "INSERT INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + UUID + "," + E164 + ") VALUES (?, ?, ?)";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_store_name", STORE_NEW_QUERY)) {
       statement.setString(1, uuid.toString());
       statement.setString(2, serviceId.toString());
       if (e164 != null) {
@@ -155,7 +226,7 @@ public class RecipientsTable implements IRecipientsTable {
       }
       Database.executeUpdate(TABLE_NAME + "_store_name", statement);
     }
-    try (var statement = Database.getConn().prepareStatement("SELECT last_insert_rowid()")) {
+    try (var statement = Database.prepare(TABLE_NAME + "_get_stored", "SELECT last_insert_rowid()")) {
       try (var rows = Database.executeQuery(TABLE_NAME + "_get_stored", statement)) {
         if (!rows.next()) {
           throw new AssertionError("error fetching ID of last row inserted while storing " + serviceId + "/" + e164);
@@ -173,21 +244,22 @@ public class RecipientsTable implements IRecipientsTable {
       statement.setInt(3, row);
       Database.executeUpdate(TABLE_NAME + "_update", statement);
     }
+    invalidateCachedGroupMembers(row);
   }
 
   private void delete(int row)throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ROW_ID + " = ? AND " + ACCOUNT_UUID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete", DELETE_QUERY)) {
       statement.setInt(1, row);
       statement.setString(2, uuid.toString());
       Database.executeUpdate(TABLE_NAME + "_delete", statement);
     }
+    invalidateCachedGroupMembers(row);
+    invalidateCachedIdentityKeys(row);
   }
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setString(1, aci.toString());
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
@@ -226,12 +298,21 @@ public class RecipientsTable implements IRecipientsTable {
   }
 
   public void setRegistrationStatus(Recipient recipient, boolean registered) throws SQLException {
-    var query = "UPDATE " + TABLE_NAME + " SET " + REGISTERED + " = ? WHERE " + ACCOUNT_UUID + " = ? AND " + ROW_ID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_set_registered", SET_REGISTERED_QUERY)) {
       statement.setBoolean(1, registered);
       statement.setString(2, uuid.toString());
       statement.setInt(3, recipient.getId());
       Database.executeUpdate(TABLE_NAME + "_set_registered", statement);
     }
+    invalidateCachedGroupMembers(recipient.getId());
+  }
+
+  // cached group member lists hold resolved recipients, so the lists of the groups the recipient is in are dropped when it changes.
+  // Not until the change is committed, since until then other threads can still read the old row and cache it again.
+  private void invalidateCachedGroupMembers(int row) {
+    GroupCache cache = Database.Get(ACI.from(uuid)).GroupsTable.getCache();
+    Transaction.afterCompletion(() -> cache.invalidateMembers(row));
   }
+
+  private void invalidateCachedIdentityKeys(int row) { Database.Get(ACI.from(uuid)).IdentityKeysTable.getCache().invalidate(row); }
 }
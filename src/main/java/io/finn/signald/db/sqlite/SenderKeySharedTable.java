@@ -11,6 +11,7 @@ import io.finn.signald.Account;
 import io.finn.signald.db.Database;
 import io.finn.signald.db.ISenderKeySharedTable;
 import io.finn.signald.db.Recipient;
+import io.finn.signald.db.Transaction;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.HashSet;
@@ -26,6 +27,19 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   private static final String TABLE_NAME = "sender_key_shared";
 
+  static final String GET_SENDER_KEY_SHARED_WITH_QUERY = "SELECT " + ADDRESS + "," + DEVICE + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " +
+                                                         DISTRIBUTION_ID + " = ?";
+  static final String MARK_SENDER_KEY_SHARED_WITH_QUERY = "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + ADDRESS + "," + DEVICE + "," +
+                                                          DISTRIBUTION_ID + ") VALUES (?, ?, ?, ?)";
+  static final String CLEAR_SENDER_KEY_SHARED_WITH_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ? AND " + DEVICE +
+                                                           " = ? AND " + DISTRIBUTION_ID + " = ?";
+  private static final String CLEAR_SENDER_KEY_SHARED_WITH_ALL_QUERY =
+      "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ? AND " + DEVICE + " = ?";
+  private static final String DELETE_ALL_FOR_DISTRIBUTIONID_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + DISTRIBUTION_ID + " = ?";
+  private static final String DELETE_ALL_FOR_RECIPIENT_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ?";
+  private static final String DELETE_ACCOUNT_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
+  private static final String DELETE_SHARED_WITH_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ?";
+
   private final ACI aci;
 
   public SenderKeySharedTable(ACI aci) { this.aci = aci; }
@@ -34,8 +48,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
   public Set<SignalProtocolAddress> getSenderKeySharedWith(DistributionId distributionId) {
     Set<SignalProtocolAddress> addresses = new HashSet<>();
     try {
-      var query = "SELECT " + ADDRESS + "," + DEVICE + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + DISTRIBUTION_ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_get_sender_key_shared_with", GET_SENDER_KEY_SHARED_WITH_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setString(2, distributionId.toString());
 
@@ -54,9 +67,11 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void markSenderKeySharedWith(DistributionId distributionId, Collection<SignalProtocolAddress> addresses) {
-    try {
-      var query = "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + ADDRESS + "," + DEVICE + "," + DISTRIBUTION_ID + ") VALUES (?, ?, ?, ?)";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+    if (addresses.isEmpty()) {
+      return;
+    }
+    try (Transaction tx = Database.beginTransaction()) {
+      try (var statement = Database.prepare(TABLE_NAME + "_mark_sender_key_shared_with", MARK_SENDER_KEY_SHARED_WITH_QUERY)) {
         for (SignalProtocolAddress address : addresses) {
           statement.setString(1, aci.toString());
           statement.setString(2, address.getName());
@@ -66,6 +81,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
         }
         Database.executeBatch(TABLE_NAME + "_mark_sender_key_shared_with", statement);
       }
+      tx.commit();
     } catch (SQLException e) {
       logger.catching(e);
     }
@@ -73,9 +89,11 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void clearSenderKeySharedWith(DistributionId distributionId, Collection<SignalProtocolAddress> addresses) {
-    try {
-      var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ? AND " + DEVICE + " = ? AND " + DISTRIBUTION_ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+    if (addresses.isEmpty()) {
+      return;
+    }
+    try (Transaction tx = Database.beginTransaction()) {
+      try (var statement = Database.prepare(TABLE_NAME + "_clear_sender_key_shared_with", CLEAR_SENDER_KEY_SHARED_WITH_QUERY)) {
         for (SignalProtocolAddress address : addresses) {
           statement.setString(1, aci.toString());
           statement.setString(2, address.getName());
@@ -85,6 +103,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
         }
         Database.executeBatch(TABLE_NAME + "_clear_sender_key_shared_with", statement);
       }
+      tx.commit();
     } catch (SQLException e) {
       logger.catching(e);
     }
@@ -92,17 +111,20 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void clearSenderKeySharedWith(Collection<SignalProtocolAddress> addresses) {
-    try {
-      var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ? AND " + DEVICE + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+    if (addresses.isEmpty()) {
+      return;
+    }
+    try (Transaction tx = Database.beginTransaction()) {
+      try (var statement = Database.prepare(TABLE_NAME + "_clear_sender_key_shared_with_all", CLEAR_SENDER_KEY_SHARED_WITH_ALL_QUERY)) {
         for (SignalProtocolAddress address : addresses) {
           statement.setString(1, aci.toString());
           statement.setString(2, address.getName());
           statement.setInt(3, address.getDeviceId());
           statement.addBatch();
         }
-        Database.executeBatch(TABLE_NAME + "_clear_sender_key_shared_with", statement);
+        Database.executeBatch(TABLE_NAME + "_clear_sender_key_shared_with_all", statement);
       }
+      tx.commit();
     } catch (SQLException e) {
       logger.catching(e);
     }
@@ -115,8 +137,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void deleteAllFor(DistributionId distributionId) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + DISTRIBUTION_ID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_all_for_distributionid", DELETE_ALL_FOR_DISTRIBUTIONID_QUERY)) {
       statement.setString(1, aci.toString());
       statement.setString(2, distributionId.toString());
       Database.executeUpdate(TABLE_NAME + "_delete_all_for_distributionid", statement);
@@ -125,8 +146,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void deleteForAll(Recipient recipient) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_all_for_recipient", DELETE_ALL_FOR_RECIPIENT_QUERY)) {
       statement.setString(1, aci.toString());
       statement.setString(2, recipient.getServiceId().toString());
       Database.executeUpdate(TABLE_NAME + "_delete_all_for_recipient", statement);
@@ -135,8 +155,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setString(1, aci.toString());
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
@@ -144,8 +163,7 @@ public class SenderKeySharedTable implements ISenderKeySharedTable {
 
   @Override
   public void deleteSharedWith(Recipient source) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_shared_with", DELETE_SHARED_WITH_QUERY)) {
       statement.setString(1, aci.toString());
       statement.setString(2, source.getServiceId().toString());
       Database.executeUpdate(TABLE_NAME + "_delete_shared_with", statement);
@@ -7,8 +7,11 @@
 
 package io.finn.signald.db.sqlite;
 
+import io.finn.signald.Config;
 import io.finn.signald.db.Database;
 import io.finn.signald.db.ISenderKeysTable;
+import io.finn.signald.db.SenderKeyCache;
+import io.finn.signald.db.Transaction;
 import io.sentry.Sentry;
 import java.sql.SQLException;
 import java.util.UUID;
@@ -25,24 +28,33 @@ public class SenderKeysTable implements ISenderKeysTable {
 
   private static final String TABLE_NAME = "sender_keys";
 
+  static final String STORE_QUERY = "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + ADDRESS + "," + DEVICE + "," + DISTRIBUTION_ID + "," + RECORD +
+                                    "," + CREATED_AT + ") VALUES (?, ?, ?, ?, ?, ?)";
+  static final String LOAD_QUERY = "SELECT " + RECORD + "," + CREATED_AT + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ? AND " + DEVICE +
+                                   " = ? AND " + DISTRIBUTION_ID + " = ?";
+  private static final String DELETE_ALL_FOR_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ? AND " + DISTRIBUTION_ID + " = ?";
+  private static final String DELETE_ACCOUNT_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
+
   private final ACI aci;
+  private final SenderKeyCache cache = new SenderKeyCache(Config.getSenderKeyCacheSize());
 
   public SenderKeysTable(ACI aci) { this.aci = aci; }
 
   @Override
   public void storeSenderKey(SignalProtocolAddress address, UUID distributionId, SenderKeyRecord record) {
+    long createdAt = System.currentTimeMillis();
     try {
-      var query = "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + ADDRESS + "," + DEVICE + "," + DISTRIBUTION_ID + "," + RECORD + "," + CREATED_AT +
-                  ") VALUES (?, ?, ?, ?, ?, ?)";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_store", STORE_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setString(2, address.getName());
         statement.setInt(3, address.getDeviceId());
         statement.setString(4, distributionId.toString());
         statement.setBytes(5, record.serialize());
-        statement.setLong(6, System.currentTimeMillis());
+        statement.setLong(6, createdAt);
         Database.executeUpdate(TABLE_NAME + "_store", statement);
       }
+      SenderKeyCache.Entry entry = cache.put(address, distributionId, record, createdAt);
+      Transaction.afterCompletion(committed -> cache.stored(address, distributionId, entry, committed));
     } catch (SQLException e) {
       logger.catching(e);
     }
@@ -51,16 +63,7 @@ public class SenderKeysTable implements ISenderKeysTable {
   @Override
   public SenderKeyRecord loadSenderKey(SignalProtocolAddress address, UUID distributionId) {
     try {
-      var query = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ? AND " + DEVICE + " = ? AND " + DISTRIBUTION_ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
-        statement.setString(1, aci.toString());
-        statement.setString(2, address.getName());
-        statement.setInt(3, address.getDeviceId());
-        statement.setString(4, distributionId.toString());
-        try (var rows = Database.executeQuery(TABLE_NAME + "_load", statement)) {
-          return rows.next() ? new SenderKeyRecord(rows.getBytes(RECORD)) : null;
-        }
-      }
+      return load(address, distributionId).getRecord();
     } catch (SQLException | InvalidMessageException e) {
       logger.error("unexpected error while trying to load sender key", e);
       Sentry.captureException(e);
@@ -70,35 +73,55 @@ public class SenderKeysTable implements ISenderKeysTable {
 
   @Override
   public long getCreatedTime(SignalProtocolAddress address, UUID distributionId) throws SQLException {
-    var query = "SELECT " + CREATED_AT + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ? AND " + DEVICE + " = ? AND " + DISTRIBUTION_ID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try {
+      return load(address, distributionId).getCreatedAt();
+    } catch (InvalidMessageException e) {
+      logger.error("unexpected error while trying to load sender key", e);
+      Sentry.captureException(e);
+      return -1;
+    }
+  }
+
+  private SenderKeyCache.Entry load(SignalProtocolAddress address, UUID distributionId) throws SQLException, InvalidMessageException {
+    SenderKeyCache.Entry entry = cache.get(address, distributionId);
+    if (entry != null) {
+      return entry;
+    }
+
+    long stamp = cache.stamp();
+    try (var statement = Database.prepare(TABLE_NAME + "_load", LOAD_QUERY)) {
       statement.setString(1, aci.toString());
       statement.setString(2, address.getName());
       statement.setInt(3, address.getDeviceId());
       statement.setString(4, distributionId.toString());
-      try (var rows = Database.executeQuery(TABLE_NAME + "_get_created_time", statement)) {
-        return rows.next() ? rows.getLong(CREATED_AT) : -1;
+      try (var rows = Database.executeQuery(TABLE_NAME + "_load", statement)) {
+        entry = rows.next() ? new SenderKeyCache.Entry(new SenderKeyRecord(rows.getBytes(RECORD)), rows.getLong(CREATED_AT)) : new SenderKeyCache.Entry(null, -1);
       }
     }
+    cache.putLoaded(address, distributionId, entry, stamp);
+    return entry;
   }
 
   @Override
   public void deleteAllFor(String address, DistributionId distributionId) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ADDRESS + " = ? AND " + DISTRIBUTION_ID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_all_for", DELETE_ALL_FOR_QUERY)) {
       statement.setString(1, aci.toString());
       statement.setString(2, address);
       statement.setString(3, distributionId.toString());
       Database.executeUpdate(TABLE_NAME + "_delete_all_for", statement);
     }
+    cache.invalidate(address, distributionId.asUuid());
   }
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setString(1, aci.toString());
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
+    Database.Get(aci).SenderKeysTable.getCache().clear();
   }
+
+  @Override
+  public SenderKeyCache getCache() { return cache; }
 }
@@ -34,6 +34,19 @@ public class SessionsTable implements ISessionsTable {
 
   private static final String TABLE_NAME = "sessions";
 
+  static final String LOAD_QUERY = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ? AND " + DEVICE_ID + " = ?";
+  private static final String LOAD_EXISTING_QUERY = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ? AND " + DEVICE_ID +
+                                                    " = ?";
+  static final String GET_SUB_DEVICE_SESSION_QUERY = "SELECT " + DEVICE_ID + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ?";
+  static final String STORE_QUERY = "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + RECIPIENT + "," + DEVICE_ID + "," + RECORD +
+                                    ") VALUES (?, ?, ?, ?)";
+  private static final String CONTAINS_QUERY = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ? AND " + DEVICE_ID + " = ?";
+  private static final String DELETE_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ? AND " + DEVICE_ID + " = ?";
+  private static final String DELETE_ALL_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ?";
+  private static final String DELETE_ACCOUNT_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
+  private static final String ARCHIVE_ALL_SESSIONS_FIND_QUERY = "SELECT " + RECORD + "," + DEVICE_ID + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT +
+                                                                " = ?";
+
   private final ACI aci;
 
   public SessionsTable(ACI aci) { this.aci = aci; }
@@ -42,8 +55,7 @@ public class SessionsTable implements ISessionsTable {
   public SessionRecord loadSession(SignalProtocolAddress address) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(address.getName());
-      var query = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ? AND " + DEVICE_ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_load", LOAD_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, recipient.getId());
         statement.setInt(3, address.getDeviceId());
@@ -67,8 +79,7 @@ public class SessionsTable implements ISessionsTable {
     for (SignalProtocolAddress address : list) {
       try {
         Recipient recipient = Database.Get(aci).RecipientsTable.get(address.getName());
-        var query = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ? AND " + DEVICE_ID + " = ?";
-        try (var statement = Database.getConn().prepareStatement(query)) {
+        try (var statement = Database.prepare(TABLE_NAME + "_load_existing", LOAD_EXISTING_QUERY)) {
           statement.setString(1, aci.toString());
           statement.setInt(2, recipient.getId());
           statement.setInt(3, address.getDeviceId());
@@ -90,8 +101,7 @@ public class SessionsTable implements ISessionsTable {
   public List<Integer> getSubDeviceSessions(String name) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(name);
-      var query = "SELECT " + DEVICE_ID + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_get_sub_device_session", GET_SUB_DEVICE_SESSION_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, recipient.getId());
         try (var rows = Database.executeQuery(TABLE_NAME + "_get_sub_device_session", statement)) {
@@ -115,8 +125,7 @@ public class SessionsTable implements ISessionsTable {
   public void storeSession(SignalProtocolAddress address, SessionRecord record) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(address.getName());
-      var query = "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + RECIPIENT + "," + DEVICE_ID + "," + RECORD + ") VALUES (?, ?, ?, ?)";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_store", STORE_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, recipient.getId());
         statement.setInt(3, address.getDeviceId());
@@ -132,8 +141,7 @@ public class SessionsTable implements ISessionsTable {
   public boolean containsSession(SignalProtocolAddress address) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(address.getName());
-      var query = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ? AND " + DEVICE_ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_contains", CONTAINS_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, recipient.getId());
         statement.setInt(3, address.getDeviceId());
@@ -155,8 +163,7 @@ public class SessionsTable implements ISessionsTable {
   public void deleteSession(SignalProtocolAddress address) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(address.getName());
-      var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ? AND " + DEVICE_ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_delete", DELETE_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, recipient.getId());
         statement.setInt(3, address.getDeviceId());
@@ -171,8 +178,7 @@ public class SessionsTable implements ISessionsTable {
   public void deleteAllSessions(String name) {
     try {
       Recipient recipient = Database.Get(aci).RecipientsTable.get(name);
-      var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_delete_all", DELETE_ALL_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, recipient.getId());
         Database.executeUpdate(TABLE_NAME + "_delete_all", statement);
@@ -184,8 +190,7 @@ public class SessionsTable implements ISessionsTable {
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setString(1, aci.toString());
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
@@ -232,8 +237,7 @@ public class SessionsTable implements ISessionsTable {
 
   @Override
   public void archiveAllSessions(Recipient recipient) throws SQLException {
-    var query = "SELECT " + RECORD + "," + DEVICE_ID + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + RECIPIENT + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_archive_all_sessions_find", ARCHIVE_ALL_SESSIONS_FIND_QUERY)) {
       statement.setString(1, aci.toString());
       statement.setInt(2, recipient.getId());
       List<Pair<Integer, SessionRecord>> records = new ArrayList<>();
@@ -27,6 +27,14 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   private static final String ID = "id";
   private static final String RECORD = "record";
 
+  static final String LOAD_SIGNED_PREKEY_QUERY = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
+  private static final String LOAD_ALL_SIGNED_PREKEYS_QUERY = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
+  private static final String STORE_SIGNED_PREKEY_QUERY = "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + ID + "," + RECORD + ") VALUES (?, ?, ?) ON CONFLICT(" +
+                                                          ACCOUNT_UUID + "," + ID + ") DO UPDATE SET " + RECORD + " = excluded." + RECORD;
+  private static final String CONTAINS_SIGNED_PREKEY_QUERY = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
+  private static final String REMOVE_SIGNED_PREKEY_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
+  private static final String DELETE_ACCOUNT_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
+
   private final ACI aci;
 
   public SignedPreKeysTable(ACI aci) { this.aci = aci; }
@@ -34,8 +42,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   @Override
   public SignedPreKeyRecord loadSignedPreKey(int signedPreKeyId) throws InvalidKeyIdException {
     try {
-      var query = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_load_signed_prekey", LOAD_SIGNED_PREKEY_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, signedPreKeyId);
         try (var rows = Database.executeQuery(TABLE_NAME + "_load_signed_prekey", statement)) {
@@ -54,8 +61,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   @Override
   public List<SignedPreKeyRecord> loadSignedPreKeys() {
     try {
-      var query = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_load_all_signed_prekeys", LOAD_ALL_SIGNED_PREKEYS_QUERY)) {
         statement.setString(1, aci.toString());
         try (var rows = Database.executeQuery(TABLE_NAME + "_load_all_signed_prekeys", statement)) {
           List<SignedPreKeyRecord> results = new ArrayList<>();
@@ -74,9 +80,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   @Override
   public void storeSignedPreKey(int signedPreKeyId, SignedPreKeyRecord record) {
     try {
-      var query = "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + ACCOUNT_UUID + "," + ID + "," + RECORD + ") VALUES (?, ?, ?) ON CONFLICT(" + ACCOUNT_UUID + "," + ID +
-                  ") DO UPDATE SET " + RECORD + " = excluded." + RECORD;
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_store_signed_prekey", STORE_SIGNED_PREKEY_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, signedPreKeyId);
         statement.setBytes(3, record.serialize());
@@ -91,8 +95,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   @Override
   public boolean containsSignedPreKey(int signedPreKeyId) {
     try {
-      var query = "SELECT " + RECORD + " FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_contains_signed_prekey", CONTAINS_SIGNED_PREKEY_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, signedPreKeyId);
         try (var rows = Database.executeQuery(TABLE_NAME + "_contains_signed_prekey", statement)) {
@@ -108,8 +111,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
   @Override
   public void removeSignedPreKey(int signedPreKeyId) {
     try {
-      var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ? AND " + ID + " = ?";
-      try (var statement = Database.getConn().prepareStatement(query)) {
+      try (var statement = Database.prepare(TABLE_NAME + "_remove_signed_prekey", REMOVE_SIGNED_PREKEY_QUERY)) {
         statement.setString(1, aci.toString());
         statement.setInt(2, signedPreKeyId);
         Database.executeUpdate(TABLE_NAME + "_remove_signed_prekey", statement);
@@ -122,8 +124,7 @@ public class SignedPreKeysTable implements ISignedPreKeysTable {
 
   @Override
   public void deleteAccount(ACI aci) throws SQLException {
-    var query = "DELETE FROM " + TABLE_NAME + " WHERE " + ACCOUNT_UUID + " = ?";
-    try (var statement = Database.getConn().prepareStatement(query)) {
+    try (var statement = Database.prepare(TABLE_NAME + "_delete_account", DELETE_ACCOUNT_QUERY)) {
       statement.setString(1, aci.toString());
       Database.executeUpdate(TABLE_NAME + "_delete_account", statement);
     }
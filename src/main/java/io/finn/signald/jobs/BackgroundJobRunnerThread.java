@@ -8,6 +8,7 @@
 package io.finn.signald.jobs;
 
 import io.finn.signald.BuildConfig;
+import io.finn.signald.util.AccountUsers;
 import io.prometheus.client.Counter;
 import io.sentry.Sentry;
 import java.util.concurrent.BlockingQueue;
@@ -37,7 +38,8 @@ public class BackgroundJobRunnerThread implements Runnable {
       }
 
       logger.debug("running job {}", job.getClass().getName());
-      try {
+      // the accounts the job looks up aren't released while it runs, see AccountUsers
+      try (AccountUsers.Scope ignored = AccountUsers.begin()) {
         job.run();
         jobsCompleted.labels(job.getClass().getSimpleName(), "").inc();
       } catch (Throwable e) {
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.jobs;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.finn.signald.Account;
+import io.finn.signald.BuildConfig;
+import io.finn.signald.Config;
+import io.finn.signald.ServiceConfig;
+import io.finn.signald.Util;
+import io.finn.signald.db.Database;
+import io.finn.signald.db.IGroupsTable;
+import io.finn.signald.exceptions.InvalidProxyException;
+import io.finn.signald.exceptions.NoSuchAccountException;
+import io.finn.signald.exceptions.ServerNotFoundException;
+import io.finn.signald.util.AccountUsers;
+import io.finn.signald.util.FileUtil;
+import io.finn.signald.util.GroupsUtil;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.sentry.Sentry;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.signal.libsignal.zkgroup.InvalidInputException;
+import org.signal.libsignal.zkgroup.groups.GroupIdentifier;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.whispersystems.signalservice.api.groupsv2.GroupsV2Operations;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.util.Base64;
+
+// downloads group avatars in the background, so that listing groups never waits on the CDN. Fetches run on a small
+// dedicated pool (see --group-avatar-fetch-concurrency) and the revision that was fetched is persisted, so the work
+// is not repeated after a restart.
+public class FetchGroupAvatarJob implements Job {
+  private static final Logger logger = LogManager.getLogger();
+  private static final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private static final Counter avatarFetches =
+      Counter.build().name(BuildConfig.NAME + "_group_avatar_fetches").help("count of background group avatar fetches").labelNames("error").register();
+  private static final Gauge avatarFetchesPending =
+      Gauge.build().name(BuildConfig.NAME + "_group_avatar_fetches_pending").help("number of group avatar fetches queued or in progress").register();
+  private static ExecutorService executor;
+
+  private final ACI aci;
+  private final GroupIdentifier groupId;
+
+  public FetchGroupAvatarJob(ACI aci, GroupIdentifier groupId) {
+    this.aci = aci;
+    this.groupId = groupId;
+  }
+
+  // queues a fetch if the stored avatar is older than the group's current revision. returns true if a fetch is pending.
+  public static boolean queueIfNeeded(ACI aci, IGroupsTable.IGroup group) {
+    if (group.getLastAvatarFetch() == group.getRevision()) {
+      return false;
+    }
+
+    String key = aci.toString() + "/" + group.getIdString();
+    if (!pending.add(key)) {
+      return true;
+    }
+
+    avatarFetchesPending.inc();
+    FetchGroupAvatarJob job = new FetchGroupAvatarJob(aci, group.getId());
+    getExecutor().submit(() -> {
+      try (AccountUsers.Scope ignored = AccountUsers.begin()) {
+        job.run();
+        avatarFetches.labels("").inc();
+      } catch (Throwable e) {
+        logger.warn("Failed to fetch group avatar: " + e.getMessage());
+        logger.debug("stack trace for group avi fetch failure: ", e);
+        avatarFetches.labels(e.getClass().getCanonicalName()).inc();
+        Sentry.captureException(e);
+      } finally {
+        pending.remove(key);
+        avatarFetchesPending.dec();
+      }
+    });
+    return true;
+  }
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(Config.getGroupAvatarFetchConcurrency(), r -> {
+        Thread t = new Thread(r, FetchGroupAvatarJob.class.getSimpleName());
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return executor;
+  }
+
+  @Override
+  public void run() throws SQLException, IOException, InvalidInputException, InvalidProtocolBufferException, NoSuchAccountException, ServerNotFoundException,
+                           InvalidProxyException {
+    Database db = Database.Get(aci);
+    Optional<IGroupsTable.IGroup> groupOptional = db.GroupsTable.get(groupId);
+    if (groupOptional.isEmpty()) {
+      logger.debug("group {} no longer exists, not fetching avatar", Base64.encodeBytes(groupId.serialize()));
+      return;
+    }
+
+    IGroupsTable.IGroup group = groupOptional.get();
+    int revision = group.getRevision();
+    if (group.getLastAvatarFetch() == revision) {
+      // group avatar has already been downloaded for this revision of the group
+      return;
+    }
+
+    DecryptedGroup decryptedGroup = group.getDecryptedGroup();
+    File avatarFile = db.GroupsTable.getGroupAvatarFile(groupId);
+    if (decryptedGroup.getAvatar().isEmpty()) {
+      Files.deleteIfExists(avatarFile.toPath());
+      group.setLastAvatarFetch(revision);
+      return;
+    }
+
+    Account account = new Account(aci);
+    GroupsV2Operations.GroupOperations groupOperations = GroupsUtil.GetGroupsV2Operations(account.getServiceConfiguration()).forGroup(group.getSecretParams());
+
+    File tmpFile = FileUtil.createTempFile();
+    try (InputStream input = account.getSignalDependencies().getMessageReceiver().retrieveGroupsV2ProfileAvatar(decryptedGroup.getAvatar(), tmpFile,
+                                                                                                               ServiceConfig.AVATAR_DOWNLOAD_FAILSAFE_MAX_SIZE)) {
+      byte[] decryptedData = groupOperations.decryptAvatar(Util.readFully(input));
+      // write next to the final location and move into place, so clients never read a partially written avatar
+      File partialFile = new File(avatarFile.getPath() + ".partial");
+      try (OutputStream output = new FileOutputStream(partialFile)) {
+        output.write(decryptedData);
+      }
+      Files.move(partialFile.toPath(), avatarFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (NonSuccessfulResponseCodeException e) {
+      logger.debug("server returned {} fetching group avatar, not retrying until the next revision", e.getCode());
+    } finally {
+      try {
+        Files.delete(tmpFile.toPath());
+      } catch (IOException e) {
+        logger.warn("Failed to delete received group avatar temp file " + tmpFile + ", ignoring: " + e.getMessage());
+      }
+    }
+
+    group.setLastAvatarFetch(revision);
+  }
+}
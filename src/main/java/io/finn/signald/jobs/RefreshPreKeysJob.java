@@ -8,15 +8,20 @@
 package io.finn.signald.jobs;
 
 import io.finn.signald.Account;
+import io.finn.signald.Config;
 import io.finn.signald.ServiceConfig;
-import io.finn.signald.db.DatabaseAccountDataStore;
 import io.finn.signald.exceptions.InvalidProxyException;
 import io.finn.signald.exceptions.NoSuchAccountException;
 import io.finn.signald.exceptions.ServerNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -27,18 +32,29 @@ import org.signal.libsignal.protocol.ecc.ECKeyPair;
 import org.signal.libsignal.protocol.state.PreKeyRecord;
 import org.signal.libsignal.protocol.state.SignedPreKeyRecord;
 import org.signal.libsignal.protocol.util.Medium;
+import org.whispersystems.signalservice.api.push.ACI;
 import org.whispersystems.signalservice.api.push.ServiceIdType;
 
 public class RefreshPreKeysJob implements Job {
   public static long INTERVAL = TimeUnit.DAYS.toMillis(3);
   private static final Logger logger = LogManager.getLogger();
 
+  private static final Set<ACI> queued = ConcurrentHashMap.newKeySet();
+
   private final Account account;
 
   public RefreshPreKeysJob(Account account) { this.account = account; }
 
   @Override
   public void run() throws SQLException, NoSuchAccountException, ServerNotFoundException, IOException, InvalidProxyException, InvalidKeyException {
+    try {
+      refreshIfNeeded();
+    } finally {
+      queued.remove(account.getACI());
+    }
+  }
+
+  private void refreshIfNeeded() throws SQLException, NoSuchAccountException, ServerNotFoundException, IOException, InvalidProxyException, InvalidKeyException {
     long lastRefresh = account.getLastPreKeyRefresh();
     if (lastRefresh <= 0) {
       logger.info("generating pre keys");
@@ -52,11 +68,15 @@ public class RefreshPreKeysJob implements Job {
     account.setLastPreKeyRefreshNow();
   }
 
+  // an account that has never uploaded pre-keys (one that was just registered) gets them right away, since nobody can start a session
+  // with it until it has. Later top-ups are queued in the background if the last refresh was long enough ago and one isn't already
+  // queued for the account: clients don't need to wait for those, since the server still has pre-keys from the last refresh.
   public static void runIfNeeded(Account account) throws SQLException, IOException, InvalidKeyException, NoSuchAccountException, ServerNotFoundException, InvalidProxyException {
     long lastRefresh = account.getLastPreKeyRefresh();
-    if (System.currentTimeMillis() - lastRefresh > INTERVAL) {
-      RefreshPreKeysJob job = new RefreshPreKeysJob(account);
-      job.run();
+    if (lastRefresh <= 0) {
+      new RefreshPreKeysJob(account).refreshIfNeeded();
+    } else if (System.currentTimeMillis() - lastRefresh > INTERVAL && queued.add(account.getACI())) {
+      BackgroundJobRunnerThread.queue(new RefreshPreKeysJob(account));
     }
   }
 
@@ -72,21 +92,47 @@ public class RefreshPreKeysJob implements Job {
     account.getSignalDependencies().getAccountManager().setPreKeys(serviceIdType, identityKeyPair.getPublicKey(), signedPreKeyRecord, oneTimePreKeys);
   }
 
-  private List<PreKeyRecord> generatePreKeys() throws SQLException {
-    List<PreKeyRecord> records = new LinkedList<>();
-
-    DatabaseAccountDataStore protocolStore = account.getProtocolStore();
-    for (int i = 0; i < ServiceConfig.PREKEY_BATCH_SIZE; i++) {
-      int preKeyId = (account.getPreKeyIdOffset() + i) % Medium.MAX_VALUE;
-      ECKeyPair keyPair = Curve.generateKeyPair();
-      PreKeyRecord record = new PreKeyRecord(preKeyId, keyPair);
-
-      protocolStore.storePreKey(preKeyId, record);
-      records.add(record);
+  private List<PreKeyRecord> generatePreKeys() throws SQLException, IOException, ServerNotFoundException, InvalidProxyException, NoSuchAccountException {
+    int offset = account.getPreKeyIdOffset();
+    int concurrency = Math.min(Config.getPreKeyGenerationConcurrency(), ServiceConfig.PREKEY_BATCH_SIZE);
+    List<PreKeyRecord> records;
+    if (concurrency <= 1) {
+      records = generatePreKeys(offset, 0, ServiceConfig.PREKEY_BATCH_SIZE);
+    } else {
+      // split the batch into one contiguous range of IDs per thread, and put the results back together in order
+      int chunkSize = (ServiceConfig.PREKEY_BATCH_SIZE + concurrency - 1) / concurrency;
+      List<Future<List<PreKeyRecord>>> chunks = new ArrayList<>(concurrency);
+      for (int start = 0; start < ServiceConfig.PREKEY_BATCH_SIZE; start += chunkSize) {
+        int chunkStart = start;
+        int chunkEnd = Math.min(start + chunkSize, ServiceConfig.PREKEY_BATCH_SIZE);
+        chunks.add(account.getSignalDependencies().getExecutor().submit(() -> generatePreKeys(offset, chunkStart, chunkEnd)));
+      }
+      records = new ArrayList<>(ServiceConfig.PREKEY_BATCH_SIZE);
+      for (Future<List<PreKeyRecord>> chunk : chunks) {
+        try {
+          records.addAll(chunk.get());
+        } catch (ExecutionException e) {
+          throw new RuntimeException("error generating pre-keys", e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted while generating pre-keys");
+        }
+      }
     }
 
-    account.setPreKeyIdOffset((account.getPreKeyIdOffset() + ServiceConfig.PREKEY_BATCH_SIZE + 1) % Medium.MAX_VALUE);
+    account.getProtocolStore().storePreKeys(records);
+    account.setPreKeyIdOffset((offset + ServiceConfig.PREKEY_BATCH_SIZE + 1) % Medium.MAX_VALUE);
+
+    return records;
+  }
 
+  private static List<PreKeyRecord> generatePreKeys(int offset, int start, int end) {
+    List<PreKeyRecord> records = new ArrayList<>(end - start);
+    for (int i = start; i < end; i++) {
+      int preKeyId = (offset + i) % Medium.MAX_VALUE;
+      ECKeyPair keyPair = Curve.generateKeyPair();
+      records.add(new PreKeyRecord(preKeyId, keyPair));
+    }
     return records;
   }
 
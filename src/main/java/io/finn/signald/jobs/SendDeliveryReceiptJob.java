@@ -9,13 +9,18 @@ package io.finn.signald.jobs;
 
 import io.finn.signald.Manager;
 import io.finn.signald.db.Recipient;
+import io.finn.signald.exceptions.InvalidProxyException;
+import io.finn.signald.exceptions.NoSuchAccountException;
+import io.finn.signald.exceptions.ServerNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.signal.libsignal.protocol.InvalidKeyException;
 import org.whispersystems.signalservice.api.messages.SignalServiceReceiptMessage;
+import org.whispersystems.signalservice.api.push.ACI;
 import org.whispersystems.signalservice.api.push.exceptions.ProofRequiredException;
 import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserException;
 
@@ -24,10 +29,12 @@ public class SendDeliveryReceiptJob implements Job {
 
   private final Recipient recipient;
   private final List<Long> timestamps = new ArrayList<>();
-  private final Manager m;
+  // the manager is looked up when the job runs rather than kept, since the account may have been released (see IdleAccountEvictor)
+  // while the job was queued
+  private final ACI aci;
 
   public SendDeliveryReceiptJob(Manager manager, Recipient address) {
-    m = manager;
+    aci = manager.getACI();
     recipient = address;
   }
 
@@ -38,11 +45,13 @@ public class SendDeliveryReceiptJob implements Job {
 
   public void addTimestamp(Long timestamp) { timestamps.add(timestamp); }
 
+  public int getTimestampCount() { return timestamps.size(); }
+
   @Override
-  public void run() throws IOException, SQLException {
+  public void run() throws IOException, SQLException, NoSuchAccountException, InvalidKeyException, ServerNotFoundException, InvalidProxyException {
     SignalServiceReceiptMessage message = new SignalServiceReceiptMessage(SignalServiceReceiptMessage.Type.DELIVERY, timestamps, System.currentTimeMillis());
     try {
-      m.sendReceipt(message, recipient);
+      Manager.get(aci).sendReceipt(message, recipient);
     } catch (UnregisteredUserException e) {
       logger.debug("tried to send a receipt to an unregistered user {}", recipient.toRedactedString());
     } catch (ProofRequiredException e) {
@@ -45,7 +45,7 @@ public class SendSyncRequestJob implements Job {
     SignalServiceSyncMessage message = SignalServiceSyncMessage.forRequest(new RequestMessage(request));
     SignalServiceMessageSender messageSender = dependencies.getMessageSender();
     Optional<UnidentifiedAccessPair> access = new UnidentifiedAccessUtil(account.getACI()).getAccessPairFor(account.getSelf());
-    try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire()) {
+    try (SignalSessionLock.Lock ignored = dependencies.getSessionLock().acquire(account.getACI())) {
       messageSender.sendSyncMessage(message, access);
     } catch (org.whispersystems.signalservice.api.crypto.UntrustedIdentityException e) {
       account.getProtocolStore().handleUntrustedIdentityException(e);
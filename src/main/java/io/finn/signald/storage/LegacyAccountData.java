@@ -14,6 +14,7 @@ import com.fasterxml.jackson.annotation.JsonSetter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import io.finn.signald.Account;
+import io.finn.signald.AccountMetrics;
 import io.finn.signald.BuildConfig;
 import io.finn.signald.clientprotocol.v1.JsonAddress;
 import io.finn.signald.db.Database;
@@ -148,8 +149,8 @@ public class LegacyAccountData {
 
     validate();
 
-    savesCount.labels(address.uuid == null ? "" : address.uuid).inc();
-    Histogram.Timer timer = saveTime.labels(address.uuid == null ? "" : address.uuid).startTimer();
+    savesCount.labels(AccountMetrics.label(address.uuid)).inc();
+    Histogram.Timer timer = saveTime.labels(AccountMetrics.label(address.uuid)).startTimer();
 
     try {
       ObjectWriter writer = JSONUtil.GetWriter();
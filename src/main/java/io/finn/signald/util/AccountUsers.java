@@ -0,0 +1,79 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// counts the requests and background jobs using each account, so IdleAccountEvictor never releases an account's Manager,
+// SignalDependencies and Database while something still holds them. A request or job opens a scope on its thread with begin(), and
+// every account looked up on that thread (Manager.get, SignalDependencies.get, Database.Get) counts as in use until the scope is closed.
+// Work a request hands to other threads (parallel sends, pre-key generation) is covered by the request's own scope, since it waits for
+// that work. Threads that outlive the request that started them (the avatar fetch pool, message receivers, read receipt sends) open
+// their own scope. A lookup outside any scope isn't counted, but still waits for an eviction of the account that's in progress.
+public class AccountUsers {
+  private static final ConcurrentHashMap<String, Integer> users = new ConcurrentHashMap<>();
+  private static final ThreadLocal<Scope> current = new ThreadLocal<>();
+
+  public static Scope begin() {
+    Scope scope = new Scope(current.get());
+    current.set(scope);
+    return scope;
+  }
+
+  // called on every lookup, so it does nothing but a thread local read once the scope has counted the account
+  public static void used(String account) {
+    Scope scope = current.get();
+    if (scope == null) {
+      // blocks while evictIfUnused is running for the account, so the lookup gets the new instances rather than ones being shut down
+      users.compute(account, (k, count) -> count);
+      return;
+    }
+    if (scope.accounts.contains(account)) {
+      return;
+    }
+    users.merge(account, 1, Integer::sum);
+    scope.accounts.add(account);
+  }
+
+  public static int count(String account) { return users.getOrDefault(account, 0); }
+
+  // runs evict if nothing is using the account, and returns whether it did. Lookups that would start using the account wait until
+  // evict is done, and then get new instances.
+  public static boolean evictIfUnused(String account, Runnable evict) {
+    boolean[] evicted = {false};
+    users.compute(account, (k, count) -> {
+      if (count == null) {
+        evict.run();
+        evicted[0] = true;
+      }
+      return count;
+    });
+    return evicted[0];
+  }
+
+  public static class Scope implements AutoCloseable {
+    private final Scope parent;
+    // a request only uses a handful of accounts, usually one
+    private final List<String> accounts = new ArrayList<>(1);
+
+    private Scope(Scope parent) { this.parent = parent; }
+
+    @Override
+    public void close() {
+      if (current.get() != this) {
+        throw new IllegalStateException("account scopes must be closed on the thread that opened them, innermost first");
+      }
+      current.set(parent);
+      for (String account : accounts) {
+        users.computeIfPresent(account, (k, count) -> count == 1 ? null : count - 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.util;
+
+// when a per-account object was last looked up, for IdleAccountEvictor. touch() is called on every lookup from many threads, so the
+// timestamp is only written when it has moved on by more than a second, to keep threads from fighting over the cache line.
+public class LastUsed {
+  private static final long RESOLUTION_MS = 1000;
+
+  private volatile long lastUsed = System.currentTimeMillis();
+
+  public void touch() {
+    long now = System.currentTimeMillis();
+    if (now - lastUsed > RESOLUTION_MS) {
+      lastUsed = now;
+    }
+  }
+
+  public long get() { return lastUsed; }
+}
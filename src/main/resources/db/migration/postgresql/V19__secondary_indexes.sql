@@ -0,0 +1,8 @@
+-- nextEnvelope() reads the oldest envelope for an account
+CREATE INDEX signald_message_queue_account_id ON signald_message_queue (account, id);
+
+-- recipients are looked up by uuid or by e164. UNIQUE (account_uuid, e164, uuid) only covers the e164 lookups
+CREATE INDEX signald_recipients_account_uuid_uuid ON signald_recipients (account_uuid, uuid);
+
+-- getIdentity() reads the newest identity key for a recipient
+CREATE INDEX signald_identity_keys_recipient_added ON signald_identity_keys (account_uuid, recipient, added);
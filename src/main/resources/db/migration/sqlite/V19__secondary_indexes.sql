@@ -0,0 +1,6 @@
+-- nextEnvelope() reads the oldest envelope for an account
+CREATE INDEX message_queue_account_id ON message_queue (account, id);
+
+-- getIdentity() reads the newest identity key for a recipient. recipients are already covered by their
+-- UNIQUE(account_uuid, uuid) and UNIQUE(account_uuid, e164) constraints
+CREATE INDEX identity_keys_recipient_added ON identity_keys (account_uuid, recipient, added);
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.finn.signald.db.Database;
+import io.finn.signald.db.TestUtil;
+import io.finn.signald.util.AccountUsers;
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.whispersystems.signalservice.api.push.ACI;
+
+public class IdleAccountEvictorTest {
+  private File databaseFile;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    databaseFile = TestUtil.createAndConfigureTestSQLiteDatabase();
+  }
+
+  @AfterEach
+  void tearDown() {
+    Database.close();
+    if (!databaseFile.delete()) {
+      System.err.println("Test database file couldn't be deleted: " + databaseFile.getAbsolutePath());
+    }
+  }
+
+  @Test
+  @DisplayName("accounts unused for longer than the ttl are released and recreated on the next lookup")
+  void idle() {
+    ACI a = ACI.from(UUID.randomUUID());
+    ACI b = ACI.from(UUID.randomUUID());
+    Database first = Database.Get(a);
+    Database.Get(b);
+
+    new IdleAccountEvictor(1000, 0).evictIdleAccounts(System.currentTimeMillis() - 60000);
+    assertTrue(Database.getLastUsed().containsKey(a.toString()), "account released before the ttl passed");
+
+    new IdleAccountEvictor(1000, 0).evictIdleAccounts(System.currentTimeMillis() + 2000);
+    assertFalse(Database.getLastUsed().containsKey(a.toString()));
+    assertFalse(Database.getLastUsed().containsKey(b.toString()));
+
+    assertNotSame(first, Database.Get(a));
+    assertTrue(Database.getLastUsed().containsKey(a.toString()));
+  }
+
+  @Test
+  @DisplayName("the least recently used accounts are released when there are too many")
+  void capacity() {
+    for (int i = 0; i < 3; i++) {
+      Database.Get(ACI.from(UUID.randomUUID()));
+    }
+    int resident = Database.getLastUsed().size();
+
+    new IdleAccountEvictor(0, resident - 2).evictIdleAccounts(System.currentTimeMillis());
+    assertEquals(resident - 2, Database.getLastUsed().size());
+  }
+
+  @Test
+  @DisplayName("an account is not released while a request or job is using it")
+  void inUse() {
+    ACI a = ACI.from(UUID.randomUUID());
+    try (AccountUsers.Scope ignored = AccountUsers.begin()) {
+      Database.Get(a);
+      new IdleAccountEvictor(1000, 0).evictIdleAccounts(System.currentTimeMillis() + 2000);
+      assertTrue(Database.getLastUsed().containsKey(a.toString()), "account released while in use");
+    }
+    assertEquals(0, AccountUsers.count(a.toString()));
+
+    new IdleAccountEvictor(1000, 0).evictIdleAccounts(System.currentTimeMillis() + 2000);
+    assertFalse(Database.getLastUsed().containsKey(a.toString()));
+  }
+
+  @Test
+  @DisplayName("a lookup outside any scope waits for an eviction of the account that's in progress")
+  void lookupDuringEviction() throws Exception {
+    String account = UUID.randomUUID().toString();
+    CountDownLatch evicting = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread evictor = new Thread(() -> AccountUsers.evictIfUnused(account, () -> {
+      evicting.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }));
+    evictor.start();
+    evicting.await();
+
+    Thread lookup = new Thread(() -> AccountUsers.used(account));
+    lookup.start();
+    while (lookup.getState() != Thread.State.BLOCKED) {
+      Thread.sleep(1);
+    }
+
+    release.countDown();
+    lookup.join(5000);
+    evictor.join(5000);
+    assertFalse(lookup.isAlive());
+    assertEquals(0, AccountUsers.count(account));
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.finn.signald.db.Recipient;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.whispersystems.signalservice.api.messages.SignalServiceReceiptMessage;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+public class ReceiptAggregatorTest {
+  private final ACI account = ACI.from(UUID.randomUUID());
+  private final Recipient recipient = new Recipient(account.uuid(), 1, new SignalServiceAddress(ACI.from(UUID.randomUUID()), "+12024561111"));
+  private final List<SignalServiceReceiptMessage> sent = Collections.synchronizedList(new ArrayList<>());
+
+  @Test
+  @DisplayName("read receipts for the same recipient within the window are sent as one")
+  void coalesce() throws Exception {
+    ReceiptAggregator aggregator = new ReceiptAggregator(1000);
+    List<Thread> threads = new ArrayList<>();
+    for (long timestamp = 1; timestamp <= 3; timestamp++) {
+      threads.add(read(aggregator, timestamp));
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(1, sent.size());
+    assertEquals(Set.of(1L, 2L, 3L), Set.copyOf(sent.get(0).getTimestamps()));
+  }
+
+  @Test
+  @DisplayName("held receipts are sent when signald shuts down")
+  void flushAll() throws Exception {
+    ReceiptAggregator aggregator = new ReceiptAggregator(60000);
+    Thread thread = read(aggregator, 1);
+    // the first request waits for the window to end
+    while (thread.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+
+    aggregator.flushAll();
+    thread.join(5000);
+    assertFalse(thread.isAlive());
+    assertEquals(1, sent.size());
+  }
+
+  @Test
+  @DisplayName("the receipt is sent when the window ends even if the first request stopped waiting")
+  void firstInterrupted() throws Exception {
+    ReceiptAggregator aggregator = new ReceiptAggregator(1000);
+    Thread first = read(aggregator, 1);
+    while (first.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    first.interrupt();
+    first.join();
+
+    Thread second = read(aggregator, 2);
+    second.join(5000);
+    assertFalse(second.isAlive());
+    assertEquals(1, sent.size());
+    assertEquals(Set.of(1L, 2L), Set.copyOf(sent.get(0).getTimestamps()));
+  }
+
+  private Thread read(ReceiptAggregator aggregator, long timestamp) {
+    Thread thread = new Thread(() -> {
+      try {
+        aggregator.read(account, recipient, List.of(timestamp), System.currentTimeMillis(), sent::add);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+}
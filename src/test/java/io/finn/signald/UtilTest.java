@@ -21,4 +21,20 @@ public class UtilTest {
     Assertions.assertEquals("[redacted 33]230", Util.redact(ACI.from(u)));
     Assertions.assertEquals("[redacted 33]230", Util.redact(PNI.from(u)));
   }
+
+  @Test
+  @DisplayName("endpoint templates strip identifiers")
+  void endpointTemplate() {
+    Assertions.assertEquals("/v1/messages/{id}", Util.endpointTemplate("/v1/messages/a59eef85-fd26-4f4f-bf7b-d4948e28b230?story=false"));
+    Assertions.assertEquals("/v2/keys/{id}/*", Util.endpointTemplate("/v2/keys/a59eef85-fd26-4f4f-bf7b-d4948e28b230/*"));
+    Assertions.assertEquals("/v2/keys/{id}/{id}", Util.endpointTemplate("/v2/keys/a59eef85-fd26-4f4f-bf7b-d4948e28b230/2"));
+    Assertions.assertEquals("/v1/accounts/sms/code/{id}", Util.endpointTemplate("/v1/accounts/sms/code/+12024561414?client=android"));
+    Assertions.assertEquals("/v1/certificate/delivery", Util.endpointTemplate("/v1/certificate/delivery?includeE164=true"));
+    Assertions.assertEquals("/stickers/{id}/manifest.proto", Util.endpointTemplate("/stickers/9acc9e8aba563d26a4994e69263e3b25/manifest.proto"));
+    Assertions.assertEquals("/attachments/{id}", Util.endpointTemplate("/attachments/Kd8s9XbZ2wQe_hX7Lm0qTw"));
+    Assertions.assertEquals("/", Util.endpointTemplate(""));
+    Assertions.assertEquals("/v1/profile/username/{id}", Util.endpointTemplate("/v1/profile/username/alice"));
+    Assertions.assertEquals("/v1/accounts/username_hash/{id}", Util.endpointTemplate("/v1/accounts/username_hash/deadbeef"));
+    Assertions.assertEquals("/v1/storage/manifest/version/{id}/read/...", Util.endpointTemplate("/v1/storage/manifest/version/3/read/a/b"));
+  }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.finn.signald.JsonMessageWrapper;
+import io.finn.signald.util.JSONUtil;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class ConnectionWriterTest {
+  private final ObjectMapper mapper = JSONUtil.GetMapper();
+
+  @Test
+  @DisplayName("messages that are ready while another write is in progress go out in a single write")
+  void coalesce() throws Exception {
+    RecordingSocket socket = new RecordingSocket();
+    ConnectionWriter writer = new ConnectionWriter(socket);
+
+    List<Thread> threads = new ArrayList<>();
+    synchronized (socket) {
+      for (int i = 0; i < 3; i++) {
+        String id = String.valueOf(i);
+        Thread thread = new Thread(() -> {
+          try {
+            writer.write(mapper, new JsonMessageWrapper("version", null, id));
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        });
+        thread.start();
+        threads.add(thread);
+      }
+      // each thread has appended its message by the time it's waiting for the socket
+      for (Thread thread : threads) {
+        while (thread.getState() != Thread.State.BLOCKED) {
+          Thread.sleep(1);
+        }
+      }
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(1, socket.writes);
+    InputStream in = new ByteArrayInputStream(socket.out.toByteArray());
+    for (int i = 0; i < 3; i++) {
+      assertEquals("version", mapper.readTree(Framing.readLine(in)).get("type").asText());
+    }
+    assertNull(Framing.readLine(in));
+  }
+
+  @Test
+  @DisplayName("every message in a write that fails gets the error, and so does every later message")
+  void failure() throws Exception {
+    RecordingSocket socket = new RecordingSocket();
+    socket.fail = true;
+    ConnectionWriter writer = new ConnectionWriter(socket);
+
+    List<Thread> threads = new ArrayList<>();
+    List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+    synchronized (socket) {
+      for (int i = 0; i < 3; i++) {
+        String id = String.valueOf(i);
+        Thread thread = new Thread(() -> {
+          try {
+            writer.write(mapper, new JsonMessageWrapper("version", null, id));
+          } catch (IOException e) {
+            errors.add(e);
+          }
+        });
+        thread.start();
+        threads.add(thread);
+      }
+      for (Thread thread : threads) {
+        while (thread.getState() != Thread.State.BLOCKED) {
+          Thread.sleep(1);
+        }
+      }
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(1, socket.writes);
+    assertEquals(3, errors.size());
+    assertThrows(IOException.class, () -> writer.write(mapper, new JsonMessageWrapper("version", null, "3")));
+    assertEquals(1, socket.writes);
+  }
+
+  @Test
+  @DisplayName("the reply to set_framing is the last line of JSON")
+  void switchFraming() throws IOException {
+    RecordingSocket socket = new RecordingSocket();
+    ConnectionWriter writer = new ConnectionWriter(socket);
+    writer.write(mapper, new JsonMessageWrapper("version", null, "1"));
+    writer.switchFraming(mapper, new JsonMessageWrapper("set_framing", null, "2"), Framing.SMILE);
+    writer.write(mapper, new JsonMessageWrapper("version", null, "3"));
+
+    InputStream in = new ByteArrayInputStream(socket.out.toByteArray());
+    assertEquals("1", mapper.readTree(Framing.readLine(in)).get("id").asText());
+    assertEquals("2", mapper.readTree(Framing.readLine(in)).get("id").asText());
+    assertEquals("3", Framing.decode(Framing.readFrame(in)).get("id").asText());
+    assertNull(Framing.readFrame(in));
+  }
+
+  private static class RecordingSocket extends Socket {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int writes;
+    private boolean fail;
+
+    RecordingSocket() throws SocketException { super((SocketImpl)null); }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          writes++;
+          if (fail) {
+            throw new SocketException("Broken pipe");
+          }
+          out.write(b, off, len);
+        }
+      };
+    }
+  }
+}
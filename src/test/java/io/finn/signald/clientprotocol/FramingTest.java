@@ -0,0 +1,58 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.finn.signald.JsonMessageWrapper;
+import io.finn.signald.clientprotocol.v1.JsonVersionMessage;
+import io.finn.signald.util.JSONUtil;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class FramingTest {
+  @Test
+  @DisplayName("frames decode to the same objects as the JSON protocol")
+  void roundTrip() throws IOException {
+    JsonMessageWrapper message = new JsonMessageWrapper("version", new JsonVersionMessage(), "1");
+    JsonNode expected = JSONUtil.GetMapper().valueToTree(message);
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    stream.write(Framing.encode(JSONUtil.GetMapper(), message));
+    stream.write(Framing.encode(JSONUtil.GetMapper(), message));
+    ByteArrayInputStream in = new ByteArrayInputStream(stream.toByteArray());
+
+    assertEquals(expected, Framing.decode(Framing.readFrame(in)));
+    assertEquals(expected, Framing.decode(Framing.readFrame(in)));
+    assertNull(Framing.readFrame(in));
+  }
+
+  @Test
+  @DisplayName("reading a line doesn't consume the frames after it")
+  void lineThenFrames() throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    stream.write("{\"type\":\"set_framing\"}\r\n".getBytes(StandardCharsets.UTF_8));
+    stream.write(Framing.encode(JSONUtil.GetMapper(), new JsonMessageWrapper("version", null, "1")));
+    ByteArrayInputStream in = new ByteArrayInputStream(stream.toByteArray());
+
+    assertEquals("{\"type\":\"set_framing\"}", Framing.readLine(in));
+    assertEquals("1", Framing.decode(Framing.readFrame(in)).get("id").asText());
+  }
+
+  @Test
+  @DisplayName("a stream that ends in the middle of a frame is an error")
+  void truncated() {
+    byte[] frame = new byte[] {0, 0, 0, 10, 1, 2, 3};
+    assertThrows(IOException.class, () -> Framing.readFrame(new ByteArrayInputStream(frame)));
+  }
+}
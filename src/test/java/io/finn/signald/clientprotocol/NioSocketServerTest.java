@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.finn.signald.BuildConfig;
+import io.prometheus.client.CollectorRegistry;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.newsclub.net.unix.AFUNIXSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+
+public class NioSocketServerTest {
+  private final ObjectMapper mapper = new ObjectMapper();
+  private File socketFile;
+  private NioSocketServer server;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    File directory = Files.createTempDirectory("signald-test").toFile();
+    socketFile = new File(directory, "signald.sock");
+    server = new NioSocketServer(socketFile);
+    Thread thread = new Thread(server, "nio-socket-server-test");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    server.close();
+    if (!socketFile.delete() || !socketFile.getParentFile().delete()) {
+      System.err.println("Test socket file couldn't be deleted: " + socketFile.getAbsolutePath());
+    }
+  }
+
+  @Test
+  @DisplayName("requests split across several writes are answered on the same connection")
+  void request() throws IOException {
+    try (AFUNIXSocket socket = AFUNIXSocket.connectTo(AFUNIXSocketAddress.of(socketFile))) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      assertEquals("version", mapper.readTree(reader.readLine()).get("type").asText());
+
+      OutputStream out = socket.getOutputStream();
+      out.write("{\"id\":\"1\",\"type\":\"ver".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      out.write("sion\",\"version\":\"v1\"}\r\n\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+
+      JsonNode reply = mapper.readTree(reader.readLine());
+      assertEquals("version", reply.get("type").asText());
+      assertEquals("1", reply.get("id").asText());
+      assertTrue(reply.has("data"));
+
+      assertEquals(1, server.getConnections().size());
+      NioSocketServer.Connection connection = server.getConnections().iterator().next();
+      assertTrue(connection.getBytesRead() > 0);
+      assertTrue(connection.getBytesWritten() > 0);
+
+      // the client is this process
+      String[] labels = {"pid", "direction"};
+      String pid = String.valueOf(ProcessHandle.current().pid());
+      String name = BuildConfig.NAME + "_connected_client_socket_bytes_total";
+      assertTrue(CollectorRegistry.defaultRegistry.getSampleValue(name, labels, new String[] {pid, "read"}) > 0);
+      assertTrue(CollectorRegistry.defaultRegistry.getSampleValue(name, labels, new String[] {pid, "written"}) > 0);
+    }
+  }
+
+  @Test
+  @DisplayName("after set_framing, requests and replies are length-prefixed frames")
+  void framing() throws IOException {
+    try (AFUNIXSocket socket = AFUNIXSocket.connectTo(AFUNIXSocketAddress.of(socketFile))) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = socket.getOutputStream();
+      assertEquals("version", mapper.readTree(Framing.readLine(in)).get("type").asText());
+
+      out.write("{\"id\":\"1\",\"type\":\"set_framing\",\"version\":\"v1\",\"framing\":\"smile\"}\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      JsonNode reply = mapper.readTree(Framing.readLine(in));
+      assertEquals("set_framing", reply.get("type").asText());
+      assertEquals("smile", reply.get("data").get("framing").asText());
+
+      ObjectNode request = mapper.createObjectNode().put("id", "2").put("type", "version").put("version", "v1");
+      out.write(Framing.encode(mapper, request));
+      out.flush();
+      reply = Framing.decode(Framing.readFrame(in));
+      assertEquals("version", reply.get("type").asText());
+      assertEquals("2", reply.get("id").asText());
+    }
+  }
+}
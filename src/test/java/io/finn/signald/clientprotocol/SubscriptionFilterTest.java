@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.finn.signald.AccountMetrics;
+import io.finn.signald.BuildConfig;
+import io.finn.signald.util.GroupsUtil;
+import io.prometheus.client.CollectorRegistry;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.signal.libsignal.zkgroup.InvalidInputException;
+import org.signal.libsignal.zkgroup.groups.GroupMasterKey;
+import org.whispersystems.signalservice.api.messages.SignalServiceDataMessage;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.api.messages.SignalServiceGroupV2;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.util.Base64;
+
+public class SubscriptionFilterTest {
+  private static final int TYPE_RECEIPT = 5;
+  private static final ACI ACCOUNT = ACI.from(UUID.randomUUID());
+
+  @Test
+  @DisplayName("events that aren't listed are filtered and counted")
+  void events() {
+    double before = filteredTotal(SubscriptionFilter.RECEIPT_MESSAGE);
+    SubscriptionFilter filter = new SubscriptionFilter(ACCOUNT, "1", List.of(SubscriptionFilter.DATA_MESSAGE, SubscriptionFilter.LISTEN_STATE), false, null, null, false);
+
+    assertTrue(filter.accepts(SubscriptionFilter.LISTEN_STATE));
+    assertFalse(filter.accepts(SubscriptionFilter.STORAGE_CHANGE));
+    assertFalse(filter.accepts(receipt(), null));
+    assertFalse(filter.accepts(receipt(), null));
+
+    assertEquals(1L, filter.getFiltered().get(SubscriptionFilter.STORAGE_CHANGE));
+    assertEquals(2L, filter.getFiltered().get(SubscriptionFilter.RECEIPT_MESSAGE));
+    assertNull(filter.getFiltered().get(SubscriptionFilter.LISTEN_STATE));
+    assertEquals(2.0, filteredTotal(SubscriptionFilter.RECEIPT_MESSAGE) - before);
+  }
+
+  @Test
+  @DisplayName("data_messages_only and the group lists only apply to incoming messages")
+  void incomingOnly() {
+    SubscriptionFilter filter = new SubscriptionFilter(ACCOUNT, "1", null, true, Collections.singletonList("group"), null, true);
+
+    assertTrue(filter.accepts(SubscriptionFilter.LISTEN_STATE));
+    assertTrue(filter.accepts(SubscriptionFilter.RECEIVE_ERROR));
+    assertFalse(filter.accepts(receipt(), null));
+  }
+
+  @Test
+  @DisplayName("groups and exclude_groups match the group an incoming message was sent to")
+  void groups() throws InvalidInputException {
+    GroupMasterKey masterKey = masterKey();
+    String groupId = Base64.encodeBytes(GroupsUtil.GetIdentifierFromMasterKey(masterKey).serialize());
+    SignalServiceDataMessage inGroup = groupMessage(masterKey);
+    SignalServiceDataMessage inOtherGroup = groupMessage(masterKey());
+    SignalServiceDataMessage direct = SignalServiceDataMessage.newBuilder().withTimestamp(1).withBody("hi").build();
+    assertEquals(groupId, SubscriptionFilter.getGroupId(inGroup));
+
+    SubscriptionFilter groups = new SubscriptionFilter(ACCOUNT, "1", null, false, List.of(groupId), null, false);
+    assertTrue(accepts(groups, inGroup));
+    assertFalse(accepts(groups, inOtherGroup));
+    assertFalse(accepts(groups, direct));
+
+    SubscriptionFilter excluded = new SubscriptionFilter(ACCOUNT, "1", null, false, null, List.of(groupId), false);
+    assertFalse(accepts(excluded, inGroup));
+    assertTrue(accepts(excluded, inOtherGroup));
+    assertTrue(accepts(excluded, direct));
+
+    assertEquals(2L, groups.getFiltered().get(SubscriptionFilter.DATA_MESSAGE));
+    assertEquals(1L, excluded.getFiltered().get(SubscriptionFilter.DATA_MESSAGE));
+  }
+
+  // accounts share a series unless they're listed in --metrics-accounts
+  private static double filteredTotal(String event) {
+    Double value = CollectorRegistry.defaultRegistry.getSampleValue(BuildConfig.NAME + "_subscriber_filtered_events_total", new String[] {"account_uuid", "event"},
+                                                                    new String[] {AccountMetrics.AGGREGATED, event});
+    return value == null ? 0 : value;
+  }
+
+  private static boolean accepts(SubscriptionFilter filter, SignalServiceDataMessage message) {
+    return filter.accepts(List.of(SubscriptionFilter.DATA_MESSAGE), () -> SubscriptionFilter.getGroupId(message));
+  }
+
+  private static GroupMasterKey masterKey() throws InvalidInputException {
+    byte[] masterKeyBytes = new byte[GroupMasterKey.SIZE];
+    new SecureRandom().nextBytes(masterKeyBytes);
+    return new GroupMasterKey(masterKeyBytes);
+  }
+
+  private static SignalServiceDataMessage groupMessage(GroupMasterKey masterKey) {
+    return SignalServiceDataMessage.newBuilder().withTimestamp(1).withBody("hi").asGroupMessage(SignalServiceGroupV2.newBuilder(masterKey).withRevision(1).build()).build();
+  }
+
+  private static SignalServiceEnvelope receipt() {
+    SignalServiceAddress sender = new SignalServiceAddress(ACI.from(UUID.randomUUID()), "+12024561111");
+    long now = System.currentTimeMillis();
+    return new SignalServiceEnvelope(TYPE_RECEIPT, Optional.of(sender), 1, now, new byte[0], now, now, UUID.randomUUID().toString(), UUID.randomUUID().toString(), false, null,
+                                     false);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.clientprotocol.v1;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.finn.signald.clientprotocol.Request;
+import io.finn.signald.util.JSONUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketImpl;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class BatchRequestTest {
+  private final ObjectMapper mapper = JSONUtil.GetMapper();
+
+  @ParameterizedTest
+  @ValueSource(strings = {"sequential", "parallel"})
+  @DisplayName("each request in a batch gets its own result, in the order the requests were sent")
+  void results(String ordering) throws IOException {
+    ObjectNode batch = mapper.createObjectNode().put("type", "batch").put("version", "v1").put("id", "batch").put("ordering", ordering);
+    ArrayNode requests = batch.putArray("requests");
+    for (int i = 0; i < 4; i++) {
+      requests.addObject().put("type", "version").put("version", "v1").put("id", String.valueOf(i)).put("account", "+1202555000" + (i % 2));
+    }
+    requests.addObject().put("type", "not_a_request").put("version", "v1").put("id", "unknown");
+    requests.addObject().put("type", "batch").put("version", "v1").put("id", "nested");
+
+    JsonNode reply = send(batch);
+    assertEquals("batch", reply.get("id").asText());
+    JsonNode results = reply.get("data").get("results");
+    assertEquals(6, results.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(String.valueOf(i), results.get(i).get("id").asText());
+      assertEquals("version", results.get(i).get("type").asText());
+      assertTrue(results.get(i).has("data"));
+      assertFalse(results.get(i).has("error"));
+    }
+    assertEquals("RequestValidationFailure", results.get(4).get("error_type").asText());
+    assertEquals("RequestValidationFailure", results.get(5).get("error_type").asText());
+  }
+
+  private JsonNode send(JsonNode request) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Socket socket = new Socket((SocketImpl)null) {
+      @Override
+      public OutputStream getOutputStream() {
+        return out;
+      }
+    };
+    new Request(request, socket);
+    return mapper.readTree(out.toByteArray());
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db.postgresql;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.finn.signald.db.Database;
+import io.finn.signald.db.TestUtil;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+// checks that the queries run for every incoming message are answered from an index. The test tables are nearly empty,
+// where postgres prefers sequential scans anyway, so they are disabled for the session: if a plan still contains one,
+// there is no index the query can use.
+@EnabledIfEnvironmentVariable(named = "SIGNALD_POSTGRES_TEST_DATABASE", matches = ".*")
+public class QueryPlanTest {
+  private static final UUID RECIPIENT_UUID = UUID.fromString("00000000-0000-4000-0000-000000000001");
+  private static final UUID DISTRIBUTION_ID = UUID.fromString("00000000-0000-4000-0000-000000000002");
+
+  private TestUtil.TestPostgresDatabase testDatabase;
+
+  @BeforeEach
+  void setUp() throws IOException, SQLException {
+    testDatabase = TestUtil.createAndConfigureTestPostgresDatabase();
+    try (var statement = Database.getConn().createStatement()) {
+      statement.execute("SET enable_seqscan = off");
+    }
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    Database.close();
+    TestUtil.cleanupTestPostgresDatabase(testDatabase);
+  }
+
+  @Test
+  @DisplayName("next envelope is read from the message_queue index")
+  void nextEnvelope() throws SQLException {
+    assertIndexed(MessageQueueTable.NEXT_ENVELOPE_QUERY, testDatabase.getAci().uuid());
+  }
+
+  @Test
+  @DisplayName("envelopes are deleted by primary key")
+  void deleteEnvelope() throws SQLException {
+    assertIndexed(MessageQueueTable.DELETE_ENVELOPE_QUERY, 1);
+  }
+
+  @Test
+  @DisplayName("recipient lookups by uuid and e164 use the recipients indexes")
+  void getRecipient() throws SQLException {
+    assertIndexed(RecipientsTable.GET_QUERY, testDatabase.getAci().uuid(), RECIPIENT_UUID, testDatabase.getAci().uuid(), "+12024561414");
+  }
+
+  @Test
+  @DisplayName("identity key trust checks use the identity_keys index")
+  void isTrustedIdentity() throws SQLException {
+    assertIndexed(IdentityKeysTable.IS_TRUSTED_IDENTITY_QUERY, testDatabase.getAci().uuid(), 1);
+  }
+
+  @Test
+  @DisplayName("the newest identity key is read from the identity_keys index")
+  void getIdentity() throws SQLException {
+    assertIndexed(IdentityKeysTable.GET_IDENTITY_QUERY, testDatabase.getAci().uuid(), 1);
+  }
+
+  @Test
+  @DisplayName("identity keys for a recipient are joined to recipients by primary key")
+  void getIdentities() throws SQLException {
+    assertIndexed(IdentityKeysTable.GET_IDENTITIES_QUERY, testDatabase.getAci().uuid(), 1);
+  }
+
+  @Test
+  @DisplayName("sessions are loaded and stored through the sessions primary key")
+  void sessions() throws SQLException {
+    UUID account = testDatabase.getAci().uuid();
+    assertIndexed(SessionsTable.LOAD_QUERY, account, 1, 1);
+    assertIndexed(SessionsTable.GET_SUB_DEVICE_SESSION_QUERY, account, 1);
+    assertIndexed(SessionsTable.STORE_QUERY, account, 1, 1, new byte[0]);
+  }
+
+  @Test
+  @DisplayName("pre-keys and signed pre-keys are loaded and stored by primary key")
+  void preKeys() throws SQLException {
+    UUID account = testDatabase.getAci().uuid();
+    assertIndexed(PreKeysTable.LOAD_PRE_KEY_QUERY, account, 1);
+    assertIndexed(PreKeysTable.STORE_PRE_KEY_QUERY, account, 1, new byte[0]);
+    assertIndexed(SignedPreKeysTable.LOAD_SIGNED_PREKEY_QUERY, account, 1);
+  }
+
+  @Test
+  @DisplayName("sender keys are loaded and stored through the sender_keys primary key")
+  void senderKeys() throws SQLException {
+    UUID account = testDatabase.getAci().uuid();
+    assertIndexed(SenderKeysTable.LOAD_QUERY, account, RECIPIENT_UUID.toString(), 1, DISTRIBUTION_ID);
+    assertIndexed(SenderKeysTable.STORE_QUERY, account, RECIPIENT_UUID.toString(), 1, DISTRIBUTION_ID, new byte[0], new Timestamp(0));
+  }
+
+  @Test
+  @DisplayName("sender key sharing is read, marked and cleared through the sender_key_shared primary key")
+  void senderKeyShared() throws SQLException {
+    UUID account = testDatabase.getAci().uuid();
+    assertIndexed(SenderKeySharedTable.GET_SENDER_KEY_SHARED_WITH_QUERY, account, DISTRIBUTION_ID);
+    assertIndexed(SenderKeySharedTable.MARK_SENDER_KEY_SHARED_WITH_QUERY, account, RECIPIENT_UUID.toString(), 1, DISTRIBUTION_ID);
+    assertIndexed(SenderKeySharedTable.CLEAR_SENDER_KEY_SHARED_WITH_QUERY, account, RECIPIENT_UUID.toString(), 1, DISTRIBUTION_ID);
+  }
+
+  private static void assertIndexed(String query, Object... params) throws SQLException {
+    List<String> plan = new ArrayList<>();
+    try (var statement = Database.getConn().prepareStatement("EXPLAIN " + query)) {
+      for (int i = 0; i < params.length; i++) {
+        statement.setObject(i + 1, params[i]);
+      }
+      try (var rows = statement.executeQuery()) {
+        while (rows.next()) {
+          plan.add(rows.getString(1));
+        }
+      }
+    }
+
+    assertFalse(plan.isEmpty(), "no query plan returned for " + query);
+    for (String step : plan) {
+      assertFalse(step.contains("Seq Scan"), "sequential scan in query plan " + String.join("\n", plan) + "\nfor " + query);
+    }
+  }
+}
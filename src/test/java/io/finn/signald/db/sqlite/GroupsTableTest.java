@@ -0,0 +1,130 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db.sqlite;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.finn.signald.db.Database;
+import io.finn.signald.db.GroupCache;
+import io.finn.signald.db.IGroupsTable;
+import io.finn.signald.db.Recipient;
+import io.finn.signald.db.TestUtil;
+import io.finn.signald.db.Transaction;
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.signal.libsignal.zkgroup.InvalidInputException;
+import org.signal.libsignal.zkgroup.groups.GroupIdentifier;
+import org.signal.libsignal.zkgroup.groups.GroupMasterKey;
+import org.signal.libsignal.zkgroup.groups.GroupSecretParams;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedMember;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.util.UuidUtil;
+
+public class GroupsTableTest {
+  private static final ACI ACI_SELF = ACI.from(UUID.fromString("00000000-0000-4000-0000-000000000000"));
+
+  private IGroupsTable groupsTable;
+  private File databaseFile;
+  private GroupMasterKey masterKey;
+  private GroupIdentifier groupId;
+
+  @BeforeEach
+  void setUp() throws IOException, InvalidInputException {
+    databaseFile = TestUtil.createAndConfigureTestSQLiteDatabase();
+    groupsTable = Database.Get(ACI_SELF).GroupsTable;
+
+    byte[] masterKeyBytes = new byte[GroupMasterKey.SIZE];
+    new SecureRandom().nextBytes(masterKeyBytes);
+    masterKey = new GroupMasterKey(masterKeyBytes);
+    groupId = GroupSecretParams.deriveFromMasterKey(masterKey).getPublicParams().getGroupIdentifier();
+  }
+
+  @AfterEach
+  void tearDown() {
+    Database.close();
+    if (!databaseFile.delete()) {
+      System.err.println("Test database file couldn't be deleted: " + databaseFile.getAbsolutePath());
+    }
+  }
+
+  @Test
+  @DisplayName("repeated lookups of the same revision share the decoded group")
+  void get_cached() throws SQLException, InvalidInputException, InvalidProtocolBufferException {
+    groupsTable.upsert(masterKey, DecryptedGroup.newBuilder().setTitle("test group").setRevision(1).build());
+
+    var first = groupsTable.get(groupId).orElseThrow();
+    var second = groupsTable.get(groupId).orElseThrow();
+    assertSame(first.getDecryptedGroup(), second.getDecryptedGroup());
+    assertSame(first.getSecretParams(), second.getSecretParams());
+    assertEquals(groupId, second.getId());
+  }
+
+  @Test
+  @DisplayName("setDecryptedGroup replaces the cached revision")
+  void setDecryptedGroup() throws SQLException, InvalidInputException, InvalidProtocolBufferException {
+    groupsTable.upsert(masterKey, DecryptedGroup.newBuilder().setTitle("test group").setRevision(1).build());
+    groupsTable.get(groupId).orElseThrow().setDecryptedGroup(DecryptedGroup.newBuilder().setTitle("renamed group").setRevision(2).build());
+
+    var group = groupsTable.get(groupId).orElseThrow();
+    assertEquals(2, group.getRevision());
+    assertEquals("renamed group", group.getDecryptedGroup().getTitle());
+  }
+
+  @Test
+  @DisplayName("upsert replaces the cached revision")
+  void upsert() throws SQLException, InvalidInputException, InvalidProtocolBufferException {
+    groupsTable.upsert(masterKey, DecryptedGroup.newBuilder().setTitle("test group").setRevision(1).build());
+    groupsTable.get(groupId).orElseThrow();
+    groupsTable.upsert(masterKey, DecryptedGroup.newBuilder().setTitle("renamed group").setRevision(2).build());
+
+    var group = groupsTable.get(groupId).orElseThrow();
+    assertEquals(2, group.getRevision());
+    assertEquals("renamed group", group.getDecryptedGroup().getTitle());
+  }
+
+  @Test
+  @DisplayName("deleted groups are not served from the cache")
+  void delete() throws SQLException, InvalidInputException, InvalidProtocolBufferException {
+    groupsTable.upsert(masterKey, DecryptedGroup.newBuilder().setTitle("test group").setRevision(1).build());
+    groupsTable.get(groupId).orElseThrow().delete();
+
+    assertTrue(groupsTable.get(groupId).isEmpty());
+  }
+
+  @Test
+  @DisplayName("a recipient change drops the cached member lists of only the groups it is in, once committed")
+  void recipientChange() throws SQLException, IOException, InvalidInputException, InvalidProtocolBufferException {
+    ACI member = ACI.from(UUID.randomUUID());
+    DecryptedMember decryptedMember = DecryptedMember.newBuilder().setUuid(UuidUtil.toByteString(member.uuid())).build();
+    groupsTable.upsert(masterKey, DecryptedGroup.newBuilder().setTitle("test group").setRevision(1).addMembers(decryptedMember).build());
+    groupsTable.get(groupId).orElseThrow();
+    GroupCache cache = groupsTable.getCache();
+    List<Recipient> members = cache.get(groupId.serialize(), 1).getMembers();
+
+    var recipientsTable = Database.Get(ACI_SELF).RecipientsTable;
+    recipientsTable.setRegistrationStatus(recipientsTable.get(ACI.from(UUID.randomUUID())), false);
+    assertSame(members, cache.get(groupId.serialize(), 1).getMembers());
+
+    try (Transaction tx = Database.beginTransaction()) {
+      recipientsTable.setRegistrationStatus(recipientsTable.get(member), false);
+      assertSame(members, cache.get(groupId.serialize(), 1).getMembers());
+      tx.commit();
+    }
+    assertNotSame(members, cache.get(groupId.serialize(), 1).getMembers());
+  }
+}
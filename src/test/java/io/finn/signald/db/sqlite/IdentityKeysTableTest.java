@@ -0,0 +1,87 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db.sqlite;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.finn.signald.db.Database;
+import io.finn.signald.db.Recipient;
+import io.finn.signald.db.TestUtil;
+import io.finn.signald.db.Transaction;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.UUID;
+import org.asamk.signal.TrustLevel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.signal.libsignal.protocol.IdentityKey;
+import org.signal.libsignal.protocol.IdentityKeyPair;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+import org.signal.libsignal.protocol.state.IdentityKeyStore;
+import org.whispersystems.signalservice.api.push.ACI;
+
+public class IdentityKeysTableTest {
+  private static final ACI ACI_SELF = ACI.from(UUID.fromString("00000000-0000-4000-0000-000000000000"));
+  private static final SignalProtocolAddress ADDRESS = new SignalProtocolAddress("00000000-0000-4000-0000-000000000001", 1);
+
+  private Database db;
+  private File databaseFile;
+  private Recipient recipient;
+  private IdentityKey identityKey;
+
+  @BeforeEach
+  void setUp() throws IOException, SQLException {
+    databaseFile = TestUtil.createAndConfigureTestSQLiteDatabase();
+    db = Database.Get(ACI_SELF);
+    recipient = db.RecipientsTable.get(ADDRESS.getName());
+    identityKey = IdentityKeyPair.generate().getPublicKey();
+  }
+
+  @AfterEach
+  void tearDown() {
+    Database.close();
+    if (!databaseFile.delete()) {
+      System.err.println("Test database file couldn't be deleted: " + databaseFile.getAbsolutePath());
+    }
+  }
+
+  @Test
+  @DisplayName("trust decisions follow saveIdentity once the recipient's keys are cached")
+  void saveIdentity() {
+    db.IdentityKeysTable.saveIdentity(recipient, identityKey, TrustLevel.UNTRUSTED);
+    assertFalse(db.IdentityKeysTable.isTrustedIdentity(ADDRESS, identityKey, IdentityKeyStore.Direction.SENDING));
+    assertNotNull(db.IdentityKeysTable.getCache().getKnownKeys(recipient.getId()));
+
+    db.IdentityKeysTable.saveIdentity(recipient, identityKey, TrustLevel.TRUSTED_VERIFIED);
+    assertTrue(db.IdentityKeysTable.isTrustedIdentity(ADDRESS, identityKey, IdentityKeyStore.Direction.SENDING));
+  }
+
+  @Test
+  @DisplayName("trustAllKeys invalidates the cached trust levels")
+  void trustAllKeys() throws SQLException {
+    db.IdentityKeysTable.saveIdentity(recipient, identityKey, TrustLevel.UNTRUSTED);
+    assertFalse(db.IdentityKeysTable.isTrustedIdentity(ADDRESS, identityKey, IdentityKeyStore.Direction.SENDING));
+
+    db.IdentityKeysTable.trustAllKeys();
+    assertTrue(db.IdentityKeysTable.isTrustedIdentity(ADDRESS, identityKey, IdentityKeyStore.Direction.SENDING));
+  }
+
+  @Test
+  @DisplayName("keys read while a save is still in an open transaction aren't kept after it rolls back")
+  void rollback() throws SQLException {
+    db.IdentityKeysTable.saveIdentity(recipient, identityKey, TrustLevel.UNTRUSTED);
+    try (Transaction ignored = Database.beginTransaction()) {
+      db.IdentityKeysTable.saveIdentity(recipient, identityKey, TrustLevel.TRUSTED_VERIFIED);
+      assertTrue(db.IdentityKeysTable.isTrustedIdentity(ADDRESS, identityKey, IdentityKeyStore.Direction.SENDING));
+    }
+    assertFalse(db.IdentityKeysTable.isTrustedIdentity(ADDRESS, identityKey, IdentityKeyStore.Direction.SENDING));
+  }
+}
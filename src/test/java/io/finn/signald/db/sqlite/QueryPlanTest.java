@@ -0,0 +1,171 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db.sqlite;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.finn.signald.db.Database;
+import io.finn.signald.db.TestUtil;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+// checks that the queries run for every incoming message are answered from an index. A full table scan here is cheap
+// in a fresh test database but grows with every message, recipient and identity key an account accumulates.
+class QueryPlanTest {
+  private static final String ACCOUNT = "00000000-0000-4000-0000-000000000000";
+  private static final String RECIPIENT_UUID = "00000000-0000-4000-0000-000000000001";
+  private static final String DISTRIBUTION_ID = "00000000-0000-4000-0000-000000000002";
+
+  private File databaseFile;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    databaseFile = TestUtil.createAndConfigureTestSQLiteDatabase();
+  }
+
+  @AfterEach
+  void tearDown() {
+    Database.close();
+    if (!databaseFile.delete()) {
+      System.err.println("Test database file couldn't be deleted: " + databaseFile.getAbsolutePath());
+    }
+  }
+
+  @Test
+  @DisplayName("next envelope is read from the message_queue index")
+  void nextEnvelope() throws SQLException {
+    assertIndexed(MessageQueueTable.NEXT_ENVELOPE_QUERY, ACCOUNT);
+  }
+
+  @Test
+  @DisplayName("envelopes are deleted by primary key")
+  void deleteEnvelope() throws SQLException {
+    assertIndexed(MessageQueueTable.DELETE_ENVELOPE_QUERY, 1);
+  }
+
+  @Test
+  @DisplayName("recipient lookups by uuid and e164 use the recipients indexes")
+  void getRecipient() throws SQLException {
+    assertIndexed(RecipientsTable.GET_QUERY, ACCOUNT, RECIPIENT_UUID, ACCOUNT, "+12024561414");
+  }
+
+  @Test
+  @DisplayName("identity key trust checks use the identity_keys index")
+  void isTrustedIdentity() throws SQLException {
+    assertIndexed(IdentityKeysTable.IS_TRUSTED_IDENTITY_QUERY, ACCOUNT, 1);
+  }
+
+  @Test
+  @DisplayName("the newest identity key is read from the identity_keys index without sorting")
+  void getIdentity() throws SQLException {
+    assertIndexed(IdentityKeysTable.GET_IDENTITY_QUERY, ACCOUNT, 1);
+  }
+
+  @Test
+  @DisplayName("identity keys for a recipient are joined to recipients by primary key")
+  void getIdentities() throws SQLException {
+    assertIndexed(IdentityKeysTable.GET_IDENTITIES_QUERY, ACCOUNT, 1);
+  }
+
+  @Test
+  @DisplayName("sessions are loaded from the sessions index")
+  void loadSession() throws SQLException {
+    assertIndexed(SessionsTable.LOAD_QUERY, ACCOUNT, 1, 1);
+  }
+
+  @Test
+  @DisplayName("sub-device sessions are listed from the sessions index")
+  void getSubDeviceSessions() throws SQLException {
+    assertIndexed(SessionsTable.GET_SUB_DEVICE_SESSION_QUERY, ACCOUNT, 1);
+  }
+
+  @Test
+  @DisplayName("pre-keys and signed pre-keys are loaded by primary key")
+  void loadPreKeys() throws SQLException {
+    assertIndexed(PreKeysTable.LOAD_PRE_KEY_QUERY, ACCOUNT, 1);
+    assertIndexed(SignedPreKeysTable.LOAD_SIGNED_PREKEY_QUERY, ACCOUNT, 1);
+  }
+
+  @Test
+  @DisplayName("sender keys are loaded from the sender_keys index")
+  void loadSenderKey() throws SQLException {
+    assertIndexed(SenderKeysTable.LOAD_QUERY, ACCOUNT, RECIPIENT_UUID, 1, DISTRIBUTION_ID);
+  }
+
+  @Test
+  @DisplayName("sender key sharing is read and cleared through the sender_key_shared index")
+  void senderKeyShared() throws SQLException {
+    assertIndexed(SenderKeySharedTable.GET_SENDER_KEY_SHARED_WITH_QUERY, ACCOUNT, DISTRIBUTION_ID);
+    assertIndexed(SenderKeySharedTable.CLEAR_SENDER_KEY_SHARED_WITH_QUERY, ACCOUNT, RECIPIENT_UUID, 1, DISTRIBUTION_ID);
+  }
+
+  // sqlite has no plan for INSERT OR REPLACE, the conflicting row is found through a unique index on the replaced key
+  @Test
+  @DisplayName("session, pre-key and sender key stores replace through a unique index")
+  void storesReplaceByUniqueIndex() throws SQLException {
+    assertUniqueIndex("sessions", "account_uuid", "recipient", "device_id");
+    assertUniqueIndex("prekeys", "account_uuid", "id");
+    assertUniqueIndex("signed_prekeys", "account_uuid", "id");
+    assertUniqueIndex("sender_keys", "account_uuid", "address", "device", "distribution_id");
+    assertUniqueIndex("sender_key_shared", "account_uuid", "distribution_id", "address", "device");
+  }
+
+  private static void assertIndexed(String query, Object... params) throws SQLException {
+    List<String> plan = new ArrayList<>();
+    try (var statement = Database.getConn().prepareStatement("EXPLAIN QUERY PLAN " + query)) {
+      for (int i = 0; i < params.length; i++) {
+        statement.setObject(i + 1, params[i]);
+      }
+      try (var rows = statement.executeQuery()) {
+        while (rows.next()) {
+          plan.add(rows.getString("detail"));
+        }
+      }
+    }
+
+    assertFalse(plan.isEmpty(), "no query plan returned for " + query);
+    for (String step : plan) {
+      assertFalse(step.startsWith("SCAN ") && !step.startsWith("SCAN CONSTANT ROW"), "full table scan in query plan " + plan + " for " + query);
+      assertFalse(step.startsWith("USE TEMP B-TREE FOR ORDER BY"), "unindexed sort in query plan " + plan + " for " + query);
+    }
+  }
+
+  private static void assertUniqueIndex(String table, String... columns) throws SQLException {
+    Set<String> expected = Set.of(columns);
+    List<String> indexes = new ArrayList<>();
+    try (var statement = Database.getConn().createStatement(); var rows = statement.executeQuery("PRAGMA index_list(" + table + ")")) {
+      while (rows.next()) {
+        if (rows.getBoolean("unique")) {
+          indexes.add(rows.getString("name"));
+        }
+      }
+    }
+
+    for (String index : indexes) {
+      Set<String> indexed = new HashSet<>();
+      try (var statement = Database.getConn().createStatement(); var rows = statement.executeQuery("PRAGMA index_info(" + index + ")")) {
+        while (rows.next()) {
+          indexed.add(rows.getString("name"));
+        }
+      }
+      if (indexed.equals(expected)) {
+        return;
+      }
+    }
+    fail("no unique index on " + table + " " + expected);
+  }
+}
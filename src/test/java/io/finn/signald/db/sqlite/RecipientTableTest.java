@@ -16,6 +16,7 @@ import io.finn.signald.db.TestUtil;
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.UUID;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -86,4 +87,15 @@ public class RecipientTableTest {
 
     assertFalse(recipientsTable.get(ADDRESS_A.getServiceId()).isRegistered());
   }
+
+  @Test
+  @DisplayName("resolve known and unknown recipients in bulk")
+  void getOrCreateAll() throws SQLException, IOException {
+    List<Recipient> recipients = recipientsTable.getOrCreateAll(List.of(ADDRESS_B.getServiceId(), ADDRESS_A.getServiceId(), ADDRESS_B.getServiceId()));
+    assertEquals(3, recipients.size());
+    assertEquals(ADDRESS_B.getServiceId(), recipients.get(0).getServiceId());
+    assertEquals(recipientsTable.get(ADDRESS_A.getServiceId()).getId(), recipients.get(1).getId());
+    assertEquals(recipients.get(0).getId(), recipients.get(2).getId());
+    assertEquals(recipientsTable.get(ADDRESS_B.getServiceId()).getId(), recipients.get(0).getId());
+  }
 }
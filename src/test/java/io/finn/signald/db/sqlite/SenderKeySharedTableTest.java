@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db.sqlite;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.finn.signald.db.Database;
+import io.finn.signald.db.TestUtil;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.push.DistributionId;
+
+public class SenderKeySharedTableTest {
+  private static final ACI ACI_SELF = ACI.from(UUID.fromString("00000000-0000-4000-0000-000000000000"));
+  private static final int DEVICES = 1000;
+  private static final int DEVICES_PER_RECIPIENT = 4;
+
+  private Database db;
+  private File databaseFile;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    databaseFile = TestUtil.createAndConfigureTestSQLiteDatabase();
+    db = Database.Get(ACI_SELF);
+  }
+
+  @AfterEach
+  void tearDown() {
+    Database.close();
+    if (!databaseFile.delete()) {
+      System.err.println("Test database file couldn't be deleted: " + databaseFile.getAbsolutePath());
+    }
+  }
+
+  private static List<SignalProtocolAddress> devices(int count) {
+    List<SignalProtocolAddress> addresses = new ArrayList<>(count);
+    String recipient = null;
+    for (int i = 0; i < count; i++) {
+      if (i % DEVICES_PER_RECIPIENT == 0) {
+        recipient = UUID.randomUUID().toString();
+      }
+      addresses.add(new SignalProtocolAddress(recipient, i % DEVICES_PER_RECIPIENT + 1));
+    }
+    return addresses;
+  }
+
+  @Test
+  @DisplayName("marks and clears a sender key distribution to 1,000 devices")
+  void markAndClear() {
+    DistributionId distributionId = DistributionId.create();
+    DistributionId otherDistributionId = DistributionId.create();
+    List<SignalProtocolAddress> addresses = devices(DEVICES);
+
+    db.SenderKeySharedTable.markSenderKeySharedWith(distributionId, addresses);
+    db.SenderKeySharedTable.markSenderKeySharedWith(otherDistributionId, addresses);
+    assertEquals(DEVICES, db.SenderKeySharedTable.getSenderKeySharedWith(distributionId).size());
+
+    db.SenderKeySharedTable.clearSenderKeySharedWith(distributionId, addresses.subList(0, DEVICES / 2));
+    assertEquals(DEVICES / 2, db.SenderKeySharedTable.getSenderKeySharedWith(distributionId).size());
+    assertEquals(DEVICES, db.SenderKeySharedTable.getSenderKeySharedWith(otherDistributionId).size());
+
+    db.SenderKeySharedTable.clearSenderKeySharedWith(addresses);
+    assertTrue(db.SenderKeySharedTable.getSenderKeySharedWith(distributionId).isEmpty());
+    assertTrue(db.SenderKeySharedTable.getSenderKeySharedWith(otherDistributionId).isEmpty());
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db.sqlite;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.finn.signald.db.Database;
+import io.finn.signald.db.TestUtil;
+import io.finn.signald.db.Transaction;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+import org.signal.libsignal.protocol.groups.GroupSessionBuilder;
+import org.signal.libsignal.protocol.groups.state.SenderKeyRecord;
+import org.whispersystems.signalservice.api.push.ACI;
+import org.whispersystems.signalservice.api.push.DistributionId;
+
+public class SenderKeysTableTest {
+  private static final ACI ACI_SELF = ACI.from(UUID.fromString("00000000-0000-4000-0000-000000000000"));
+  private static final SignalProtocolAddress ADDRESS = new SignalProtocolAddress(ACI_SELF.toString(), 1);
+
+  private Database db;
+  private File databaseFile;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    databaseFile = TestUtil.createAndConfigureTestSQLiteDatabase();
+    db = Database.Get(ACI_SELF);
+  }
+
+  @AfterEach
+  void tearDown() {
+    Database.close();
+    if (!databaseFile.delete()) {
+      System.err.println("Test database file couldn't be deleted: " + databaseFile.getAbsolutePath());
+    }
+  }
+
+  @Test
+  @DisplayName("stored sender keys are loaded from the cache until they are deleted")
+  void storeAndDelete() throws SQLException {
+    DistributionId distributionId = DistributionId.from(UUID.randomUUID());
+    assertNull(db.SenderKeysTable.loadSenderKey(ADDRESS, distributionId.asUuid()));
+    assertEquals(-1, db.SenderKeysTable.getCreatedTime(ADDRESS, distributionId.asUuid()));
+
+    new GroupSessionBuilder(db.SenderKeysTable).create(ADDRESS, distributionId.asUuid());
+    SenderKeyRecord record = db.SenderKeysTable.loadSenderKey(ADDRESS, distributionId.asUuid());
+    assertNotNull(record);
+    assertSame(record, db.SenderKeysTable.loadSenderKey(ADDRESS, distributionId.asUuid()));
+    assertTrue(db.SenderKeysTable.getCreatedTime(ADDRESS, distributionId.asUuid()) > 0);
+
+    db.SenderKeysTable.deleteAllFor(ADDRESS.getName(), distributionId);
+    assertNull(db.SenderKeysTable.loadSenderKey(ADDRESS, distributionId.asUuid()));
+    assertEquals(-1, db.SenderKeysTable.getCreatedTime(ADDRESS, distributionId.asUuid()));
+  }
+
+  @Test
+  @DisplayName("sender keys stored in a transaction that rolls back aren't kept in the cache")
+  void rollback() throws SQLException {
+    DistributionId distributionId = DistributionId.from(UUID.randomUUID());
+    try (Transaction ignored = Database.beginTransaction()) {
+      new GroupSessionBuilder(db.SenderKeysTable).create(ADDRESS, distributionId.asUuid());
+      assertNotNull(db.SenderKeysTable.loadSenderKey(ADDRESS, distributionId.asUuid()));
+    }
+    assertNull(db.SenderKeysTable.loadSenderKey(ADDRESS, distributionId.asUuid()));
+  }
+}
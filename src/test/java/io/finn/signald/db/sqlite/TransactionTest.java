@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 signald contributors
+ * SPDX-License-Identifier: GPL-3.0-only
+ * See included LICENSE file
+ *
+ */
+
+package io.finn.signald.db.sqlite;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.finn.signald.db.Database;
+import io.finn.signald.db.TestUtil;
+import io.finn.signald.db.Transaction;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.signal.libsignal.protocol.ecc.Curve;
+import org.signal.libsignal.protocol.state.PreKeyRecord;
+import org.whispersystems.signalservice.api.push.ACI;
+
+public class TransactionTest {
+  private static final ACI ACI_SELF = ACI.from(UUID.fromString("00000000-0000-4000-0000-000000000000"));
+
+  private Database db;
+  private File databaseFile;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    databaseFile = TestUtil.createAndConfigureTestSQLiteDatabase();
+    db = Database.Get(ACI_SELF);
+  }
+
+  @AfterEach
+  void tearDown() {
+    Database.close();
+    if (!databaseFile.delete()) {
+      System.err.println("Test database file couldn't be deleted: " + databaseFile.getAbsolutePath());
+    }
+  }
+
+  @Test
+  @DisplayName("writes are kept when the transaction commits")
+  void commit() throws SQLException {
+    db.inTransaction(tx -> {
+      tx.PreKeysTable.storePreKey(1, new PreKeyRecord(1, Curve.generateKeyPair()));
+      return null;
+    });
+    assertTrue(db.PreKeysTable.containsPreKey(1));
+  }
+
+  @Test
+  @DisplayName("writes are discarded when the transaction body throws")
+  void rollback() {
+    assertThrows(SQLException.class, () -> db.inTransaction(tx -> {
+      tx.PreKeysTable.storePreKey(1, new PreKeyRecord(1, Curve.generateKeyPair()));
+      throw new SQLException("test failure");
+    }));
+    assertFalse(db.PreKeysTable.containsPreKey(1));
+  }
+
+  @Test
+  @DisplayName("a failed nested transaction only undoes its own writes")
+  void nested() throws SQLException {
+    try (Transaction tx = Database.beginTransaction()) {
+      db.PreKeysTable.storePreKey(1, new PreKeyRecord(1, Curve.generateKeyPair()));
+      assertThrows(SQLException.class, () -> db.inTransaction(inner -> {
+        inner.PreKeysTable.storePreKey(2, new PreKeyRecord(2, Curve.generateKeyPair()));
+        throw new SQLException("test failure");
+      }));
+      tx.commit();
+    }
+    assertTrue(db.PreKeysTable.containsPreKey(1));
+    assertFalse(db.PreKeysTable.containsPreKey(2));
+  }
+
+  @Test
+  @DisplayName("a transaction on another thread waits for the open one instead of failing with SQLITE_BUSY")
+  void concurrent() throws Exception {
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread other;
+    try (Transaction tx = Database.beginTransaction()) {
+      db.PreKeysTable.storePreKey(1, new PreKeyRecord(1, Curve.generateKeyPair()));
+      other = new Thread(() -> {
+        try {
+          db.inTransaction(inner -> {
+            inner.PreKeysTable.storePreKey(2, new PreKeyRecord(2, Curve.generateKeyPair()));
+            return null;
+          });
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      });
+      other.start();
+      while (other.getState() != Thread.State.TIMED_WAITING && other.isAlive()) {
+        Thread.sleep(1);
+      }
+      assertFalse(db.PreKeysTable.containsPreKey(2));
+      tx.commit();
+    }
+    other.join();
+    assertNull(failure.get());
+    assertTrue(db.PreKeysTable.containsPreKey(1));
+    assertTrue(db.PreKeysTable.containsPreKey(2));
+  }
+}